@@ -0,0 +1,10 @@
+#! /bin/bash
+DBNAME=$USER"_DB"
+PORT=$PGPORT
+USER=$USER
+
+# Reports repairs by code per plane, technician, pilot, month and plane age,
+# counted in one pass over Repairs on every core
+# Example: ./analytics.sh
+#          ./analytics.sh --threads 4
+java -cp lib/*:bin/ DBproject $DBNAME $PORT $USER analytics "$@"
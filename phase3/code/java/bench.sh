@@ -0,0 +1,23 @@
+#! /bin/bash
+DBNAME=$USER"_DB"
+PORT=$PGPORT
+USER=$USER
+
+# Benchmarks the client at every scale factor given, reloading the data first.
+# The first run at a scale factor saves ../bench/baseline-sf<N>.properties,
+# later runs are compared with it and exit non-zero on a regression.
+# Set SCHEMA to keep separate baselines per schema, e.g. after creating the
+# tables with sql/create-partitioned.sql and ./partitions.sh create; compare
+# the two with java Bench ... --baseline ../bench/baseline-sf<N>.properties
+# Example: ./bench.sh 1 10 100
+#          SCHEMA=partitioned ./bench.sh 100
+mkdir -p ../bench
+for SF in ${@:-1}; do
+	./load.sh ../data
+	BASELINE=../bench/baseline${SCHEMA:+-$SCHEMA}-sf$SF.properties
+	if [[ -f $BASELINE ]]; then
+		java -cp lib/*:bin/ Bench $DBNAME $PORT $USER --scale $SF --baseline $BASELINE || exit 1
+	else
+		java -cp lib/*:bin/ Bench $DBNAME $PORT $USER --scale $SF --save $BASELINE
+	fi
+done
@@ -0,0 +1,10 @@
+#! /bin/bash
+DBNAME=$USER"_DB"
+PORT=$PGPORT
+USER=$USER
+
+# Lists the planes and pilots assigned to overlapping flights, or to flights
+# less than the given turnaround apart
+# Example: ./conflicts.sh
+#          ./conflicts.sh --turnaround 1
+java -cp lib/*:bin/ DBproject $DBNAME $PORT $USER conflicts "$@"
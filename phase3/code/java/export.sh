@@ -0,0 +1,8 @@
+#! /bin/bash
+DBNAME=$USER"_DB"
+PORT=$PGPORT
+USER=$USER
+
+# Streams a table or query out as csv (default), jsonl or an aligned table
+# Example: ./export.sh --format jsonl Reservation reservations.jsonl
+java -cp lib/*:bin/ DBproject $DBNAME $PORT $USER export "$@"
@@ -0,0 +1,11 @@
+#! /bin/bash
+DBNAME=$USER"_DB"
+PORT=$PGPORT
+USER=$USER
+
+# Generates synthetic data at a scale factor, options are passed through.
+# Without --out the tables are replaced through COPY, with it chunked CSV
+# files are written that ./load.sh <dir> loads later.
+# Example: ./generate.sh --scale 100 --seed 7
+#          ./generate.sh --scale 1000 --out ../data-sf1000
+java -cp lib/*:bin/ DataGenerator $DBNAME $PORT $USER "$@"
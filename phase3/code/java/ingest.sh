@@ -0,0 +1,11 @@
+#! /bin/bash
+DBNAME=$USER"_DB"
+PORT=$PGPORT
+USER=$USER
+
+# Books random customers on random flights straight into the database, then
+# through a local journal applied in batches, and compares the two
+# Run it against a scratch copy of the database
+# Example: ./ingest.sh
+#          ./ingest.sh --threads 8 --seconds 30 --journal /tmp/bookings.journal
+java -cp lib/*:bin/ DBproject $DBNAME $PORT $USER ingest "$@"
@@ -0,0 +1,9 @@
+#! /bin/bash
+DBNAME=$USER"_DB"
+PORT=$PGPORT
+USER=$USER
+
+# Streams the CSV files into tables created by sql/create.sql or
+# sql/create-partitioned.sql
+# Example: ./load.sh ../data
+java -cp lib/*:bin/ DBproject $DBNAME $PORT $USER load --truncate ${1:-../data}
@@ -0,0 +1,8 @@
+#! /bin/bash
+DBNAME=$USER"_DB"
+PORT=$PGPORT
+USER=$USER
+
+# Runs the booking workload generator, options are passed through
+# Example: ./loadgen.sh --rate 1000 --seconds 60 --virtual
+java -cp lib/*:bin/ LoadGenerator $DBNAME $PORT $USER "$@"
@@ -0,0 +1,10 @@
+#! /bin/bash
+DBNAME=$USER"_DB"
+PORT=$PGPORT
+USER=$USER
+
+# Lists, creates or detaches the monthly partitions of sql/create-partitioned.sql
+# Example: ./partitions.sh create 2010-01 2016-01
+#          ./partitions.sh detach 2013-01 --drop
+#          ./partitions.sh list
+java -cp lib/*:bin/ DBproject $DBNAME $PORT $USER partitions "$@"
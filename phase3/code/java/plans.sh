@@ -0,0 +1,21 @@
+#! /bin/bash
+DBNAME=$USER"_DB"
+PORT=$PGPORT
+USER=$USER
+
+# Explains the client's statements and sql/queries.sql at every scale factor
+# given, reloading the data first. The first run at a scale factor saves
+# ../bench/plans-sf<N>.properties, later runs are compared with it and exit
+# non-zero on a changed plan, a slower statement or a newly unused index.
+# The plans themselves are written to ../bench/plans-sf<N>/ as JSON.
+# Example: ./plans.sh 1 10 100
+mkdir -p ../bench
+for SF in ${@:-1}; do
+	./load.sh ../data
+	BASELINE=../bench/plans-sf$SF.properties
+	if [[ -f $BASELINE ]]; then
+		java -cp lib/*:bin/ PlanCheck $DBNAME $PORT $USER --scale $SF --plans ../bench/plans-sf$SF --baseline $BASELINE || exit 1
+	else
+		java -cp lib/*:bin/ PlanCheck $DBNAME $PORT $USER --scale $SF --plans ../bench/plans-sf$SF --save $BASELINE
+	fi
+done
@@ -3,5 +3,6 @@ DBNAME=$USER"_DB"
 PORT=$PGPORT
 USER=$USER
 
+# Set METRICS_PORT to serve the client metrics at http://localhost:$METRICS_PORT/metrics
 # Example: source ./run.sh flightDB 5432 user
-java -cp lib/*:bin/ DBproject $DBNAME $PORT $USER
+java ${METRICS_PORT:+-Dmetrics.port=$METRICS_PORT} -cp lib/*:bin/ DBproject $DBNAME $PORT $USER
@@ -0,0 +1,11 @@
+#! /bin/bash
+DBNAME=$USER"_DB"
+PORT=$PGPORT
+USER=$USER
+
+# Serves the menu operations as JSON over HTTP, options are passed through
+# Example: ./serve.sh --listen 8080 --pool 8
+#          ./serve.sh --memory ../data   serves the CSV files from memory, no database needed
+#          ./serve.sh --coalesce 5       writes the status changes of a flight together every 5 ms
+# Load test: ./loadgen.sh --http http://localhost:8080 --rate 3000 --virtual
+java -cp lib/*:bin/ BookingServer $DBNAME $PORT $USER "$@"
@@ -0,0 +1,157 @@
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * This class answers whether a plane or pilot is free for a new flight in
+ * O(log n), so AddFlight can refuse a double booking before it commits.
+ * Flights keep their plane and pilot busy the way ConflictDetector counts
+ * it: from the departure day until the arrival day plus the turnaround, not
+ * including that day.
+ *
+ * Every plane and pilot has a TreeMap of busy blocks, each the union of the
+ * flights that overlap one another, so the blocks never overlap and the only
+ * one a new flight can hit is the last one starting before the flight is
+ * free. Same-day flights with no turnaround are busy for no whole day and
+ * are kept apart, by day. Only the blocks are kept, not every flight, so a
+ * refusal names the busy days rather than the flights.
+ *
+ */
+
+public class AssignmentSchedule {
+	/**
+	 * The busy days of one plane or pilot.
+	 */
+	private static final class Timeline {
+		// first busy day -> first free day, the blocks are disjoint
+		final TreeMap<Integer, Integer> blocks = new TreeMap<Integer, Integer>();
+		// day -> a flight on that day, of the same-day flights with no turnaround
+		final TreeMap<Integer, Integer> points = new TreeMap<Integer, Integer>();
+
+		// the {first, first free} busy days in the way, or null
+		int[] conflict(int departure, int free) {
+			// a same-day flight conflicts only with a flight that is busy over its day
+			Integer point = this.points.higherKey(departure);
+			if (point != null && point < free)
+				return new int[] { point, point };
+			Map.Entry<Integer, Integer> block = this.blocks.lowerEntry(free);
+			if (block == null || block.getValue() <= departure)
+				return null;
+			return new int[] { block.getKey(), block.getValue() };
+		}
+
+		void add(int fnum, int departure, int free) {
+			if (departure >= free) {
+				this.points.put(departure, fnum);
+				return;
+			}
+			// swallow the blocks this flight overlaps, blocks that only touch it stay apart
+			int start = departure, end = free;
+			for (Map.Entry<Integer, Integer> block = this.blocks.lowerEntry(free); block != null
+					&& block.getValue() > departure; block = this.blocks.lowerEntry(free)) {
+				start = Math.min(start, block.getKey());
+				end = Math.max(end, block.getValue());
+				this.blocks.remove(block.getKey());
+			}
+			this.blocks.put(start, end);
+		}
+	}
+
+	private final int _turnaround;
+	private final Map<Integer, Timeline> _planes = new HashMap<Integer, Timeline>();
+	private final Map<Integer, Timeline> _pilots = new HashMap<Integer, Timeline>();
+	private final ReentrantReadWriteLock _lock = new ReentrantReadWriteLock();
+
+	/**
+	 * Method to create an empty schedule.
+	 *
+	 * @param turnaroundDays the days a plane or pilot needs between flights
+	 */
+	public AssignmentSchedule(int turnaroundDays) {
+		if (turnaroundDays < 0)
+			throw new IllegalArgumentException("The turnaround cannot be negative");
+		this._turnaround = turnaroundDays;
+	}
+
+	public int getTurnaroundDays() {
+		return this._turnaround;
+	}
+
+	/**
+	 * Method to fill the schedule from the database.
+	 *
+	 * @param esql the database client
+	 * @return the number of assignments loaded
+	 * @throws java.sql.SQLException when the assignments could not be read
+	 */
+	public int load(DBproject esql) throws SQLException {
+		this._lock.writeLock().lock();
+		try {
+			return esql.executeQueryStreaming(ConflictDetector.SELECT_ASSIGNMENTS, DBproject.DEFAULT_FETCH_SIZE,
+					row -> add(row.getInt(1), (int) row.getEpochDay(2), (int) row.getEpochDay(3), row.getInt(4), row.getInt(5)));
+		} finally {
+			this._lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Method to find what keeps a pilot or plane from flying a new flight.
+	 *
+	 * @param departure the departure date
+	 * @param arrival   the arrival date
+	 * @param pilot     the pilot
+	 * @param plane     the plane
+	 * @return a description of the conflicting assignment, or null when both
+	 *         are free
+	 */
+	public String check(LocalDate departure, LocalDate arrival, int pilot, int plane) {
+		int day = (int) departure.toEpochDay();
+		int free = (int) Math.max(day, arrival.toEpochDay()) + this._turnaround;
+		this._lock.readLock().lock();
+		try {
+			String conflict = conflict(this._planes, "Plane", plane, day, free);
+			return conflict != null ? conflict : conflict(this._pilots, "Pilot", pilot, day, free);
+		} finally {
+			this._lock.readLock().unlock();
+		}
+	}
+
+	private String conflict(Map<Integer, Timeline> timelines, String resource, int id, int departure, int free) {
+		Timeline timeline = timelines.get(id);
+		int[] busy = timeline == null ? null : timeline.conflict(departure, free);
+		if (busy == null)
+			return null;
+		if (busy[0] == busy[1])
+			return resource + " " + id + " flies a same-day flight on " + LocalDate.ofEpochDay(busy[0]);
+		return resource + " " + id + " is busy from " + LocalDate.ofEpochDay(busy[0]) + " until "
+				+ LocalDate.ofEpochDay(busy[1]) + (this._turnaround > 0 ? ", with " + this._turnaround
+				+ " day(s) of turnaround" : "");
+	}
+
+	/**
+	 * Method to record a committed assignment.
+	 *
+	 * @param fnum      the flight number
+	 * @param departure the departure date
+	 * @param arrival   the arrival date
+	 * @param pilot     the pilot
+	 * @param plane     the plane
+	 */
+	public void assign(int fnum, LocalDate departure, LocalDate arrival, int pilot, int plane) {
+		this._lock.writeLock().lock();
+		try {
+			add(fnum, (int) departure.toEpochDay(), (int) arrival.toEpochDay(), pilot, plane);
+		} finally {
+			this._lock.writeLock().unlock();
+		}
+	}
+
+	private void add(int fnum, int departure, int arrival, int pilot, int plane) {
+		int free = Math.max(departure, arrival) + this._turnaround;
+		this._planes.computeIfAbsent(plane, id -> new Timeline()).add(fnum, departure, free);
+		this._pilots.computeIfAbsent(pilot, id -> new Timeline()).add(fnum, departure, free);
+	}
+}
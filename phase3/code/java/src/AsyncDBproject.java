@@ -0,0 +1,207 @@
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class runs DBproject calls in the background and returns
+ * CompletableFutures, so independent calls overlap:
+ *
+ *   CompletableFuture<Integer> seats = async.availableSeats(fnum, date);
+ *   CompletableFuture<Integer> waiting = async.passengersWithStatus(fnum, "W");
+ *   CompletableFuture<BookingResult> booking = async.bookFlight(cid, fnum, "R");
+ *   CompletableFuture.allOf(seats, waiting, booking).join();
+ *
+ * Calls run on a fixed set of threads, one per pooled connection. At most
+ * maxPending calls may be queued or running; a caller submitting beyond that
+ * waits up to maxWait for a slot and then gets a future failed with
+ * RejectedExecutionException, so a burst cannot pile up behind the pool.
+ *
+ * Stages chained with thenApply and the like run on the call threads; use the
+ * Async variants for anything slow.
+ *
+ */
+
+public class AsyncDBproject implements AutoCloseable {
+	public static final long DEFAULT_MAX_WAIT_MILLIS = ConnectionPool.DEFAULT_MAX_WAIT_MILLIS;
+
+	/**
+	 * One call made on the database client.
+	 */
+	public interface Call<T> {
+		T call(DBproject esql) throws SQLException;
+	}
+
+	private final DBproject _esql;
+	private final ExecutorService _executor;
+	private final Semaphore _slots;
+	private final int _maxPending;
+	private final long _maxWaitNanos;
+
+	/**
+	 * Method to create the facade with one thread per pooled connection and up
+	 * to four pending calls per thread.
+	 *
+	 * @param esql the database client
+	 */
+	public AsyncDBproject(DBproject esql) {
+		this(esql, esql.getPool().getMaxSize(), esql.getPool().getMaxSize() * 4, DEFAULT_MAX_WAIT_MILLIS);
+	}
+
+	/**
+	 * Method to create the facade with the given limits.
+	 *
+	 * @param esql          the database client
+	 * @param threads       threads running calls, more than the pool size only
+	 *                      wait for connections
+	 * @param maxPending    calls queued or running at most
+	 * @param maxWaitMillis time a caller waits for a free slot, 0 to fail at once
+	 */
+	public AsyncDBproject(DBproject esql, int threads, int maxPending, long maxWaitMillis) {
+		if (threads <= 0 || maxPending < threads)
+			throw new IllegalArgumentException("Need at least one thread and as many pending calls as threads");
+		this._esql = esql;
+		this._maxPending = maxPending;
+		this._maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+		this._slots = new Semaphore(maxPending);
+		AtomicInteger count = new AtomicInteger();
+		this._executor = Executors.newFixedThreadPool(threads, r -> {
+			Thread t = new Thread(r, "dbproject-async-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+	 * Method to run a call in the background.
+	 *
+	 * @param call the call to make
+	 * @return a future completed with the call's result or exception
+	 */
+	public <T> CompletableFuture<T> submit(Call<T> call) {
+		CompletableFuture<T> future = new CompletableFuture<T>();
+		try {
+			if (!this._slots.tryAcquire(this._maxWaitNanos, TimeUnit.NANOSECONDS)) {
+				future.completeExceptionally(
+						new RejectedExecutionException("More than " + this._maxPending + " database calls pending"));
+				return future;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			future.completeExceptionally(e);
+			return future;
+		}
+		try {
+			this._executor.execute(() -> {
+				T result = null;
+				Throwable failure = null;
+				try {
+					result = call.call(this._esql);
+				} catch (Throwable t) {
+					failure = t;
+				}
+				// free the slot first, dependent stages may submit again
+				this._slots.release();
+				if (failure == null)
+					future.complete(result);
+				else
+					future.completeExceptionally(failure);
+			});
+		} catch (RejectedExecutionException e) {
+			this._slots.release();
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	// calls queued or running
+	public int getPending() {
+		return this._maxPending - this._slots.availablePermits();
+	}
+
+	public CompletableFuture<Integer> executeUpdate(String sql, Object... params) {
+		return submit(esql -> esql.executeUpdate(sql, params));
+	}
+
+	public CompletableFuture<List<List<String>>> executeQueryAndReturnResult(String query, Object... params) {
+		return submit(esql -> esql.executeQueryAndReturnResult(query, params));
+	}
+
+	/////////////////////////////////////////////////////////////////////////////////////
+	//// QUERIES 1 TO 9
+	/////////////////////////////////////////////////////////////////////////////////////
+
+	public CompletableFuture<Integer> addPlane(int id, String make, String model, int age, int seats) {
+		return submit(esql -> {
+			int rows = esql.executeUpdate(DBproject.INSERT_PLANE, id, make, model, age, seats);
+			esql.planeAdded(id);
+			return rows;
+		});
+	}
+
+	public CompletableFuture<Integer> addPilot(int id, String fullname, String nationality) {
+		return submit(esql -> {
+			int rows = esql.executeUpdate(DBproject.INSERT_PILOT, id, fullname, nationality);
+			esql.pilotAdded(id);
+			return rows;
+		});
+	}
+
+	public CompletableFuture<Integer> addFlight(int fnum, int cost, int sold, int stops, LocalDate departure,
+			LocalDate arrival, String arrivalAirport, String departureAirport, int pilot, int plane) {
+		return submit(esql -> esql.addFlight(fnum, cost, sold, stops, departure, arrival, arrivalAirport,
+				departureAirport, pilot, plane));
+	}
+
+	public CompletableFuture<Integer> addTechnician(int id, String fullName) {
+		return submit(esql -> {
+			int rows = esql.executeUpdate(DBproject.INSERT_TECHNICIAN, id, fullName);
+			esql.technicianAdded(id);
+			return rows;
+		});
+	}
+
+	public CompletableFuture<BookingResult> bookFlight(int cid, int fid, String status) {
+		return submit(esql -> esql.bookFlight(cid, fid, status));
+	}
+
+	public CompletableFuture<BookingResult> updateReservationStatus(int cid, int fid, String status) {
+		return submit(esql -> esql.updateReservationStatus(cid, fid, status));
+	}
+
+	// completes with SeatInventory.UNKNOWN when the flight does not depart that day
+	public CompletableFuture<Integer> availableSeats(int fnum, LocalDate departure) {
+		return submit(esql -> esql.availableSeats(fnum, departure));
+	}
+
+	public CompletableFuture<List<List<String>>> repairsPerPlane() {
+		return executeQueryAndReturnResult(DBproject.SELECT_REPAIRS_PER_PLANE);
+	}
+
+	public CompletableFuture<List<List<String>>> repairsPerYear() {
+		return executeQueryAndReturnResult(DBproject.SELECT_REPAIRS_PER_YEAR);
+	}
+
+	public CompletableFuture<Integer> passengersWithStatus(int fnum, String status) {
+		return submit(esql -> esql.passengersWithStatus(fnum, status));
+	}
+
+	/**
+	 * Method to stop taking calls and wait for the ones already submitted. The
+	 * database client itself stays open.
+	 */
+	public void close() {
+		this._executor.shutdown();
+		try {
+			this._executor.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
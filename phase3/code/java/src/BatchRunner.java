@@ -0,0 +1,472 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class runs the menu operations headless from a script of commands, one
+ * per line. Consecutive writes of the same kind are sent with JDBC batching and
+ * every chunk of commands is committed as one transaction. Queries run inline
+ * inside the open transaction so they see the writes before them.
+ *
+ * A booking inserts the reservation or changes the status of the existing one
+ * and takes or gives back its seat the way DBproject.bookFlight and
+ * DBproject.updateReservationStatus do, inline in the chunk transaction: the
+ * reservation row is locked, Flight.num_sold moves with TAKE_SEAT and
+ * RELEASE_SEAT, and a booking that needs a seat on a full flight goes on the
+ * waiting list. A booking of a flight that does not exist fails its chunk, as
+ * it does through the foreign key. The in-memory seats and counters of the
+ * client follow once the chunk commits.
+ *
+ * A flight is added with its pilot and plane like DBproject.addFlight: the
+ * assignment is checked against the schedule of the client and the flights
+ * added earlier in the chunk, a busy pilot or plane fails the chunk with
+ * SQLState 23P01, and the Flight and FlightInfo rows go in as one batched
+ * statement. The schedule, seats and routes of the client follow once the
+ * chunk commits.
+ *
+ * Commands (values containing spaces go in double quotes, '#' starts a comment):
+ *   add-plane id make model age seats
+ *   add-pilot id name nationality
+ *   add-flight fnum cost sold stops "departure" "arrival" arrival_airport departure_airport pilot plane
+ *   add-technician id name
+ *   book cid fid status [rnum]
+ *   seats fnum "departure"
+ *   repairs-per-plane
+ *   repairs-per-year
+ *   count fid status
+ *
+ */
+
+public class BatchRunner {
+	public static final int DEFAULT_CHUNK_SIZE = 1000;
+
+	// a new reservation with the number given in the script, like INSERT_NEW_RESERVATION
+	static final String INSERT_RESERVATION_RNUM = "INSERT INTO Reservation (rnum, cid, fid, status) VALUES (?, ?, ?, ?)\n"
+			+ "ON CONFLICT (cid, fid) DO NOTHING\nRETURNING rnum";
+	static final String INSERT_RESERVATION_RNUM_ON = "INSERT INTO Reservation (rnum, cid, fid, status, flight_date) VALUES (?, ?, ?, ?, ?)\n"
+			+ "ON CONFLICT (cid, fid, flight_date) DO NOTHING\nRETURNING rnum";
+
+	// a flight and its FlightInfo row in one statement, so consecutive flights stay in one batch
+	static final String INSERT_FLIGHT_ASSIGNED = "WITH F AS (\n"
+			+ "INSERT INTO Flight (fnum, cost, num_sold, num_stops, actual_departure_date, actual_arrival_date, arrival_airport, departure_airport)\n"
+			+ "VALUES (?, ?, ?, ?, ?, ?, ?, ?) RETURNING fnum)\n"
+			+ "INSERT INTO FlightInfo (flight_id, pilot_id, plane_id) SELECT fnum, ?, ? FROM F";
+
+	private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
+	private final DBproject _esql;
+	private final int _chunkSize;
+
+	// state of the chunk being built, only touched by the running thread
+	private PooledConnection _pc;
+	private Connection _conn;
+	private PreparedStatement _batch = null;
+	private String _batchSql = null;
+	private int _pending = 0;
+	// {fid, seats taken} and {fid, old status, new status} of the bookings of the chunk, applied
+	// to the in-memory indexes once it commits
+	private final List<int[]> _seatChanges = new ArrayList<int[]>();
+	private final List<String[]> _statusChanges = new ArrayList<String[]>();
+	// the assignments committed before the run, and those of the flights added in the chunk
+	private AssignmentSchedule _schedule;
+	private AssignmentSchedule _chunkSchedule;
+	// records the flights of the chunk in the client once it commits
+	private final List<Runnable> _flightsAdded = new ArrayList<Runnable>();
+	// departure dates of the flights booked on sql/create-partitioned.sql
+	private final Map<Integer, java.sql.Date> _dates = new HashMap<Integer, java.sql.Date>();
+
+	// totals for the summary
+	private long _commands = 0;
+	private long _committed = 0;
+	private long _failed = 0;
+	private long _chunks = 0;
+	private long _roundTrips = 0;
+	private long _waitlisted = 0;
+	private long _chunkWaitlisted = 0;
+
+	public BatchRunner(DBproject esql, int chunkSize) {
+		if (chunkSize <= 0)
+			throw new IllegalArgumentException("Chunk size must be greater than 0");
+		this._esql = esql;
+		this._chunkSize = chunkSize;
+	}
+
+	/**
+	 * Method to run every command read from the input on one connection.
+	 *
+	 * @param input the command script
+	 * @throws java.sql.SQLException when the connection failed
+	 * @throws java.io.IOException   when the script could not be read
+	 */
+	public void run(BufferedReader input) throws SQLException, IOException {
+		long start = System.nanoTime();
+		try {
+			// loaded before the chunk connection is borrowed, the load borrows one of its own
+			this._schedule = this._esql.getAssignmentSchedule();
+			this._chunkSchedule = new AssignmentSchedule(this._schedule.getTurnaroundDays());
+			this._esql.withConnection(pc -> {
+				this._pc = pc;
+				this._conn = pc.getConnection();
+				this._conn.setAutoCommit(false);
+				List<String> chunk = new ArrayList<String>();
+				int lineNum = 0;
+				try {
+					String line;
+					while ((line = input.readLine()) != null) {
+						++lineNum;
+						line = line.trim();
+						if (line.isEmpty() || line.startsWith("#"))
+							continue;
+						chunk.add(line);
+						if (chunk.size() == this._chunkSize) {
+							runChunk(chunk, lineNum);
+							chunk.clear();
+						}
+					}
+				} catch (IOException e) {
+					throw new SQLException("Unable to read commands: " + e.getMessage(), e);
+				}
+				if (!chunk.isEmpty())
+					runChunk(chunk, lineNum);
+				closeBatch();
+				return null;
+			});
+		} finally {
+			summary(System.nanoTime() - start);
+		}
+	}
+
+	// runs one chunk as a transaction, rolling the whole chunk back on failure
+	private void runChunk(List<String> chunk, int lastLine) throws SQLException {
+		++this._chunks;
+		this._commands += chunk.size();
+		try {
+			for (String command : chunk)
+				dispatch(tokenize(command));
+			flush();
+			this._conn.commit();
+			++this._roundTrips;
+			this._committed += chunk.size();
+			for (int[] change : this._seatChanges)
+				this._esql.seatsChanged(change[0], change[1]);
+			for (String[] change : this._statusChanges)
+				this._esql.reservationMoved(Integer.parseInt(change[0]), change[1], change[2]);
+			for (Runnable flight : this._flightsAdded)
+				flight.run();
+			this._waitlisted += this._chunkWaitlisted;
+		} catch (SQLException | RuntimeException e) {
+			this._conn.rollback();
+			++this._roundTrips;
+			this._pending = 0;
+			closeBatch();
+			this._failed += chunk.size();
+			SQLException cause = e instanceof BatchUpdateException ? ((SQLException) e).getNextException() : null;
+			System.err.println("Chunk ending at line " + lastLine + " rolled back: "
+					+ (cause != null ? cause.getMessage() : e.getMessage()));
+		} finally {
+			this._seatChanges.clear();
+			this._statusChanges.clear();
+			this._flightsAdded.clear();
+			this._chunkSchedule = new AssignmentSchedule(this._schedule.getTurnaroundDays());
+			this._chunkWaitlisted = 0;
+		}
+	}
+
+	private void dispatch(String[] cmd) throws SQLException {
+		switch (cmd[0]) {
+			case "add-plane":
+				arity(cmd, 6);
+				add(DBproject.INSERT_PLANE, Integer.parseInt(cmd[1]), cmd[2], cmd[3], Integer.parseInt(cmd[4]),
+						Integer.parseInt(cmd[5]));
+				break;
+			case "add-pilot":
+				arity(cmd, 4);
+				add(DBproject.INSERT_PILOT, Integer.parseInt(cmd[1]), cmd[2], cmd[3]);
+				break;
+			case "add-flight":
+				arity(cmd, 11);
+				addFlight(Integer.parseInt(cmd[1]), Integer.parseInt(cmd[2]), Integer.parseInt(cmd[3]),
+						Integer.parseInt(cmd[4]), LocalDate.parse(cmd[5], FORMATTER), LocalDate.parse(cmd[6], FORMATTER),
+						cmd[7], cmd[8], Integer.parseInt(cmd[9]), Integer.parseInt(cmd[10]));
+				break;
+			case "add-technician":
+				arity(cmd, 3);
+				add(DBproject.INSERT_TECHNICIAN, Integer.parseInt(cmd[1]), cmd[2]);
+				break;
+			case "book": {
+				if (cmd.length != 4 && cmd.length != 5)
+					throw new IllegalArgumentException("book expects cid fid status [rnum]");
+				book(Integer.parseInt(cmd[1]), Integer.parseInt(cmd[2]), status(cmd[3]),
+						cmd.length == 5 ? Integer.valueOf(cmd[4]) : null);
+				break;
+			}
+			case "seats":
+				arity(cmd, 3);
+				query(DBproject.SELECT_AVAILABLE_SEATS, Integer.parseInt(cmd[1]), Integer.parseInt(cmd[1]), date(cmd[2]));
+				break;
+			case "repairs-per-plane":
+				query(DBproject.SELECT_REPAIRS_PER_PLANE);
+				break;
+			case "repairs-per-year":
+				query(DBproject.SELECT_REPAIRS_PER_YEAR);
+				break;
+			case "count":
+				arity(cmd, 3);
+				query(DBproject.COUNT_PASSENGERS_WITH_STATUS, Integer.parseInt(cmd[1]), status(cmd[2]));
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown command: " + cmd[0]);
+		}
+	}
+
+	// queues a write, sending the previous batch first when the statement changes
+	private void add(String sql, Object... params) throws SQLException {
+		if (!sql.equals(this._batchSql)) {
+			flush();
+			closeBatch();
+			this._batch = this._conn.prepareStatement(sql);
+			this._batchSql = sql;
+		}
+		StatementCache.bind(this._batch, params);
+		this._batch.addBatch();
+		++this._pending;
+	}
+
+	/**
+	 * Method to queue a flight flown by a pilot and plane, after checking the
+	 * assignment like DBproject.addFlight does.
+	 *
+	 * @param fnum             the flight number
+	 * @param cost             the ticket cost
+	 * @param sold             the seats sold
+	 * @param stops            the number of stops
+	 * @param departure        the departure date
+	 * @param arrival          the arrival date
+	 * @param arrivalAirport   the airport code flown to
+	 * @param departureAirport the airport code flown from
+	 * @param pilot            the pilot ID
+	 * @param plane            the plane ID
+	 * @throws java.sql.SQLException with SQLState 23P01 when the pilot or plane
+	 *                               is busy, or when a queued write failed
+	 */
+	private void addFlight(int fnum, int cost, int sold, int stops, LocalDate departure, LocalDate arrival,
+			String arrivalAirport, String departureAirport, int pilot, int plane) throws SQLException {
+		String conflict = this._schedule.check(departure, arrival, pilot, plane);
+		if (conflict == null)
+			conflict = this._chunkSchedule.check(departure, arrival, pilot, plane);
+		if (conflict != null)
+			throw new SQLException("Flight " + fnum + ": " + conflict, "23P01");
+		add(INSERT_FLIGHT_ASSIGNED, fnum, cost, sold, stops, java.sql.Date.valueOf(departure),
+				java.sql.Date.valueOf(arrival), arrivalAirport, departureAirport, pilot, plane);
+		this._chunkSchedule.assign(fnum, departure, arrival, pilot, plane);
+		this._flightsAdded.add(() -> this._esql.flightAssigned(fnum, cost, sold, departure, arrival, arrivalAirport,
+				departureAirport, pilot, plane));
+	}
+
+	/**
+	 * Method to book a flight or change the status of the booking, after the
+	 * writes queued before it. The reservation is locked, a seat is taken or
+	 * given back when the booking moves on or off the waiting list, and a
+	 * booking that finds the flight full is waitlisted instead.
+	 *
+	 * @param cid    the customer ID
+	 * @param fid    the flight number
+	 * @param status the reservation status (W, R, C)
+	 * @param rnum   the number of a new reservation, or null for the next one
+	 * @throws java.sql.SQLException when the flight does not exist or a write
+	 *                               failed
+	 */
+	private void book(int cid, int fid, String status, Integer rnum) throws SQLException {
+		flush();
+		StatementCache statements = this._pc.getStatements();
+		java.sql.Date date = date(fid);
+		ResultSet rs = statements.prepare(date == null ? DBproject.SELECT_RESERVATION_FOR_UPDATE
+				: DBproject.SELECT_RESERVATION_FOR_UPDATE_ON, DBproject.dated(date, cid, fid)).executeQuery();
+		boolean exists = rs.next();
+		String old = exists ? rs.getString(1) : null;
+		rs.close();
+		++this._roundTrips;
+
+		int delta = (DBproject.holdsSeat(status) ? 1 : 0) - (old != null && DBproject.holdsSeat(old) ? 1 : 0);
+		if (delta > 0) {
+			++this._roundTrips;
+			if (statements.prepare(date == null ? DBproject.TAKE_SEAT : DBproject.TAKE_SEAT_ON,
+					DBproject.dated(date, fid)).executeUpdate() == 0) {
+				// full, on the waiting list like a journaled booking
+				delta = 0;
+				status = "W";
+				++this._chunkWaitlisted;
+			}
+		} else if (delta < 0) {
+			++this._roundTrips;
+			statements.prepare(date == null ? DBproject.RELEASE_SEAT : DBproject.RELEASE_SEAT_ON,
+					DBproject.dated(date, fid)).executeUpdate();
+		}
+
+		++this._roundTrips;
+		if (exists) {
+			statements.prepare(date == null ? DBproject.UPDATE_RESERVATION_STATUS
+					: DBproject.UPDATE_RESERVATION_STATUS_ON, DBproject.dated(date, status, cid, fid)).executeUpdate();
+		} else {
+			if (rnum == null)
+				rs = statements.prepare(date == null ? DBproject.INSERT_NEW_RESERVATION
+						: DBproject.INSERT_NEW_RESERVATION_ON, DBproject.dated(date, cid, fid, status)).executeQuery();
+			else
+				rs = statements.prepare(date == null ? INSERT_RESERVATION_RNUM : INSERT_RESERVATION_RNUM_ON,
+						DBproject.dated(date, rnum, cid, fid, status)).executeQuery();
+			boolean inserted = rs.next();
+			rs.close();
+			// booked by another client since the lock found nothing, the seat taken for it rolls back with the chunk
+			if (!inserted)
+				throw new SQLException("Customer " + cid + " was booked on flight " + fid + " concurrently", "23505");
+		}
+		if (delta != 0)
+			this._seatChanges.add(new int[] { fid, delta });
+		if (!status.equals(old))
+			this._statusChanges.add(new String[] { String.valueOf(fid), old, status });
+	}
+
+	// the departure date of a flight on sql/create-partitioned.sql, null on sql/create.sql
+	private java.sql.Date date(int fid) throws SQLException {
+		if (!this._esql.isPartitioned())
+			return null;
+		java.sql.Date date = this._dates.get(fid);
+		if (date == null) {
+			ResultSet rs = this._pc.getStatements().prepare(DBproject.SELECT_DEPARTURE, fid).executeQuery();
+			date = rs.next() ? rs.getDate(1) : null;
+			rs.close();
+			++this._roundTrips;
+			if (date == null)
+				throw new SQLException("Flight " + fid + " does not exist", "23503");
+			this._dates.put(fid, date);
+		}
+		return date;
+	}
+
+	// sends the queued writes without committing them
+	private void flush() throws SQLException {
+		if (this._pending > 0) {
+			this._batch.executeBatch();
+			++this._roundTrips;
+			this._pending = 0;
+		}
+	}
+
+	private void closeBatch() throws SQLException {
+		if (this._batch != null) {
+			this._batch.close();
+			this._batch = null;
+			this._batchSql = null;
+		}
+	}
+
+	// runs a query after the writes queued before it and prints the rows
+	private void query(String sql, Object... params) throws SQLException {
+		flush();
+		ResultSet rs = this._pc.getStatements().prepare(sql, params).executeQuery();
+		try {
+			StringBuilder out = new StringBuilder();
+			int numCol = rs.getMetaData().getColumnCount();
+			while (rs.next()) {
+				for (int i = 1; i <= numCol; ++i)
+					out.append(rs.getString(i)).append('\t');
+				out.append('\n');
+			}
+			System.out.print(out);
+			++this._roundTrips;
+		} finally {
+			rs.close();
+		}
+	}
+
+	private void summary(long nanos) {
+		double seconds = nanos / 1e9;
+		System.out.println("-----------------------------------------------------------------");
+		System.out.println("commands: " + this._commands + " (" + this._committed + " committed, " + this._failed + " rolled back)");
+		System.out.println("chunks: " + this._chunks + " of up to " + this._chunkSize + " commands");
+		System.out.println("round trips: " + this._roundTrips);
+		System.out.println("bookings waitlisted on a full flight: " + this._waitlisted);
+		System.out.printf("elapsed: %.1f ms, throughput: %.0f commands/s%n", nanos / 1e6,
+				this._committed / Math.max(seconds, 1e-9));
+		System.out.println("-----------------------------------------------------------------");
+	}
+
+	private static void arity(String[] cmd, int n) {
+		if (cmd.length != n)
+			throw new IllegalArgumentException(cmd[0] + " expects " + (n - 1) + " arguments");
+	}
+
+	private static java.sql.Date date(String value) {
+		return java.sql.Date.valueOf(LocalDate.parse(value, FORMATTER));
+	}
+
+	private static String status(String value) {
+		if (!value.equals("W") && !value.equals("R") && !value.equals("C"))
+			throw new IllegalArgumentException("Status only accepts the following: W, R, C");
+		return value;
+	}
+
+	/**
+	 * Method to split a command line on whitespace, keeping text between double
+	 * quotes together.
+	 *
+	 * @param line the command line
+	 * @return the command name followed by its arguments
+	 */
+	static String[] tokenize(String line) {
+		List<String> tokens = new ArrayList<String>();
+		StringBuilder token = new StringBuilder();
+		boolean quoted = false, inToken = false;
+		for (int i = 0; i < line.length(); ++i) {
+			char c = line.charAt(i);
+			if (c == '"') {
+				quoted = !quoted;
+				inToken = true;
+			} else if (Character.isWhitespace(c) && !quoted) {
+				if (inToken)
+					tokens.add(token.toString());
+				token.setLength(0);
+				inToken = false;
+			} else {
+				token.append(c);
+				inToken = true;
+			}
+		}
+		if (quoted)
+			throw new IllegalArgumentException("Unterminated quote in: " + line);
+		if (inToken)
+			tokens.add(token.toString());
+		return tokens.toArray(new String[0]);
+	}
+
+	/**
+	 * Method to run the batch mode from the command line mode of DBproject.
+	 *
+	 * @param esql      the database client
+	 * @param file      the script to read, or "-" for standard input
+	 * @param chunkSize number of commands committed together
+	 */
+	public static void run(DBproject esql, String file, int chunkSize) {
+		try {
+			Reader source = file.equals("-") ? new InputStreamReader(System.in) : new FileReader(file);
+			try (BufferedReader input = new BufferedReader(source, 1 << 16)) {
+				new BatchRunner(esql, chunkSize).run(input);
+			}
+		} catch (SQLException | IOException e) {
+			System.err.println(e.getMessage());
+		}
+	}
+}
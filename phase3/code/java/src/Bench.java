@@ -0,0 +1,394 @@
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * This class benchmarks the DBproject execute methods and the SQL behind
+ * queries 5 through 9. Each benchmark runs a warm-up period and then a timed
+ * period on a number of threads, and reports throughput together with latency
+ * percentiles. Results can be saved as a baseline and later runs compared with
+ * it, flagging throughput drops and p99 increases beyond a tolerance.
+ *
+ * The database must hold the data of phase3/code/data (see load.sh). With
+ * --scale N the base rows are copied N-1 more times with shifted keys before
+ * measuring, see scale().
+ *
+ */
+
+public class Bench {
+	// a regression is flagged when a result is this much worse than the baseline
+	private static final double TOLERANCE = 0.10;
+	private static final String[] STATUS = { "W", "R", "C" };
+
+	/**
+	 * One benchmarked call. The random source belongs to the calling thread.
+	 */
+	interface Op {
+		void run(ThreadLocalRandom random) throws SQLException;
+	}
+
+	// column -> table whose key range the column draws from, for scale()
+	static final String[][] KEYS = {
+		{ "Customer", "id", "Customer" },
+		{ "Pilot", "id", "Pilot" },
+		{ "Plane", "id", "Plane" },
+		{ "Technician", "id", "Technician" },
+		{ "Flight", "fnum", "Flight" },
+		{ "Reservation", "rnum", "Reservation" },
+		{ "Reservation", "cid", "Customer" },
+		{ "Reservation", "fid", "Flight" },
+		{ "FlightInfo", "fiid", "FlightInfo" },
+		{ "FlightInfo", "flight_id", "Flight" },
+		{ "FlightInfo", "pilot_id", "Pilot" },
+		{ "FlightInfo", "plane_id", "Plane" },
+		{ "Repairs", "rid", "Repairs" },
+		{ "Repairs", "pilot_id", "Pilot" },
+		{ "Repairs", "plane_id", "Plane" },
+		{ "Repairs", "technician_id", "Technician" },
+		{ "Schedule", "id", "Schedule" },
+		{ "Schedule", "flightNum", "Flight" },
+	};
+
+	private final DBproject _esql;
+	private final int _threads;
+	private final int _warmupSeconds;
+	private final int _seconds;
+	private final Map<String, Double> _results = new TreeMap<String, Double>();
+
+	// sample keys drawn by the benchmarks
+	private int[] _flights;
+	private int[][] _reservations;
+	private LocalDate[] _departures;
+
+	public Bench(DBproject esql, int threads, int warmupSeconds, int seconds) {
+		this._esql = esql;
+		this._threads = threads;
+		this._warmupSeconds = warmupSeconds;
+		this._seconds = seconds;
+	}
+
+	/**
+	 * Method to copy the loaded rows factor-1 more times. Every key column is
+	 * shifted by copy number times the key range of the table it refers to, so
+	 * each copy is a self-contained replica with intact foreign keys.
+	 *
+	 * @param esql   the database client
+	 * @param factor the scale factor, 1 leaves the data as loaded
+	 * @throws java.sql.SQLException when a copy failed
+	 */
+	static void scale(DBproject esql, int factor) throws SQLException {
+		if (factor <= 1)
+			return;
+		List<BulkLoader.Table> tables = new ArrayList<BulkLoader.Table>();
+		for (BulkLoader.Table t : BulkLoader.PARENTS)
+			tables.add(t);
+		for (BulkLoader.Table t : BulkLoader.CHILDREN)
+			tables.add(t);
+
+		// read before borrowing, the schema check needs a connection of its own
+		Map<String, String> columns = new HashMap<String, String>();
+		for (BulkLoader.Table t : tables)
+			columns.put(t.name, BulkLoader.columns(esql, t));
+
+		esql.withConnection(pc -> {
+			Statement stmt = pc.getConnection().createStatement();
+			// key range of every table before copying, the first column is the key
+			Map<String, Integer> range = new HashMap<String, Integer>();
+			for (BulkLoader.Table t : tables) {
+				String key = t.columns.split(",")[0].trim();
+				ResultSet rs = stmt.executeQuery("SELECT COALESCE(MAX(" + key + "), -1) + 1 FROM " + t.name);
+				rs.next();
+				range.put(t.name, rs.getInt(1));
+				rs.close();
+			}
+			for (BulkLoader.Table t : tables) {
+				StringBuilder select = new StringBuilder();
+				for (String column : columns.get(t.name).split(",")) {
+					column = column.trim();
+					select.append(select.length() == 0 ? "" : ", ").append(column);
+					for (String[] k : KEYS)
+						if (k[0].equals(t.name) && k[1].equals(column))
+							select.append(" + s * ").append(range.get(k[2]));
+				}
+				String key = t.columns.split(",")[0].trim();
+				long start = System.nanoTime();
+				int rows = stmt.executeUpdate("INSERT INTO " + t.name + " (" + columns.get(t.name) + ")\nSELECT " + select + "\nFROM "
+						+ t.name + ", generate_series(1, " + (factor - 1) + ") s\nWHERE " + key + " < " + range.get(t.name));
+				System.out.printf("scaled %-12s +%d rows in %.1f ms%n", t.name, rows, (System.nanoTime() - start) / 1e6);
+			}
+			stmt.execute("SELECT setval('reservation_rnum_seq', COALESCE(MAX(rnum), 0) + 1, false) FROM Reservation");
+			stmt.execute("SELECT setval('flightinfo_fiid_seq', COALESCE(MAX(fiid), 0) + 1, false) FROM FlightInfo");
+			stmt.execute("ANALYZE");
+			stmt.close();
+			return null;
+		});
+	}
+
+	// draws the flight, reservation and departure samples the benchmarks use
+	private void sample() throws SQLException {
+		List<List<String>> flights = this._esql.executeQueryAndReturnResult(
+				"SELECT F.fnum, F.actual_departure_date FROM Flight F, FlightInfo FI WHERE FI.flight_id = F.fnum ORDER BY random() LIMIT 10000");
+		this._flights = new int[flights.size()];
+		this._departures = new LocalDate[flights.size()];
+		for (int i = 0; i < flights.size(); ++i) {
+			this._flights[i] = Integer.parseInt(flights.get(i).get(0));
+			this._departures[i] = LocalDate.parse(flights.get(i).get(1));
+		}
+		// status may be NULL, q5 rewrites the sampled status so it skips those
+		List<List<String>> reservations = this._esql.executeQueryAndReturnResult(
+				"SELECT cid, fid, status FROM Reservation WHERE status IS NOT NULL ORDER BY random() LIMIT 10000");
+		this._reservations = new int[reservations.size()][];
+		for (int i = 0; i < reservations.size(); ++i)
+			this._reservations[i] = new int[] { Integer.parseInt(reservations.get(i).get(0)),
+					Integer.parseInt(reservations.get(i).get(1)), "WRC".indexOf(reservations.get(i).get(2)) };
+	}
+
+	/**
+	 * Method to run every benchmark whose name is selected.
+	 *
+	 * @param only names to run, or null for all of them
+	 * @throws Exception when a benchmark failed
+	 */
+	public void runAll(List<String> only) throws Exception {
+		sample();
+		DBproject esql = this._esql;
+		Map<String, Op> ops = new LinkedHashMap<String, Op>();
+
+		// helper methods of DBproject
+		ops.put("executeUpdate", r -> esql.executeUpdate("UPDATE Flight SET num_stops = num_stops WHERE fnum = "
+				+ this._flights[r.nextInt(this._flights.length)] + ";"));
+		ops.put("executeUpdate.prepared", r -> esql.executeUpdate("UPDATE Flight SET num_stops = num_stops WHERE fnum = ?",
+				this._flights[r.nextInt(this._flights.length)]));
+		ops.put("executeQuery", r -> esql.executeQuery("SELECT COUNT(*)\nFROM Reservation\nWHERE fid = "
+				+ this._flights[r.nextInt(this._flights.length)] + " AND status = '" + STATUS[r.nextInt(3)] + "';"));
+		ops.put("executeQuery.prepared", r -> esql.executeQuery(DBproject.SCAN_PASSENGERS_WITH_STATUS,
+				this._flights[r.nextInt(this._flights.length)], STATUS[r.nextInt(3)]));
+		ops.put("executeQueryAndReturnResult", r -> esql.executeQueryAndReturnResult(DBproject.SELECT_RESERVATION_STATUS,
+				this._reservations[r.nextInt(this._reservations.length)][0],
+				this._reservations[r.nextInt(this._reservations.length)][1]));
+		ops.put("getCurrSeqVal", r -> esql.withConnection(pc -> {
+			pc.getStatements().prepare("SELECT nextval('reservation_rnum_seq')").executeQuery().close();
+			return DBproject.getCurrSeqVal(pc, "reservation_rnum_seq");
+		}));
+
+		// queries 5 through 9
+		ops.put("q5.updateStatus", r -> {
+			int[] res = this._reservations[r.nextInt(this._reservations.length)];
+			// rewriting the current status keeps the data unchanged
+			esql.updateReservationStatus(res[0], res[1], STATUS[res[2]]);
+		});
+		ops.put("q6.sql", r -> {
+			int i = r.nextInt(this._flights.length);
+			esql.executeQuery(DBproject.SELECT_AVAILABLE_SEATS, this._flights[i], this._flights[i],
+					java.sql.Date.valueOf(this._departures[i]));
+		});
+		ops.put("q6.inventory", r -> {
+			int i = r.nextInt(this._flights.length);
+			esql.getSeatInventory().available(this._flights[i], this._departures[i]);
+		});
+		ops.put("q7", r -> esql.executeQueryAndReturnResult(DBproject.SELECT_REPAIRS_PER_PLANE));
+		ops.put("q8", r -> esql.executeQueryAndReturnResult(DBproject.SELECT_REPAIRS_PER_YEAR));
+		ops.put("q7.scan", r -> esql.executeQueryAndReturnResult(RepairAggregates.SCAN_REPAIRS_PER_PLANE));
+		ops.put("q8.scan", r -> esql.executeQueryAndReturnResult(RepairAggregates.SCAN_REPAIRS_PER_YEAR));
+		ops.put("q9", r -> esql.executeQuery(DBproject.COUNT_PASSENGERS_WITH_STATUS,
+				this._flights[r.nextInt(this._flights.length)], STATUS[r.nextInt(3)]));
+		ops.put("q9.scan", r -> esql.executeQuery(DBproject.SCAN_PASSENGERS_WITH_STATUS,
+				this._flights[r.nextInt(this._flights.length)], STATUS[r.nextInt(3)]));
+		ops.put("q9.counters", r -> esql.getReservationCounters().count(this._flights[r.nextInt(this._flights.length)],
+				STATUS[r.nextInt(3)]));
+
+		// query 10 between two random airports on a sampled departure day
+		RouteGraph routes = esql.getRouteGraph();
+		List<String> airports = routes.getAirports();
+		ops.put("q10.routes", r -> {
+			String from = airports.get(r.nextInt(airports.size()));
+			String to = airports.get(r.nextInt(airports.size()));
+			if (!from.equals(to))
+				routes.search(from, to, this._departures[r.nextInt(this._departures.length)],
+						RouteGraph.DEFAULT_MAX_CONNECTIONS, RouteGraph.DEFAULT_MIN_LAYOVER_DAYS);
+		});
+
+		// queries 6, 8 and 9 for one flight, one after another or overlapped
+		ops.put("q6q8q9.serial", r -> {
+			int i = r.nextInt(this._flights.length);
+			esql.executeQuery(DBproject.SELECT_AVAILABLE_SEATS, this._flights[i], this._flights[i],
+					java.sql.Date.valueOf(this._departures[i]));
+			esql.executeQueryAndReturnResult(DBproject.SELECT_REPAIRS_PER_YEAR);
+			esql.executeQuery(DBproject.COUNT_PASSENGERS_WITH_STATUS, this._flights[i], STATUS[r.nextInt(3)]);
+		});
+		AsyncDBproject async = new AsyncDBproject(esql);
+		ops.put("q6q8q9.async", r -> {
+			int i = r.nextInt(this._flights.length);
+			CompletableFuture.allOf(
+					async.executeQueryAndReturnResult(DBproject.SELECT_AVAILABLE_SEATS, this._flights[i], this._flights[i],
+							java.sql.Date.valueOf(this._departures[i])),
+					async.repairsPerYear(),
+					async.executeQueryAndReturnResult(DBproject.COUNT_PASSENGERS_WITH_STATUS, this._flights[i], STATUS[r.nextInt(3)]))
+					.join();
+		});
+
+		try {
+			for (Map.Entry<String, Op> e : ops.entrySet())
+				if (only == null || only.contains(e.getKey()))
+					measure(e.getKey(), e.getValue());
+		} finally {
+			async.close();
+		}
+	}
+
+	// runs one benchmark for the warm-up and the timed period
+	private void measure(String name, Op op) throws Exception {
+		run(op, this._warmupSeconds, null);
+		LatencyHistogram histogram = new LatencyHistogram();
+		long nanos = run(op, this._seconds, histogram);
+		double opsPerSecond = histogram.count() / (nanos / 1e9);
+		System.out.printf("%-30s %10.0f ops/s  %s%n", name, opsPerSecond, histogram.summary());
+		this._results.put(name + ".ops", opsPerSecond);
+		this._results.put(name + ".p50", histogram.percentile(50) / 1e6);
+		this._results.put(name + ".p99", histogram.percentile(99) / 1e6);
+		this._results.put(name + ".p999", histogram.percentile(99.9) / 1e6);
+	}
+
+	// calls op on every thread until the period ends, returns the elapsed time
+	private long run(Op op, int seconds, LatencyHistogram histogram) throws Exception {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+		CountDownLatch done = new CountDownLatch(this._threads);
+		AtomicReference<Exception> failure = new AtomicReference<Exception>();
+		long start = System.nanoTime();
+		for (int t = 0; t < this._threads; ++t) {
+			Thread thread = new Thread(() -> {
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				try {
+					while (System.nanoTime() < deadline && failure.get() == null) {
+						long begin = System.nanoTime();
+						op.run(random);
+						if (histogram != null)
+							histogram.record(System.nanoTime() - begin);
+					}
+				} catch (Exception e) {
+					failure.compareAndSet(null, e);
+				} finally {
+					done.countDown();
+				}
+			}, "bench-" + t);
+			thread.start();
+		}
+		done.await();
+		if (failure.get() != null)
+			throw failure.get();
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * Method to write the results of this run as a baseline.
+	 *
+	 * @param file the properties file to write
+	 * @throws java.io.IOException when the file could not be written
+	 */
+	public void save(String file) throws IOException {
+		Properties props = new Properties();
+		for (Map.Entry<String, Double> e : this._results.entrySet())
+			props.setProperty(e.getKey(), String.format("%.4f", e.getValue()));
+		try (Writer out = new FileWriter(file)) {
+			props.store(out, "DBproject benchmark, threads=" + this._threads + " seconds=" + this._seconds);
+		}
+	}
+
+	/**
+	 * Method to compare this run with a saved baseline.
+	 *
+	 * @param file the baseline properties file
+	 * @return the number of regressions found
+	 * @throws java.io.IOException when the baseline could not be read
+	 */
+	public int compare(String file) throws IOException {
+		Properties baseline = new Properties();
+		try (Reader in = new FileReader(file)) {
+			baseline.load(in);
+		}
+		int regressions = 0;
+		System.out.println("-----------------------------------------------------------------");
+		for (Map.Entry<String, Double> e : this._results.entrySet()) {
+			String before = baseline.getProperty(e.getKey());
+			if (before == null || !(e.getKey().endsWith(".ops") || e.getKey().endsWith(".p99")))
+				continue;
+			double base = Double.parseDouble(before);
+			double now = e.getValue();
+			boolean worse = e.getKey().endsWith(".ops") ? now < base * (1 - TOLERANCE) : now > base * (1 + TOLERANCE);
+			if (worse)
+				++regressions;
+			System.out.printf("%-40s %12.3f -> %12.3f %s%n", e.getKey(), base, now, worse ? "REGRESSION" : "");
+		}
+		System.out.println("regressions: " + regressions);
+		System.out.println("-----------------------------------------------------------------");
+		return regressions;
+	}
+
+	public static void main(String[] args) {
+		if (args.length < 3) {
+			System.err.println("Usage: " + "java [-classpath <classpath>] " + Bench.class.getName()
+					+ " <dbname> <port> <user> [--scale N] [--threads N] [--warmup S] [--seconds S]"
+					+ " [--only name,name] [--save file] [--baseline file]");
+			return;
+		} // end if
+
+		int scale = 1, threads = 4, warmup = 5, seconds = 10;
+		String save = null, baseline = null;
+		List<String> only = null;
+		for (int i = 3; i + 1 < args.length; i += 2) {
+			switch (args[i]) {
+				case "--scale": scale = Integer.parseInt(args[i + 1]); break;
+				case "--threads": threads = Integer.parseInt(args[i + 1]); break;
+				case "--warmup": warmup = Integer.parseInt(args[i + 1]); break;
+				case "--seconds": seconds = Integer.parseInt(args[i + 1]); break;
+				case "--only": only = Arrays.asList(args[i + 1].split(",")); break;
+				case "--save": save = args[i + 1]; break;
+				case "--baseline": baseline = args[i + 1]; break;
+				default:
+					System.err.println("Unknown option: " + args[i]);
+					return;
+			}
+		}
+
+		DBproject esql = null;
+		int regressions = 0;
+		try {
+			Class.forName("org.postgresql.Driver");
+			esql = new DBproject(args[0], args[1], args[2], "", threads);
+			scale(esql, scale);
+			Bench bench = new Bench(esql, threads, warmup, seconds);
+			bench.runAll(only);
+			if (save != null)
+				bench.save(save);
+			if (baseline != null)
+				regressions = bench.compare(baseline);
+		} catch (Exception e) {
+			System.err.println(e.getMessage());
+			regressions = -1;
+		} finally {
+			if (esql != null)
+				esql.cleanup();
+		}
+		if (regressions != 0)
+			System.exit(1);
+	}
+}
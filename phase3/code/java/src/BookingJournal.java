@@ -0,0 +1,777 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * This class takes bookings into a local write-ahead journal and applies them
+ * to the database in the background. A booking is acknowledged once its
+ * record is on disk, so the caller waits for one local sync instead of a
+ * server commit, and many bookings share both.
+ *
+ * The journal is a memory-mapped file of fixed-size records, each with its
+ * sequence number and a CRC32. Bookings appended while a sync runs wait for
+ * the next one, so a sync makes every record written before it durable at
+ * once (group commit). A flusher thread applies the durable records in
+ * batched transactions that also store the last sequence number applied in
+ * the BookingJournal table, so after a crash the journal is replayed from
+ * exactly where the database stopped. When every record has been applied and
+ * the file is full, appending starts over at the top of the file.
+ *
+ * Seats are checked against the seat inventory when a booking is taken, so a
+ * full flight is refused at once. The database stays the authority: a booking
+ * whose seat turns out to be gone when it is applied goes on the waiting list.
+ *
+ */
+
+public class BookingJournal implements AutoCloseable {
+	public static final int DEFAULT_RECORDS = 1 << 20;
+	// records applied per transaction
+	public static final int DEFAULT_BATCH_SIZE = 1000;
+
+	// header: magic, record size, sequence number of the first record slot
+	private static final int MAGIC = 0x424A4E4C;
+	private static final int HEADER_SIZE = 64;
+	// record: seq long, cid int, fid int, status byte, flags byte, 2 spare bytes, crc int
+	static final int RECORD_SIZE = 24;
+	private static final int CHECKED_SIZE = 20;
+	// the seat was taken from the seat inventory when the booking was journaled
+	private static final byte RESERVED = 1;
+
+	static final String CREATE_JOURNAL = "CREATE TABLE IF NOT EXISTS BookingJournal (name TEXT PRIMARY KEY, applied BIGINT NOT NULL)";
+	static final String INSERT_JOURNAL = "INSERT INTO BookingJournal (name, applied) VALUES (?, 0) ON CONFLICT (name) DO NOTHING";
+	static final String SELECT_APPLIED = "SELECT applied FROM BookingJournal WHERE name = ?";
+	static final String LOCK_APPLIED = SELECT_APPLIED + " FOR UPDATE";
+	static final String UPDATE_APPLIED = "UPDATE BookingJournal SET applied = ? WHERE name = ?";
+	// the bookings of a batch as arrays, a duplicate inserts nothing and only the new keys come back;
+	// the update counts of a rewritten batch cannot tell which rows were inserted
+	static final String INSERT_RESERVATIONS = "INSERT INTO Reservation (cid, fid, status)\n"
+			+ "SELECT * FROM unnest(?::int[], ?::int[], ?::char(1)[])\n"
+			+ "ON CONFLICT (cid, fid) DO NOTHING RETURNING cid, fid";
+	static final String INSERT_RESERVATIONS_ON = "INSERT INTO Reservation (cid, fid, status, flight_date)\n"
+			+ "SELECT * FROM unnest(?::int[], ?::int[], ?::char(1)[], ?::date[])\n"
+			+ "ON CONFLICT (cid, fid, flight_date) DO NOTHING RETURNING cid, fid";
+
+	/**
+	 * One journaled booking.
+	 */
+	static final class Booking {
+		final long seq;
+		final int cid;
+		final int fid;
+		final String status;
+		final boolean reserved;
+		// the partition date of the flight, whether the transaction that applied it found it
+		// still unapplied, and what applying it did: inserted with its status, or moved to the
+		// waiting list
+		java.sql.Date date = null;
+		boolean pending = false;
+		boolean inserted = false;
+		boolean waitlisted = false;
+
+		Booking(long seq, int cid, int fid, String status, boolean reserved) {
+			this.seq = seq;
+			this.cid = cid;
+			this.fid = fid;
+			this.status = status;
+			this.reserved = reserved;
+		}
+	}
+
+	private final DBproject _esql;
+	private final SeatInventory _seats;
+	private final String _name;
+	private final RandomAccessFile _file;
+	private final MappedByteBuffer _map;
+	private final int _capacity;
+	private final int _batchSize;
+	private final CRC32 _crc = new CRC32();
+	private final ByteBuffer _scratch = ByteBuffer.allocate(CHECKED_SIZE);
+
+	private final ReentrantLock _lock = new ReentrantLock();
+	// signalled when a record is written, a sync finishes, or records are applied
+	private final Condition _written = this._lock.newCondition();
+	private final Condition _synced = this._lock.newCondition();
+	private final Condition _applied = this._lock.newCondition();
+	// sequence number of the first record slot, of the next record, and the last synced and applied ones
+	private long _base;
+	private long _next;
+	private long _durable;
+	private long _appliedSeq;
+	// records before this one were journaled by an earlier run, and took no seat from this inventory
+	private final long _sessionStart;
+	// the last record the database had applied when the journal was opened
+	private final long _openedAt;
+	private boolean _closing = false;
+	private IOException _syncFailure = null;
+
+	private final Thread _syncer;
+	private final Thread _flusher;
+
+	// totals for the summary
+	private long _syncs = 0;
+	private long _batches = 0;
+	private long _waitlisted = 0;
+	private long _skipped = 0;
+
+	/**
+	 * Method to open a journal, creating it when the file does not exist, and
+	 * start applying what it holds beyond what the database has applied.
+	 *
+	 * @param esql      the database client bookings are applied through
+	 * @param file      the journal file
+	 * @param records   the records the file holds when it is created
+	 * @param batchSize the records applied per transaction
+	 * @return the open journal
+	 * @throws java.io.IOException   when the file could not be opened or is not
+	 *                               a journal
+	 * @throws java.sql.SQLException when the applied position could not be read
+	 */
+	public static BookingJournal open(DBproject esql, File file, int records, int batchSize)
+			throws IOException, SQLException {
+		String name = file.getCanonicalPath();
+		esql.executeUpdate(CREATE_JOURNAL);
+		esql.executeUpdate(INSERT_JOURNAL, name);
+		long applied = Long.parseLong(esql.executeQueryAndReturnResult(SELECT_APPLIED, name).get(0).get(0));
+		return new BookingJournal(esql, esql.getSeatInventory(), name, file, records, batchSize, applied);
+	}
+
+	BookingJournal(DBproject esql, SeatInventory seats, String name, File file, int records, int batchSize,
+			long applied) throws IOException {
+		if (records <= 0 || batchSize <= 0)
+			throw new IllegalArgumentException("The journal size and batch size must be greater than 0");
+		this._esql = esql;
+		this._seats = seats;
+		this._name = name;
+		this._batchSize = batchSize;
+		boolean created = !file.exists() || file.length() == 0;
+		this._file = new RandomAccessFile(file, "rw");
+		long length = created ? HEADER_SIZE + (long) records * RECORD_SIZE : this._file.length();
+		if (length > Integer.MAX_VALUE)
+			throw new IOException("Journal " + file + " is larger than 2 GB");
+		this._map = this._file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+		this._capacity = (int) ((length - HEADER_SIZE) / RECORD_SIZE);
+		if (created) {
+			this._map.putInt(0, MAGIC);
+			this._map.putInt(4, RECORD_SIZE);
+			this._map.putLong(8, applied + 1);
+		} else if (length < HEADER_SIZE || this._map.getInt(0) != MAGIC || this._map.getInt(4) != RECORD_SIZE) {
+			this._file.close();
+			throw new IOException(file + " is not a booking journal");
+		}
+
+		// the records are the slots from the top whose checksum holds and that number on from the base
+		this._base = this._map.getLong(8);
+		int count = 0;
+		while (count < this._capacity && read(count) != null)
+			++count;
+		this._next = this._base + count;
+		if (applied < this._base - 1)
+			System.err.println("The database has applied bookings up to " + applied + " but the journal starts at "
+					+ this._base + ", bookings in between are lost");
+		if (applied >= this._next - 1) {
+			// everything is applied, start the file over
+			this._base = this._next = applied + 1;
+			this._map.putLong(8, this._base);
+		}
+		this._map.force();
+		this._durable = this._next - 1;
+		this._appliedSeq = Math.max(applied, this._base - 1);
+		this._sessionStart = this._next;
+		this._openedAt = this._appliedSeq;
+		if (this._durable > this._appliedSeq)
+			System.out.println("Replaying " + (this._durable - this._appliedSeq) + " journaled booking(s)");
+
+		this._syncer = new Thread(this::syncLoop, "journal-sync");
+		this._flusher = new Thread(this::flushLoop, "journal-flush");
+		this._syncer.start();
+		this._flusher.start();
+	}
+
+	/**
+	 * Method to take a booking into the journal, returning once it is on disk.
+	 *
+	 * @param cid    the customer ID
+	 * @param fid    the flight number
+	 * @param status the reservation status (W, R, C)
+	 * @return JOURNALED, or FULL when the flight has no seat left
+	 * @throws java.io.IOException when the journal could not be synced or is
+	 *                             closed
+	 */
+	public BookingResult book(int cid, int fid, String status) throws IOException {
+		if (status == null || status.length() != 1 || "WRC".indexOf(status.charAt(0)) < 0)
+			throw new IllegalArgumentException("Invalid status: " + status);
+		SeatInventory seats = this._seats;
+		boolean reserved = seats != null && DBproject.holdsSeat(status) && seats.contains(fid);
+		if (reserved && !seats.tryReserve(fid))
+			return new BookingResult(BookingResult.Outcome.FULL);
+		boolean written = false;
+		this._lock.lock();
+		try {
+			while (this._next - this._base == this._capacity && !this._closing) {
+				// the file is full, start over once the flusher has applied it all
+				if (this._appliedSeq == this._next - 1) {
+					this._base = this._next;
+					this._map.putLong(8, this._base);
+				} else {
+					this._applied.awaitUninterruptibly();
+				}
+			}
+			if (this._closing)
+				throw new IOException("The journal is closed");
+			long seq = this._next++;
+			write((int) (seq - this._base), new Booking(seq, cid, fid, status, reserved));
+			written = true;
+			this._written.signal();
+			while (this._durable < seq && this._syncFailure == null)
+				this._synced.awaitUninterruptibly();
+			if (this._durable < seq)
+				throw new IOException("The journal could not be synced: " + this._syncFailure.getMessage(),
+						this._syncFailure);
+			return new BookingResult(BookingResult.Outcome.JOURNALED);
+		} finally {
+			this._lock.unlock();
+			if (reserved && !written)
+				seats.release(fid);
+		}
+	}
+
+	// writes a record into its slot, under the lock
+	private void write(int slot, Booking booking) {
+		ByteBuffer b = this._scratch;
+		b.clear();
+		b.putLong(booking.seq).putInt(booking.cid).putInt(booking.fid).put((byte) booking.status.charAt(0))
+				.put(booking.reserved ? RESERVED : 0).putShort((short) 0).flip();
+		this._crc.reset();
+		this._crc.update(b);
+		int at = HEADER_SIZE + slot * RECORD_SIZE;
+		for (int i = 0; i < CHECKED_SIZE; ++i)
+			this._map.put(at + i, b.get(i));
+		this._map.putInt(at + CHECKED_SIZE, (int) this._crc.getValue());
+	}
+
+	// the record in a slot, or null when the slot holds no record of this pass over the file
+	private Booking read(int slot) {
+		int at = HEADER_SIZE + slot * RECORD_SIZE;
+		long seq = this._map.getLong(at);
+		if (seq != this._base + slot)
+			return null;
+		CRC32 crc = new CRC32();
+		for (int i = 0; i < CHECKED_SIZE; ++i)
+			crc.update(this._map.get(at + i));
+		if ((int) crc.getValue() != this._map.getInt(at + CHECKED_SIZE))
+			return null;
+		return new Booking(seq, this._map.getInt(at + 8), this._map.getInt(at + 12),
+				String.valueOf((char) this._map.get(at + 16)), (this._map.get(at + 17) & RESERVED) != 0);
+	}
+
+	// syncs every record written so far, and again for the ones written meanwhile
+	private void syncLoop() {
+		while (true) {
+			long target;
+			this._lock.lock();
+			try {
+				while (this._durable == this._next - 1 && !this._closing)
+					this._written.awaitUninterruptibly();
+				if (this._durable == this._next - 1)
+					return;
+				target = this._next - 1;
+			} finally {
+				this._lock.unlock();
+			}
+			IOException failure = null;
+			try {
+				this._map.force();
+			} catch (RuntimeException e) {
+				// force reports an I/O error as an UncheckedIOException
+				failure = new IOException(e.getMessage(), e);
+			}
+			this._lock.lock();
+			try {
+				if (failure != null) {
+					this._syncFailure = failure;
+					this._closing = true;
+				} else {
+					this._durable = target;
+					++this._syncs;
+				}
+				this._synced.signalAll();
+				this._written.signalAll();
+				if (failure != null)
+					return;
+			} finally {
+				this._lock.unlock();
+			}
+		}
+	}
+
+	// applies the synced records in batches until the journal is closed and applied
+	private void flushLoop() {
+		while (true) {
+			long from, to;
+			this._lock.lock();
+			try {
+				// once closing, the syncer may still have records to sync
+				while (this._appliedSeq == this._durable && this._syncFailure == null
+						&& !(this._closing && this._durable == this._next - 1))
+					this._synced.awaitUninterruptibly();
+				if (this._appliedSeq == this._durable)
+					return;
+				from = this._appliedSeq + 1;
+				to = Math.min(this._durable, this._appliedSeq + this._batchSize);
+			} finally {
+				this._lock.unlock();
+			}
+
+			// the records up to the synced one stay in place until they are applied
+			List<Booking> batch = new ArrayList<Booking>((int) (to - from + 1));
+			for (long seq = from; seq <= to; ++seq)
+				batch.add(read((int) (seq - this._base)));
+			if (!flush(batch)) {
+				// the database is unavailable, the records are replayed on the next open
+				boolean closing;
+				this._lock.lock();
+				try {
+					closing = this._closing;
+				} finally {
+					this._lock.unlock();
+				}
+				if (closing)
+					return;
+				try {
+					Thread.sleep(1000);
+				} catch (InterruptedException e) {
+					return;
+				}
+				continue;
+			}
+			this._lock.lock();
+			try {
+				this._appliedSeq = to;
+				this._applied.signalAll();
+			} finally {
+				this._lock.unlock();
+			}
+		}
+	}
+
+	// applies a batch, one booking at a time when the batch has a booking the database refuses
+	private boolean flush(List<Booking> batch) {
+		try {
+			applyWithRetry(batch);
+			return true;
+		} catch (SQLException e) {
+			if (!refused(e)) {
+				System.err.println("Journal flush failed: " + e.getMessage());
+				return false;
+			}
+		}
+		for (Booking booking : batch) {
+			List<Booking> one = new ArrayList<Booking>(1);
+			one.add(booking);
+			try {
+				applyWithRetry(one);
+			} catch (SQLException e) {
+				if (!refused(e)) {
+					System.err.println("Journal flush failed: " + e.getMessage());
+					return false;
+				}
+				System.err.println("Booking " + booking.seq + " of customer " + booking.cid + " on flight "
+						+ booking.fid + " skipped: " + e.getMessage());
+				try {
+					skip(booking);
+				} catch (SQLException e2) {
+					System.err.println("Journal flush failed: " + e2.getMessage());
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	// a constraint or data error that the same booking would hit again
+	private static boolean refused(SQLException e) {
+		String state = e.getSQLState();
+		return state != null && (state.startsWith("23") || state.startsWith("22"));
+	}
+
+	private void applyWithRetry(List<Booking> batch) throws SQLException {
+		for (int attempt = 1;; ++attempt) {
+			try {
+				apply(batch);
+				break;
+			} catch (SQLException e) {
+				String state = e.getSQLState();
+				if (!("40001".equals(state) || "40P01".equals(state)) || attempt >= DBproject.MAX_BOOKING_ATTEMPTS)
+					throw e;
+			}
+		}
+		this._lock.lock();
+		try {
+			++this._batches;
+		} finally {
+			this._lock.unlock();
+		}
+		applied(batch);
+	}
+
+	/**
+	 * Method to apply a batch in one transaction: insert the reservations, take
+	 * a seat for each new one that needs it, put the ones without a seat on the
+	 * waiting list and move the applied position of the journal past them.
+	 * Bookings the database has already applied are left out, and of the
+	 * bookings of one customer on one flight only the first is inserted.
+	 *
+	 * @param batch the bookings, in sequence order
+	 * @throws java.sql.SQLException when the transaction failed
+	 */
+	void apply(List<Booking> batch) throws SQLException {
+		for (Booking booking : batch)
+			booking.pending = booking.inserted = booking.waitlisted = false;
+		boolean partitioned = this._esql.isPartitioned();
+		for (Booking booking : batch)
+			booking.date = partitioned ? this._esql.partitionDate(booking.fid) : null;
+		this._esql.withConnection(pc -> {
+			Connection conn = pc.getConnection();
+			conn.setAutoCommit(false);
+			Metrics.roundTrips(1);
+			ResultSet rs = pc.getStatements().prepare(LOCK_APPLIED, this._name).executeQuery();
+			long applied = rs.next() ? rs.getLong(1) : 0;
+			rs.close();
+
+			// a booking of a (cid, fid) already in the batch is a duplicate of the first one
+			List<Booking> pending = new ArrayList<Booking>(batch.size());
+			List<Booking> first = new ArrayList<Booking>(batch.size());
+			Set<Long> keys = new HashSet<Long>();
+			for (Booking booking : batch) {
+				if (booking.seq <= applied)
+					continue;
+				booking.pending = true;
+				pending.add(booking);
+				if (keys.add(key(booking.cid, booking.fid)))
+					first.add(booking);
+			}
+			if (!first.isEmpty()) {
+				Integer[] cids = new Integer[first.size()];
+				Integer[] fids = new Integer[first.size()];
+				String[] statuses = new String[first.size()];
+				java.sql.Date[] dates = new java.sql.Date[first.size()];
+				for (int i = 0; i < first.size(); ++i) {
+					Booking booking = first.get(i);
+					cids[i] = booking.cid;
+					fids[i] = booking.fid;
+					statuses[i] = booking.status;
+					dates[i] = booking.date;
+				}
+				Array cidArray = conn.createArrayOf("int4", cids);
+				Array fidArray = conn.createArrayOf("int4", fids);
+				Array statusArray = conn.createArrayOf("text", statuses);
+				Object[] params = partitioned
+						? new Object[] { cidArray, fidArray, statusArray, conn.createArrayOf("date", dates) }
+						: new Object[] { cidArray, fidArray, statusArray };
+				Metrics.roundTrips(1);
+				Set<Long> inserted = new HashSet<Long>();
+				rs = pc.getStatements().prepare(partitioned ? INSERT_RESERVATIONS_ON : INSERT_RESERVATIONS, params)
+						.executeQuery();
+				while (rs.next())
+					inserted.add(key(rs.getInt(1), rs.getInt(2)));
+				rs.close();
+				for (Booking booking : first)
+					booking.inserted = inserted.contains(key(booking.cid, booking.fid));
+			}
+
+			List<Booking> seated = new ArrayList<Booking>();
+			PreparedStatement take = null;
+			for (Booking booking : pending) {
+				if (!booking.inserted || !DBproject.holdsSeat(booking.status))
+					continue;
+				seated.add(booking);
+				take = batched(pc, take, partitioned ? DBproject.TAKE_SEAT_ON : DBproject.TAKE_SEAT,
+						DBproject.dated(booking.date, booking.fid));
+			}
+			PreparedStatement waitlist = null;
+			if (take != null) {
+				Metrics.roundTrips(1);
+				int[] counts = take.executeBatch();
+				for (int i = 0; i < counts.length; ++i) {
+					if (counts[i] != 0)
+						continue;
+					Booking booking = seated.get(i);
+					booking.waitlisted = true;
+					waitlist = batched(pc, waitlist,
+							partitioned ? DBproject.UPDATE_RESERVATION_STATUS_ON : DBproject.UPDATE_RESERVATION_STATUS,
+							DBproject.dated(booking.date, "W", booking.cid, booking.fid));
+				}
+			}
+			if (waitlist != null) {
+				Metrics.roundTrips(1);
+				waitlist.executeBatch();
+			}
+
+			Metrics.roundTrips(2);
+			pc.getStatements().prepare(UPDATE_APPLIED, batch.get(batch.size() - 1).seq, this._name).executeUpdate();
+			conn.commit();
+			Metrics.rows(pending.size());
+			return null;
+		});
+	}
+
+	private static long key(int cid, int fid) {
+		return ((long) cid << 32) | (fid & 0xFFFFFFFFL);
+	}
+
+	// adds a statement to a batch, starting the batch when stmt is null
+	private static PreparedStatement batched(PooledConnection pc, PreparedStatement stmt, String sql, Object... params)
+			throws SQLException {
+		if (stmt == null) {
+			stmt = pc.getStatements().prepare(sql, params);
+			// a batch left by a transaction that failed while it was built
+			stmt.clearBatch();
+		} else {
+			stmt.clearParameters();
+			StatementCache.bind(stmt, params);
+		}
+		stmt.addBatch();
+		return stmt;
+	}
+
+	// moves the applied position past a booking the database refuses
+	private void skip(Booking booking) throws SQLException {
+		this._esql.executeUpdate(UPDATE_APPLIED, booking.seq, this._name);
+		booking.inserted = booking.waitlisted = false;
+		booking.pending = true;
+		this._lock.lock();
+		try {
+			++this._skipped;
+		} finally {
+			this._lock.unlock();
+		}
+		applied(Collections.singletonList(booking));
+	}
+
+	// brings the in-memory seats and counters in line with what a batch did, leaving out the
+	// bookings an earlier transaction applied or skipped since they were accounted for then
+	private void applied(List<Booking> batch) {
+		SeatInventory seats = this._seats;
+		long waitlisted = 0;
+		for (Booking booking : batch) {
+			if (!booking.pending)
+				continue;
+			boolean seated = booking.inserted && !booking.waitlisted && DBproject.holdsSeat(booking.status);
+			boolean reserved = booking.reserved && booking.seq >= this._sessionStart;
+			if (seats != null && reserved && !seated)
+				seats.release(booking.fid);
+			else if (seats != null && !reserved && seated && seats.contains(booking.fid))
+				seats.tryReserve(booking.fid);
+			if (booking.inserted)
+				this._esql.reservationAdded(booking.fid, booking.waitlisted ? "W" : booking.status);
+			if (booking.waitlisted)
+				++waitlisted;
+		}
+		this._lock.lock();
+		try {
+			this._waitlisted += waitlisted;
+		} finally {
+			this._lock.unlock();
+		}
+	}
+
+	/**
+	 * Method to wait until every booking journaled so far has been applied.
+	 *
+	 * @return false when the flusher stopped first
+	 */
+	public boolean awaitApplied() {
+		this._lock.lock();
+		try {
+			long target = this._next - 1;
+			while (this._appliedSeq < target && this._flusher.isAlive())
+				this._applied.awaitNanos(100_000_000L);
+			return this._appliedSeq >= target;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		} finally {
+			this._lock.unlock();
+		}
+	}
+
+	/**
+	 * Method to stop taking bookings, wait for the flusher to apply the
+	 * journal while the database is reachable, and close the file. Bookings
+	 * left unapplied are replayed on the next open.
+	 *
+	 * @throws java.io.IOException when the file could not be closed
+	 */
+	public void close() throws IOException {
+		this._lock.lock();
+		try {
+			this._closing = true;
+			this._written.signalAll();
+			this._synced.signalAll();
+			this._applied.signalAll();
+		} finally {
+			this._lock.unlock();
+		}
+		try {
+			this._syncer.join();
+			this._flusher.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		this._file.close();
+	}
+
+	/**
+	 * Method to format the totals of the journal.
+	 *
+	 * @return a one line summary
+	 */
+	public String stats() {
+		this._lock.lock();
+		try {
+			long written = this._next - this._sessionStart;
+			return String.format("journaled=%d syncs=%d (%.1f per sync) applied=%d batches=%d waitlisted=%d skipped=%d",
+					written, this._syncs, this._syncs == 0 ? 0.0 : (double) written / this._syncs,
+					this._appliedSeq - this._openedAt, this._batches, this._waitlisted, this._skipped);
+		} finally {
+			this._lock.unlock();
+		}
+	}
+
+	/**
+	 * A way of booking, the database directly or the journal.
+	 */
+	private interface Booker {
+		BookingResult book(int cid, int fid, String status) throws Exception;
+	}
+
+	/**
+	 * Method to compare booking straight into the database with booking
+	 * through a journal, from the command line mode of DBproject. Both runs
+	 * book random customers on random flights for the same time, so run it
+	 * against a scratch copy of the database.
+	 *
+	 * @param esql the database client
+	 * @param args [--threads N] [--seconds S] [--journal FILE] [--batch N]
+	 */
+	public static void run(DBproject esql, String[] args) {
+		// one thread per pooled connection, so direct bookings do not queue for connections
+		int threads = ConnectionPool.DEFAULT_MAX_SIZE;
+		int seconds = 10;
+		File file = new File("bookings.journal");
+		int batchSize = DEFAULT_BATCH_SIZE;
+		try {
+			for (int i = 0; i + 1 < args.length; i += 2) {
+				switch (args[i]) {
+					case "--threads": threads = Integer.parseInt(args[i + 1]); break;
+					case "--seconds": seconds = Integer.parseInt(args[i + 1]); break;
+					case "--journal": file = new File(args[i + 1]); break;
+					case "--batch": batchSize = Integer.parseInt(args[i + 1]); break;
+					default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+				}
+			}
+			int[] customers = column(esql, BookingStress.SELECT_CUSTOMERS);
+			int[] flights = column(esql, StoreCheck.SELECT_FLIGHTS);
+			esql.getSeatInventory();
+
+			System.out.println("Booking straight into the database:");
+			measure(threads, seconds, customers, flights, esql::bookFlight);
+			System.out.println(esql.getPool().stats());
+
+			System.out.println("Booking through the journal " + file + ":");
+			BookingJournal journal = open(esql, file, DEFAULT_RECORDS, batchSize);
+			try {
+				long start = System.nanoTime();
+				measure(threads, seconds, customers, flights, journal::book);
+				long drain = System.nanoTime();
+				journal.awaitApplied();
+				long end = System.nanoTime();
+				System.out.printf("applied %.1f ms after the last booking, %.1f s from the first booking%n",
+						(end - drain) / 1e6, (end - start) / 1e9);
+				System.out.println(journal.stats());
+			} finally {
+				journal.close();
+			}
+		} catch (Exception e) {
+			System.err.println(e.getMessage());
+		}
+	}
+
+	// books from every thread for the given time and prints the outcomes, throughput and latency
+	private static void measure(int threads, int seconds, int[] customers, int[] flights, Booker booker)
+			throws InterruptedException {
+		LatencyHistogram latency = new LatencyHistogram();
+		AtomicLong taken = new AtomicLong();
+		AtomicLong full = new AtomicLong();
+		AtomicLong exists = new AtomicLong();
+		AtomicLong errors = new AtomicLong();
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		long start = System.nanoTime();
+		for (int t = 0; t < threads; ++t) {
+			executor.execute(() -> {
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				while (System.nanoTime() < deadline) {
+					int cid = customers[random.nextInt(customers.length)];
+					int fid = flights[random.nextInt(flights.length)];
+					// mostly seat-taking bookings with some waiting list traffic
+					String status = random.nextInt(10) < 8 ? "R" : "W";
+					long begin = System.nanoTime();
+					try {
+						BookingResult result = booker.book(cid, fid, status);
+						latency.record(System.nanoTime() - begin);
+						switch (result.getOutcome()) {
+							case BOOKED:
+							case JOURNALED:
+								taken.incrementAndGet();
+								break;
+							case FULL:
+								full.incrementAndGet();
+								break;
+							default:
+								exists.incrementAndGet();
+						}
+					} catch (Exception e) {
+						errors.incrementAndGet();
+					}
+				}
+			});
+		}
+		executor.shutdown();
+		executor.awaitTermination(seconds + 60, TimeUnit.SECONDS);
+		double elapsed = (System.nanoTime() - start) / 1e9;
+		System.out.printf("  %d thread(s): %d booking(s) taken (%.0f/s), %d full, %d already booked, %d failed%n",
+				threads, taken.get(), taken.get() / elapsed, full.get(), exists.get(), errors.get());
+		System.out.println("  latency " + latency.summary());
+	}
+
+	private static int[] column(DBproject esql, String query) throws SQLException {
+		List<Integer> values = new ArrayList<Integer>();
+		esql.executeQueryStreaming(query, DBproject.DEFAULT_FETCH_SIZE, row -> values.add(row.getInt(1)));
+		int[] column = new int[values.size()];
+		for (int i = 0; i < column.length; ++i)
+			column[i] = values.get(i);
+		return column;
+	}
+}
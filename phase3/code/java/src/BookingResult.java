@@ -0,0 +1,62 @@
+/**
+ * Outcome of a booking or status change made through DBproject, with the
+ * reservation number the database assigned and the number of attempts the
+ * transaction needed.
+ *
+ */
+
+public class BookingResult {
+	public enum Outcome {
+		// a new reservation was committed
+		BOOKED,
+		// the status of an existing reservation was committed
+		UPDATED,
+		// the booking needed a seat and the flight has none left
+		FULL,
+		// the customer already has a reservation on the flight
+		EXISTS,
+		// there is no reservation to update
+		NOT_FOUND,
+		// the booking is on disk in the local journal and applied to the database later
+		JOURNALED
+	}
+
+	private final Outcome _outcome;
+	private final int _rnum;
+	private int _attempts = 1;
+
+	BookingResult(Outcome outcome, int rnum) {
+		this._outcome = outcome;
+		this._rnum = rnum;
+	}
+
+	BookingResult(Outcome outcome) {
+		this(outcome, -1);
+	}
+
+	public Outcome getOutcome() {
+		return this._outcome;
+	}
+
+	// true if the booking or update was written to the database
+	public boolean isCommitted() {
+		return this._outcome == Outcome.BOOKED || this._outcome == Outcome.UPDATED;
+	}
+
+	// the reservation number, or -1 when none was assigned
+	public int getRnum() {
+		return this._rnum;
+	}
+
+	public int getAttempts() {
+		return this._attempts;
+	}
+
+	void setAttempts(int attempts) {
+		this._attempts = attempts;
+	}
+
+	public String toString() {
+		return this._outcome + (this._rnum >= 0 ? " rnum=" + this._rnum : "");
+	}
+}
@@ -0,0 +1,537 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class serves the menu operations as JSON over HTTP:
+ *
+ *   POST /planes          {"id", "make", "model", "age", "seats"}
+ *   POST /pilots          {"id", "fullname", "nationality"}
+ *   POST /flights         {"fnum", "cost", "num_sold", "num_stops", "departure",
+ *                          "arrival", "arrival_airport", "departure_airport",
+ *                          "pilot_id", "plane_id"}
+ *   POST /technicians     {"id", "full_name"}
+ *   POST /reservations    {"cid", "fid", "status"}   book a flight
+ *   PUT  /reservations    {"cid", "fid", "status"}   change a reservation status
+ *   GET  /seats?flight=N&date=YYYY-MM-DD
+ *   GET  /repairs/planes
+ *   GET  /repairs/years
+ *   GET  /passengers?flight=N&status=W|R|C
+ *   GET  /routes?from=A&to=B&date=YYYY-MM-DD[&connections=N][&layover=D]
+ *   GET  /metrics         Prometheus text
+ *
+ * The operations run on a FlightStore: Postgres through the bounded
+ * connection pool of one DBproject, or with --memory the tables of a data
+ * directory held in process, with no database at all. Every request runs on
+ * its own virtual thread when the JVM has them. Requests that wait too long
+ * for a connection get 503. With --coalesce, status changes of one flight
+ * are gathered for a few milliseconds and written together, see
+ * StatusCoalescer. Each route is recorded as an
+ * operation in the client metrics, e.g. "POST /reservations", so round trips
+ * per request show up next to latency.
+ *
+ * The driver holds monitors while it talks to the server, which pins a
+ * virtual thread to its carrier, so keep the pool smaller than the number
+ * of cores.
+ *
+ */
+
+public class BookingServer {
+	public static final int DEFAULT_PORT = 8080;
+	static final String JSON = "application/json; charset=utf-8";
+	static final DateTimeFormatter DATE_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
+	/**
+	 * One parsed request: the query string parameters and the JSON body.
+	 */
+	static class Request {
+		final Map<String, String> query;
+		final Map<String, Object> body;
+
+		Request(Map<String, String> query, Map<String, Object> body) {
+			this.query = query;
+			this.body = body;
+		}
+	}
+
+	/**
+	 * A status code and the value written back as JSON.
+	 */
+	static class Reply {
+		final int status;
+		final Object body;
+
+		Reply(int status, Object body) {
+			this.status = status;
+			this.body = body;
+		}
+	}
+
+	/**
+	 * The work behind one route.
+	 */
+	interface Route {
+		Reply handle(Request request) throws SQLException;
+	}
+
+	private final FlightStore _store;
+	private final HttpServer _server;
+	private final ExecutorService _executor;
+	// "METHOD /path" -> route
+	private final Map<String, Route> _routes = new HashMap<String, Route>();
+
+	/**
+	 * Method to start serving.
+	 *
+	 * @param store   the storage the operations run on
+	 * @param port    the port to listen on, 0 picks a free one
+	 * @param virtual whether to run requests on virtual threads
+	 * @param threads platform threads used without virtual threads
+	 * @throws java.io.IOException when the port could not be bound
+	 */
+	public BookingServer(FlightStore store, int port, boolean virtual, int threads) throws IOException {
+		this._store = store;
+		this._routes.put("POST /planes", this::addPlane);
+		this._routes.put("POST /pilots", this::addPilot);
+		this._routes.put("POST /flights", this::addFlight);
+		this._routes.put("POST /technicians", this::addTechnician);
+		this._routes.put("POST /reservations", this::bookFlight);
+		this._routes.put("PUT /reservations", this::updateReservation);
+		this._routes.put("GET /seats", this::availableSeats);
+		this._routes.put("GET /repairs/planes", r -> repairs(this._store.repairsPerPlane(), "plane"));
+		this._routes.put("GET /repairs/years", r -> repairs(this._store.repairsPerYear(), "year"));
+		this._routes.put("GET /passengers", this::passengers);
+		this._routes.put("GET /routes", this::routes);
+
+		this._executor = TaskExecutors.newExecutor(virtual, threads);
+		this._server = HttpServer.create(new InetSocketAddress(port), 1024);
+		this._server.createContext("/", this::dispatch);
+		this._server.setExecutor(this._executor);
+		this._server.start();
+	}
+
+	public int getPort() {
+		return this._server.getAddress().getPort();
+	}
+
+	/**
+	 * Method to stop accepting requests, let running ones finish for up to the
+	 * given time and stop the request threads.
+	 *
+	 * @param seconds the time given to running requests
+	 */
+	public void stop(int seconds) {
+		this._server.stop(seconds);
+		this._executor.shutdown();
+		try {
+			this._executor.awaitTermination(seconds, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void dispatch(HttpExchange exchange) throws IOException {
+		try {
+			String path = exchange.getRequestURI().getPath();
+			if (path.equals("/metrics") && exchange.getRequestMethod().equals("GET")) {
+				StringBuilder text = new StringBuilder();
+				this._store.getMetrics().writePrometheus(text);
+				send(exchange, 200, MetricsServer.CONTENT_TYPE, text.toString());
+				return;
+			}
+			String name = exchange.getRequestMethod() + " " + path;
+			Route route = this._routes.get(name);
+			if (route == null) {
+				send(exchange, 404, JSON, error("No route for " + name));
+				return;
+			}
+
+			Reply reply;
+			try {
+				Request request = new Request(query(exchange.getRequestURI().getRawQuery()), body(exchange));
+				reply = this._store.getMetrics().measure(name, () -> route.handle(request));
+			} catch (IllegalArgumentException | DateTimeParseException e) {
+				reply = new Reply(400, error(e.getMessage()));
+			} catch (SQLTransientConnectionException e) {
+				reply = new Reply(503, error(e.getMessage()));
+			} catch (SQLException e) {
+				// integrity constraint violations such as a duplicate key
+				String state = e.getSQLState();
+				reply = new Reply(state != null && state.startsWith("23") ? 409 : 500, error(e.getMessage()));
+			}
+			send(exchange, reply.status, JSON, Json.toJson(reply.body));
+		} catch (RuntimeException e) {
+			send(exchange, 500, JSON, error(String.valueOf(e.getMessage())));
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private static void send(HttpExchange exchange, int status, String type, Object body) throws IOException {
+		byte[] bytes = (body instanceof String ? (String) body : Json.toJson(body)).getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", type);
+		exchange.sendResponseHeaders(status, bytes.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(bytes);
+		out.close();
+	}
+
+	private static Map<String, Object> error(String message) {
+		Map<String, Object> body = new LinkedHashMap<String, Object>();
+		body.put("error", message);
+		return body;
+	}
+
+	private static Map<String, String> query(String raw) {
+		Map<String, String> params = new HashMap<String, String>();
+		if (raw == null || raw.isEmpty())
+			return params;
+		for (String pair : raw.split("&")) {
+			int eq = pair.indexOf('=');
+			String key = eq < 0 ? pair : pair.substring(0, eq);
+			String value = eq < 0 ? "" : pair.substring(eq + 1);
+			params.put(URLDecoder.decode(key, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+		}
+		return params;
+	}
+
+	private static Map<String, Object> body(HttpExchange exchange) throws IOException {
+		if (exchange.getRequestMethod().equals("GET"))
+			return new HashMap<String, Object>();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (InputStream in = exchange.getRequestBody()) {
+			byte[] buffer = new byte[4096];
+			int n;
+			while ((n = in.read(buffer)) > 0)
+				bytes.write(buffer, 0, n);
+		}
+		return Json.parseObject(new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	/////////////////////////////////////////////////////////////////////////////////////
+	//// FIELD ACCESS, with the same limits the menu enforces
+	/////////////////////////////////////////////////////////////////////////////////////
+
+	private static int intField(Map<String, Object> fields, String name) {
+		Object value = fields.get(name);
+		if (value instanceof Long && (Long) value == ((Long) value).intValue())
+			return ((Long) value).intValue();
+		throw new IllegalArgumentException("Field '" + name + "' must be an integer");
+	}
+
+	private static String stringField(Map<String, Object> fields, String name, int maxLength) {
+		Object value = fields.get(name);
+		if (!(value instanceof String) || ((String) value).isEmpty() || ((String) value).length() > maxLength)
+			throw new IllegalArgumentException("Field '" + name + "' must be a string of 1 to " + maxLength + " characters");
+		return (String) value;
+	}
+
+	// a string field left to the caller to check, null when it is missing
+	private static String textField(Map<String, Object> fields, String name) {
+		Object value = fields.get(name);
+		if (value != null && !(value instanceof String))
+			throw new IllegalArgumentException("Field '" + name + "' must be a string");
+		return (String) value;
+	}
+
+	private static int intParam(Map<String, String> query, String name) {
+		try {
+			return Integer.parseInt(query.get(name));
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Parameter '" + name + "' must be an integer");
+		}
+	}
+
+	private static int intParam(Map<String, String> query, String name, int defaultValue) {
+		return query.containsKey(name) ? intParam(query, name) : defaultValue;
+	}
+
+	private static String status(String status) {
+		if (status == null || status.length() != 1 || "WRC".indexOf(status.charAt(0)) < 0)
+			throw new IllegalArgumentException("Status must be one of W, R, C");
+		return status;
+	}
+
+	// accepts the menu's "YYYY-MM-DD hh:mm" or a plain date, the schema keeps the date only
+	private static LocalDate date(String text, String name) {
+		if (text == null)
+			throw new IllegalArgumentException("Missing '" + name + "'");
+		return text.length() > 10 ? LocalDate.parse(text, DATE_TIME) : LocalDate.parse(text);
+	}
+
+	private static Reply inserted(int rows) {
+		Map<String, Object> body = new LinkedHashMap<String, Object>();
+		body.put("inserted", rows);
+		return new Reply(201, body);
+	}
+
+	/////////////////////////////////////////////////////////////////////////////////////
+	//// ROUTES
+	/////////////////////////////////////////////////////////////////////////////////////
+
+	private Reply addPlane(Request r) throws SQLException {
+		int id = intField(r.body, "id");
+		String make = stringField(r.body, "make", 32);
+		String model = stringField(r.body, "model", 64);
+		int age = intField(r.body, "age");
+		int seats = intField(r.body, "seats");
+		if (age < 0)
+			throw new IllegalArgumentException("Plane Age cannot be negative");
+		if (seats <= 0 || seats >= 500)
+			throw new IllegalArgumentException("Number of Plane Seats must be between 1 and 499");
+		return inserted(this._store.addPlane(id, make, model, age, seats));
+	}
+
+	private Reply addPilot(Request r) throws SQLException {
+		int id = intField(r.body, "id");
+		String name = stringField(r.body, "fullname", 128);
+		String nationality = stringField(r.body, "nationality", 24);
+		return inserted(this._store.addPilot(id, name, nationality));
+	}
+
+	private Reply addFlight(Request r) throws SQLException {
+		int fnum = intField(r.body, "fnum");
+		int cost = intField(r.body, "cost");
+		int sold = intField(r.body, "num_sold");
+		int stops = intField(r.body, "num_stops");
+		LocalDate departure = date(textField(r.body, "departure"), "departure");
+		LocalDate arrival = date(textField(r.body, "arrival"), "arrival");
+		String arrivalAirport = stringField(r.body, "arrival_airport", 5);
+		String departureAirport = stringField(r.body, "departure_airport", 5);
+		int pilot = intField(r.body, "pilot_id");
+		int plane = intField(r.body, "plane_id");
+		if (cost <= 0)
+			throw new IllegalArgumentException("Flight Cost cannot be less than or equal to 0");
+		if (sold < 0 || stops < 0)
+			throw new IllegalArgumentException("Seats sold and stops cannot be negative");
+		return inserted(this._store.addFlight(fnum, cost, sold, stops, departure, arrival, arrivalAirport,
+				departureAirport, pilot, plane));
+	}
+
+	private Reply addTechnician(Request r) throws SQLException {
+		int id = intField(r.body, "id");
+		String name = stringField(r.body, "full_name", 128);
+		return inserted(this._store.addTechnician(id, name));
+	}
+
+	private static Reply booking(BookingResult result) {
+		Map<String, Object> body = new LinkedHashMap<String, Object>();
+		body.put("outcome", result.getOutcome().name());
+		if (result.getRnum() >= 0)
+			body.put("rnum", result.getRnum());
+		body.put("attempts", result.getAttempts());
+		switch (result.getOutcome()) {
+			case BOOKED:
+				return new Reply(201, body);
+			case UPDATED:
+				return new Reply(200, body);
+			case NOT_FOUND:
+				return new Reply(404, body);
+			default:
+				return new Reply(409, body);
+		}
+	}
+
+	private Reply bookFlight(Request r) throws SQLException {
+		String status = status(textField(r.body, "status"));
+		return booking(this._store.bookFlight(intField(r.body, "cid"), intField(r.body, "fid"), status));
+	}
+
+	private Reply updateReservation(Request r) throws SQLException {
+		String status = status(textField(r.body, "status"));
+		return booking(this._store.updateReservationStatus(intField(r.body, "cid"), intField(r.body, "fid"), status));
+	}
+
+	private Reply availableSeats(Request r) throws SQLException {
+		int flight = intParam(r.query, "flight");
+		LocalDate date = date(r.query.get("date"), "date");
+		int available = this._store.availableSeats(flight, date);
+		if (available == SeatInventory.UNKNOWN)
+			return new Reply(404, error("Flight or Departure Time does not exist"));
+		Map<String, Object> body = new LinkedHashMap<String, Object>();
+		body.put("flight", flight);
+		body.put("date", date.toString());
+		body.put("available", available);
+		return new Reply(200, body);
+	}
+
+	private static Reply repairs(List<int[]> counts, String key) {
+		List<Object> groups = new ArrayList<Object>();
+		for (int[] count : counts) {
+			Map<String, Object> group = new LinkedHashMap<String, Object>();
+			group.put(key, count[0]);
+			group.put("repairs", count[1]);
+			groups.add(group);
+		}
+		return new Reply(200, groups);
+	}
+
+	private Reply passengers(Request r) throws SQLException {
+		int flight = intParam(r.query, "flight");
+		String status = status(r.query.get("status"));
+		Map<String, Object> body = new LinkedHashMap<String, Object>();
+		body.put("flight", flight);
+		body.put("status", status);
+		body.put("passengers", this._store.passengersWithStatus(flight, status));
+		return new Reply(200, body);
+	}
+
+	private Reply routes(Request r) throws SQLException {
+		String from = r.query.get("from");
+		String to = r.query.get("to");
+		if (from == null || to == null)
+			throw new IllegalArgumentException("Parameters 'from' and 'to' are required");
+		LocalDate date = date(r.query.get("date"), "date");
+		List<Object> itineraries = new ArrayList<Object>();
+		for (RouteGraph.Itinerary itinerary : this._store.getRouteGraph().search(from, to, date,
+				intParam(r.query, "connections", RouteGraph.DEFAULT_MAX_CONNECTIONS),
+				intParam(r.query, "layover", RouteGraph.DEFAULT_MIN_LAYOVER_DAYS))) {
+			List<Object> flights = new ArrayList<Object>();
+			for (int fnum : itinerary.getFlights())
+				flights.add(fnum);
+			Map<String, Object> body = new LinkedHashMap<String, Object>();
+			body.put("flights", flights);
+			body.put("airports", Arrays.asList((Object[]) itinerary.getAirports()));
+			body.put("cost", itinerary.getCost());
+			body.put("departure", itinerary.getDeparture().toString());
+			body.put("arrival", itinerary.getArrival().toString());
+			itineraries.add(body);
+		}
+		return new Reply(200, itineraries);
+	}
+
+	/**
+	 * Method to run the server from the command line mode of DBproject until
+	 * the process is stopped.
+	 *
+	 * @param esql the database client
+	 * @param port the port to listen on
+	 */
+	public static void run(DBproject esql, int port) {
+		run(esql, port, -1);
+	}
+
+	/**
+	 * Method to run the server until the process is stopped, gathering status
+	 * changes per flight for a window before writing them.
+	 *
+	 * @param esql           the database client
+	 * @param port           the port to listen on
+	 * @param coalesceMillis the window of the status coalescer, or -1 to write
+	 *                       every change on its own
+	 */
+	public static void run(DBproject esql, int port, long coalesceMillis) {
+		try {
+			// load the in-memory indexes before the first request needs them
+			esql.getSeatInventory();
+			esql.getRouteGraph();
+			int connections = esql.getPool().getMaxSize();
+			StatusCoalescer coalescer = coalesceMillis < 0 ? null
+					: new StatusCoalescer(esql, coalesceMillis, StatusCoalescer.DEFAULT_MAX_BATCH, connections);
+			serve(new JdbcStore(esql, coalescer), port, connections * 4, connections + " connections"
+					+ (coalescer != null ? ", status changes coalesced over " + coalesceMillis + " ms" : ""),
+					() -> System.out.println(esql.getPool().stats()));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (IOException | SQLException e) {
+			System.err.println(e.getMessage());
+		}
+	}
+
+	/**
+	 * Method to run the server on the tables of a data directory held in
+	 * memory until the process is stopped. Changes are lost when it stops.
+	 *
+	 * @param dataDir the directory of the CSV files
+	 * @param port    the port to listen on
+	 */
+	public static void runInMemory(File dataDir, int port) {
+		try {
+			MemoryStore store = MemoryStore.load(dataDir);
+			store.getRouteGraph();
+			int threads = Runtime.getRuntime().availableProcessors();
+			serve(store, port, threads, "in memory from " + dataDir, () -> {
+			});
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (IOException | SQLException e) {
+			System.err.println(e.getMessage());
+		}
+	}
+
+	// serves until the process is stopped, then prints the metrics and the stats of the backend
+	private static void serve(FlightStore store, int port, int threads, String backend, Runnable stats)
+			throws IOException, InterruptedException {
+		BookingServer server = new BookingServer(store, port, true, threads);
+		System.out.println("Serving on http://localhost:" + server.getPort() + "/ ("
+				+ (TaskExecutors.hasVirtualThreads() ? "virtual threads" : "platform threads") + ", " + backend + ")");
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			server.stop(5);
+			System.out.print(store.getMetrics().summary());
+			stats.run();
+		}));
+		Thread.currentThread().join();
+	}
+
+	public static void main(String[] args) {
+		if (args.length < 3) {
+			System.err.println("Usage: " + "java [-classpath <classpath>] " + BookingServer.class.getName()
+					+ " <dbname> <port> <user> [--listen PORT] [--pool N] [--memory DIR] [--coalesce MS]");
+			System.err.println("  --memory DIR serves the CSV files of DIR from memory, the database is not used");
+			System.err.println("  --coalesce MS writes the status changes of a flight together, gathered over MS ms");
+			return;
+		} // end if
+
+		int listen = DEFAULT_PORT, pool = ConnectionPool.DEFAULT_MAX_SIZE;
+		String memory = null;
+		long coalesce = -1;
+		for (int i = 3; i < args.length; ++i) {
+			switch (args[i]) {
+				case "--listen": listen = Integer.parseInt(args[++i]); break;
+				case "--pool": pool = Integer.parseInt(args[++i]); break;
+				case "--memory": memory = args[++i]; break;
+				case "--coalesce": coalesce = Long.parseLong(args[++i]); break;
+				default:
+					System.err.println("Unknown option: " + args[i]);
+					return;
+			}
+		}
+
+		if (memory != null) {
+			runInMemory(new File(memory), listen);
+			return;
+		}
+
+		DBproject esql = null;
+		try {
+			Class.forName("org.postgresql.Driver");
+			esql = new DBproject(args[0], args[1], args[2], "", pool);
+			run(esql, listen, coalesce);
+		} catch (Exception e) {
+			System.err.println(e.getMessage());
+		} finally {
+			if (esql != null)
+				esql.cleanup();
+		}
+	}
+}
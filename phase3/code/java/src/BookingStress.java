@@ -0,0 +1,115 @@
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class drives concurrent bookings at a handful of popular flights and
+ * reports committed bookings per second and the abort rate. Afterwards it
+ * checks that no hot flight has more seats sold than its plane holds.
+ *
+ * Bookings are written to the database, so run it against a scratch copy.
+ *
+ */
+
+public class BookingStress {
+	// flights that hold the most seats are the most contended
+	static final String SELECT_HOT_FLIGHTS = "SELECT FI.flight_id FROM FlightInfo FI, Plane P WHERE FI.plane_id = P.id ORDER BY P.seats DESC, FI.flight_id LIMIT ?";
+	static final String SELECT_CUSTOMERS = "SELECT id FROM Customer";
+	static final String SELECT_OVERSOLD = "SELECT F.fnum, F.num_sold, P.seats\nFROM Flight F, FlightInfo FI, Plane P\nWHERE F.fnum = FI.flight_id AND FI.plane_id = P.id AND F.num_sold > P.seats";
+
+	public static void main(String[] args) {
+		if (args.length < 3) {
+			System.err.println("Usage: " + "java [-classpath <classpath>] " + BookingStress.class.getName()
+					+ " <dbname> <port> <user> [threads] [seconds] [hot flights]");
+			return;
+		} // end if
+
+		int threads = args.length > 3 ? Integer.parseInt(args[3]) : 32;
+		int seconds = args.length > 4 ? Integer.parseInt(args[4]) : 30;
+		int hot = args.length > 5 ? Integer.parseInt(args[5]) : 5;
+
+		DBproject esql = null;
+		try {
+			Class.forName("org.postgresql.Driver");
+			esql = new DBproject(args[0], args[1], args[2], "", threads);
+			run(esql, threads, seconds, hot);
+		} catch (Exception e) {
+			System.err.println(e.getMessage());
+		} finally {
+			if (esql != null)
+				esql.cleanup();
+		}
+	}
+
+	static void run(DBproject esql, int threads, int seconds, int hot) throws Exception {
+		int[] flights = column(esql.executeQueryAndReturnResult(SELECT_HOT_FLIGHTS, hot));
+		int[] customers = column(esql.executeQueryAndReturnResult(SELECT_CUSTOMERS));
+		esql.getSeatInventory();
+
+		AtomicLong booked = new AtomicLong();
+		AtomicLong full = new AtomicLong();
+		AtomicLong exists = new AtomicLong();
+		AtomicLong aborts = new AtomicLong();
+		AtomicLong errors = new AtomicLong();
+		AtomicLong attempts = new AtomicLong();
+
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		long start = System.nanoTime();
+		for (int t = 0; t < threads; ++t) {
+			executor.execute(() -> {
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				while (System.nanoTime() < deadline) {
+					int cid = customers[random.nextInt(customers.length)];
+					int fid = flights[random.nextInt(flights.length)];
+					// mostly seat-taking bookings with some waiting list traffic
+					String status = random.nextInt(10) < 8 ? "R" : "W";
+					try {
+						BookingResult result = esql.bookFlight(cid, fid, status);
+						attempts.addAndGet(result.getAttempts());
+						aborts.addAndGet(result.getAttempts() - 1);
+						switch (result.getOutcome()) {
+							case BOOKED:
+								booked.incrementAndGet();
+								break;
+							case FULL:
+								full.incrementAndGet();
+								break;
+							default:
+								exists.incrementAndGet();
+						}
+					} catch (Exception e) {
+						// ran out of retries or failed outright
+						attempts.addAndGet(DBproject.MAX_BOOKING_ATTEMPTS);
+						aborts.addAndGet(DBproject.MAX_BOOKING_ATTEMPTS);
+						errors.incrementAndGet();
+					}
+				}
+			});
+		}
+		executor.shutdown();
+		executor.awaitTermination(seconds + 60, TimeUnit.SECONDS);
+		double elapsed = (System.nanoTime() - start) / 1e9;
+
+		System.out.println("-----------------------------------------------------------------");
+		System.out.println("threads: " + threads + ", hot flights: " + flights.length + ", customers: " + customers.length);
+		System.out.printf("committed bookings: %d (%.0f/s)%n", booked.get(), booked.get() / elapsed);
+		System.out.println("rejected full: " + full.get() + ", already booked: " + exists.get() + ", failed: " + errors.get());
+		System.out.printf("transactions: %d, aborted and retried: %d (%.2f%%)%n", attempts.get(), aborts.get(),
+				attempts.get() == 0 ? 0.0 : 100.0 * aborts.get() / attempts.get());
+		System.out.println(esql.getPool().stats());
+		int oversold = esql.executeQueryAndPrintResult(SELECT_OVERSOLD);
+		System.out.println("oversold flights: " + oversold);
+		System.out.println("-----------------------------------------------------------------");
+	}
+
+	private static int[] column(List<List<String>> rows) {
+		int[] values = new int[rows.size()];
+		for (int i = 0; i < values.length; ++i)
+			values[i] = Integer.parseInt(rows.get(i).get(0));
+		return values;
+	}
+}
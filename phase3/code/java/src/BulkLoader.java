@@ -0,0 +1,290 @@
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.postgresql.PGConnection;
+
+/**
+ * This class loads the CSV files of phase3/code/data into the database by
+ * streaming them through the COPY FROM STDIN protocol of the driver, so the
+ * files only need to exist on the client. Tables without foreign keys are
+ * loaded in parallel first, then the tables that reference them.
+ *
+ * A table is read from its single file, e.g. customer.csv, or when that does
+ * not exist from its numbered chunks, e.g. customer.00000.csv, as written by
+ * DataGenerator.
+ *
+ */
+
+public class BulkLoader {
+	// bytes read from a file per COPY data message
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * One table of the schema with the file and columns it is loaded from.
+	 */
+	static class Table {
+		final String name;
+		final String file;
+		final String columns;
+
+		Table(String name, String file, String columns) {
+			this.name = name;
+			this.file = file;
+			this.columns = columns;
+		}
+	}
+
+	// tables that reference nothing, loaded first
+	static final Table[] PARENTS = {
+		new Table("Customer", "customer.csv", "id, fname, lname, gtype, dob, address, phone, zipcode"),
+		new Table("Pilot", "pilots.csv", "id, fullname, nationality"),
+		new Table("Plane", "planes.csv", "id, make, model, age, seats"),
+		new Table("Technician", "technician.csv", "id, full_name"),
+		new Table("Flight", "flights.csv", "fnum, cost, num_sold, num_stops, actual_departure_date, actual_arrival_date, arrival_airport, departure_airport"),
+	};
+
+	// tables with foreign keys into PARENTS, loaded once the parents are done
+	static final Table[] CHILDREN = {
+		new Table("Reservation", "reservation.csv", "rnum, cid, fid, status"),
+		new Table("FlightInfo", "flightinfo.csv", "fiid, flight_id, pilot_id, plane_id"),
+		new Table("Repairs", "repairs.csv", "rid, repair_date, repair_code, pilot_id, plane_id, technician_id"),
+		new Table("Schedule", "schedule.csv", "id, flightNum, departure_time, arrival_time"),
+	};
+
+	// the uniqueness of (cid, fid) is enforced after the raw rows are in
+	static final String DROP_RESERVATION_KEY = "ALTER TABLE Reservation DROP CONSTRAINT IF EXISTS reservation_cid_fid_key;";
+
+	// same statements as sql/finish-load.sql, the duplicate reservations are kept aside with their seats given back
+	static final String[] FINISH_LOAD = {
+		"DROP TABLE IF EXISTS ReservationReject;",
+		"CREATE TABLE ReservationReject AS\nSELECT R.* FROM Reservation R\nWHERE EXISTS (SELECT 1 FROM Reservation D WHERE D.cid = R.cid AND D.fid = R.fid AND D.rnum < R.rnum);",
+		"UPDATE Flight F SET num_sold = GREATEST(0, F.num_sold - J.seats)\nFROM (SELECT fid, count(*) AS seats FROM ReservationReject WHERE status IN ('R', 'C') GROUP BY fid) J\nWHERE F.fnum = J.fid;",
+		"DELETE FROM Reservation R USING ReservationReject J WHERE R.rnum = J.rnum AND R.cid = J.cid AND R.fid = J.fid;",
+		"ALTER TABLE Reservation ADD CONSTRAINT reservation_cid_fid_key UNIQUE (cid, fid);",
+		"SELECT setval('reservation_rnum_seq', COALESCE(MAX(rnum), 0) + 1, false) FROM Reservation;",
+		"SELECT setval('flightinfo_fiid_seq', COALESCE(MAX(fiid), 0) + 1, false) FROM FlightInfo;",
+	};
+
+	// on sql/create-partitioned.sql reservation.csv is staged and the flight date added on the way in;
+	// a reservation of a missing flight gets no date and fails the NOT NULL of flight_date
+	static final String STAGE_RESERVATION = "ReservationStage";
+	static final String[] FINISH_LOAD_PARTITIONED = {
+		"INSERT INTO Reservation (rnum, cid, fid, status, flight_date)\nSELECT S.rnum, S.cid, S.fid, S.status, F.actual_departure_date\nFROM ReservationStage S LEFT JOIN Flight F ON F.fnum = S.fid;",
+		"TRUNCATE ReservationStage;",
+		FINISH_LOAD[0],
+		FINISH_LOAD[1],
+		FINISH_LOAD[2],
+		FINISH_LOAD[3],
+		"ALTER TABLE Reservation ADD CONSTRAINT reservation_cid_fid_key UNIQUE (cid, fid, flight_date);",
+		FINISH_LOAD[5],
+		FINISH_LOAD[6],
+	};
+	static final String COUNT_REJECTED = "SELECT count(*), count(*) FILTER (WHERE status IN ('R', 'C')) FROM ReservationReject";
+
+	private final DBproject _esql;
+	private final File _dataDir;
+
+	public BulkLoader(DBproject esql, File dataDir) {
+		this._esql = esql;
+		this._dataDir = dataDir;
+	}
+
+	/**
+	 * Method to empty all nine tables before a reload.
+	 *
+	 * @throws java.sql.SQLException when the tables could not be truncated
+	 */
+	public void truncate() throws SQLException {
+		StringBuilder names = new StringBuilder();
+		for (Table t : PARENTS)
+			names.append(names.length() == 0 ? "" : ", ").append(t.name);
+		for (Table t : CHILDREN)
+			names.append(", ").append(t.name);
+		this._esql.executeUpdate("TRUNCATE " + names + " CASCADE;");
+	}
+
+	/**
+	 * Method to load every table, parents first and then children, with the
+	 * tables of each group running in parallel.
+	 *
+	 * @return the total number of rows loaded
+	 * @throws java.sql.SQLException when a table failed to load
+	 */
+	public long loadAll() throws SQLException {
+		int threads = Math.min(this._esql.getPool().getMaxSize(), PARENTS.length);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			long start = System.nanoTime();
+			long rows = loadGroup(executor, PARENTS) + loadGroup(executor, CHILDREN);
+			report("total", rows, System.nanoTime() - start);
+			return rows;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	// loads one group of tables in parallel and waits for all of them
+	private long loadGroup(ExecutorService executor, Table[] tables) throws SQLException {
+		List<Future<Long>> results = new ArrayList<Future<Long>>();
+		for (Table t : tables)
+			results.add(executor.submit(() -> load(t)));
+
+		long rows = 0;
+		SQLException failure = null;
+		for (int i = 0; i < tables.length; ++i) {
+			try {
+				rows += results.get(i).get();
+			} catch (ExecutionException e) {
+				SQLException cause = new SQLException("Loading " + tables[i].name + " failed: " + e.getCause().getMessage(), e.getCause());
+				if (failure == null)
+					failure = cause;
+				else
+					failure.setNextException(cause);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new SQLException("Interrupted while loading " + tables[i].name);
+			}
+		}
+		if (failure != null)
+			throw failure;
+		return rows;
+	}
+
+	/**
+	 * Method to return the files a table is loaded from: its single file, or
+	 * its numbered chunks in order.
+	 *
+	 * @param dataDir the directory of the CSV files
+	 * @param t       the table
+	 * @return the files, the single file when there are no chunks either
+	 */
+	static List<File> files(File dataDir, Table t) {
+		File whole = new File(dataDir, t.file);
+		String prefix = t.file.substring(0, t.file.length() - ".csv".length()) + ".";
+		File[] chunks = dataDir.listFiles((dir, name) -> name.startsWith(prefix) && name.endsWith(".csv"));
+		if (whole.exists() || chunks == null || chunks.length == 0)
+			return Collections.singletonList(whole);
+		Arrays.sort(chunks);
+		return Arrays.asList(chunks);
+	}
+
+	/**
+	 * Method to return the table the rows of a CSV file are copied into, the
+	 * staging table for reservations on a partitioned schema.
+	 *
+	 * @param esql the database client
+	 * @param t    the table
+	 * @return the table name
+	 * @throws java.sql.SQLException when the schema could not be checked
+	 */
+	static String target(DBproject esql, Table t) throws SQLException {
+		return t.name.equals("Reservation") && esql.isPartitioned() ? STAGE_RESERVATION : t.name;
+	}
+
+	/**
+	 * Method to return every column of a table, including the flight date of
+	 * reservations on a partitioned schema.
+	 *
+	 * @param esql the database client
+	 * @param t    the table
+	 * @return the columns, separated by commas
+	 * @throws java.sql.SQLException when the schema could not be checked
+	 */
+	static String columns(DBproject esql, Table t) throws SQLException {
+		return t.name.equals("Reservation") && esql.isPartitioned() ? t.columns + ", flight_date" : t.columns;
+	}
+
+	/**
+	 * Method to stream the CSV files of a table into it, one COPY per file on
+	 * the same connection.
+	 *
+	 * @param t the table to load
+	 * @return the number of rows copied
+	 * @throws java.sql.SQLException when the COPY failed or a file could not
+	 *                               be read
+	 */
+	long load(Table t) throws SQLException {
+		String sql = "COPY " + target(this._esql, t) + " (" + t.columns + ") FROM STDIN WITH DELIMITER ','";
+		return this._esql.withConnection(pc -> {
+			long start = System.nanoTime();
+			long rows = 0;
+			for (File file : files(this._dataDir, t)) {
+				try (InputStream data = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE)) {
+					rows += pc.getConnection().unwrap(PGConnection.class).getCopyAPI().copyIn(sql, data, BUFFER_SIZE);
+				} catch (IOException e) {
+					throw new SQLException("Unable to read " + file + ": " + e.getMessage(), e);
+				}
+			}
+			report(t.name, rows, System.nanoTime() - start);
+			return rows;
+		});
+	}
+
+	static void report(String table, long rows, long nanos) {
+		System.out.printf("%-12s %10d rows %10.1f ms %12.0f rows/s%n", table, rows, nanos / 1e6,
+				rows / Math.max(nanos / 1e9, 1e-9));
+	}
+
+	/**
+	 * Method to run the statements of sql/finish-load.sql and refresh the
+	 * planner statistics once every table is loaded. On a partitioned schema
+	 * the staged reservations are moved into Reservation first. The number of
+	 * duplicate reservations moved to ReservationReject is printed.
+	 *
+	 * @param esql the database client
+	 * @throws java.sql.SQLException when a statement failed
+	 */
+	static void finish(DBproject esql) throws SQLException {
+		String[] finish = esql.isPartitioned() ? FINISH_LOAD_PARTITIONED : FINISH_LOAD;
+		esql.withConnection(pc -> {
+			Statement stmt = pc.getConnection().createStatement();
+			for (String sql : finish)
+				stmt.execute(sql);
+			ResultSet rs = stmt.executeQuery(COUNT_REJECTED);
+			if (rs.next() && rs.getLong(1) > 0)
+				System.out.println(rs.getLong(1) + " duplicate reservation(s) moved to ReservationReject, "
+						+ rs.getLong(2) + " seat(s) given back");
+			rs.close();
+			stmt.close();
+			return null;
+		});
+		// refresh planner statistics for the freshly loaded tables
+		esql.executeUpdate("ANALYZE;");
+	}
+
+	/**
+	 * Method to run the loader from the command line mode of DBproject.
+	 *
+	 * @param esql     the database client
+	 * @param dataDir  directory holding the CSV files
+	 * @param truncate whether to empty the tables first
+	 */
+	public static void run(DBproject esql, String dataDir, boolean truncate) {
+		BulkLoader loader = new BulkLoader(esql, new File(dataDir));
+		try {
+			if (truncate)
+				loader.truncate();
+			esql.executeUpdate(DROP_RESERVATION_KEY);
+			loader.loadAll();
+			finish(esql);
+		} catch (SQLException e) {
+			System.err.println(e.getMessage());
+			for (SQLException next = e.getNextException(); next != null; next = next.getNextException())
+				System.err.println(next.getMessage());
+		}
+	}
+}
@@ -0,0 +1,198 @@
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+
+/**
+ * This class finds planes and pilots assigned to flights that overlap, or
+ * that leave less than a minimum turnaround between two flights, in one pass
+ * over the assignments of FlightInfo sorted by departure.
+ *
+ * The schema keeps departure and arrival as dates, so times are whole days.
+ * A flight keeps its plane and pilot busy from its departure day until its
+ * arrival day plus the turnaround, not including that day. Two flights
+ * conflict when each starts before the other is free. With no turnaround,
+ * a flight landing on the day the next one leaves is not a conflict, since
+ * the times of day are unknown.
+ *
+ * For every plane and pilot the sweep keeps the flights still busy on a heap
+ * ordered by the day they are free. A new flight first drops the flights
+ * free by its departure; every flight left conflicts with it. The sweep holds
+ * only those flights, so it streams any number of assignments in
+ * O(n log n + conflicts).
+ *
+ */
+
+public class ConflictDetector {
+	public static final int DEFAULT_TURNAROUND_DAYS = 0;
+
+	// in the order the sweep needs, a flight landing the day it leaves before a longer one
+	static final String SELECT_ASSIGNMENTS = "SELECT F.fnum, F.actual_departure_date, F.actual_arrival_date, FI.pilot_id, FI.plane_id\n"
+			+ "FROM FlightInfo FI JOIN Flight F ON F.fnum = FI.flight_id\n"
+			+ "ORDER BY F.actual_departure_date, F.actual_arrival_date, F.fnum";
+
+	/**
+	 * Two flights of the same plane or pilot, the earlier one first.
+	 */
+	public static class Conflict {
+		private final String _resource;
+		private final int _id;
+		private final int _first;
+		private final int _second;
+		private final int _gap;
+
+		Conflict(String resource, int id, int first, int second, int gap) {
+			this._resource = resource;
+			this._id = id;
+			this._first = first;
+			this._second = second;
+			this._gap = gap;
+		}
+
+		// "plane" or "pilot"
+		public String getResource() {
+			return this._resource;
+		}
+
+		public int getId() {
+			return this._id;
+		}
+
+		public int getFirst() {
+			return this._first;
+		}
+
+		public int getSecond() {
+			return this._second;
+		}
+
+		// days from the arrival of the first flight to the departure of the second, negative when they overlap
+		public int getGap() {
+			return this._gap;
+		}
+
+		public boolean isOverlap() {
+			return this._gap < 0;
+		}
+
+		public String toString() {
+			return this._resource + " " + this._id + ": flights " + this._first + " and " + this._second
+					+ (isOverlap() ? " overlap by " + -this._gap : " turn around in " + this._gap) + " day(s)";
+		}
+	}
+
+	private final int _turnaround;
+	private final Consumer<Conflict> _out;
+	// plane or pilot -> {free day, departure, arrival, fnum} of its flights still busy, first free first
+	private final Map<Integer, PriorityQueue<int[]>> _planes = new HashMap<Integer, PriorityQueue<int[]>>();
+	private final Map<Integer, PriorityQueue<int[]>> _pilots = new HashMap<Integer, PriorityQueue<int[]>>();
+	private int _lastDeparture = Integer.MIN_VALUE;
+	private int _lastArrival = Integer.MIN_VALUE;
+	private long _assignments = 0;
+	private long _overlaps = 0;
+	private long _turnarounds = 0;
+
+	/**
+	 * Method to create a sweep.
+	 *
+	 * @param turnaroundDays the days a plane or pilot needs between flights
+	 * @param out            receives every conflict found
+	 */
+	public ConflictDetector(int turnaroundDays, Consumer<Conflict> out) {
+		if (turnaroundDays < 0)
+			throw new IllegalArgumentException("The turnaround cannot be negative");
+		this._turnaround = turnaroundDays;
+		this._out = out;
+	}
+
+	/**
+	 * Method to add the next assignment of the sweep and report its conflicts
+	 * with the assignments before it.
+	 *
+	 * @param fnum      the flight number
+	 * @param departure the departure day, as an epoch day
+	 * @param arrival   the arrival day, as an epoch day
+	 * @param pilot     the pilot flying it
+	 * @param plane     the plane flying it
+	 * @throws java.lang.IllegalArgumentException when assignments are not added
+	 *                                            by departure and then arrival
+	 */
+	public void add(int fnum, int departure, int arrival, int pilot, int plane) {
+		arrival = Math.max(departure, arrival);
+		if (departure < this._lastDeparture || (departure == this._lastDeparture && arrival < this._lastArrival))
+			throw new IllegalArgumentException("Flight " + fnum + " is out of departure order");
+		this._lastDeparture = departure;
+		this._lastArrival = arrival;
+		++this._assignments;
+		int free = arrival + this._turnaround;
+		sweep("plane", this._planes, plane, fnum, departure, arrival, free);
+		sweep("pilot", this._pilots, pilot, fnum, departure, arrival, free);
+	}
+
+	private void sweep(String resource, Map<Integer, PriorityQueue<int[]>> busy, int id, int fnum, int departure,
+			int arrival, int free) {
+		PriorityQueue<int[]> flights = busy.get(id);
+		if (flights == null) {
+			flights = new PriorityQueue<int[]>((a, b) -> Integer.compare(a[0], b[0]));
+			busy.put(id, flights);
+		}
+		while (!flights.isEmpty() && flights.peek()[0] <= departure)
+			flights.poll();
+		for (int[] earlier : flights) {
+			// every flight left is busy past this departure, a flight leaving the same day only if this one lasts
+			if (earlier[1] >= free)
+				continue;
+			Conflict conflict = new Conflict(resource, id, earlier[3], fnum, departure - earlier[2]);
+			if (conflict.isOverlap())
+				++this._overlaps;
+			else
+				++this._turnarounds;
+			this._out.accept(conflict);
+		}
+		// a same-day flight with no turnaround keeps nothing busy
+		if (departure < free)
+			flights.add(new int[] { free, departure, arrival, fnum });
+	}
+
+	public long getAssignments() {
+		return this._assignments;
+	}
+
+	public long getOverlaps() {
+		return this._overlaps;
+	}
+
+	public long getTurnarounds() {
+		return this._turnarounds;
+	}
+
+	/**
+	 * Method to sweep the assignments of the database from the command line
+	 * mode of DBproject, printing one line per conflict.
+	 *
+	 * @param esql           the database client
+	 * @param turnaroundDays the days a plane or pilot needs between flights
+	 */
+	public static void run(DBproject esql, int turnaroundDays) {
+		PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8),
+				ResultWriter.BUFFER_SIZE));
+		ConflictDetector detector = new ConflictDetector(turnaroundDays, out::println);
+		long start = System.nanoTime();
+		try {
+			esql.executeQueryStreaming(SELECT_ASSIGNMENTS, DBproject.DEFAULT_FETCH_SIZE, row -> detector.add(row.getInt(1),
+					(int) row.getEpochDay(2), (int) row.getEpochDay(3), row.getInt(4), row.getInt(5)));
+			out.printf("%d assignment(s) swept in %.1f ms: %d overlap(s), %d turnaround(s) shorter than %d day(s)%n",
+					detector.getAssignments(), (System.nanoTime() - start) / 1e6, detector.getOverlaps(),
+					detector.getTurnarounds(), turnaroundDays);
+		} catch (SQLException e) {
+			System.err.println(e.getMessage());
+		} finally {
+			out.flush();
+		}
+	}
+}
@@ -0,0 +1,311 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.postgresql.core.BaseConnection;
+import org.postgresql.core.TransactionState;
+
+/**
+ * This class keeps a bounded pool of physical connections to the database.
+ * Callers borrow a connection for the duration of one unit of work and return
+ * it afterwards. Connections idle for a while are validated when borrowed, so
+ * a busy pool does not pay a round trip per borrow, idle connections are
+ * closed after a timeout, and a caller waits at most a fixed time for a free
+ * connection before the borrow fails.
+ *
+ */
+
+public class ConnectionPool {
+	public static final int DEFAULT_MAX_SIZE = 8;
+	public static final long DEFAULT_MAX_WAIT_MILLIS = 5000;
+	public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 60000;
+	// connections returned more recently than this are handed out without validation
+	public static final long DEFAULT_VALIDATION_IDLE_MILLIS = 1000;
+	// seconds given to Connection.isValid when validating on borrow
+	private static final int VALIDATION_TIMEOUT = 2;
+	private static final long VALIDATION_IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(DEFAULT_VALIDATION_IDLE_MILLIS);
+
+	private final String _url;
+	private final String _user;
+	private final String _passwd;
+	private final int _maxSize;
+	private final long _maxWaitNanos;
+	private final long _idleTimeoutNanos;
+
+	private final ReentrantLock _lock = new ReentrantLock();
+	private final Condition _available = this._lock.newCondition();
+	// most recently returned connection is borrowed first
+	private final ArrayDeque<PooledConnection> _idle = new ArrayDeque<PooledConnection>();
+	private final ScheduledExecutorService _evictor;
+	private int _total = 0;
+	private boolean _closed = false;
+
+	// saturation metrics, guarded by _lock
+	private long _borrows = 0;
+	private long _creates = 0;
+	private long _waits = 0;
+	private long _timeouts = 0;
+	private long _validationFailures = 0;
+	private long _evictions = 0;
+	private long _waitNanos = 0;
+	private int _peakActive = 0;
+
+	public ConnectionPool(String url, String user, String passwd, int maxSize, long maxWaitMillis,
+			long idleTimeoutMillis) {
+		if (maxSize <= 0)
+			throw new IllegalArgumentException("Pool size must be greater than 0");
+		this._url = url;
+		this._user = user;
+		this._passwd = passwd;
+		this._maxSize = maxSize;
+		this._maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+		this._idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+
+		this._evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "pool-evictor");
+			t.setDaemon(true);
+			return t;
+		});
+		long period = Math.max(1000, idleTimeoutMillis / 2);
+		this._evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	public ConnectionPool(String url, String user, String passwd, int maxSize) {
+		this(url, user, passwd, maxSize, DEFAULT_MAX_WAIT_MILLIS, DEFAULT_IDLE_TIMEOUT_MILLIS);
+	}
+
+	/**
+	 * Method to borrow a connection. An idle connection is reused, after it passes
+	 * validation if it sat idle longer than DEFAULT_VALIDATION_IDLE_MILLIS;
+	 * otherwise a new one is opened while the pool is below its maximum size;
+	 * otherwise the caller waits for a connection to be returned. A connection
+	 * that broke while borrowed is already dropped by release.
+	 *
+	 * @return a leased connection that must be given back with release
+	 * @throws java.sql.SQLException when no connection became available in time,
+	 *                               as a SQLTransientConnectionException
+	 */
+	public PooledConnection borrow() throws SQLException {
+		long deadline = System.nanoTime() + this._maxWaitNanos;
+		boolean waited = false;
+		long waitStart = 0;
+		while (true) {
+			PooledConnection pc = null;
+			boolean create = false;
+			this._lock.lock();
+			try {
+				while (true) {
+					if (this._closed)
+						throw new SQLException("Connection pool is closed");
+					pc = this._idle.pollFirst();
+					if (pc != null)
+						break;
+					if (this._total < this._maxSize) {
+						// reserve the slot before connecting outside the lock
+						++this._total;
+						create = true;
+						break;
+					}
+					long remaining = deadline - System.nanoTime();
+					if (remaining <= 0) {
+						++this._timeouts;
+						throw new SQLTransientConnectionException("Timed out waiting for a database connection (pool size " + this._maxSize + ")");
+					}
+					if (!waited) {
+						waited = true;
+						waitStart = System.nanoTime();
+						++this._waits;
+					}
+					try {
+						this._available.awaitNanos(remaining);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new SQLException("Interrupted while waiting for a database connection");
+					}
+				}
+				if (waited)
+					this._waitNanos += System.nanoTime() - waitStart;
+			} finally {
+				this._lock.unlock();
+			}
+
+			if (create) {
+				try {
+					pc = new PooledConnection(DriverManager.getConnection(this._url, this._user, this._passwd));
+				} catch (SQLException e) {
+					discard(null);
+					throw e;
+				}
+				this._lock.lock();
+				try {
+					++this._creates;
+				} finally {
+					this._lock.unlock();
+				}
+			} else if (System.nanoTime() - pc.lastUsed() >= VALIDATION_IDLE_NANOS && !isValid(pc)) {
+				// broken connection, drop it and try again
+				this._lock.lock();
+				try {
+					++this._validationFailures;
+				} finally {
+					this._lock.unlock();
+				}
+				discard(pc);
+				continue;
+			}
+
+			this._lock.lock();
+			try {
+				++this._borrows;
+				this._peakActive = Math.max(this._peakActive, this._total - this._idle.size());
+			} finally {
+				this._lock.unlock();
+			}
+			return pc;
+		}
+	}
+
+	/**
+	 * Method to give a borrowed connection back to the pool. A connection left
+	 * in a transaction is rolled back, and a connection that can no longer be
+	 * reset is closed instead of being pooled.
+	 *
+	 * @param pc the connection returned by borrow
+	 */
+	public void release(PooledConnection pc) {
+		if (pc == null)
+			return;
+		try {
+			Connection conn = pc.getConnection();
+			if (conn.isClosed()) {
+				discard(pc);
+				return;
+			}
+			if (!conn.getAutoCommit()) {
+				// the driver only sends the rollback when a transaction is still open
+				if (conn.unwrap(BaseConnection.class).getTransactionState() != TransactionState.IDLE)
+					Metrics.roundTrips(1);
+				conn.rollback();
+				conn.setAutoCommit(true);
+			}
+		} catch (SQLException e) {
+			discard(pc);
+			return;
+		}
+
+		this._lock.lock();
+		try {
+			if (this._closed) {
+				--this._total;
+				pc.close();
+				return;
+			}
+			pc.touch();
+			this._idle.addFirst(pc);
+			this._available.signal();
+		} finally {
+			this._lock.unlock();
+		}
+	}
+
+	// closes the connection and frees its slot
+	private void discard(PooledConnection pc) {
+		if (pc != null)
+			pc.close();
+		this._lock.lock();
+		try {
+			--this._total;
+			this._available.signal();
+		} finally {
+			this._lock.unlock();
+		}
+	}
+
+	private static boolean isValid(PooledConnection pc) {
+		try {
+			// isValid sends an empty query and waits for the reply
+			Metrics.roundTrips(1);
+			return pc.getConnection().isValid(VALIDATION_TIMEOUT);
+		} catch (SQLException e) {
+			return false;
+		}
+	}
+
+	// closes connections that have been idle longer than the idle timeout
+	private void evictIdle() {
+		List<PooledConnection> expired = new ArrayList<PooledConnection>();
+		long now = System.nanoTime();
+		this._lock.lock();
+		try {
+			// least recently used connections sit at the end of the deque
+			Iterator<PooledConnection> it = this._idle.descendingIterator();
+			while (it.hasNext()) {
+				PooledConnection pc = it.next();
+				if (now - pc.lastUsed() < this._idleTimeoutNanos)
+					break;
+				it.remove();
+				--this._total;
+				++this._evictions;
+				expired.add(pc);
+			}
+		} finally {
+			this._lock.unlock();
+		}
+		for (PooledConnection pc : expired)
+			pc.close();
+	}
+
+	public int getMaxSize() {
+		return this._maxSize;
+	}
+
+	/**
+	 * Method to return a one line summary of the pool usage counters.
+	 *
+	 * @return the pool statistics
+	 */
+	public String stats() {
+		this._lock.lock();
+		try {
+			int idle = this._idle.size();
+			return String.format(
+					"pool size=%d/%d active=%d idle=%d peak=%d borrows=%d creates=%d waits=%d avgWait=%.2fms timeouts=%d invalid=%d evicted=%d",
+					this._total, this._maxSize, this._total - idle, idle, this._peakActive, this._borrows,
+					this._creates, this._waits, this._waits == 0 ? 0.0 : this._waitNanos / 1e6 / this._waits,
+					this._timeouts, this._validationFailures, this._evictions);
+		} finally {
+			this._lock.unlock();
+		}
+	}
+
+	/**
+	 * Method to close every idle connection and stop handing out new ones.
+	 * Connections still borrowed are closed when they are released.
+	 */
+	public void close() {
+		List<PooledConnection> idle;
+		this._lock.lock();
+		try {
+			this._closed = true;
+			idle = new ArrayList<PooledConnection>(this._idle);
+			this._total -= this._idle.size();
+			this._idle.clear();
+			this._available.signalAll();
+		} finally {
+			this._lock.unlock();
+		}
+		this._evictor.shutdownNow();
+		for (PooledConnection pc : idle)
+			pc.close();
+	}
+}
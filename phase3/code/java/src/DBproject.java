@@ -11,11 +11,10 @@
  */
 
 
-import java.sql.DriverManager;
 import java.sql.Connection;
 import java.sql.Statement;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
-import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.io.File;
 import java.io.FileReader;
@@ -24,6 +23,9 @@ import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantLock;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 
@@ -34,19 +36,83 @@ import java.time.format.DateTimeFormatter;
  */
 
 public class DBproject {
-	// reference to physical database connection
-	private Connection _connection = null;
+	// pool of physical database connections, one is borrowed per call
+	private ConnectionPool _pool = null;
+	// rows fetched per round trip when a query streams through a cursor
+	public static final int DEFAULT_FETCH_SIZE = 1000;
+	// seats per flight, loaded on first use
+	private volatile SeatInventory _seats = null;
+	private volatile long _seatsLoaded = 0;
+	// passengers per flight and status, loaded on first use
+	private volatile ReservationCounters _counters = null;
+	private volatile long _countersLoaded = 0;
+	// flights by departure airport and day for route search, loaded on first use
+	private volatile RouteGraph _routes = null;
+	// latency, rows and round trips per operation
+	private final Metrics _metrics = new Metrics();
+	// whether the schema is sql/create-partitioned.sql, checked on first use
+	private volatile Boolean _partitioned = null;
+	// planes, pilots, technicians and flight assignments read through on a miss
+	private final ReferenceCache _reference = new ReferenceCache(this);
+	// busy days of every plane and pilot for the AddFlight check, loaded on first use
+	private volatile AssignmentSchedule _schedule = null;
+	// held from the check of an assignment until it is recorded, so two flights of this client cannot both pass
+	private final ReentrantLock _assigning = new ReentrantLock();
 	static BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
 
+	/////////////////////////////////////////////////////////////////////////////////////
+	//// SQL USED BY THE MENU OPERATIONS
+	/////////////////////////////////////////////////////////////////////////////////////
+	static final String INSERT_PLANE = "INSERT INTO Plane (id, make, model, age, seats) VALUES (?, ?, ?, ?, ?)";
+	static final String INSERT_PILOT = "INSERT INTO Pilot (id, fullname, nationality) VALUES (?, ?, ?)";
+	static final String INSERT_FLIGHT = "INSERT INTO Flight (fnum, cost, num_sold, num_stops, actual_departure_date, actual_arrival_date, arrival_airport, departure_airport) VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+	// fiid defaults to nextval('flightinfo_fiid_seq')
+	static final String INSERT_FLIGHT_INFO = "INSERT INTO FlightInfo (flight_id, pilot_id, plane_id) VALUES (?, ?, ?)";
+	static final String INSERT_TECHNICIAN = "INSERT INTO Technician (id, full_name) VALUES (?, ?)";
+	static final String SELECT_RESERVATION_STATUS = "SELECT status\nFROM Reservation\nWHERE cid = ? AND fid = ?";
+	static final String UPDATE_RESERVATION_STATUS = "UPDATE Reservation SET status = ? WHERE cid = ? AND fid = ?";
+	static final String SELECT_AVAILABLE_SEATS = "SELECT Total_Seats - Seats_Sold as \"Seats Available\"\nFROM(\nSELECT P.seats as Total_Seats\nFROM Plane P, FlightInfo FI\nWHERE FI.flight_id = ? AND FI.plane_id = P.id\n)total,\n(\nSELECT F.num_sold as Seats_Sold\nFROM Flight F\nWHERE F.fnum = ? AND F.actual_departure_date = ?\n)sold";
+	// repair counts kept by the triggers in sql/create-aggregates.sql, see RepairAggregates
+	static final String SELECT_REPAIRS_PER_PLANE = "SELECT plane_id as id, repairs as count\nFROM RepairsPerPlane\nORDER BY count DESC";
+	static final String SELECT_REPAIRS_PER_YEAR = "SELECT repair_year as \"Year\", repairs as count\nFROM RepairsPerYear\nORDER BY count ASC";
+	// passengers kept by the triggers in sql/create-aggregates.sql
+	static final String COUNT_PASSENGERS_WITH_STATUS = "SELECT COALESCE(SUM(passengers), 0) as count\nFROM ReservationCounts\nWHERE fid = ? AND status = ?";
+	static final String SCAN_PASSENGERS_WITH_STATUS = "SELECT COUNT(*)\nFROM Reservation\nWHERE fid = ? AND status = ?";
+	static final String SELECT_RESERVATION_FOR_UPDATE = "SELECT status, rnum FROM Reservation WHERE cid = ? AND fid = ? FOR UPDATE";
+	// rnum defaults to nextval('reservation_rnum_seq'), a concurrent duplicate returns no row
+	static final String INSERT_NEW_RESERVATION = "INSERT INTO Reservation (cid, fid, status) VALUES (?, ?, ?)\nON CONFLICT (cid, fid) DO NOTHING\nRETURNING rnum";
+	// attempts made when a booking is aborted by a serialization failure or deadlock
+	static final int MAX_BOOKING_ATTEMPTS = 5;
+	// takes a seat unless the plane is full, flights without a plane are not limited
+	static final String TAKE_SEAT = "UPDATE Flight F SET num_sold = F.num_sold + 1\nWHERE F.fnum = ? AND F.num_sold < COALESCE((SELECT P.seats FROM FlightInfo FI, Plane P WHERE FI.flight_id = F.fnum AND FI.plane_id = P.id), F.num_sold + 1)";
+	static final String RELEASE_SEAT = "UPDATE Flight SET num_sold = num_sold - 1 WHERE fnum = ? AND num_sold > 0";
+	// variants for sql/create-partitioned.sql, the departure date of the flight comes last and
+	// narrows Flight and Reservation down to the partition of its month
+	static final String SELECT_PARTITIONED = "SELECT EXISTS (SELECT 1 FROM pg_partitioned_table WHERE partrelid = to_regclass('reservation'))";
+	static final String SELECT_DEPARTURE = "SELECT actual_departure_date FROM Flight WHERE fnum = ?";
+	static final String SELECT_RESERVATION_STATUS_ON = "SELECT status\nFROM Reservation\nWHERE cid = ? AND fid = ? AND flight_date = ?";
+	static final String UPDATE_RESERVATION_STATUS_ON = "UPDATE Reservation SET status = ? WHERE cid = ? AND fid = ? AND flight_date = ?";
+	static final String SELECT_RESERVATION_FOR_UPDATE_ON = "SELECT status, rnum FROM Reservation WHERE cid = ? AND fid = ? AND flight_date = ? FOR UPDATE";
+	static final String INSERT_NEW_RESERVATION_ON = "INSERT INTO Reservation (cid, fid, status, flight_date) VALUES (?, ?, ?, ?)\nON CONFLICT (cid, fid, flight_date) DO NOTHING\nRETURNING rnum";
+	static final String TAKE_SEAT_ON = TAKE_SEAT + " AND F.actual_departure_date = ?";
+	static final String RELEASE_SEAT_ON = RELEASE_SEAT + " AND actual_departure_date = ?";
+
 	public DBproject(String dbname, String dbport, String user, String passwd) throws SQLException {
+		this(dbname, dbport, user, passwd, ConnectionPool.DEFAULT_MAX_SIZE);
+	}
+
+	public DBproject(String dbname, String dbport, String user, String passwd, int poolSize) throws SQLException {
 		System.out.print("Connecting to database...");
 		try {
-			// constructs the connection URL
-			String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
+			// constructs the connection URL, batched inserts are sent as multi-row inserts
+			String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname + "?reWriteBatchedInserts=true";
 			System.out.println("Connection URL: " + url + "\n");
 
-			// obtain a physical connection
-			this._connection = DriverManager.getConnection(url, user, passwd);
+			// obtain a physical connection up front so a bad URL fails here
+			this._pool = new ConnectionPool(url, user, passwd, poolSize);
+			this._pool.release(this._pool.borrow());
+			for (LruCache<?, ?> cache : this._reference.getCaches())
+				this._metrics.addCache(cache);
 			System.out.println("Done");
 		} catch (Exception e) {
 			System.err.println("Error - Unable to Connect to Database: " + e.getMessage());
@@ -63,56 +129,168 @@ public class DBproject {
 	 * @throws java.sql.SQLException when update failed
 	 */
 	public void executeUpdate(String sql) throws SQLException {
-		// creates a statement object
-		Statement stmt = this._connection.createStatement();
-
-		// issues the update instruction
-		stmt.executeUpdate(sql);
+		this._metrics.measure("executeUpdate", () -> {
+			PooledConnection pc = this._pool.borrow();
+			try {
+				// creates a statement object
+				Statement stmt = pc.getConnection().createStatement();
+
+				// issues the update instruction
+				Metrics.roundTrips(1);
+				stmt.executeUpdate(sql);
+
+				// close the instruction
+				stmt.close();
+				return null;
+			} finally {
+				this._pool.release(pc);
+			}
+		});
+	}// end executeUpdate
 
-		// close the instruction
-		stmt.close();
+	/**
+	 * Method to execute a parameterized update SQL statement through the
+	 * statement cache. The SQL string uses '?' placeholders for the values.
+	 * 
+	 * @param sql    the input SQL string
+	 * @param params the values bound to the placeholders in order
+	 * @return the number of rows affected
+	 * @throws java.sql.SQLException when update failed
+	 */
+	public int executeUpdate(String sql, Object... params) throws SQLException {
+		return this._metrics.measure("executeUpdate", () -> {
+			PooledConnection pc = this._pool.borrow();
+			try {
+				// the statement stays open in the cache for the next call
+				PreparedStatement stmt = pc.getStatements().prepare(sql, params);
+				Metrics.roundTrips(1);
+				return stmt.executeUpdate();
+			} finally {
+				this._pool.release(pc);
+			}
+		});
 	}// end executeUpdate
 
+	/**
+	 * Method to execute an input query SQL instruction (i.e. SELECT) and stream
+	 * the rows to a callback. Rows are fetched through a server-side cursor in
+	 * groups of fetchSize, so the result is never held in memory as a whole.
+	 * 
+	 * @param query     the input query string
+	 * @param fetchSize the number of rows fetched per round trip
+	 * @param handler   the callback receiving each row
+	 * @return the number of rows returned
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public int executeQueryStreaming(String query, int fetchSize, RowHandler handler) throws SQLException {
+		return this._metrics.measure("executeQueryStreaming", () -> {
+			PooledConnection pc = this._pool.borrow();
+			try {
+				Connection conn = pc.getConnection();
+				// the driver only uses a cursor inside a transaction
+				conn.setAutoCommit(false);
+
+				// creates a statement object, closed even when the query or the handler fails
+				try (Statement stmt = conn.createStatement()) {
+					stmt.setFetchSize(fetchSize);
+
+					// issues the query instruction
+					int rowCount = stream(stmt.executeQuery(query), handler, fetchSize);
+					Metrics.roundTrips(1);
+					conn.commit();
+					conn.setAutoCommit(true);
+					return rowCount;
+				}
+			} finally {
+				this._pool.release(pc);
+			}
+		});
+	}
+
+	/**
+	 * Method to execute a parameterized query through the statement cache and
+	 * stream the rows to a callback through a server-side cursor.
+	 * 
+	 * @param query     the input query string
+	 * @param fetchSize the number of rows fetched per round trip
+	 * @param handler   the callback receiving each row
+	 * @param params    the values bound to the placeholders in order
+	 * @return the number of rows returned
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public int executeQueryStreaming(String query, int fetchSize, RowHandler handler, Object... params)
+			throws SQLException {
+		return this._metrics.measure("executeQueryStreaming", () -> {
+			PooledConnection pc = this._pool.borrow();
+			try {
+				Connection conn = pc.getConnection();
+				// the driver only uses a cursor inside a transaction
+				conn.setAutoCommit(false);
+				PreparedStatement stmt = pc.getStatements().prepare(query, params);
+				stmt.setFetchSize(fetchSize);
+				try {
+					int rowCount = stream(stmt.executeQuery(), handler, fetchSize);
+					Metrics.roundTrips(1);
+					conn.commit();
+					conn.setAutoCommit(true);
+					return rowCount;
+				} finally {
+					// the statement is shared through the cache
+					stmt.setFetchSize(0);
+				}
+			} finally {
+				this._pool.release(pc);
+			}
+		});
+	}
+
+	// hands every row of the result set to the handler through one reused view,
+	// a cursor fetches fetchSize rows per round trip until a short batch comes back
+	private static int stream(ResultSet rs, RowHandler handler, int fetchSize) throws SQLException {
+		int rowCount = 0;
+		try {
+			ResultRow row = new ResultRow(rs);
+			handler.start(row);
+			while (rs.next()) {
+				handler.row(row);
+				++rowCount;
+			}
+			return rowCount;
+		} finally {
+			rs.close();
+			Metrics.rows(rowCount);
+			Metrics.roundTrips(fetchSize > 0 ? rowCount / fetchSize + 1 : 1);
+		}
+	}
+
 	/**
 	 * Method to execute an input query SQL instruction (i.e. SELECT). This method
-	 * issues the query to the DBMS and outputs the results to standard out.
+	 * issues the query to the DBMS and outputs the results to standard out as an
+	 * aligned table.
 	 * 
 	 * @param query the input query string
 	 * @return the number of rows returned
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
 	public int executeQueryAndPrintResult(String query) throws SQLException {
-		// creates a statement object
-		Statement stmt = this._connection.createStatement();
-
-		// issues the query instruction
-		ResultSet rs = stmt.executeQuery(query);
-
-		/*
-		 * obtains the metadata object for the returned result set. The metadata
-		 * contains row and column info.
-		 */
-		ResultSetMetaData rsmd = rs.getMetaData();
-		int numCol = rsmd.getColumnCount();
-		int rowCount = 0;
+		try (ResultWriter out = ResultWriter.toStdout(ResultWriter.Format.TABLE)) {
+			return executeQueryStreaming(query, DEFAULT_FETCH_SIZE, out);
+		}
+	}
 
-		// iterates through the result set and output them to standard out.
-		boolean outputHeader = true;
-		while (rs.next()) {
-			if (outputHeader) {
-				for (int i = 1; i <= numCol; i++) {
-					System.out.print(rsmd.getColumnName(i) + "\t");
-				}
-				System.out.println();
-				outputHeader = false;
-			}
-			for (int i = 1; i <= numCol; ++i)
-				System.out.print(rs.getString(i) + "\t");
-			System.out.println();
-			++rowCount;
-		} // end while
-		stmt.close();
-		return rowCount;
+	/**
+	 * Method to execute a parameterized query through the statement cache and
+	 * output the results to standard out as an aligned table.
+	 * 
+	 * @param query  the input query string
+	 * @param params the values bound to the placeholders in order
+	 * @return the number of rows returned
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public int executeQueryAndPrintResult(String query, Object... params) throws SQLException {
+		try (ResultWriter out = ResultWriter.toStdout(ResultWriter.Format.TABLE)) {
+			return executeQueryStreaming(query, DEFAULT_FETCH_SIZE, out, params);
+		}
 	}
 
 	/**
@@ -125,33 +303,37 @@ public class DBproject {
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
 	public List<List<String>> executeQueryAndReturnResult(String query) throws SQLException {
-		// creates a statement object
-		Statement stmt = this._connection.createStatement();
-
-		// issues the query instruction
-		ResultSet rs = stmt.executeQuery(query);
-
-		/*
-		 * obtains the metadata object for the returned result set. The metadata
-		 * contains row and column info.
-		 */
-		ResultSetMetaData rsmd = rs.getMetaData();
-		int numCol = rsmd.getColumnCount();
-		int rowCount = 0;
+		List<List<String>> result = new ArrayList<List<String>>();
+		executeQueryStreaming(query, DEFAULT_FETCH_SIZE, collector(result));
+		return result;
+	}// end executeQueryAndReturnResult
 
-		// iterates through the result set and saves the data returned by the query.
-		boolean outputHeader = false;
+	/**
+	 * Method to execute a parameterized query through the statement cache and
+	 * return the results as a list of records.
+	 * 
+	 * @param query  the input query string
+	 * @param params the values bound to the placeholders in order
+	 * @return the query result as a list of records
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public List<List<String>> executeQueryAndReturnResult(String query, Object... params) throws SQLException {
 		List<List<String>> result = new ArrayList<List<String>>();
-		while (rs.next()) {
-			List<String> record = new ArrayList<String>();
-			for (int i = 1; i <= numCol; ++i)
-				record.add(rs.getString(i));
-			result.add(record);
-		} // end while
-		stmt.close();
+		executeQueryStreaming(query, DEFAULT_FETCH_SIZE, collector(result), params);
 		return result;
 	}// end executeQueryAndReturnResult
 
+	// saves every row as a list of attribute values
+	private static RowHandler collector(List<List<String>> result) {
+		return row -> {
+			int numCol = row.getColumnCount();
+			List<String> record = new ArrayList<String>(numCol);
+			for (int i = 1; i <= numCol; ++i)
+				record.add(row.getString(i));
+			result.add(record);
+		};
+	}
+
 	/**
 	 * Method to execute an input query SQL instruction (i.e. SELECT). This method
 	 * issues the query to the DBMS and returns the number of results
@@ -161,26 +343,64 @@ public class DBproject {
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
 	public int executeQuery(String query) throws SQLException {
-		// creates a statement object
-		Statement stmt = this._connection.createStatement();
-
-		// issues the query instruction
-		ResultSet rs = stmt.executeQuery(query);
-
-		int rowCount = 0;
+		return this._metrics.measure("executeQuery", () -> {
+			PooledConnection pc = this._pool.borrow();
+			try {
+				// creates a statement object
+				Statement stmt = pc.getConnection().createStatement();
+
+				// issues the query instruction
+				Metrics.roundTrips(1);
+				ResultSet rs = stmt.executeQuery(query);
+
+				int rowCount = 0;
+
+				// iterates through the result set and count nuber of results.
+				if (rs.next()) {
+					rowCount++;
+				} // end while
+				stmt.close();
+				Metrics.rows(rowCount);
+				return rowCount;
+			} finally {
+				this._pool.release(pc);
+			}
+		});
+	}
 
-		// iterates through the result set and count nuber of results.
-		if (rs.next()) {
-			rowCount++;
-		} // end while
-		stmt.close();
-		return rowCount;
+	/**
+	 * Method to execute a parameterized query through the statement cache and
+	 * return the number of results
+	 * 
+	 * @param query  the input query string
+	 * @param params the values bound to the placeholders in order
+	 * @return the number of rows returned
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public int executeQuery(String query, Object... params) throws SQLException {
+		return this._metrics.measure("executeQuery", () -> {
+			PooledConnection pc = this._pool.borrow();
+			try {
+				Metrics.roundTrips(1);
+				ResultSet rs = pc.getStatements().prepare(query, params).executeQuery();
+				int rowCount = 0;
+				if (rs.next()) {
+					rowCount++;
+				}
+				rs.close();
+				Metrics.rows(rowCount);
+				return rowCount;
+			} finally {
+				this._pool.release(pc);
+			}
+		});
 	}
 
 	/**
 	 * Method to fetch the last value from sequence. This method issues the query to
 	 * the DBMS and returns the current value of sequence used for autogenerated
-	 * keys
+	 * keys. currval is local to a session, so call it through withConnection on
+	 * the connection that advanced the sequence.
 	 * 
 	 * @param sequence name of the DB sequence
 	 * @return current value of a sequence
@@ -188,41 +408,634 @@ public class DBproject {
 	 */
 
 	public int getCurrSeqVal(String sequence) throws SQLException {
-		Statement stmt = this._connection.createStatement();
+		return this._metrics.measure("getCurrSeqVal", () -> withConnection(pc -> getCurrSeqVal(pc, sequence)));
+	}
 
-		ResultSet rs = stmt.executeQuery(String.format("Select currval('%s')", sequence));
-		if (rs.next())
-			return rs.getInt(1);
-		return -1;
+	public static int getCurrSeqVal(PooledConnection pc, String sequence) throws SQLException {
+		Metrics.roundTrips(1);
+		ResultSet rs = pc.getStatements().prepare("Select currval(?::regclass)", sequence).executeQuery();
+		try {
+			if (rs.next())
+				return rs.getInt(1);
+			return -1;
+		} finally {
+			rs.close();
+		}
 	}
 
 	/**
-	 * Method to close the physical connection if it is open.
+	 * Work that needs several statements on the same physical connection, such
+	 * as a transaction.
 	 */
-	public void cleanup() {
+	public interface ConnectionWork<T> {
+		T run(PooledConnection pc) throws SQLException;
+	}
+
+	/**
+	 * Method to run a unit of work on one borrowed connection. The connection is
+	 * returned to the pool afterwards and any transaction left open is rolled
+	 * back.
+	 * 
+	 * @param work the statements to run
+	 * @return the value returned by the work
+	 * @throws java.sql.SQLException when the work failed
+	 */
+	public <T> T withConnection(ConnectionWork<T> work) throws SQLException {
+		return this._metrics.measure("withConnection", () -> {
+			PooledConnection pc = this._pool.borrow();
+			try {
+				return work.run(pc);
+			} finally {
+				this._pool.release(pc);
+			}
+		});
+	}
+
+	/**
+	 * Method to return the in-memory seat inventory, loading it from the database
+	 * on first use. It only sees the writes of this client, so it is reloaded in
+	 * place once it is older than the seats.max.age system property, in
+	 * milliseconds, or never when that is negative.
+	 * 
+	 * @return the seat inventory
+	 * @throws java.sql.SQLException when the inventory could not be loaded
+	 */
+	public SeatInventory getSeatInventory() throws SQLException {
+		SeatInventory seats = this._seats;
+		long maxAge = Long.getLong("seats.max.age", SeatInventory.DEFAULT_MAX_AGE_MILLIS);
+		if (seats == null || (maxAge >= 0 && System.nanoTime() - this._seatsLoaded > maxAge * 1000000)) {
+			synchronized (this) {
+				seats = this._seats;
+				if (seats == null || (maxAge >= 0 && System.nanoTime() - this._seatsLoaded > maxAge * 1000000)) {
+					long loaded = System.nanoTime();
+					if (seats == null)
+						seats = new SeatInventory();
+					// holders of the inventory keep their reference
+					seats.load(this);
+					this._seats = seats;
+					this._seatsLoaded = loaded;
+				}
+			}
+		}
+		return seats;
+	}
+
+	/**
+	 * Method to return the in-memory passenger counters, loading them from the
+	 * database on first use. After loading they only see the writes of this
+	 * client.
+	 * 
+	 * @return the passenger counters
+	 * @throws java.sql.SQLException when the counters could not be loaded
+	 */
+	public ReservationCounters getReservationCounters() throws SQLException {
+		ReservationCounters counters = this._counters;
+		if (counters == null) {
+			synchronized (this) {
+				counters = this._counters;
+				if (counters == null)
+					counters = loadReservationCounters();
+			}
+		}
+		return counters;
+	}
+
+	// the passenger counters, reloaded once they are older than maxAgeNanos
+	private ReservationCounters getReservationCounters(long maxAgeNanos) throws SQLException {
+		ReservationCounters counters = getReservationCounters();
+		if (System.nanoTime() - this._countersLoaded <= maxAgeNanos)
+			return counters;
+		synchronized (this) {
+			if (System.nanoTime() - this._countersLoaded <= maxAgeNanos)
+				return this._counters;
+			return loadReservationCounters();
+		}
+	}
+
+	// called holding the lock on this
+	private ReservationCounters loadReservationCounters() throws SQLException {
+		long loaded = System.nanoTime();
+		ReservationCounters counters = new ReservationCounters();
+		counters.load(this);
+		this._counters = counters;
+		this._countersLoaded = loaded;
+		return counters;
+	}
+
+	/**
+	 * Method to tell whether the tables were created by
+	 * sql/create-partitioned.sql, in which case reservations carry the
+	 * departure date of their flight.
+	 * 
+	 * @return true when Reservation is partitioned
+	 * @throws java.sql.SQLException when the catalog could not be read
+	 */
+	public boolean isPartitioned() throws SQLException {
+		Boolean partitioned = this._partitioned;
+		if (partitioned == null) {
+			partitioned = executeQueryAndReturnResult(SELECT_PARTITIONED).get(0).get(0).equals("t");
+			this._partitioned = partitioned;
+		}
+		return partitioned;
+	}
+
+	/**
+	 * Method to return the departure date that statements on a flight and its
+	 * reservations are narrowed to, so only the partition of that month is
+	 * touched. The date comes from the seat inventory when it knows the flight.
+	 * 
+	 * @param fnum the flight number
+	 * @return the departure date, or null when the schema is not partitioned
+	 * @throws java.sql.SQLException when the flight does not exist
+	 */
+	public java.sql.Date partitionDate(int fnum) throws SQLException {
+		if (!isPartitioned())
+			return null;
+		SeatInventory seats = this._seats;
+		LocalDate departure = seats == null ? null : seats.departure(fnum);
+		if (departure != null)
+			return java.sql.Date.valueOf(departure);
+		List<List<String>> rows = executeQueryAndReturnResult(SELECT_DEPARTURE, fnum);
+		if (rows.isEmpty())
+			throw new SQLException("Flight " + fnum + " does not exist", "23503");
+		return java.sql.Date.valueOf(rows.get(0).get(0));
+	}
+
+	// the parameters of a statement, followed by the partition date when there is one
+	static Object[] dated(java.sql.Date date, Object... params) {
+		if (date == null)
+			return params;
+		Object[] dated = Arrays.copyOf(params, params.length + 1);
+		dated[params.length] = date;
+		return dated;
+	}
+
+	/**
+	 * Method to return the seats left on a flight departing on the given day,
+	 * from the seat inventory when it knows the flight and from the database
+	 * otherwise.
+	 * 
+	 * @param fnum      the flight number
+	 * @param departure the departure date
+	 * @return the free seats, or SeatInventory.UNKNOWN when the flight does not
+	 *         depart that day or has no plane
+	 * @throws java.sql.SQLException when the seats could not be read
+	 */
+	public int availableSeats(int fnum, LocalDate departure) throws SQLException {
+		SeatInventory seats = getSeatInventory();
+		int available = seats.available(fnum, departure);
+		if (available != SeatInventory.UNKNOWN)
+			return available;
+		if (seats.contains(fnum)) {
+			// the flight is known but its plane was assigned after the inventory loaded
+			int capacity = this._reference.capacity(fnum);
+			if (capacity == SeatInventory.UNKNOWN)
+				return SeatInventory.UNKNOWN;
+			seats.setCapacity(fnum, capacity);
+			return seats.available(fnum, departure);
+		}
+		List<List<String>> rows = executeQueryAndReturnResult(SELECT_AVAILABLE_SEATS, fnum, fnum,
+				java.sql.Date.valueOf(departure));
+		return rows.isEmpty() ? SeatInventory.UNKNOWN : Integer.parseInt(rows.get(0).get(0));
+	}
+
+	/**
+	 * Method to return the passengers of a flight with the given status from
+	 * ReservationCounts, which the triggers keep current for every client. When
+	 * the counters.max.age system property is set, the in-memory counters answer
+	 * instead and are reloaded once they are older than that many milliseconds.
+	 * 
+	 * @param fnum   the flight number
+	 * @param status the reservation status (W, R, C)
+	 * @return the number of passengers
+	 * @throws java.sql.SQLException when the count could not be read
+	 */
+	public int passengersWithStatus(int fnum, String status) throws SQLException {
+		long maxAge = countersMaxAge();
+		if (maxAge >= 0)
+			return getReservationCounters(maxAge * 1000000).count(fnum, status);
+		List<List<String>> rows = executeQueryAndReturnResult(COUNT_PASSENGERS_WITH_STATUS, fnum, status);
+		return Integer.parseInt(rows.get(0).get(0));
+	}
+
+	// milliseconds query 9 may answer from the passenger counters, -1 to read ReservationCounts
+	static long countersMaxAge() {
+		return Long.getLong("counters.max.age", -1);
+	}
+
+	// reservations with status R or C hold a seat, waitlisted ones do not
+	static boolean holdsSeat(String status) {
+		return status.equals("R") || status.equals("C");
+	}
+
+	/**
+	 * A booking transaction that may be retried from the start.
+	 */
+	private interface BookingWork {
+		BookingResult run() throws SQLException;
+	}
+
+	/**
+	 * Method to run a booking transaction, retrying it when Postgres aborts it
+	 * with a serialization failure or a deadlock.
+	 * 
+	 * @param work the transaction to run
+	 * @return the result of the attempt that finished
+	 * @throws java.sql.SQLException when the transaction failed for another
+	 *                               reason or ran out of attempts
+	 */
+	private static BookingResult withRetry(BookingWork work) throws SQLException {
+		for (int attempt = 1;; ++attempt) {
+			try {
+				BookingResult result = work.run();
+				result.setAttempts(attempt);
+				return result;
+			} catch (SQLException e) {
+				String state = e.getSQLState();
+				boolean retryable = "40001".equals(state) || "40P01".equals(state);
+				if (!retryable || attempt >= MAX_BOOKING_ATTEMPTS)
+					throw e;
+				// back off a little so the competing transaction can finish
+				try {
+					Thread.sleep(ThreadLocalRandom.current().nextInt(1, 1 << attempt));
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					throw e;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Method to book a flight for a customer. The reservation number comes from
+	 * reservation_rnum_seq and the unique key on (cid, fid) turns a concurrent
+	 * duplicate booking into EXISTS instead of a second row. A reserved or
+	 * confirmed booking takes a seat from the inventory and from Flight.num_sold
+	 * in the same transaction as the insert; the update of the Flight row locks
+	 * it, so bookings of one flight queue behind each other.
+	 * 
+	 * @param cid    the customer ID
+	 * @param fid    the flight number
+	 * @param status the reservation status (W, R, C)
+	 * @return BOOKED with the new reservation number, FULL or EXISTS
+	 * @throws java.sql.SQLException when the insert failed
+	 */
+	public BookingResult bookFlight(int cid, int fid, String status) throws SQLException {
+		SeatInventory seats = getSeatInventory();
+		boolean takesSeat = holdsSeat(status);
+		return this._metrics.measure("BookFlight", () -> withRetry(() -> {
+			java.sql.Date date = partitionDate(fid);
+			// flights added by another client are only checked by the database, and so are
+			// flights the inventory counts as full, since other clients may have freed seats
+			boolean reserved = takesSeat && seats.contains(fid) && seats.tryReserve(fid);
+
+			BookingResult result = null;
+			try {
+				result = withConnection(pc -> {
+					Connection conn = pc.getConnection();
+					conn.setAutoCommit(false);
+					if (takesSeat) {
+						Metrics.roundTrips(1);
+						if (pc.getStatements().prepare(date == null ? TAKE_SEAT : TAKE_SEAT_ON, dated(date, fid)).executeUpdate() == 0)
+							return new BookingResult(BookingResult.Outcome.FULL);
+					}
+					Metrics.roundTrips(1);
+					ResultSet rs = pc.getStatements().prepare(date == null ? INSERT_NEW_RESERVATION : INSERT_NEW_RESERVATION_ON,
+							dated(date, cid, fid, status)).executeQuery();
+					int rnum = rs.next() ? rs.getInt(1) : -1;
+					rs.close();
+					if (rnum < 0)
+						return new BookingResult(BookingResult.Outcome.EXISTS);
+					Metrics.rows(1);
+					Metrics.roundTrips(1);
+					conn.commit();
+					ReservationCounters counters = this._counters;
+					if (counters != null)
+						counters.add(fid, status, 1);
+					return new BookingResult(BookingResult.Outcome.BOOKED, rnum);
+				});
+			} finally {
+				if (reserved && (result == null || !result.isCommitted()))
+					seats.release(fid);
+			}
+			return result;
+		}));
+	}
+
+	/**
+	 * Method to change the status of an existing reservation, taking or giving
+	 * back a seat when the booking moves on or off the waiting list. The
+	 * reservation row is locked while the seat is adjusted.
+	 * 
+	 * @param cid    the customer ID
+	 * @param fid    the flight number
+	 * @param status the new reservation status (W, R, C)
+	 * @return UPDATED, NOT_FOUND or FULL
+	 * @throws java.sql.SQLException when the update failed
+	 */
+	public BookingResult updateReservationStatus(int cid, int fid, String status) throws SQLException {
+		SeatInventory seats = getSeatInventory();
+		return this._metrics.measure("UpdateReservationStatus", () -> withRetry(() -> {
+			java.sql.Date date = partitionDate(fid);
+			boolean[] reserved = { false };
+			BookingResult result = null;
+			try {
+				result = withConnection(pc -> {
+					Connection conn = pc.getConnection();
+					conn.setAutoCommit(false);
+					List<List<String>> current = collect(pc.getStatements().prepare(date == null ? SELECT_RESERVATION_FOR_UPDATE : SELECT_RESERVATION_FOR_UPDATE_ON,
+							dated(date, cid, fid)).executeQuery());
+					if (current.isEmpty())
+						return new BookingResult(BookingResult.Outcome.NOT_FOUND);
+					String old = current.get(0).get(0);
+					int rnum = Integer.parseInt(current.get(0).get(1));
+					int delta = (holdsSeat(status) ? 1 : 0) - (old != null && holdsSeat(old) ? 1 : 0);
+					if (delta > 0) {
+						// a full inventory may be stale, TAKE_SEAT decides
+						reserved[0] = seats.contains(fid) && seats.tryReserve(fid);
+						Metrics.roundTrips(1);
+						if (pc.getStatements().prepare(date == null ? TAKE_SEAT : TAKE_SEAT_ON, dated(date, fid)).executeUpdate() == 0)
+							return new BookingResult(BookingResult.Outcome.FULL);
+					} else if (delta < 0) {
+						Metrics.roundTrips(1);
+						pc.getStatements().prepare(date == null ? RELEASE_SEAT : RELEASE_SEAT_ON, dated(date, fid)).executeUpdate();
+					}
+					Metrics.roundTrips(2);
+					pc.getStatements().prepare(date == null ? UPDATE_RESERVATION_STATUS : UPDATE_RESERVATION_STATUS_ON,
+							dated(date, status, cid, fid)).executeUpdate();
+					conn.commit();
+					if (delta < 0)
+						seats.release(fid);
+					ReservationCounters counters = this._counters;
+					if (counters != null)
+						counters.move(fid, old, status);
+					return new BookingResult(BookingResult.Outcome.UPDATED, rnum);
+				});
+			} finally {
+				if (reserved[0] && (result == null || !result.isCommitted()))
+					seats.release(fid);
+			}
+			return result;
+		}));
+	}
+
+	// reads a small result set into memory
+	private static List<List<String>> collect(ResultSet rs) throws SQLException {
+		List<List<String>> result = new ArrayList<List<String>>();
+		stream(rs, collector(result), 0);
+		return result;
+	}
+
+	/**
+	 * Method to return the in-memory route graph, loading it from the database
+	 * on first use.
+	 * 
+	 * @return the route graph
+	 * @throws java.sql.SQLException when the flights could not be loaded
+	 */
+	public RouteGraph getRouteGraph() throws SQLException {
+		RouteGraph routes = this._routes;
+		if (routes == null) {
+			synchronized (this) {
+				routes = this._routes;
+				if (routes == null) {
+					routes = new RouteGraph();
+					routes.load(this);
+					this._routes = routes;
+				}
+			}
+		}
+		return routes;
+	}
+
+	/**
+	 * Method to return the busy days of every plane and pilot, loading them from
+	 * the database on first use. The turnaround between flights is read from the
+	 * turnaround.days system property.
+	 * 
+	 * @return the assignment schedule
+	 * @throws java.sql.SQLException when the assignments could not be loaded
+	 */
+	public AssignmentSchedule getAssignmentSchedule() throws SQLException {
+		AssignmentSchedule schedule = this._schedule;
+		if (schedule == null) {
+			synchronized (this) {
+				schedule = this._schedule;
+				if (schedule == null) {
+					schedule = new AssignmentSchedule(
+							Integer.getInteger("turnaround.days", ConflictDetector.DEFAULT_TURNAROUND_DAYS));
+					schedule.load(this);
+					this._schedule = schedule;
+				}
+			}
+		}
+		return schedule;
+	}
+
+	/**
+	 * Method to return the cache of planes, pilots, technicians and flight
+	 * assignments.
+	 * 
+	 * @return the reference cache
+	 */
+	public ReferenceCache getReferenceCache() {
+		return this._reference;
+	}
+
+	// drop the cached row, possibly cached as missing, of a row this client inserted
+	public void planeAdded(int id) {
+		this._reference.invalidatePlane(id);
+	}
+
+	public void pilotAdded(int id) {
+		this._reference.invalidatePilot(id);
+	}
+
+	public void technicianAdded(int id) {
+		this._reference.invalidateTechnician(id);
+	}
+
+	// count a reservation this client inserted outside bookFlight, if the counters have been loaded
+	public void reservationAdded(int fid, String status) {
+		ReservationCounters counters = this._counters;
+		if (counters != null)
+			counters.add(fid, status, 1);
+	}
+
+	// move the seats of a flight this client took or gave back outside bookFlight, if the inventory has been loaded
+	public void seatsChanged(int fid, int delta) {
+		SeatInventory seats = this._seats;
+		if (seats == null || !seats.contains(fid))
+			return;
+		for (; delta > 0; --delta)
+			seats.tryReserve(fid);
+		for (; delta < 0; ++delta)
+			seats.release(fid);
+	}
+
+	public void reservationMoved(int fid, String from, String to) {
+		ReservationCounters counters = this._counters;
+		if (counters != null)
+			counters.move(fid, from, to);
+	}
+
+	/**
+	 * Method to record a flight inserted by this client in the seat inventory
+	 * and the route graph, each if it has been loaded.
+	 * 
+	 * @param fnum             the flight number
+	 * @param cost             the ticket cost
+	 * @param sold             the seats sold
+	 * @param departure        the departure date
+	 * @param arrival          the arrival date
+	 * @param arrivalAirport   the airport code flown to
+	 * @param departureAirport the airport code flown from
+	 */
+	public void flightAdded(int fnum, int cost, int sold, LocalDate departure, LocalDate arrival,
+			String arrivalAirport, String departureAirport) {
+		SeatInventory seats = this._seats;
+		if (seats != null)
+			seats.putFlight(fnum, SeatInventory.UNKNOWN, sold, departure);
+		RouteGraph routes = this._routes;
+		if (routes != null)
+			routes.addFlight(fnum, cost, departure, arrival, departureAirport, arrivalAirport);
+	}
+
+	/**
+	 * Method to add a flight flown by a pilot and plane. The assignment is
+	 * checked against the schedule before anything is written, and the flight
+	 * and its FlightInfo row are inserted in one transaction. Only flights added
+	 * through this client are checked against each other as they are added; the
+	 * conflicts mode finds the rest.
+	 * 
+	 * @param fnum             the flight number
+	 * @param cost             the ticket cost
+	 * @param sold             the seats sold
+	 * @param stops            the number of stops
+	 * @param departure        the departure date
+	 * @param arrival          the arrival date
+	 * @param arrivalAirport   the airport code flown to
+	 * @param departureAirport the airport code flown from
+	 * @param pilot            the pilot ID
+	 * @param plane            the plane ID
+	 * @return the number of rows inserted
+	 * @throws java.sql.SQLException with SQLState 23P01 when the pilot or plane
+	 *                               is busy, or when the insert failed
+	 */
+	public int addFlight(int fnum, int cost, int sold, int stops, LocalDate departure, LocalDate arrival,
+			String arrivalAirport, String departureAirport, int pilot, int plane) throws SQLException {
+		AssignmentSchedule schedule = getAssignmentSchedule();
+		int rows;
+		this._assigning.lock();
 		try {
-			if (this._connection != null) {
-				this._connection.close();
-			} // end if
-		} catch (SQLException e) {
-			// ignored.
-		} // end try
+			String conflict = schedule.check(departure, arrival, pilot, plane);
+			if (conflict != null)
+				throw new SQLException(conflict, "23P01");
+			rows = this._metrics.measure("AddFlight", () -> withConnection(pc -> {
+				pc.getConnection().setAutoCommit(false);
+				Metrics.roundTrips(3);
+				int inserted = pc.getStatements().prepare(INSERT_FLIGHT, fnum, cost, sold, stops,
+						java.sql.Date.valueOf(departure), java.sql.Date.valueOf(arrival), arrivalAirport, departureAirport)
+						.executeUpdate();
+				inserted += pc.getStatements().prepare(INSERT_FLIGHT_INFO, fnum, pilot, plane).executeUpdate();
+				pc.getConnection().commit();
+				return inserted;
+			}));
+			schedule.assign(fnum, departure, arrival, pilot, plane);
+		} finally {
+			this._assigning.unlock();
+		}
+		flightAdded(fnum, cost, sold, departure, arrival, arrivalAirport, departureAirport);
+		this._reference.invalidateFlightInfo(fnum);
+		return rows;
+	}
+
+	/**
+	 * Method to record a flight and its pilot and plane committed by this
+	 * client outside addFlight, in the assignment schedule and wherever
+	 * flightAdded records it. The caller checked the assignment against
+	 * getAssignmentSchedule before writing it.
+	 * 
+	 * @param fnum             the flight number
+	 * @param cost             the ticket cost
+	 * @param sold             the seats sold
+	 * @param departure        the departure date
+	 * @param arrival          the arrival date
+	 * @param arrivalAirport   the airport code flown to
+	 * @param departureAirport the airport code flown from
+	 * @param pilot            the pilot ID
+	 * @param plane            the plane ID
+	 */
+	public void flightAssigned(int fnum, int cost, int sold, LocalDate departure, LocalDate arrival,
+			String arrivalAirport, String departureAirport, int pilot, int plane) {
+		AssignmentSchedule schedule = this._schedule;
+		if (schedule != null) {
+			this._assigning.lock();
+			try {
+				schedule.assign(fnum, departure, arrival, pilot, plane);
+			} finally {
+				this._assigning.unlock();
+			}
+		}
+		flightAdded(fnum, cost, sold, departure, arrival, arrivalAirport, departureAirport);
+		this._reference.invalidateFlightInfo(fnum);
+	}
+
+	/**
+	 * Method to return the connection pool shared by the execute methods.
+	 * 
+	 * @return the connection pool
+	 */
+	public ConnectionPool getPool() {
+		return this._pool;
+	}
+
+	/**
+	 * Method to return the per-operation metrics of this client.
+	 * 
+	 * @return the metrics
+	 */
+	public Metrics getMetrics() {
+		return this._metrics;
+	}
+
+	/**
+	 * Method to close the pooled physical connections.
+	 */
+	public void cleanup() {
+		if (this._pool != null) {
+			this._pool.close();
+		} // end if
 	}// end cleanup
 
 	/**
 	 * The main execution method
 	 * 
 	 * @param args the command line arguments this inclues the <mysql|pgsql> <login
-	 *             file>
+	 *             file>, optionally followed by a non-interactive mode
 	 */
 	public static void main(String[] args) {
-		if (args.length != 3) {
+		if (args.length < 3) {
 			System.err.println("Usage: " + "java [-classpath <classpath>] " + DBproject.class.getName()
-					+ " <dbname> <port> <user>");
+					+ " <dbname> <port> <user> [mode]");
+			System.err.println("Modes:");
+			System.err.println("  load [--truncate] [data dir]   stream the CSV files in with COPY");
+			System.err.println("  batch [--chunk N] [file|-]     run a command script in batched transactions");
+			System.err.println("  check-aggregates [--refresh]   compare the repair counts of queries 7 and 8 with Repairs");
+			System.err.println("  serve [port]                   serve the menu operations as JSON over HTTP");
+			System.err.println("  partitions [list | create FROM TO | detach BEFORE [--drop]]");
+			System.err.println("                                 manage the monthly partitions, months as YYYY-MM");
+			System.err.println("  export [--format F] <table|query> [file|-]");
+			System.err.println("                                 stream rows out as table, csv (default) or jsonl");
+			System.err.println("  conflicts [--turnaround D]     list planes and pilots flying overlapping flights");
+			System.err.println("  analytics [--threads N]        report repairs per plane, technician, pilot, month and age");
+			System.err.println("  ingest [--threads N] [--seconds S] [--journal FILE] [--batch N]");
+			System.err.println("                                 compare booking directly with booking through a local journal");
 			return;
 		} // end if
 
 		DBproject esql = null;
+		MetricsServer metricsServer = null;
 
 		try {
 			System.out.println("(1)");
@@ -243,6 +1056,22 @@ public class DBproject {
 
 			esql = new DBproject(dbname, dbport, user, "");
 
+			// publish the operation metrics over JMX, and over HTTP when -Dmetrics.port is set
+			esql.getMetrics().registerMBeans();
+			String metricsPort = System.getProperty("metrics.port");
+			if (metricsPort != null) {
+				metricsServer = new MetricsServer(esql.getMetrics(), Integer.parseInt(metricsPort));
+				System.out.println("Serving metrics at http://localhost:" + metricsServer.getPort() + "/metrics");
+			}
+
+			// run a non-interactive mode instead of the menu
+			if (args.length > 3) {
+				runMode(esql, args);
+				return;
+			}
+
+			// the menu runs its operations through the same store as the server
+			FlightStore store = new JdbcStore(esql);
 			boolean keepon = true;
 			while (keepon) {
 				System.out.println("MAIN MENU");
@@ -256,37 +1085,41 @@ public class DBproject {
 				System.out.println("7. List total number of repairs per plane in descending order");
 				System.out.println("8. List total number of repairs per year in ascending order");
 				System.out.println("9. Find total number of passengers with a given status");
-				System.out.println("10. < EXIT");
+				System.out.println("10. Find routes between two airports on a given day");
+				System.out.println("11. < EXIT");
 
 				switch (readChoice()) {
 					case 1:
-						AddPlane(esql);
+						AddPlane(store);
 						break;
 					case 2:
-						AddPilot(esql);
+						AddPilot(store);
 						break;
 					case 3:
-						AddFlight(esql);
+						AddFlight(store);
 						break;
 					case 4:
-						AddTechnician(esql);
+						AddTechnician(store);
 						break;
 					case 5:
-						BookFlight(esql);
+						BookFlight(store);
 						break;
 					case 6:
-						ListNumberOfAvailableSeats(esql);
+						ListNumberOfAvailableSeats(store);
 						break;
 					case 7:
-						ListsTotalNumberOfRepairsPerPlane(esql);
+						ListsTotalNumberOfRepairsPerPlane(store);
 						break;
 					case 8:
-						ListTotalNumberOfRepairsPerYear(esql);
+						ListTotalNumberOfRepairsPerYear(store);
 						break;
 					case 9:
-						FindPassengersCountWithStatus(esql);
+						FindPassengersCountWithStatus(store);
 						break;
 					case 10:
+						FindRoutes(store);
+						break;
+					case 11:
 						keepon = false;
 						break;
 				}
@@ -294,6 +1127,8 @@ public class DBproject {
 		} catch (Exception e) {
 			System.err.println(e.getMessage());
 		} finally {
+			if (metricsServer != null)
+				metricsServer.stop();
 			try {
 				if (esql != null) {
 					System.out.print("Disconnecting from database...");
@@ -306,6 +1141,70 @@ public class DBproject {
 		}
 	}
 
+	/**
+	 * Method to run one of the non-interactive modes named after the connection
+	 * arguments.
+	 * 
+	 * @param esql the database client
+	 * @param args the command line arguments, args[3] names the mode
+	 */
+	public static void runMode(DBproject esql, String[] args) {
+		switch (args[3]) {
+			case "load": {
+				boolean truncate = args.length > 4 && args[4].equals("--truncate");
+				int dirArg = truncate ? 5 : 4;
+				BulkLoader.run(esql, args.length > dirArg ? args[dirArg] : "../data", truncate);
+				break;
+			}
+			case "batch": {
+				int chunkSize = BatchRunner.DEFAULT_CHUNK_SIZE;
+				int fileArg = 4;
+				if (args.length > 5 && args[4].equals("--chunk")) {
+					chunkSize = Integer.parseInt(args[5]);
+					fileArg = 6;
+				}
+				BatchRunner.run(esql, args.length > fileArg ? args[fileArg] : "-", chunkSize);
+				break;
+			}
+			case "check-aggregates":
+				RepairAggregates.run(esql, args.length > 4 && args[4].equals("--refresh"));
+				break;
+			case "serve":
+				BookingServer.run(esql, args.length > 4 ? Integer.parseInt(args[4]) : BookingServer.DEFAULT_PORT);
+				break;
+			case "partitions":
+				PartitionTool.run(esql, Arrays.copyOfRange(args, 4, args.length));
+				break;
+			case "conflicts":
+				ConflictDetector.run(esql, args.length > 5 && args[4].equals("--turnaround") ? Integer.parseInt(args[5])
+						: ConflictDetector.DEFAULT_TURNAROUND_DAYS);
+				break;
+			case "ingest":
+				BookingJournal.run(esql, Arrays.copyOfRange(args, 4, args.length));
+				break;
+			case "analytics":
+				FleetAnalytics.run(esql, args.length > 5 && args[4].equals("--threads") ? Integer.parseInt(args[5])
+						: Runtime.getRuntime().availableProcessors());
+				break;
+			case "export": {
+				ResultWriter.Format format = ResultWriter.Format.CSV;
+				int sourceArg = 4;
+				if (args.length > 5 && args[4].equals("--format")) {
+					format = ResultWriter.Format.parse(args[5]);
+					sourceArg = 6;
+				}
+				if (args.length <= sourceArg) {
+					System.err.println("Name a table or query to export");
+					break;
+				}
+				ResultWriter.export(esql, format, args[sourceArg], args.length > sourceArg + 1 ? args[sourceArg + 1] : "-");
+				break;
+			}
+			default:
+				System.err.println("Unknown mode: " + args[3]);
+		}
+	}
+
 	public static int readChoice() {
 		int input;
 		// returns only if a correct value is given.
@@ -322,20 +1221,21 @@ public class DBproject {
 		return input;
 	}// end readChoice
 
-    //Input data into query based on user's input
-	public static void inputData(DBproject esql, String query) {
+    //Input data into the store based on user's input
+	public static boolean inputData(FlightStore store, String operation, Metrics.Work<Integer> insert) {
+		boolean inserted = false;
 		String input;
 		do {
 			try {
 				input = in.readLine();
 				if(input.equals("Y") || input.equals("y")) {
 					try {
-						java.util.Date startTime = new java.util.Date();
-						esql.executeUpdate(query);
-						java.util.Date endTime = new java.util.Date();
-						long elapsedTime = endTime.getTime() - startTime.getTime();
-    					System.out.println("\nElapsed time: " + elapsedTime + " ms");
+						long startTime = System.nanoTime();
+						store.getMetrics().measure(operation, insert);
+						long elapsedTime = System.nanoTime() - startTime;
+						System.out.printf("%nElapsed time: %.3f ms%n", elapsedTime / 1e6);
 						System.out.println("\nData was inserted into the database!");
+						inserted = true;
 						break;
 					}catch (Exception e) {
 						System.err.println (e.getMessage());
@@ -357,19 +1257,24 @@ public class DBproject {
 			}
 		}while (true);
 		System.out.println("-----------------------------------------------------------------");
+		return inserted;
 	}
 
-	//Output data from database
-	public static int outputData(DBproject esql, String query) {
+	//Output the (key, count) rows of a store query
+	public static int outputData(FlightStore store, String operation, String key, Metrics.Work<List<int[]>> query) {
 		int var=0;
 		try {
 			System.out.println("-----------------------------------------------------------------");
-			java.util.Date startTime = new java.util.Date();
-			var = esql.executeQueryAndPrintResult(query);
-			java.util.Date endTime = new java.util.Date();
-			long elapsedTime = endTime.getTime() - startTime.getTime();
+			long startTime = System.nanoTime();
+			List<int[]> rows = store.getMetrics().measure(operation, query);
+			long elapsedTime = System.nanoTime() - startTime;
+			StringBuilder out = new StringBuilder(key).append("\tcount\t\n");
+			for (int[] row : rows)
+				out.append(row[0]).append('\t').append(row[1]).append("\t\n");
+			System.out.print(out);
+			var = rows.size();
 			System.out.println("\ntotal row(s): " + var);
-    		System.out.println("Elapsed time: " + elapsedTime + " ms");
+			System.out.printf("Elapsed time: %.3f ms%n", elapsedTime / 1e6);
 			System.out.println("-----------------------------------------------------------------");
 		}catch (Exception e) {
 			System.err.println (e.getMessage());
@@ -429,10 +1334,48 @@ public class DBproject {
 		return flightNum;
 	}
 
+	public static String getAirport(String prompt) {
+		String airport;
+		do {
+			System.out.print(prompt);
+			try {
+				airport = in.readLine().trim();
+				if(airport.length() <= 0 || airport.length() > 5)
+					throw new RuntimeException("Airport cannot be null or exceed 5 characters");
+				break;
+			}catch (Exception e) {
+				System.err.println (e.getMessage());
+				continue;
+			}
+		}while (true);
+		return airport;
+	}
+
+	//Reads a non-negative number, an empty line keeps the default
+	public static int getOptionalNumber(String prompt, int defaultValue) {
+		int number;
+		do {
+			System.out.print(prompt);
+			try {
+				String input = in.readLine().trim();
+				if(input.isEmpty())
+					return defaultValue;
+				number = Integer.parseInt(input);
+				if(number < 0)
+					throw new RuntimeException("Number cannot be negative");
+				break;
+			}catch (Exception e) {
+				System.out.println("Your input is invalid!");
+				continue;
+			}
+		}while (true);
+		return number;
+	}
+
 	/////////////////////////////////////////////////////////////////////////////////////
 	//// QUERY 1
 	/////////////////////////////////////////////////////////////////////////////////////
-	public static void AddPlane(DBproject esql) {//1
+	public static void AddPlane(FlightStore store) {//1
 		int planeID, age, seats;
 		String make, model;
 		
@@ -523,14 +1466,15 @@ public class DBproject {
 		System.out.println("| Number of Seats = " + seats);
 		System.out.println("---------------------------------------");
 		System.out.print("\nAre you sure you want to input the new data above into PLANE? (Y/N): ");
-		String query = "INSERT INTO Plane (id, make, model, age, seats) VALUES (" + planeID + ", \'" + make + "\', \'" + model + "\', " + age + ", " + seats + ");";
-		inputData(esql, query);
+		int id = planeID, planeAge = age, planeSeats = seats;
+		String planeMake = make, planeModel = model;
+		inputData(store, "AddPlane", () -> store.addPlane(id, planeMake, planeModel, planeAge, planeSeats));
 	}
 
 	/////////////////////////////////////////////////////////////////////////////////////
 	//// QUERY 2
 	/////////////////////////////////////////////////////////////////////////////////////
-	public static void AddPilot(DBproject esql) {// 2
+	public static void AddPilot(FlightStore store) {// 2
 		int pilotID;
 		String name, nationality;
 
@@ -583,19 +1527,20 @@ public class DBproject {
 		System.out.println("---------------------------------------");
 
 		System.out.print("\nAre you sure you want to input the new data above into PILOT? (Y/N): ");
-		String query = "INSERT INTO Pilot (id, fullname, nationality) VALUES (" + pilotID + ", \'" + name + "\', \'" + nationality + "\');";
-		inputData(esql, query);
+		int id = pilotID;
+		String pilotName = name, pilotNationality = nationality;
+		inputData(store, "AddPilot", () -> store.addPilot(id, pilotName, pilotNationality));
 	}
 
 	/////////////////////////////////////////////////////////////////////////////////////
 	//// QUERY 3
 	/////////////////////////////////////////////////////////////////////////////////////
-	public static void AddFlight(DBproject esql) {//3
+	public static void AddFlight(FlightStore store) {//3
 		// Given a pilot, plane and flight, adds a flight in the DB
 
-		int flightNum, cost, sold, stops;
+		int flightNum, cost, sold, stops, pilotID, planeID;
 		String departTime, arrival, destination, departLoc;
-		LocalDate leaveDate;
+		LocalDate leaveDate, arrivalDate;
 		DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
 		
 		System.out.println("-----------------------------------------------------------------");
@@ -671,7 +1616,7 @@ public class DBproject {
 			System.out.print("Input Arrival Time (YYYY-MM-DD hh:mm): ");
 			try {
 				arrival = in.readLine();
-				LocalDate arrivalDate = LocalDate.parse(arrival, formatter);
+				arrivalDate = LocalDate.parse(arrival, formatter);
 				break;
 			}catch (Exception e) {
 				System.out.println("Your input is invalid!");
@@ -707,6 +1652,29 @@ public class DBproject {
 			}
 		}while (true);
 
+		//Get pilot and plane flying it
+		do {
+			System.out.print("Input Pilot ID: ");
+			try {
+				pilotID = Integer.parseInt(in.readLine());
+				break;
+			}catch (Exception e) {
+				System.out.println("Your input is invalid!");
+				continue;
+			}
+		}while (true);
+
+		do {
+			System.out.print("Input Plane ID: ");
+			try {
+				planeID = Integer.parseInt(in.readLine());
+				break;
+			}catch (Exception e) {
+				System.out.println("Your input is invalid!");
+				continue;
+			}
+		}while (true);
+
 		System.out.println("\n---------------------------------------");
 		System.out.println("|        Flight Number = " + flightNum);
 		System.out.println("|          Flight Cost = " + cost);
@@ -716,17 +1684,24 @@ public class DBproject {
 		System.out.println("|         Arrival Time = " + arrival);
 		System.out.println("|          Destination = " + destination);
 		System.out.println("|            Departure = " + departLoc);
+		System.out.println("|             Pilot ID = " + pilotID);
+		System.out.println("|             Plane ID = " + planeID);
 		System.out.println("---------------------------------------");
 
 		System.out.print("\nAre you sure you want to input the new data above into FLIGHT? (Y/N): ");
-		String query = "INSERT INTO Flight (fnum, cost, num_sold, num_stops, actual_departure_date, actual_arrival_date, arrival_airport, departure_airport) VALUES (" + flightNum + ", " + cost + ", " + sold + ", " + stops + ", \'" + departTime + "\', \'" + arrival + "\', \'" + destination + "\', \'" + departLoc + "\');";
-		inputData(esql, query);
+		inputData(store, "AddFlight", addingFlight(store, flightNum, cost, sold, stops, leaveDate, arrivalDate, destination, departLoc, pilotID, planeID));
+	}
+
+	//The insert confirmed by inputData, the values read above change inside their loops
+	private static Metrics.Work<Integer> addingFlight(FlightStore store, int flightNum, int cost, int sold, int stops,
+			LocalDate leaveDate, LocalDate arrivalDate, String destination, String departLoc, int pilotID, int planeID) {
+		return () -> store.addFlight(flightNum, cost, sold, stops, leaveDate, arrivalDate, destination, departLoc, pilotID, planeID);
 	}
 
 	/////////////////////////////////////////////////////////////////////////////////////
 	//// QUERY 4
 	/////////////////////////////////////////////////////////////////////////////////////
-	public static void AddTechnician(DBproject esql) {//4
+	public static void AddTechnician(FlightStore store) {//4
 		int techID;
 		String techName;
 		
@@ -764,18 +1739,19 @@ public class DBproject {
 		System.out.println("---------------------------------------");
 		System.out.print("\nAre you sure you want to input the new data below into TECHNICIAN? (Y/N): ");
 
-		String query = "INSERT INTO Technician (id, full_name) VALUES (" + techID + ", \'" + techName + "\');";
-		inputData(esql, query);
+		int id = techID;
+		String name = techName;
+		inputData(store, "AddTechnician", () -> store.addTechnician(id, name));
 	}
 
 	/////////////////////////////////////////////////////////////////////////////////////
 	//// QUERY 5
 	/////////////////////////////////////////////////////////////////////////////////////
-	public static void BookFlight(DBproject esql) {//5
+	public static void BookFlight(FlightStore store) {//5
 		// Given a customer and a flight that he/she wants to book, add a reservation to the DB
 
-		int customerID, flightNum, reserve, checkReservation;
-		String input, status, query;
+		int customerID, flightNum;
+		String input, status, existing;
 		
 		System.out.println("-----------------------------------------------------------------");
 
@@ -786,39 +1762,30 @@ public class DBproject {
 		flightNum = getFlightNumber();
 		
 		try {
-			query = "SELECT status\nFROM Reservation\nWHERE cid = " + customerID + " AND fid = " + flightNum + ";";
 			System.out.println("---------------------------------------");
-			checkReservation = esql.executeQueryAndPrintResult(query);
+			existing = store.getMetrics().measure("FindReservation", () -> store.reservationStatus(customerID, flightNum));
 
 			//Run query to see if it exists
-			if(checkReservation == 0) {
+			if(existing == null) {
 				do {
 					System.out.print("The Reservation with customer ID " + customerID + " and flight number " + flightNum + " does not exist. Would you like to book a reservation? (Y/N): ");
 					try {
 						input = in.readLine();
 						if(input.equals("Y") || input.equals("y")) {
 
-							//Input new reservation number
-							do {
-								System.out.print("Input NEW Reservation Number: ");
-								try {
-									reserve = Integer.parseInt(in.readLine());
-									break;
-								}catch (Exception e) {
-									System.out.println("Your input is invalid!");
-									continue;
-								}
-							}while (true);
-							
 							//Input new reservation status
 							System.out.print("Input NEW Reservation Status: ");
 							status = getReservationStatus();
 							
-							//Insert new data into database
+							//Insert new data into database, the reservation number is assigned by the database
 							try {
-								query = "INSERT INTO Reservation (rnum, cid, fid, status) VALUES (" + reserve + ", " + customerID + ", " + flightNum + ", \'" + status + "\');";
-								esql.executeUpdate(query);
-								System.out.println("\nReservation Created!");
+								BookingResult result = store.bookFlight(customerID, flightNum, status);
+								if (result.getOutcome() == BookingResult.Outcome.BOOKED)
+									System.out.println("\nReservation Created! Reservation Number: " + result.getRnum());
+								else if (result.getOutcome() == BookingResult.Outcome.FULL)
+									System.out.println("\nFlight is full, book with status W to join the waiting list.");
+								else
+									System.out.println("\nThe customer already has a reservation on this flight.");
 							}catch (Exception e) {
 								System.err.println (e.getMessage());
 								System.out.println("\nData was NOT inserted into the database!");
@@ -837,6 +1804,8 @@ public class DBproject {
 			}
 			//If reservation already exists...
 			else {
+				System.out.println("status\t");
+				System.out.println(existing + "\t");
 				System.out.println("---------------------------------------");
 				do{
 					try{
@@ -850,12 +1819,16 @@ public class DBproject {
 
 							//Update existing data in the database
 							try {
-								query = "UPDATE Reservation SET status = \'" + status + "\' WHERE cid = " + customerID + " AND fid = " + flightNum + ";";
-								esql.executeUpdate(query);
+								BookingResult result = store.updateReservationStatus(customerID, flightNum, status);
+								if (result.getOutcome() == BookingResult.Outcome.UPDATED)
+									System.out.println("\nReservation Updated!");
+								else if (result.getOutcome() == BookingResult.Outcome.FULL)
+									System.out.println("\nReservation was NOT updated, the flight is full.");
+								else
+									System.out.println("\nReservation was NOT updated, it no longer exists.");
 							}catch (Exception e) {
 								System.err.println (e.getMessage());
 							}
-							System.out.println("\nReservation Updated!");
 						}
 						//If user enter something other than Y,y,N,n
 						else if(!input.equals("N") && !input.equals("n")) {
@@ -877,11 +1850,12 @@ public class DBproject {
 	/////////////////////////////////////////////////////////////////////////////////////
 	//// QUERY 6
 	/////////////////////////////////////////////////////////////////////////////////////
-	public static void ListNumberOfAvailableSeats(DBproject esql) {//6
+	public static void ListNumberOfAvailableSeats(FlightStore store) {//6
 		// For flight number and date, find the number of availalbe seats (i.e. total plane capacity minus booked seats )
 
-		int flightNum, var;
+		int flightNum;
 		String departTime;
+		LocalDate leaveDate;
 		DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
 
 		System.out.println("-----------------------------------------------------------------");
@@ -894,7 +1868,7 @@ public class DBproject {
 			System.out.print("Input Departure Time (YYYY-MM-DD hh:mm): ");
 			try {
 				departTime = in.readLine();
-				LocalDate leaveDate = LocalDate.parse(departTime, formatter);
+				leaveDate = LocalDate.parse(departTime, formatter);
 				break;
 			}catch (Exception e) {
 				System.out.println("Your input is invalid!");
@@ -902,39 +1876,49 @@ public class DBproject {
 			}
 		}while (true);
 
-		//Output query
-		String query = "SELECT Total_Seats - Seats_Sold as \"Seats Available\"\nFROM(\nSELECT P.seats as Total_Seats\nFROM Plane P, FlightInfo FI\nWHERE FI.flight_id = " + flightNum + " AND FI.plane_id = P.id\n)total,\n(\nSELECT F.num_sold as Seats_Sold\nFROM Flight F\nWHERE F.fnum = " + flightNum + " AND F.actual_departure_date = \'" + departTime + "\'\n)sold;";
-		var = outputData(esql, query);
-		if(var == 0) {
-			System.out.println("Flight or Departure Time does not exist");
-		System.out.println("-----------------------------------------------------------------");
+		//Answer from the seat inventory and reference cache, the database only when neither knows the flight
+		try {
+			LocalDate day = leaveDate;
+			long startTime = System.nanoTime();
+			int available = store.getMetrics().measure("ListNumberOfAvailableSeats", () -> store.availableSeats(flightNum, day));
+			long elapsedTime = System.nanoTime() - startTime;
+			System.out.println("-----------------------------------------------------------------");
+			if (available == SeatInventory.UNKNOWN) {
+				System.out.println("Flight or Departure Time does not exist");
+			} else {
+				System.out.println("Seats Available\t");
+				System.out.println(available + "\t");
+				System.out.println("\ntotal row(s): 1");
+			}
+			System.out.printf("Elapsed time: %.3f ms%n", elapsedTime / 1e6);
+			System.out.println("-----------------------------------------------------------------");
+		}catch (Exception e) {
+			System.err.println (e.getMessage());
 		}
 	}
 
 	/////////////////////////////////////////////////////////////////////////////////////
 	//// QUERY 7
 	/////////////////////////////////////////////////////////////////////////////////////
-	public static void ListsTotalNumberOfRepairsPerPlane(DBproject esql) {//7
+	public static void ListsTotalNumberOfRepairsPerPlane(FlightStore store) {//7
 		// Count number of repairs per planes and list them in descending order
 
-		String query = "SELECT P.id, count(R.rid)\nFROM Plane P, Repairs R\nWHERE P.id = R.plane_id\nGROUP BY P.id\nORDER BY count DESC;";
-		outputData(esql, query);
+		outputData(store, "ListsTotalNumberOfRepairsPerPlane", "id", store::repairsPerPlane);
 	}
 
 	/////////////////////////////////////////////////////////////////////////////////////
 	//// QUERY 8
 	/////////////////////////////////////////////////////////////////////////////////////
-	public static void ListTotalNumberOfRepairsPerYear(DBproject esql) {//8
+	public static void ListTotalNumberOfRepairsPerYear(FlightStore store) {//8
 		// Count repairs per year and list them in ascending order
 
-		String query = "SELECT EXTRACT (year FROM R.repair_date) as \"Year\", count(R.rid)\nFROM repairs R\nGROUP BY \"Year\"\nORDER BY count ASC;";
-		outputData(esql, query);
+		outputData(store, "ListTotalNumberOfRepairsPerYear", "Year", store::repairsPerYear);
 	}
 	
 	/////////////////////////////////////////////////////////////////////////////////////
 	//// QUERY 9
 	/////////////////////////////////////////////////////////////////////////////////////
-	public static void FindPassengersCountWithStatus(DBproject esql) {//9
+	public static void FindPassengersCountWithStatus(FlightStore store) {//9
 		// Find how many passengers there are with a status (i.e. W,C,R) and list that number.
 		int flightNum;
 		String status;
@@ -948,7 +1932,68 @@ public class DBproject {
 		System.out.print("Input Passenger Status: ");
 		status = getReservationStatus();
 
-		String query = "SELECT COUNT(*)\nFROM Reservation\nWHERE fid = " + flightNum + " AND status = \'" + status + "\';";
-		outputData(esql, query);
+		//Answer from the passenger counters when they are enabled, from ReservationCounts otherwise
+		try {
+			long startTime = System.nanoTime();
+			int passengers = store.getMetrics().measure("FindPassengersCountWithStatus", () -> store.passengersWithStatus(flightNum, status));
+			long elapsedTime = System.nanoTime() - startTime;
+			System.out.println("-----------------------------------------------------------------");
+			System.out.println("count\t");
+			System.out.println(passengers + "\t");
+			System.out.println("\ntotal row(s): 1");
+			System.out.printf("Elapsed time: %.3f ms%n", elapsedTime / 1e6);
+			System.out.println("-----------------------------------------------------------------");
+		}catch (Exception e) {
+			System.err.println (e.getMessage());
+		}
+	}
+
+	/////////////////////////////////////////////////////////////////////////////////////
+	//// QUERY 10
+	/////////////////////////////////////////////////////////////////////////////////////
+	public static void FindRoutes(FlightStore store) {//10
+		// For two airports and a day, list the itineraries with up to N connections, earliest first and cheapest last
+		String departLoc, destination;
+		LocalDate leaveDate;
+		int connections, layover;
+
+		System.out.println("-----------------------------------------------------------------");
+
+		departLoc = getAirport("Input Departure Airport: ");
+		destination = getAirport("Input Destination Airport: ");
+
+		//Get departure day
+		do {
+			System.out.print("Input Departure Date (YYYY-MM-DD): ");
+			try {
+				leaveDate = LocalDate.parse(in.readLine().trim());
+				break;
+			}catch (Exception e) {
+				System.out.println("Your input is invalid!");
+				continue;
+			}
+		}while (true);
+
+		connections = getOptionalNumber("Input Maximum Connections (default " + RouteGraph.DEFAULT_MAX_CONNECTIONS + "): ", RouteGraph.DEFAULT_MAX_CONNECTIONS);
+		layover = getOptionalNumber("Input Minimum Layover in Days (default " + RouteGraph.DEFAULT_MIN_LAYOVER_DAYS + "): ", RouteGraph.DEFAULT_MIN_LAYOVER_DAYS);
+
+		try {
+			RouteGraph routes = store.getRouteGraph();
+			LocalDate day = leaveDate;
+			int maxConnections = connections, minLayover = layover;
+			long startTime = System.nanoTime();
+			List<RouteGraph.Itinerary> itineraries = store.getMetrics().measure("FindRoutes", () -> routes.search(departLoc, destination, day, maxConnections, minLayover));
+			long elapsedTime = System.nanoTime() - startTime;
+			System.out.println("-----------------------------------------------------------------");
+			for (RouteGraph.Itinerary itinerary : itineraries)
+				System.out.println(itinerary);
+			if (itineraries.isEmpty())
+				System.out.println("No route found");
+			System.out.println("\ntotal route(s): " + itineraries.size());
+			System.out.printf("Elapsed time: %.3f ms%n", elapsedTime / 1e6);
+			System.out.println("-----------------------------------------------------------------");
+		}catch (Exception e) {
+			System.err.println (e.getMessage());
+		}
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,720 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.PGCopyOutputStream;
+
+/**
+ * This class generates consistent data for all nine tables at any scale
+ * factor. Scale factor 1 is 10000 customers, 20000 flights and about 100000
+ * reservations; every table grows linearly with it except the airports, which
+ * grow with its square root so routes get denser as the data grows.
+ *
+ * The data is skewed like real bookings: a few hot flights are full and have
+ * a waiting list while most carry a handful of passengers, frequent flyers
+ * hold many reservations, a few hub airports see most of the traffic and a
+ * few planes most of the repairs. Every reference points to an existing row,
+ * a customer books a flight at most once and the confirmed reservations of a
+ * flight are its num_sold and never exceed the seats of its plane.
+ *
+ * Each row draws from its own random stream derived from the seed, the table
+ * and the key, so the output does not depend on the number of threads or the
+ * chunk size. The keys of a table are cut into chunks generated in parallel,
+ * each streamed into its own COPY or its own CSV file that BulkLoader reads.
+ *
+ */
+
+public class DataGenerator {
+	// rows of each table at scale factor 1
+	static final int CUSTOMERS = 10000;
+	static final int PILOTS = 1000;
+	static final int PLANES = 200;
+	static final int TECHNICIANS = 500;
+	static final int FLIGHTS = 20000;
+	static final int REPAIRS = 5000;
+	static final int AIRPORTS = 100;
+	// mean reservations per flight before the seat limit
+	static final double RESERVATIONS_PER_FLIGHT = 6.0;
+
+	// keys generated per COPY or CSV file
+	static final int CHUNK_SIZE = 100000;
+	static final int BUFFER_SIZE = 1 << 16;
+
+	// popularity exponents, 0 is uniform and the closer to 1 the more skewed
+	static final double FLIGHT_SKEW = 0.8;
+	static final double CUSTOMER_SKEW = 0.8;
+	static final double AIRPORT_SKEW = 0.8;
+	static final double PLANE_SKEW = 0.5;
+
+	// a waiting list of up to a quarter of the seats forms on full flights
+	static final int WAITLIST_DIVISOR = 4;
+	static final LocalDate FIRST_DEPARTURE = LocalDate.of(2014, 1, 1);
+	static final int DEPARTURE_DAYS = 365;
+	static final LocalDate FIRST_REPAIR = LocalDate.of(2010, 1, 1);
+	static final int REPAIR_DAYS = 6 * 365;
+	static final LocalDate FIRST_BIRTH = LocalDate.of(1940, 1, 1);
+	static final int BIRTH_DAYS = 60 * 365;
+
+	// random streams, one per table and one per derived attribute
+	private static final int CUSTOMER = 1, PILOT = 2, PLANE = 3, TECHNICIAN = 4, FLIGHT = 5, RESERVATION = 6,
+			FLIGHT_INFO = 7, REPAIR = 8, SCHEDULE = 9, SEATS = 10, DEMAND = 11, STATUS = 12;
+
+	private static final String[] FIRST_NAMES = { "Aaron", "Abbey", "Adele", "Aimee", "Alberto", "Alec", "Aleida",
+			"Alfonso", "Allegra", "Annette", "Armand", "Astrid", "Boris", "Breana", "Brent", "Candi", "Carlyn", "Celina",
+			"Charles", "Chet", "Christopher", "Clyde", "Connie", "Daren", "Dean", "Delia", "Dixie", "Dorothy", "Eboni",
+			"Eldon", "Elvira", "Estela", "Eula", "Wyatt" };
+	private static final String[] LAST_NAMES = { "Accardo", "Agbayani", "Aparicio", "Bachman", "Barbosa", "Bartz",
+			"Bernal", "Bickley", "Borden", "Bracco", "Bright", "Bundy", "Cano", "Carrington", "Casteel", "Comstock",
+			"Cornell", "Covington", "Daley", "Dexter", "Dudek", "Eason", "Emery", "Enderle", "Fasano", "Fontenot",
+			"Fortune", "Fuentes", "Gibb", "Gleason", "Ruoff", "Scarlett" };
+	private static final String[] STREETS = { "Chapel Drive", "Bald Hill Street", "Campfire Ave.", "Young Avenue",
+			"East Warren St.", "Spruce Dr.", "Golf Ave.", "Shub Farm St.", "W. Greystone Dr.", "Edgewood Ave.",
+			"Berkshire Street", "Rose St.", "Court Lane", "Lake Dr.", "Second Rd.", "Strawberry Drive", "3rd St.",
+			"S. Grant St.", "Logan Dr.", "Sunset St." };
+	// city, state and zip code
+	private static final String[][] CITIES = { { "Melbourne", "FL", "32904" }, { "Baton Rouge", "LA", "70806" },
+			{ "Cockeysville", "MD", "21030" }, { "Oak Forest", "IL", "60452" }, { "New Brunswick", "NJ", "08901" },
+			{ "Rocky Mount", "NC", "27804" }, { "Appleton", "WI", "54911" }, { "Jamaica", "NY", "11432" },
+			{ "Newtown", "PA", "18940" }, { "Fishers", "IN", "46037" }, { "Zeeland", "MI", "49464" },
+			{ "Glendora", "CA", "91740" }, { "Dublin", "GA", "31021" }, { "Cranston", "RI", "02920" },
+			{ "Parkersburg", "WV", "26101" }, { "Chelsea", "MA", "02150" }, { "Cordova", "TN", "38016" },
+			{ "Yuba City", "CA", "95993" } };
+	private static final String[] NATIONALITIES = { "Argentina", "Australia", "Austria", "Belgium", "Brazil",
+			"Canada", "China", "Colombia", "Croatia", "Egypt", "France", "Germany", "Greece", "India", "Italy", "Japan",
+			"Mexico", "Morocco", "New Zealand", "South Africa", "Spain", "Turkey", "UK", "USA" };
+	// make and model
+	private static final String[][] MODELS = { { "Airbus", "AirbusA300" }, { "Airbus", "AirbusA310" },
+			{ "Airbus", "AirbusA319" }, { "Airbus", "AirbusA330" }, { "Airbus", "AirbusA340" },
+			{ "Airbus", "AirbusA380" }, { "Boeing", "Boeing707" }, { "Boeing", "Boeing717" }, { "Boeing", "Boeing727" },
+			{ "Boeing", "Boeing737" }, { "Boeing", "Boeing747" }, { "Boeing", "Boeing757" }, { "Boeing", "Boeing767" },
+			{ "Boeing", "Boeing777" }, { "Bombadier", "BombardierCRJ700" }, { "Bombadier", "BombardierCSeries" },
+			{ "Embraer", "EmbraerE-170" }, { "Embraer", "EmbraerERJ135" }, { "Fokker", "Fokker100" },
+			{ "Ily", "IlyushinIl-96" }, { "McDonellDouglas", "McDonnellDouglasDC-9" },
+			{ "Sukhoi", "SukhoiSuperjetSSJ100" }, { "Tupolev", "TupolevTu-154" }, { "Tupolev", "TupolevTu-204" } };
+	private static final String[] REPAIR_CODES = { "MJ", "MN", "MN", "SV", "SV", "SV" };
+
+	/**
+	 * A SplitMix64 random stream that is reset to the start of a row, so no
+	 * object is allocated per row.
+	 */
+	static final class Rng {
+		private static final long GOLDEN = 0x9e3779b97f4a7c15L;
+		private long _state;
+
+		Rng reset(long seed, int stream, long key) {
+			this._state = mix(mix(seed + stream * GOLDEN) + key);
+			return this;
+		}
+
+		long nextLong() {
+			return mix(this._state += GOLDEN);
+		}
+
+		// in [0, bound)
+		int nextInt(int bound) {
+			return (int) (((nextLong() >>> 33) * bound) >>> 31);
+		}
+
+		// in [0, 1)
+		double nextDouble() {
+			return (nextLong() >>> 11) * 0x1.0p-53;
+		}
+
+		static long mix(long z) {
+			z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+			z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+			return z ^ (z >>> 31);
+		}
+	}
+
+	/**
+	 * Draws keys in [0, n) with a Zipf-like skew: the probability of rank k
+	 * falls like k^-skew. Ranks are spread over the key range, so the popular
+	 * keys are not simply the lowest ones.
+	 */
+	static final class Zipf {
+		private final int _n;
+		private final long _stride;
+		private final double _span;
+		private final double _inverse;
+
+		Zipf(int n, double skew) {
+			this._n = n;
+			this._stride = stride(n);
+			this._span = Math.pow(n + 1, 1 - skew) - 1;
+			this._inverse = 1 / (1 - skew);
+		}
+
+		// inverts the continuous distribution over [1, n + 1)
+		int next(Rng r) {
+			int rank = (int) Math.pow(1 + r.nextDouble() * this._span, this._inverse) - 1;
+			return permute(Math.min(rank, this._n - 1), this._stride, this._n);
+		}
+	}
+
+	// a multiplier coprime to n, so multiplying by it modulo n is a permutation
+	static long stride(long n) {
+		long stride = (long) (n * 0.6180339887) | 1;
+		while (gcd(stride, n) != 1)
+			++stride;
+		return stride;
+	}
+
+	static int permute(long key, long stride, int n) {
+		return (int) (key * stride % n);
+	}
+
+	private static long gcd(long a, long b) {
+		return b == 0 ? a : gcd(b, a % b);
+	}
+
+	/**
+	 * Writes the rows of the keys [from, to) of one table.
+	 */
+	interface Rows {
+		long write(int chunk, int from, int to, Writer out) throws IOException;
+	}
+
+	private final long _seed;
+	private final int _customers, _pilots, _planes, _technicians, _flights, _repairs;
+	private final String[] _airports;
+	private final Zipf _customerPick, _airportPick, _planePick;
+	// position of each flight in the popularity order
+	private final long _flightStride;
+	// first reservation number of each chunk of flights, set by countReservations
+	private long[] _firstRnum;
+	private final String[] _departureDays, _repairDays, _birthDays;
+
+	/**
+	 * Method to size every table for a scale factor.
+	 *
+	 * @param scale the scale factor, fractions give less than the base size
+	 * @param seed  the seed, the same seed and scale give the same data
+	 */
+	public DataGenerator(double scale, long seed) {
+		if (!(scale > 0))
+			throw new IllegalArgumentException("The scale factor must be positive");
+		this._seed = seed;
+		this._customers = rows(CUSTOMERS, scale);
+		this._pilots = rows(PILOTS, scale);
+		this._planes = rows(PLANES, scale);
+		this._technicians = rows(TECHNICIANS, scale);
+		this._flights = rows(FLIGHTS, scale);
+		this._repairs = rows(REPAIRS, scale);
+
+		// distinct five letter codes: a permutation of the 26^5 codes
+		int codes = 26 * 26 * 26 * 26 * 26;
+		this._airports = new String[Math.max(10, rows(AIRPORTS, Math.sqrt(scale)))];
+		long codeStride = stride(codes);
+		for (int i = 0; i < this._airports.length; ++i) {
+			int code = permute(i + 1, codeStride, codes);
+			char[] letters = new char[5];
+			for (int c = 4; c >= 0; --c, code /= 26)
+				letters[c] = (char) ('A' + code % 26);
+			this._airports[i] = new String(letters);
+		}
+
+		this._customerPick = new Zipf(this._customers, CUSTOMER_SKEW);
+		this._airportPick = new Zipf(this._airports.length, AIRPORT_SKEW);
+		this._planePick = new Zipf(this._planes, PLANE_SKEW);
+		this._flightStride = stride(this._flights);
+		// schedules may start a day before the first departure
+		this._departureDays = days(FIRST_DEPARTURE.minusDays(1), DEPARTURE_DAYS + 3, false);
+		this._repairDays = days(FIRST_REPAIR, REPAIR_DAYS, false);
+		this._birthDays = days(FIRST_BIRTH, BIRTH_DAYS, true);
+	}
+
+	private static int rows(int base, double scale) {
+		double rows = Math.max(1, Math.round(base * scale));
+		if (rows > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Scale factor " + scale + " gives more keys than fit in an integer");
+		return (int) rows;
+	}
+
+	// the dates of a range formatted once, YYYY-MM-DD or M/D/YYYY like the sample data
+	private static String[] days(LocalDate first, int count, boolean american) {
+		String[] days = new String[count];
+		for (int d = 0; d < count; ++d) {
+			LocalDate day = first.plusDays(d);
+			days[d] = american ? day.getMonthValue() + "/" + day.getDayOfMonth() + "/" + day.getYear() : day.toString();
+		}
+		return days;
+	}
+
+	// the generator of every table, in the order of BulkLoader.PARENTS and BulkLoader.CHILDREN
+	private Rows[] generators() {
+		return new Rows[] { this::customers, this::pilots, this::planes, this::technicians, this::flights,
+				this::reservations, this::flightInfo, this::repairs, this::schedule };
+	}
+
+	// keys of every table in the same order, reservations are cut by flight
+	private int[] keys() {
+		return new int[] { this._customers, this._pilots, this._planes, this._technicians, this._flights,
+				this._flights, this._flights, this._repairs, this._flights };
+	}
+
+	private long customers(int chunk, int from, int to, Writer out) throws IOException {
+		Rng r = new Rng();
+		StringBuilder line = new StringBuilder(256);
+		for (int id = from; id < to; ++id) {
+			r.reset(this._seed, CUSTOMER, id);
+			String[] city = CITIES[r.nextInt(CITIES.length)];
+			line.append(id).append(',').append(FIRST_NAMES[r.nextInt(FIRST_NAMES.length)])
+					.append(',').append(LAST_NAMES[r.nextInt(LAST_NAMES.length)])
+					.append(',').append(r.nextInt(2) == 0 ? 'M' : 'F')
+					.append(',').append(this._birthDays[r.nextInt(BIRTH_DAYS)])
+					.append(',').append(1 + r.nextInt(9999)).append(' ').append(STREETS[r.nextInt(STREETS.length)])
+					.append(' ').append(city[0])
+					.append(',').append(2 + r.nextInt(8)).append(digits(r.nextInt(1000000000), 9))
+					.append(", ").append(city[1]).append(' ').append(city[2]);
+			end(line, out);
+		}
+		return to - from;
+	}
+
+	private long pilots(int chunk, int from, int to, Writer out) throws IOException {
+		Rng r = new Rng();
+		StringBuilder line = new StringBuilder(64);
+		for (int id = from; id < to; ++id) {
+			r.reset(this._seed, PILOT, id);
+			line.append(id).append(',').append(FIRST_NAMES[r.nextInt(FIRST_NAMES.length)])
+					.append(' ').append(LAST_NAMES[r.nextInt(LAST_NAMES.length)])
+					.append(',').append(NATIONALITIES[r.nextInt(NATIONALITIES.length)]);
+			end(line, out);
+		}
+		return to - from;
+	}
+
+	private long planes(int chunk, int from, int to, Writer out) throws IOException {
+		Rng r = new Rng();
+		Rng seats = new Rng();
+		StringBuilder line = new StringBuilder(64);
+		for (int id = from; id < to; ++id) {
+			r.reset(this._seed, PLANE, id);
+			String[] model = MODELS[r.nextInt(MODELS.length)];
+			line.append(id).append(',').append(model[0]).append(',').append(model[1])
+					.append(',').append(r.nextInt(31)).append(',').append(seats(seats, id));
+			end(line, out);
+		}
+		return to - from;
+	}
+
+	private long technicians(int chunk, int from, int to, Writer out) throws IOException {
+		Rng r = new Rng();
+		StringBuilder line = new StringBuilder(64);
+		for (int id = from; id < to; ++id) {
+			r.reset(this._seed, TECHNICIAN, id);
+			line.append(id).append(',').append(FIRST_NAMES[r.nextInt(FIRST_NAMES.length)])
+					.append(' ').append(LAST_NAMES[r.nextInt(LAST_NAMES.length)]);
+			end(line, out);
+		}
+		return to - from;
+	}
+
+	private long flights(int chunk, int from, int to, Writer out) throws IOException {
+		Rng r = new Rng();
+		Rng status = new Rng();
+		StringBuilder line = new StringBuilder(64);
+		for (int fnum = from; fnum < to; ++fnum) {
+			int seats = seats(r, plane(r, fnum));
+			int booked = demand(r, fnum, seats);
+			int sold = 0;
+			status.reset(this._seed, STATUS, fnum);
+			for (int i = 0; i < booked; ++i)
+				if (status(status, sold, seats) == 'R')
+					++sold;
+
+			r.reset(this._seed, FLIGHT, fnum);
+			int departure = departure(r);
+			int stops = r.nextInt(4);
+			int arrival = departure + 60 + r.nextInt(600) + 45 * stops;
+			int origin = this._airportPick.next(r);
+			int destination = this._airportPick.next(r);
+			while (destination == origin)
+				destination = this._airportPick.next(r);
+			line.append(fnum).append(',').append(100 + r.nextInt(900)).append(',').append(sold).append(',').append(stops)
+					.append(','); time(line, departure);
+			line.append(','); time(line, arrival);
+			line.append(',').append(this._airports[destination]).append(',').append(this._airports[origin]);
+			end(line, out);
+		}
+		return to - from;
+	}
+
+	private long reservations(int chunk, int from, int to, Writer out) throws IOException {
+		Rng r = new Rng();
+		Rng status = new Rng();
+		StringBuilder line = new StringBuilder(32);
+		// customers already on the current flight
+		int[] booked = new int[499 + 499 / WAITLIST_DIVISOR];
+		long rnum = this._firstRnum[chunk];
+		for (int fnum = from; fnum < to; ++fnum) {
+			int seats = seats(r, plane(r, fnum));
+			int count = demand(r, fnum, seats);
+			int sold = 0;
+			status.reset(this._seed, STATUS, fnum);
+			r.reset(this._seed, RESERVATION, fnum);
+			for (int i = 0; i < count; ++i) {
+				int cid = distinctCustomer(r, booked, i);
+				booked[i] = cid;
+				char s = status(status, sold, seats);
+				if (s == 'R')
+					++sold;
+				line.append(rnum++).append(',').append(cid).append(',').append(fnum).append(',').append(s);
+				end(line, out);
+			}
+		}
+		return rnum - this._firstRnum[chunk];
+	}
+
+	// a frequent flyer is drawn often, retried a few times before falling back to any customer
+	private int distinctCustomer(Rng r, int[] booked, int count) {
+		for (int attempt = 0;; ++attempt) {
+			int cid = attempt < 8 ? this._customerPick.next(r) : r.nextInt(this._customers);
+			boolean taken = false;
+			for (int i = 0; i < count && !taken; ++i)
+				taken = booked[i] == cid;
+			if (!taken)
+				return cid;
+		}
+	}
+
+	private long flightInfo(int chunk, int from, int to, Writer out) throws IOException {
+		Rng r = new Rng();
+		StringBuilder line = new StringBuilder(32);
+		for (int fnum = from; fnum < to; ++fnum) {
+			int plane = plane(r, fnum);
+			int pilot = r.nextInt(this._pilots);
+			line.append(fnum).append(',').append(fnum).append(',').append(pilot).append(',').append(plane);
+			end(line, out);
+		}
+		return to - from;
+	}
+
+	private long repairs(int chunk, int from, int to, Writer out) throws IOException {
+		Rng r = new Rng();
+		StringBuilder line = new StringBuilder(48);
+		for (int rid = from; rid < to; ++rid) {
+			r.reset(this._seed, REPAIR, rid);
+			line.append(rid).append(',').append(this._repairDays[r.nextInt(REPAIR_DAYS)])
+					.append(',').append(REPAIR_CODES[r.nextInt(REPAIR_CODES.length)])
+					.append(',').append(r.nextInt(this._pilots))
+					.append(',').append(this._planePick.next(r))
+					.append(',').append(r.nextInt(this._technicians));
+			end(line, out);
+		}
+		return to - from;
+	}
+
+	private long schedule(int chunk, int from, int to, Writer out) throws IOException {
+		Rng r = new Rng();
+		StringBuilder line = new StringBuilder(48);
+		for (int fnum = from; fnum < to; ++fnum) {
+			// replays the flight for its actual times, most flights leave on time
+			r.reset(this._seed, FLIGHT, fnum);
+			int departure = departure(r);
+			int stops = r.nextInt(4);
+			int arrival = departure + 60 + r.nextInt(600) + 45 * stops;
+			r.reset(this._seed, SCHEDULE, fnum);
+			int delay = r.nextInt(10) < 7 ? 0 : 1 + r.nextInt(180);
+			line.append(fnum).append(',').append(fnum).append(','); time(line, departure - delay);
+			line.append(','); time(line, arrival - delay);
+			end(line, out);
+		}
+		return to - from;
+	}
+
+	// minutes since FIRST_DEPARTURE
+	private static int departure(Rng r) {
+		return r.nextInt(DEPARTURE_DAYS * 24 * 60);
+	}
+
+	// YYYY-MM-DD HH:mm of minutes since FIRST_DEPARTURE
+	private void time(StringBuilder line, int minutes) {
+		int day = Math.floorDiv(minutes, 24 * 60);
+		int minute = Math.floorMod(minutes, 24 * 60);
+		line.append(this._departureDays[day + 1]).append(' ').append(digits(minute / 60, 2)).append(':')
+				.append(digits(minute % 60, 2));
+	}
+
+	private static String digits(int value, int width) {
+		String digits = Integer.toString(value);
+		return digits.length() >= width ? digits : "000000000".substring(0, width - digits.length()) + digits;
+	}
+
+	private int plane(Rng r, int fnum) {
+		r.reset(this._seed, FLIGHT_INFO, fnum);
+		return r.nextInt(this._planes);
+	}
+
+	private int seats(Rng r, int plane) {
+		r.reset(this._seed, SEATS, plane);
+		return 100 + r.nextInt(300);
+	}
+
+	/**
+	 * Method to return the number of reservations of a flight. The demand of a
+	 * flight falls with its popularity rank like rank^-FLIGHT_SKEW and averages
+	 * RESERVATIONS_PER_FLIGHT; beyond the seats and the waiting list the
+	 * customers go elsewhere.
+	 */
+	private int demand(Rng r, int fnum, int seats) {
+		r.reset(this._seed, DEMAND, fnum);
+		double position = (permute(fnum, this._flightStride, this._flights) + 0.5) / this._flights;
+		double demand = RESERVATIONS_PER_FLIGHT * (1 - FLIGHT_SKEW) * Math.pow(position, -FLIGHT_SKEW);
+		return (int) Math.min(seats + seats / WAITLIST_DIVISOR, demand + r.nextDouble());
+	}
+
+	// cancelled, confirmed while seats are left, otherwise waiting
+	private static char status(Rng r, int sold, int seats) {
+		double d = r.nextDouble();
+		if (d < 0.15)
+			return 'C';
+		return sold < seats && d < 0.85 ? 'R' : 'W';
+	}
+
+	private static void end(StringBuilder line, Writer out) throws IOException {
+		line.append('\n');
+		out.append(line);
+		line.setLength(0);
+	}
+
+	private int chunks(int keys) {
+		return (keys + CHUNK_SIZE - 1) / CHUNK_SIZE;
+	}
+
+	/**
+	 * Method to number the reservations: counts the reservations of every
+	 * chunk of flights in parallel and sums them up.
+	 *
+	 * @return the number of reservations
+	 */
+	private long countReservations(ExecutorService executor) throws InterruptedException, ExecutionException {
+		int chunks = chunks(this._flights);
+		List<Future<Long>> counts = new ArrayList<Future<Long>>();
+		for (int c = 0; c < chunks; ++c) {
+			int from = c * CHUNK_SIZE, to = Math.min(this._flights, from + CHUNK_SIZE);
+			counts.add(executor.submit(() -> {
+				Rng r = new Rng();
+				long count = 0;
+				for (int fnum = from; fnum < to; ++fnum)
+					count += demand(r, fnum, seats(r, plane(r, fnum)));
+				return count;
+			}));
+		}
+		this._firstRnum = new long[chunks + 1];
+		for (int c = 0; c < chunks; ++c)
+			this._firstRnum[c + 1] = this._firstRnum[c] + counts.get(c).get();
+		if (this._firstRnum[chunks] > Integer.MAX_VALUE)
+			throw new IllegalArgumentException(this._firstRnum[chunks] + " reservations do not fit in an integer rnum");
+		return this._firstRnum[chunks];
+	}
+
+	/**
+	 * Method to create the monthly partitions the generated dates fall into,
+	 * so the rows are copied straight into them.
+	 *
+	 * @param tool the partition tool
+	 * @throws java.sql.SQLException when a partition could not be created
+	 */
+	void createPartitions(PartitionTool tool) throws SQLException {
+		YearMonth first = YearMonth.from(FIRST_DEPARTURE);
+		YearMonth last = YearMonth.from(FIRST_DEPARTURE.plusDays(DEPARTURE_DAYS - 1));
+		for (PartitionTool.Partitioned t : PartitionTool.TABLES) {
+			if (t.name.equals("Repairs"))
+				tool.create(t, YearMonth.from(FIRST_REPAIR), YearMonth.from(FIRST_REPAIR.plusDays(REPAIR_DAYS)).plusMonths(1));
+			else
+				tool.create(t, first, last.plusMonths(1));
+		}
+	}
+
+	/**
+	 * Opens the output of one chunk of a table and writes it.
+	 */
+	interface Output {
+		long write(BulkLoader.Table table, int chunk, Rows rows, int from, int to) throws IOException, SQLException;
+	}
+
+	// writes the rows through a large buffer, the stream is closed when done
+	private static long write(OutputStream stream, Rows rows, int chunk, int from, int to) throws IOException {
+		try (Writer out = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8), BUFFER_SIZE)) {
+			return rows.write(chunk, from, to, out);
+		}
+	}
+
+	/**
+	 * Method to write every table as chunked CSV files named like
+	 * customer.00000.csv, which BulkLoader loads like the sample files.
+	 *
+	 * @param dir the directory written to
+	 * @return a writer of one chunk
+	 */
+	static Output toCsv(File dir) {
+		return (table, chunk, rows, from, to) -> {
+			String stem = table.file.substring(0, table.file.length() - ".csv".length());
+			File file = new File(dir, String.format("%s.%05d.csv", stem, chunk));
+			return write(Files.newOutputStream(file.toPath()), rows, chunk, from, to);
+		};
+	}
+
+	/**
+	 * Method to stream every table into the database, one COPY per chunk on
+	 * its own pooled connection.
+	 *
+	 * @param esql the database client
+	 * @return a writer of one chunk
+	 */
+	static Output toCopy(DBproject esql) {
+		return (table, chunk, rows, from, to) -> {
+			String sql = "COPY " + BulkLoader.target(esql, table) + " (" + table.columns + ") FROM STDIN WITH DELIMITER ','";
+			return esql.withConnection(pc -> {
+				try {
+					return write(new PGCopyOutputStream(pc.getConnection().unwrap(PGConnection.class), sql, BUFFER_SIZE),
+							rows, chunk, from, to);
+				} catch (IOException e) {
+					throw new SQLException("COPY into " + table.name + " failed: " + e.getMessage(), e);
+				}
+			});
+		};
+	}
+
+	/**
+	 * Method to generate all nine tables, parents before children, with the
+	 * chunks of each table written in parallel.
+	 *
+	 * @param output  where the chunks go
+	 * @param threads the chunks written at once
+	 * @return the total number of rows
+	 * @throws java.sql.SQLException when a chunk could not be written
+	 */
+	public long generate(Output output, int threads) throws SQLException {
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			long start = System.nanoTime();
+			countReservations(executor);
+			List<BulkLoader.Table> tables = new ArrayList<BulkLoader.Table>();
+			for (BulkLoader.Table t : BulkLoader.PARENTS)
+				tables.add(t);
+			for (BulkLoader.Table t : BulkLoader.CHILDREN)
+				tables.add(t);
+
+			Rows[] generators = generators();
+			int[] keys = keys();
+			long total = 0;
+			for (int t = 0; t < tables.size(); ++t)
+				total += generate(executor, output, tables.get(t), generators[t], keys[t]);
+			BulkLoader.report("total", total, System.nanoTime() - start);
+			return total;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while generating");
+		} catch (ExecutionException e) {
+			throw new SQLException("Counting reservations failed: " + e.getCause().getMessage(), e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private long generate(ExecutorService executor, Output output, BulkLoader.Table table, Rows rows, int keys)
+			throws SQLException, InterruptedException {
+		long start = System.nanoTime();
+		List<Future<Long>> results = new ArrayList<Future<Long>>();
+		for (int c = 0; c < chunks(keys); ++c) {
+			int chunk = c, from = c * CHUNK_SIZE, to = Math.min(keys, from + CHUNK_SIZE);
+			Callable<Long> task = () -> output.write(table, chunk, rows, from, to);
+			results.add(executor.submit(task));
+		}
+		long count = 0;
+		SQLException failure = null;
+		for (Future<Long> result : results) {
+			try {
+				count += result.get();
+			} catch (ExecutionException e) {
+				SQLException cause = new SQLException("Generating " + table.name + " failed: " + e.getCause().getMessage(),
+						e.getCause());
+				if (failure == null)
+					failure = cause;
+				else
+					failure.setNextException(cause);
+			}
+		}
+		if (failure != null)
+			throw failure;
+		BulkLoader.report(table.name, count, System.nanoTime() - start);
+		return count;
+	}
+
+	public static void main(String[] args) {
+		if (args.length < 3) {
+			System.err.println("Usage: " + "java [-classpath <classpath>] " + DataGenerator.class.getName()
+					+ " <dbname> <port> <user> [--scale F] [--seed N] [--threads N] [--out dir]");
+			return;
+		} // end if
+
+		double scale = 1;
+		long seed = 42;
+		int threads = Runtime.getRuntime().availableProcessors();
+		String out = null;
+		for (int i = 3; i + 1 < args.length; i += 2) {
+			switch (args[i]) {
+				case "--scale": scale = Double.parseDouble(args[i + 1]); break;
+				case "--seed": seed = Long.parseLong(args[i + 1]); break;
+				case "--threads": threads = Integer.parseInt(args[i + 1]); break;
+				case "--out": out = args[i + 1]; break;
+				default:
+					System.err.println("Unknown option: " + args[i]);
+					return;
+			}
+		}
+
+		DBproject esql = null;
+		boolean failed = false;
+		try {
+			DataGenerator generator = new DataGenerator(scale, seed);
+			if (out != null) {
+				// CSV files only, the database is not touched
+				File dir = new File(out);
+				dir.mkdirs();
+				generator.generate(toCsv(dir), threads);
+			} else {
+				Class.forName("org.postgresql.Driver");
+				esql = new DBproject(args[0], args[1], args[2], "", threads);
+				new BulkLoader(esql, null).truncate();
+				esql.executeUpdate(BulkLoader.DROP_RESERVATION_KEY);
+				if (esql.isPartitioned())
+					generator.createPartitions(new PartitionTool(esql));
+				generator.generate(toCopy(esql), threads);
+				BulkLoader.finish(esql);
+			}
+		} catch (SQLException e) {
+			System.err.println(e.getMessage());
+			for (SQLException next = e.getNextException(); next != null; next = next.getNextException())
+				System.err.println(next.getMessage());
+			failed = true;
+		} catch (Exception e) {
+			System.err.println(e.getMessage());
+			failed = true;
+		} finally {
+			if (esql != null)
+				esql.cleanup();
+		}
+		if (failed)
+			System.exit(1);
+	}
+}
@@ -0,0 +1,523 @@
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * This class reports on fleet maintenance in one pass over Plane and Repairs:
+ * repairs by code per plane, technician, pilot and month, the mean time
+ * between repairs of every plane, and repairs against plane age.
+ *
+ * The repairs are read through one cursor. The reading thread only turns IDs
+ * into dense indexes and fills chunks of int columns; each chunk is counted
+ * on a fork/join pool, split in halves down to leaves that count into arrays
+ * of their own, and the partial counts are merged as they complete. Every
+ * count is a sum, and the mean time between repairs of a plane telescopes to
+ * (last - first) / (repairs - 1), so the partials merge in any order.
+ *
+ */
+
+public class FleetAnalytics {
+	// the codes of the _CODE domain, a repair with none is counted in the last slot
+	static final String[] CODES = { "MJ", "MN", "SV" };
+	private static final int SLOTS = CODES.length + 1;
+
+	static final String SELECT_PLANES = "SELECT id, age FROM Plane";
+	// the code comes back as its slot, so the cursor decodes no strings
+	static final String SELECT_REPAIRS = "SELECT repair_date, CASE repair_code WHEN 'MJ' THEN 0 WHEN 'MN' THEN 1 WHEN 'SV' THEN 2 ELSE 3 END,\n"
+			+ "pilot_id, plane_id, technician_id\nFROM Repairs";
+	// rows per round trip of the repairs cursor
+	public static final int FETCH_SIZE = 10000;
+	// rows handed to the pool at once, and rows a leaf counts without splitting
+	static final int CHUNK_ROWS = 1 << 16;
+	static final int LEAF_ROWS = 1 << 12;
+
+	/**
+	 * IDs numbered densely in the order they are first seen, by open
+	 * addressing on int keys.
+	 */
+	private static final class DenseIds {
+		private int[] _keys = new int[64];
+		private int[] _slots = new int[64];
+		private int[] _ids = new int[16];
+		private int _size = 0;
+
+		// the dense index of the ID, numbering it when it is new
+		int index(int id) {
+			int mask = this._keys.length - 1;
+			for (int i = mix(id) & mask;; i = (i + 1) & mask) {
+				if (this._slots[i] == 0) {
+					if (this._size == this._ids.length)
+						this._ids = Arrays.copyOf(this._ids, this._size * 2);
+					this._ids[this._size] = id;
+					this._keys[i] = id;
+					this._slots[i] = ++this._size;
+					if (this._size * 2 > this._keys.length)
+						grow();
+					return this._size - 1;
+				}
+				if (this._keys[i] == id)
+					return this._slots[i] - 1;
+			}
+		}
+
+		private void grow() {
+			int[] keys = this._keys, slots = this._slots;
+			this._keys = new int[keys.length * 2];
+			this._slots = new int[keys.length * 2];
+			int mask = this._keys.length - 1;
+			for (int j = 0; j < keys.length; ++j) {
+				if (slots[j] == 0)
+					continue;
+				int i = mix(keys[j]) & mask;
+				while (this._slots[i] != 0)
+					i = (i + 1) & mask;
+				this._keys[i] = keys[j];
+				this._slots[i] = slots[j];
+			}
+		}
+
+		private static int mix(int id) {
+			return id * 0x9E3779B9 >>> 7;
+		}
+
+		int id(int index) {
+			return this._ids[index];
+		}
+
+		int size() {
+			return this._size;
+		}
+	}
+
+	/**
+	 * Repairs per key and code in one array, growing to fit the keys added.
+	 */
+	private static final class Counts {
+		long[] counts = new long[0];
+		// the key of the first slot
+		int base = 0;
+
+		Counts() {
+		}
+
+		Counts(int keys) {
+			this.counts = new long[keys * SLOTS];
+		}
+
+		void add(int key, int code, long n) {
+			int slot = (key - this.base) * SLOTS + code;
+			if (slot < 0 || slot >= this.counts.length) {
+				fit(key);
+				slot = (key - this.base) * SLOTS + code;
+			}
+			this.counts[slot] += n;
+		}
+
+		private void fit(int key) {
+			int keys = this.counts.length / SLOTS;
+			if (keys == 0) {
+				this.base = key;
+				this.counts = new long[SLOTS];
+				return;
+			}
+			int first = Math.min(this.base, key), last = Math.max(this.base + keys - 1, key);
+			long[] counts = new long[(last - first + 1) * SLOTS];
+			System.arraycopy(this.counts, 0, counts, (this.base - first) * SLOTS, this.counts.length);
+			this.counts = counts;
+			this.base = first;
+		}
+
+		void merge(Counts other) {
+			int keys = other.counts.length / SLOTS;
+			if (keys == 0)
+				return;
+			fit(other.base);
+			fit(other.base + keys - 1);
+			int offset = (other.base - this.base) * SLOTS;
+			for (int i = 0; i < other.counts.length; ++i)
+				this.counts[offset + i] += other.counts[i];
+		}
+
+		int keys() {
+			return this.counts.length / SLOTS;
+		}
+
+		long get(int key, int code) {
+			int slot = (key - this.base) * SLOTS + code;
+			return slot < 0 || slot >= this.counts.length ? 0 : this.counts[slot];
+		}
+
+		long total(int key) {
+			long total = 0;
+			for (int code = 0; code < SLOTS; ++code)
+				total += get(key, code);
+			return total;
+		}
+	}
+
+	/**
+	 * The counts of some of the repairs, by dense plane, pilot and technician
+	 * index and by month.
+	 */
+	private static final class Tally {
+		final Counts planes;
+		final Counts pilots;
+		final Counts technicians;
+		final Counts months = new Counts();
+		// epoch days of the first and last repair of every plane
+		int[] first;
+		int[] last;
+
+		Tally(int planes, int pilots, int technicians) {
+			this.planes = new Counts(planes);
+			this.pilots = new Counts(pilots);
+			this.technicians = new Counts(technicians);
+			this.first = new int[planes];
+			this.last = new int[planes];
+			Arrays.fill(this.first, Integer.MAX_VALUE);
+			Arrays.fill(this.last, Integer.MIN_VALUE);
+		}
+
+		void count(Chunk chunk, int from, int to) {
+			int month = Integer.MIN_VALUE, monthStart = 0, monthEnd = 0;
+			for (int i = from; i < to; ++i) {
+				int day = chunk.days[i], code = chunk.codes[i], plane = chunk.planes[i];
+				this.planes.add(plane, code, 1);
+				this.pilots.add(chunk.pilots[i], code, 1);
+				this.technicians.add(chunk.technicians[i], code, 1);
+				// repairs tend to come in date order, so the month is only worked out when it changes
+				if (day < monthStart || day >= monthEnd) {
+					LocalDate date = LocalDate.ofEpochDay(day);
+					month = date.getYear() * 12 + date.getMonthValue() - 1;
+					monthStart = (int) date.withDayOfMonth(1).toEpochDay();
+					monthEnd = (int) date.withDayOfMonth(1).plusMonths(1).toEpochDay();
+				}
+				this.months.add(month, code, 1);
+				if (day < this.first[plane])
+					this.first[plane] = day;
+				if (day > this.last[plane])
+					this.last[plane] = day;
+			}
+		}
+
+		Tally merge(Tally other) {
+			this.planes.merge(other.planes);
+			this.pilots.merge(other.pilots);
+			this.technicians.merge(other.technicians);
+			this.months.merge(other.months);
+			if (other.first.length > this.first.length) {
+				int planes = this.first.length;
+				this.first = Arrays.copyOf(this.first, other.first.length);
+				this.last = Arrays.copyOf(this.last, other.last.length);
+				Arrays.fill(this.first, planes, this.first.length, Integer.MAX_VALUE);
+				Arrays.fill(this.last, planes, this.last.length, Integer.MIN_VALUE);
+			}
+			for (int i = 0; i < other.first.length; ++i) {
+				this.first[i] = Math.min(this.first[i], other.first[i]);
+				this.last[i] = Math.max(this.last[i], other.last[i]);
+			}
+			return this;
+		}
+	}
+
+	/**
+	 * Repairs in columns, with dense IDs, and the number of IDs known when
+	 * the chunk was filled.
+	 */
+	private static final class Chunk {
+		final int[] days = new int[CHUNK_ROWS];
+		final int[] codes = new int[CHUNK_ROWS];
+		final int[] pilots = new int[CHUNK_ROWS];
+		final int[] planes = new int[CHUNK_ROWS];
+		final int[] technicians = new int[CHUNK_ROWS];
+		int size = 0;
+		int planeCount, pilotCount, technicianCount;
+	}
+
+	/**
+	 * Counts a range of a chunk, splitting it in halves down to LEAF_ROWS.
+	 */
+	private static final class CountTask extends RecursiveTask<Tally> {
+		private static final long serialVersionUID = 1L;
+		private final transient Chunk _chunk;
+		private final int _from;
+		private final int _to;
+
+		CountTask(Chunk chunk, int from, int to) {
+			this._chunk = chunk;
+			this._from = from;
+			this._to = to;
+		}
+
+		protected Tally compute() {
+			if (this._to - this._from <= LEAF_ROWS) {
+				Tally tally = new Tally(this._chunk.planeCount, this._chunk.pilotCount, this._chunk.technicianCount);
+				tally.count(this._chunk, this._from, this._to);
+				return tally;
+			}
+			int middle = (this._from + this._to) >>> 1;
+			CountTask left = new CountTask(this._chunk, this._from, middle);
+			left.fork();
+			Tally right = new CountTask(this._chunk, middle, this._to).compute();
+			return left.join().merge(right);
+		}
+	}
+
+	private final ForkJoinPool _pool;
+	private final DenseIds _planeIds = new DenseIds();
+	private final DenseIds _pilotIds = new DenseIds();
+	private final DenseIds _technicianIds = new DenseIds();
+	// age per dense plane index, -1 for a plane only seen in Repairs
+	private int[] _ages = new int[0];
+	// chunks counted or being counted, oldest first
+	private final ArrayDeque<ForkJoinTask<Tally>> _pending = new ArrayDeque<ForkJoinTask<Tally>>();
+	private Chunk _chunk = new Chunk();
+	private Tally _total = new Tally(0, 0, 0);
+	private long _repairs = 0;
+
+	/**
+	 * Method to create an empty report counted on a pool.
+	 *
+	 * @param pool the pool the chunks are counted on
+	 */
+	public FleetAnalytics(ForkJoinPool pool) {
+		this._pool = pool;
+	}
+
+	/**
+	 * Method to add a plane. Planes come before their repairs.
+	 *
+	 * @param id  the plane ID
+	 * @param age the plane age in years
+	 */
+	public void addPlane(int id, int age) {
+		int plane = plane(id);
+		this._ages[plane] = age;
+	}
+
+	// the dense index of a plane, with an age slot of -1 when it is new
+	private int plane(int id) {
+		int plane = this._planeIds.index(id);
+		if (plane >= this._ages.length) {
+			int size = this._ages.length;
+			this._ages = Arrays.copyOf(this._ages, Math.max(16, size * 2));
+			Arrays.fill(this._ages, size, this._ages.length, -1);
+		}
+		return plane;
+	}
+
+	/**
+	 * Method to add a repair. Calls come from the one thread reading the
+	 * cursor.
+	 *
+	 * @param day        the repair date, as an epoch day
+	 * @param code       the slot of the repair code in CODES, or CODES.length
+	 *                   when there is none
+	 * @param pilot      the pilot ID
+	 * @param plane      the plane ID
+	 * @param technician the technician ID
+	 */
+	public void addRepair(int day, int code, int pilot, int plane, int technician) {
+		Chunk chunk = this._chunk;
+		int i = chunk.size++;
+		chunk.days[i] = day;
+		chunk.codes[i] = code;
+		chunk.pilots[i] = this._pilotIds.index(pilot);
+		chunk.planes[i] = plane(plane);
+		chunk.technicians[i] = this._technicianIds.index(technician);
+		++this._repairs;
+		if (chunk.size == CHUNK_ROWS)
+			submit();
+	}
+
+	// hands the filled chunk to the pool, merging the oldest chunks while too many are in flight
+	private void submit() {
+		Chunk chunk = this._chunk;
+		chunk.planeCount = this._planeIds.size();
+		chunk.pilotCount = this._pilotIds.size();
+		chunk.technicianCount = this._technicianIds.size();
+		this._pending.add(this._pool.submit(new CountTask(chunk, 0, chunk.size)));
+		this._chunk = new Chunk();
+		while (this._pending.size() > 2 * this._pool.getParallelism())
+			this._total.merge(this._pending.poll().join());
+	}
+
+	/**
+	 * Method to count the repairs not counted yet and wait for every chunk.
+	 */
+	public void finish() {
+		if (this._chunk.size > 0)
+			submit();
+		while (!this._pending.isEmpty())
+			this._total.merge(this._pending.poll().join());
+	}
+
+	public long getRepairs() {
+		return this._repairs;
+	}
+
+	/**
+	 * Method to print the report, after finish.
+	 *
+	 * @param out where the report goes
+	 */
+	public void print(PrintWriter out) {
+		Tally total = this._total;
+		long[] codes = new long[SLOTS];
+		for (int plane = 0; plane < total.planes.keys(); ++plane)
+			for (int code = 0; code < SLOTS; ++code)
+				codes[code] += total.planes.get(plane, code);
+		out.printf("%d repair(s) of %d plane(s) by %d technician(s) for %d pilot(s)%n", this._repairs,
+				this._planeIds.size(), this._technicianIds.size(), this._pilotIds.size());
+		out.printf("%-10s %8s %8s %8s %8s %8s%n", "", CODES[0], CODES[1], CODES[2], "none", "total");
+		out.printf("%-10s %8d %8d %8d %8d %8d%n", "all", codes[0], codes[1], codes[2], codes[3], this._repairs);
+
+		out.println();
+		out.println("Repairs per plane, most first, with the mean days between repairs:");
+		out.printf("%-10s %5s %8s %8s %8s %8s %8s %10s %10s %8s%n", "plane", "age", CODES[0], CODES[1], CODES[2],
+				"none", "total", "first", "last", "mtbr");
+		long spans = 0, gaps = 0;
+		for (int plane : byTotal(total.planes, this._planeIds.size())) {
+			long repairs = total.planes.total(plane);
+			boolean repaired = plane < total.first.length && repairs > 0;
+			String mtbr = "";
+			if (repaired && repairs > 1) {
+				long span = total.last[plane] - total.first[plane];
+				spans += span;
+				gaps += repairs - 1;
+				mtbr = String.format("%.1f", (double) span / (repairs - 1));
+			}
+			out.printf("%-10d %5s %8d %8d %8d %8d %8d %10s %10s %8s%n", this._planeIds.id(plane),
+					this._ages[plane] >= 0 ? String.valueOf(this._ages[plane]) : "?",
+					total.planes.get(plane, 0), total.planes.get(plane, 1), total.planes.get(plane, 2),
+					total.planes.get(plane, 3), repairs, repaired ? LocalDate.ofEpochDay(total.first[plane]) : "",
+					repaired ? LocalDate.ofEpochDay(total.last[plane]) : "", mtbr);
+		}
+		if (gaps > 0)
+			out.printf("Fleet mean time between repairs: %.1f day(s)%n", (double) spans / gaps);
+
+		printGroups(out, "technician", total.technicians, this._technicianIds);
+		printGroups(out, "pilot", total.pilots, this._pilotIds);
+
+		out.println();
+		out.println("Repairs per month:");
+		out.printf("%-10s %8s %8s %8s %8s %8s%n", "month", CODES[0], CODES[1], CODES[2], "none", "total");
+		for (int month = total.months.base; month < total.months.base + total.months.keys(); ++month) {
+			long repairs = total.months.total(month);
+			if (repairs > 0)
+				out.printf("%04d-%02d    %8d %8d %8d %8d %8d%n", month / 12, month % 12 + 1, total.months.get(month, 0),
+						total.months.get(month, 1), total.months.get(month, 2), total.months.get(month, 3), repairs);
+		}
+
+		printAges(out, total);
+	}
+
+	// every dense index, most repairs first
+	private static List<Integer> byTotal(Counts counts, int size) {
+		List<Integer> keys = new ArrayList<Integer>();
+		for (int key = 0; key < size; ++key)
+			keys.add(key);
+		keys.sort((a, b) -> Long.compare(counts.total(b), counts.total(a)));
+		return keys;
+	}
+
+	private static void printGroups(PrintWriter out, String name, Counts counts, DenseIds ids) {
+		out.println();
+		out.println("Repairs per " + name + ", most first:");
+		out.printf("%-10s %8s %8s %8s %8s %8s%n", name, CODES[0], CODES[1], CODES[2], "none", "total");
+		for (int key : byTotal(counts, ids.size()))
+			out.printf("%-10d %8d %8d %8d %8d %8d%n", ids.id(key), counts.get(key, 0), counts.get(key, 1),
+					counts.get(key, 2), counts.get(key, 3), counts.total(key));
+	}
+
+	// planes, repairs and major repairs per age, and a least-squares line of repairs per plane over age
+	private void printAges(PrintWriter out, Tally total) {
+		Counts ages = new Counts();
+		double n = 0, sumAge = 0, sumRepairs = 0, sumAgeAge = 0, sumAgeRepairs = 0, sumRepairsRepairs = 0;
+		for (int plane = 0; plane < this._planeIds.size(); ++plane) {
+			int age = this._ages[plane];
+			if (age < 0)
+				continue;
+			long repairs = total.planes.total(plane);
+			// slot 0 counts planes, 1 repairs and 2 major repairs
+			ages.add(age, 0, 1);
+			ages.add(age, 1, repairs);
+			ages.add(age, 2, total.planes.get(plane, 0));
+			++n;
+			sumAge += age;
+			sumRepairs += repairs;
+			sumAgeAge += (double) age * age;
+			sumAgeRepairs += (double) age * repairs;
+			sumRepairsRepairs += (double) repairs * repairs;
+		}
+		out.println();
+		out.println("Repairs against plane age:");
+		out.printf("%-10s %8s %8s %10s %10s%n", "age", "planes", "repairs", "per plane", CODES[0] + " share");
+		for (int age = ages.base; age < ages.base + ages.keys(); ++age) {
+			long planes = ages.get(age, 0), repairs = ages.get(age, 1);
+			if (planes > 0)
+				out.printf("%-10d %8d %8d %10.2f %10s%n", age, planes, repairs, (double) repairs / planes,
+						repairs > 0 ? String.format("%.1f%%", 100.0 * ages.get(age, 2) / repairs) : "");
+		}
+		double ageVariance = n * sumAgeAge - sumAge * sumAge;
+		double repairsVariance = n * sumRepairsRepairs - sumRepairs * sumRepairs;
+		if (n > 1 && ageVariance > 0) {
+			double covariance = n * sumAgeRepairs - sumAge * sumRepairs;
+			double slope = covariance / ageVariance;
+			out.printf("Repairs per plane = %.3f + %.3f * age, correlation %.3f%n", (sumRepairs - slope * sumAge) / n,
+					slope, repairsVariance > 0 ? covariance / Math.sqrt(ageVariance * repairsVariance) : 0.0);
+		}
+	}
+
+	/**
+	 * Method to stream Plane and Repairs from the database and count them.
+	 *
+	 * @param esql the database client
+	 * @param pool the pool the repairs are counted on
+	 * @return the counted report
+	 * @throws java.sql.SQLException when a table could not be read
+	 */
+	public static FleetAnalytics load(DBproject esql, ForkJoinPool pool) throws SQLException {
+		FleetAnalytics analytics = new FleetAnalytics(pool);
+		esql.executeQueryStreaming(SELECT_PLANES, DBproject.DEFAULT_FETCH_SIZE,
+				row -> analytics.addPlane(row.getInt(1), row.getInt(2)));
+		esql.executeQueryStreaming(SELECT_REPAIRS, FETCH_SIZE, row -> analytics.addRepair((int) row.getEpochDay(1),
+				row.getInt(2), row.getInt(3), row.getInt(4), row.getInt(5)));
+		analytics.finish();
+		return analytics;
+	}
+
+	/**
+	 * Method to print the report from the command line mode of DBproject.
+	 *
+	 * @param esql    the database client
+	 * @param threads the threads counting the repairs
+	 */
+	public static void run(DBproject esql, int threads) {
+		PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8),
+				ResultWriter.BUFFER_SIZE));
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			long start = System.nanoTime();
+			FleetAnalytics analytics = load(esql, pool);
+			double elapsed = (System.nanoTime() - start) / 1e6;
+			analytics.print(out);
+			out.printf("%nCounted %d repair(s) on %d thread(s) in %.1f ms%n", analytics.getRepairs(), threads, elapsed);
+		} catch (SQLException e) {
+			System.err.println(e.getMessage());
+		} finally {
+			pool.shutdown();
+			out.flush();
+		}
+	}
+}
@@ -0,0 +1,48 @@
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * The nine menu operations over some storage. JdbcStore runs them against
+ * Postgres through DBproject and is what the menu runs on, MemoryStore runs
+ * them against tables held in process.
+ * Errors are reported the way Postgres reports them, as SQLExceptions with
+ * the SQLState of the violated constraint, e.g. 23505 for a duplicate key.
+ *
+ */
+
+public interface FlightStore {
+	// queries 1 to 4, each returns the number of rows inserted
+	int addPlane(int id, String make, String model, int age, int seats) throws SQLException;
+
+	int addPilot(int id, String fullname, String nationality) throws SQLException;
+
+	// the flight and its FlightInfo row, refused with 23P01 when the pilot or plane is busy
+	int addFlight(int fnum, int cost, int sold, int stops, LocalDate departure, LocalDate arrival,
+			String arrivalAirport, String departureAirport, int pilot, int plane) throws SQLException;
+
+	int addTechnician(int id, String fullName) throws SQLException;
+
+	// query 5: the status of a reservation, or null when there is none
+	String reservationStatus(int cid, int fid) throws SQLException;
+
+	BookingResult bookFlight(int cid, int fid, String status) throws SQLException;
+
+	BookingResult updateReservationStatus(int cid, int fid, String status) throws SQLException;
+
+	// query 6: the free seats, or SeatInventory.UNKNOWN
+	int availableSeats(int fnum, LocalDate departure) throws SQLException;
+
+	// query 7: {plane id, repairs}, most repairs first
+	List<int[]> repairsPerPlane() throws SQLException;
+
+	// query 8: {year, repairs}, fewest repairs first
+	List<int[]> repairsPerYear() throws SQLException;
+
+	// query 9
+	int passengersWithStatus(int fnum, String status) throws SQLException;
+
+	RouteGraph getRouteGraph() throws SQLException;
+
+	Metrics getMetrics();
+}
@@ -0,0 +1,112 @@
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class runs the menu operations against Postgres through a DBproject,
+ * with its statements, caches and in-memory indexes. The menu and the
+ * server both run on it.
+ * Status changes go through a StatusCoalescer when one is given.
+ *
+ */
+
+public class JdbcStore implements FlightStore {
+	private final DBproject _esql;
+	private final StatusCoalescer _coalescer;
+
+	public JdbcStore(DBproject esql) {
+		this(esql, null);
+	}
+
+	public JdbcStore(DBproject esql, StatusCoalescer coalescer) {
+		this._esql = esql;
+		this._coalescer = coalescer;
+	}
+
+	public DBproject getClient() {
+		return this._esql;
+	}
+
+	public int addPlane(int id, String make, String model, int age, int seats) throws SQLException {
+		int rows = this._esql.executeUpdate(DBproject.INSERT_PLANE, id, make, model, age, seats);
+		this._esql.planeAdded(id);
+		return rows;
+	}
+
+	public int addPilot(int id, String fullname, String nationality) throws SQLException {
+		int rows = this._esql.executeUpdate(DBproject.INSERT_PILOT, id, fullname, nationality);
+		this._esql.pilotAdded(id);
+		return rows;
+	}
+
+	public int addFlight(int fnum, int cost, int sold, int stops, LocalDate departure, LocalDate arrival,
+			String arrivalAirport, String departureAirport, int pilot, int plane) throws SQLException {
+		return this._esql.addFlight(fnum, cost, sold, stops, departure, arrival, arrivalAirport, departureAirport,
+				pilot, plane);
+	}
+
+	public int addTechnician(int id, String fullName) throws SQLException {
+		int rows = this._esql.executeUpdate(DBproject.INSERT_TECHNICIAN, id, fullName);
+		this._esql.technicianAdded(id);
+		return rows;
+	}
+
+	public String reservationStatus(int cid, int fid) throws SQLException {
+		java.sql.Date date;
+		try {
+			date = this._esql.partitionDate(fid);
+		} catch (SQLException e) {
+			// a flight that does not exist has no reservations
+			if ("23503".equals(e.getSQLState()))
+				return null;
+			throw e;
+		}
+		List<List<String>> rows = this._esql.executeQueryAndReturnResult(
+				date == null ? DBproject.SELECT_RESERVATION_STATUS : DBproject.SELECT_RESERVATION_STATUS_ON,
+				DBproject.dated(date, cid, fid));
+		return rows.isEmpty() ? null : rows.get(0).get(0);
+	}
+
+	public BookingResult bookFlight(int cid, int fid, String status) throws SQLException {
+		return this._esql.bookFlight(cid, fid, status);
+	}
+
+	public BookingResult updateReservationStatus(int cid, int fid, String status) throws SQLException {
+		if (this._coalescer != null)
+			return this._coalescer.updateReservationStatus(cid, fid, status);
+		return this._esql.updateReservationStatus(cid, fid, status);
+	}
+
+	public int availableSeats(int fnum, LocalDate departure) throws SQLException {
+		return this._esql.availableSeats(fnum, departure);
+	}
+
+	public List<int[]> repairsPerPlane() throws SQLException {
+		return groups(DBproject.SELECT_REPAIRS_PER_PLANE);
+	}
+
+	public List<int[]> repairsPerYear() throws SQLException {
+		return groups(DBproject.SELECT_REPAIRS_PER_YEAR);
+	}
+
+	// the (key, count) rows of query 7 or 8 in the order the database returns them
+	private List<int[]> groups(String query) throws SQLException {
+		List<int[]> groups = new ArrayList<int[]>();
+		this._esql.executeQueryStreaming(query, DBproject.DEFAULT_FETCH_SIZE,
+				row -> groups.add(new int[] { row.getInt(1), row.getInt(2) }));
+		return groups;
+	}
+
+	public int passengersWithStatus(int fnum, String status) throws SQLException {
+		return this._esql.passengersWithStatus(fnum, status);
+	}
+
+	public RouteGraph getRouteGraph() throws SQLException {
+		return this._esql.getRouteGraph();
+	}
+
+	public Metrics getMetrics() {
+		return this._esql.getMetrics();
+	}
+}
@@ -0,0 +1,272 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class reads and writes the small JSON documents exchanged by
+ * BookingServer and returned by EXPLAIN (FORMAT JSON). Objects become maps
+ * in field order, arrays become lists, integers become Long and other numbers
+ * Double.
+ *
+ */
+
+public class Json {
+	private final String _text;
+	private int _pos = 0;
+
+	private Json(String text) {
+		this._text = text;
+	}
+
+	/**
+	 * Method to parse a JSON object.
+	 *
+	 * @param text the JSON text
+	 * @return the fields of the object
+	 * @throws IllegalArgumentException when the text is not a JSON object
+	 */
+	@SuppressWarnings("unchecked")
+	public static Map<String, Object> parseObject(String text) {
+		Json json = new Json(text);
+		Object value = json.value();
+		json.skipSpace();
+		if (!(value instanceof Map) || json._pos != text.length())
+			throw new IllegalArgumentException("Expected a single JSON object");
+		return (Map<String, Object>) value;
+	}
+
+	/**
+	 * Method to parse any JSON value, e.g. the array EXPLAIN (FORMAT JSON)
+	 * returns.
+	 *
+	 * @param text the JSON text
+	 * @return the value as a map, list, string, number, boolean or null
+	 * @throws IllegalArgumentException when the text is not a single JSON value
+	 */
+	public static Object parse(String text) {
+		Json json = new Json(text);
+		Object value = json.value();
+		json.skipSpace();
+		if (json._pos != text.length())
+			throw json.error("Unexpected text after the JSON value");
+		return value;
+	}
+
+	private Object value() {
+		skipSpace();
+		if (this._pos >= this._text.length())
+			throw error("Unexpected end of JSON");
+		char c = this._text.charAt(this._pos);
+		switch (c) {
+			case '{':
+				return object();
+			case '[':
+				return array();
+			case '"':
+				return string();
+			case 't':
+				return literal("true", Boolean.TRUE);
+			case 'f':
+				return literal("false", Boolean.FALSE);
+			case 'n':
+				return literal("null", null);
+			default:
+				if (c == '-' || (c >= '0' && c <= '9'))
+					return number();
+				throw error("Unexpected character '" + c + "'");
+		}
+	}
+
+	private Map<String, Object> object() {
+		Map<String, Object> fields = new LinkedHashMap<String, Object>();
+		++this._pos;
+		skipSpace();
+		if (peek() == '}') {
+			++this._pos;
+			return fields;
+		}
+		while (true) {
+			skipSpace();
+			if (peek() != '"')
+				throw error("Expected a field name");
+			String name = string();
+			skipSpace();
+			expect(':');
+			fields.put(name, value());
+			skipSpace();
+			if (peek() == ',') {
+				++this._pos;
+				continue;
+			}
+			expect('}');
+			return fields;
+		}
+	}
+
+	private List<Object> array() {
+		List<Object> values = new ArrayList<Object>();
+		++this._pos;
+		skipSpace();
+		if (peek() == ']') {
+			++this._pos;
+			return values;
+		}
+		while (true) {
+			values.add(value());
+			skipSpace();
+			if (peek() == ',') {
+				++this._pos;
+				continue;
+			}
+			expect(']');
+			return values;
+		}
+	}
+
+	private String string() {
+		StringBuilder out = new StringBuilder();
+		++this._pos;
+		while (true) {
+			if (this._pos >= this._text.length())
+				throw error("Unterminated string");
+			char c = this._text.charAt(this._pos++);
+			if (c == '"')
+				return out.toString();
+			if (c != '\\') {
+				out.append(c);
+				continue;
+			}
+			if (this._pos >= this._text.length())
+				throw error("Unterminated string");
+			char e = this._text.charAt(this._pos++);
+			switch (e) {
+				case 'b': out.append('\b'); break;
+				case 'f': out.append('\f'); break;
+				case 'n': out.append('\n'); break;
+				case 'r': out.append('\r'); break;
+				case 't': out.append('\t'); break;
+				case 'u':
+					if (this._pos + 4 > this._text.length())
+						throw error("Bad unicode escape");
+					try {
+						out.append((char) Integer.parseInt(this._text.substring(this._pos, this._pos + 4), 16));
+					} catch (NumberFormatException ex) {
+						throw error("Bad unicode escape");
+					}
+					this._pos += 4;
+					break;
+				default:
+					out.append(e);
+			}
+		}
+	}
+
+	private Object number() {
+		int start = this._pos;
+		boolean integer = true;
+		while (this._pos < this._text.length()) {
+			char c = this._text.charAt(this._pos);
+			if (c == '.' || c == 'e' || c == 'E')
+				integer = false;
+			else if (c != '-' && c != '+' && (c < '0' || c > '9'))
+				break;
+			++this._pos;
+		}
+		String digits = this._text.substring(start, this._pos);
+		try {
+			return integer ? (Object) Long.valueOf(digits) : (Object) Double.valueOf(digits);
+		} catch (NumberFormatException e) {
+			throw error("Bad number " + digits);
+		}
+	}
+
+	private Object literal(String word, Object value) {
+		if (!this._text.startsWith(word, this._pos))
+			throw error("Unexpected token");
+		this._pos += word.length();
+		return value;
+	}
+
+	private char peek() {
+		return this._pos < this._text.length() ? this._text.charAt(this._pos) : '\0';
+	}
+
+	private void expect(char c) {
+		if (peek() != c)
+			throw error("Expected '" + c + "'");
+		++this._pos;
+	}
+
+	private void skipSpace() {
+		while (this._pos < this._text.length() && Character.isWhitespace(this._text.charAt(this._pos)))
+			++this._pos;
+	}
+
+	private IllegalArgumentException error(String message) {
+		return new IllegalArgumentException(message + " at position " + this._pos);
+	}
+
+	/**
+	 * Method to write a value as JSON. Maps, lists, strings, numbers, booleans
+	 * and null are written as such, anything else as its string form.
+	 *
+	 * @param out   the buffer written to
+	 * @param value the value to write
+	 */
+	public static void write(StringBuilder out, Object value) {
+		if (value == null || value instanceof Boolean || value instanceof Number) {
+			out.append(value);
+		} else if (value instanceof Map) {
+			out.append('{');
+			boolean first = true;
+			for (Map.Entry<?, ?> e : ((Map<?, ?>) value).entrySet()) {
+				if (!first)
+					out.append(',');
+				first = false;
+				quote(out, String.valueOf(e.getKey()));
+				out.append(':');
+				write(out, e.getValue());
+			}
+			out.append('}');
+		} else if (value instanceof List) {
+			out.append('[');
+			boolean first = true;
+			for (Object v : (List<?>) value) {
+				if (!first)
+					out.append(',');
+				first = false;
+				write(out, v);
+			}
+			out.append(']');
+		} else {
+			quote(out, value.toString());
+		}
+	}
+
+	public static String toJson(Object value) {
+		StringBuilder out = new StringBuilder();
+		write(out, value);
+		return out.toString();
+	}
+
+	private static void quote(StringBuilder out, String s) {
+		out.append('"');
+		for (int i = 0; i < s.length(); ++i) {
+			char c = s.charAt(i);
+			switch (c) {
+				case '"': out.append("\\\""); break;
+				case '\\': out.append("\\\\"); break;
+				case '\n': out.append("\\n"); break;
+				case '\r': out.append("\\r"); break;
+				case '\t': out.append("\\t"); break;
+				default:
+					if (c < 0x20)
+						out.append(String.format("\\u%04x", (int) c));
+					else
+						out.append(c);
+			}
+		}
+		out.append('"');
+	}
+}
@@ -0,0 +1,168 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class records latencies in nanoseconds into log-linear buckets: every
+ * power of two is split into 128 sub-buckets, so a recorded value is reported
+ * within 1% of its true value from 1 ns up to the largest long. Recording is
+ * lock-free and safe from any number of threads.
+ *
+ */
+
+public class LatencyHistogram {
+	private static final int SUB_BITS = 7;
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+	// values below this are counted exactly, one bucket each
+	private static final int LINEAR = SUB_COUNT << 1;
+	private static final int BUCKETS = LINEAR + (63 - SUB_BITS - 1) * SUB_COUNT;
+
+	private final AtomicLongArray _counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong _count = new AtomicLong();
+	private final AtomicLong _sum = new AtomicLong();
+	private final AtomicLong _max = new AtomicLong();
+
+	/**
+	 * Method to record one latency.
+	 *
+	 * @param nanos the latency in nanoseconds, negative values count as 0
+	 */
+	public void record(long nanos) {
+		long value = Math.max(0, nanos);
+		this._counts.incrementAndGet(index(value));
+		this._count.incrementAndGet();
+		this._sum.addAndGet(value);
+		long max;
+		while (value > (max = this._max.get()) && !this._max.compareAndSet(max, value))
+			;
+	}
+
+	static int index(long value) {
+		if (value < LINEAR)
+			return (int) value;
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+		int top = (int) (value >>> shift);
+		return LINEAR + (shift - 1) * SUB_COUNT + (top - SUB_COUNT);
+	}
+
+	// largest value that falls into the bucket
+	static long upperBound(int index) {
+		if (index < LINEAR)
+			return index;
+		int shift = (index - LINEAR) / SUB_COUNT + 1;
+		long top = (index - LINEAR) % SUB_COUNT + SUB_COUNT;
+		return ((top + 1) << shift) - 1;
+	}
+
+	public long count() {
+		return this._count.get();
+	}
+
+	public long max() {
+		return this._max.get();
+	}
+
+	public long sum() {
+		return this._sum.get();
+	}
+
+	public double mean() {
+		long count = this._count.get();
+		return count == 0 ? 0.0 : (double) this._sum.get() / count;
+	}
+
+	/**
+	 * Method to return the latency below which the given share of the recorded
+	 * values fall.
+	 *
+	 * @param percentile a value between 0 and 100, e.g. 99.9
+	 * @return the latency in nanoseconds, 0 when nothing was recorded
+	 */
+	public long percentile(double percentile) {
+		long total = 0;
+		for (int i = 0; i < BUCKETS; ++i)
+			total += this._counts.get(i);
+		if (total == 0)
+			return 0;
+		long rank = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; ++i) {
+			seen += this._counts.get(i);
+			if (seen >= rank)
+				return Math.min(upperBound(i), this._max.get());
+		}
+		return this._max.get();
+	}
+
+	/**
+	 * Method to count the recorded values at or below each of the given bounds,
+	 * to within the precision of the buckets.
+	 *
+	 * @param bounds latencies in nanoseconds in ascending order
+	 * @return the number of values at or below each bound
+	 */
+	public long[] cumulativeCounts(long[] bounds) {
+		long[] counts = new long[bounds.length];
+		long seen = 0;
+		int i = 0;
+		for (int b = 0; b < bounds.length; ++b) {
+			int last = index(Math.max(0, bounds[b]));
+			for (; i <= last; ++i)
+				seen += this._counts.get(i);
+			counts[b] = seen;
+		}
+		return counts;
+	}
+
+	/**
+	 * Method to add the values recorded by another histogram to this one.
+	 *
+	 * @param other the histogram to merge in
+	 */
+	public void add(LatencyHistogram other) {
+		for (int i = 0; i < BUCKETS; ++i) {
+			long c = other._counts.get(i);
+			if (c != 0)
+				this._counts.addAndGet(i, c);
+		}
+		this._count.addAndGet(other._count.get());
+		this._sum.addAndGet(other._sum.get());
+		long max;
+		long value = other._max.get();
+		while (value > (max = this._max.get()) && !this._max.compareAndSet(max, value))
+			;
+	}
+
+	/**
+	 * Method to move everything recorded so far into a new histogram and start
+	 * this one from zero, for reporting interval by interval.
+	 *
+	 * @return the values recorded since the last drain
+	 */
+	public LatencyHistogram drain() {
+		LatencyHistogram interval = new LatencyHistogram();
+		long count = 0;
+		for (int i = 0; i < BUCKETS; ++i) {
+			long c = this._counts.getAndSet(i, 0);
+			if (c != 0) {
+				interval._counts.set(i, c);
+				count += c;
+			}
+		}
+		interval._count.set(count);
+		this._count.addAndGet(-count);
+		interval._sum.set(this._sum.getAndSet(0));
+		interval._max.set(this._max.getAndSet(0));
+		return interval;
+	}
+
+	/**
+	 * Method to format the usual percentiles in milliseconds.
+	 *
+	 * @return a one line summary
+	 */
+	public String summary() {
+		return String.format("n=%d mean=%.3fms p50=%.3fms p90=%.3fms p99=%.3fms p99.9=%.3fms max=%.3fms", count(),
+				mean() / 1e6, percentile(50) / 1e6, percentile(90) / 1e6, percentile(99) / 1e6,
+				percentile(99.9) / 1e6, max() / 1e6);
+	}
+}
@@ -0,0 +1,335 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * This class generates a booking workload against the database. Each request
+ * is one of:
+ *   seats   - seat availability check (query 6)
+ *   book    - new booking or status update (query 5)
+ *   count   - passengers with a status on a flight (query 9)
+ *   repairs - repairs per plane or per year (queries 7 and 8)
+ * drawn at random according to a configurable mix, with customers, flights
+ * and reservations taken from the loaded data.
+ *
+ * With --rate the requests are issued open-loop at a fixed rate and latency is
+ * measured from the time a request was due, so queueing behind a slow database
+ * is counted. Without it every worker issues requests back to back. Latency
+ * per operation is printed every second and summarized at the end.
+ *
+ * With --http the same requests are sent to a BookingServer instead of the
+ * database; a reply of 500 or above counts as an error.
+ *
+ */
+
+public class LoadGenerator {
+	static final String[] OPS = { "seats", "book", "count", "repairs" };
+	private static final String[] STATUS = { "W", "R", "C" };
+
+	private final DBproject _esql;
+	// cumulative weights of OPS
+	private final int[] _mix;
+	private final LatencyHistogram[] _total = new LatencyHistogram[OPS.length];
+	private final LatencyHistogram[] _interval = new LatencyHistogram[OPS.length];
+	private final AtomicLong[] _errors = new AtomicLong[OPS.length];
+
+	// keys drawn from the loaded data
+	private int[] _customers;
+	private int[] _flights;
+	private LocalDate[] _departures;
+	private int[][] _reservations;
+
+	// BookingServer to send requests to, null to call the database directly
+	private HttpClient _http = null;
+	private URI _base = null;
+
+	public LoadGenerator(DBproject esql, int[] weights) {
+		this._esql = esql;
+		this._mix = new int[OPS.length];
+		int sum = 0;
+		for (int i = 0; i < OPS.length; ++i) {
+			sum += weights[i];
+			this._mix[i] = sum;
+			this._total[i] = new LatencyHistogram();
+			this._interval[i] = new LatencyHistogram();
+			this._errors[i] = new AtomicLong();
+		}
+		if (sum <= 0)
+			throw new IllegalArgumentException("The operation mix must have a positive weight");
+	}
+
+	/**
+	 * Method to read the keys requests are drawn from.
+	 *
+	 * @throws java.sql.SQLException when the keys could not be read
+	 */
+	public void prepare() throws SQLException {
+		List<List<String>> customers = this._esql.executeQueryAndReturnResult("SELECT id FROM Customer");
+		this._customers = new int[customers.size()];
+		for (int i = 0; i < this._customers.length; ++i)
+			this._customers[i] = Integer.parseInt(customers.get(i).get(0));
+
+		List<List<String>> flights = this._esql.executeQueryAndReturnResult("SELECT fnum, actual_departure_date FROM Flight");
+		this._flights = new int[flights.size()];
+		this._departures = new LocalDate[flights.size()];
+		for (int i = 0; i < this._flights.length; ++i) {
+			this._flights[i] = Integer.parseInt(flights.get(i).get(0));
+			this._departures[i] = LocalDate.parse(flights.get(i).get(1));
+		}
+
+		List<List<String>> reservations = this._esql.executeQueryAndReturnResult(
+				"SELECT cid, fid FROM Reservation ORDER BY random() LIMIT 100000");
+		this._reservations = new int[reservations.size()][];
+		for (int i = 0; i < this._reservations.length; ++i)
+			this._reservations[i] = new int[] { Integer.parseInt(reservations.get(i).get(0)),
+					Integer.parseInt(reservations.get(i).get(1)) };
+
+		this._esql.getSeatInventory();
+	}
+
+	/**
+	 * Method to send requests to a BookingServer instead of the database.
+	 *
+	 * @param url the server address, e.g. http://localhost:8080
+	 */
+	public void setHttpTarget(String url) {
+		this._base = URI.create(url.endsWith("/") ? url : url + "/");
+		this._http = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1)
+				.connectTimeout(Duration.ofSeconds(5)).build();
+	}
+
+	// runs one request of the given kind
+	private void request(int op, ThreadLocalRandom r) throws Exception {
+		if (this._http != null) {
+			send(op, r);
+			return;
+		}
+		switch (op) {
+			case 0: {
+				int i = r.nextInt(this._flights.length);
+				if (this._esql.getSeatInventory().available(this._flights[i], this._departures[i]) == SeatInventory.UNKNOWN)
+					this._esql.executeQuery(DBproject.SELECT_AVAILABLE_SEATS, this._flights[i], this._flights[i],
+							java.sql.Date.valueOf(this._departures[i]));
+				break;
+			}
+			case 1:
+				if (r.nextBoolean() || this._reservations.length == 0) {
+					this._esql.bookFlight(this._customers[r.nextInt(this._customers.length)],
+							this._flights[r.nextInt(this._flights.length)], STATUS[r.nextInt(3)]);
+				} else {
+					int[] res = this._reservations[r.nextInt(this._reservations.length)];
+					this._esql.updateReservationStatus(res[0], res[1], STATUS[r.nextInt(3)]);
+				}
+				break;
+			case 2:
+				this._esql.executeQuery(DBproject.COUNT_PASSENGERS_WITH_STATUS,
+						this._flights[r.nextInt(this._flights.length)], STATUS[r.nextInt(3)]);
+				break;
+			default:
+				this._esql.executeQueryAndReturnResult(
+						r.nextBoolean() ? DBproject.SELECT_REPAIRS_PER_PLANE : DBproject.SELECT_REPAIRS_PER_YEAR);
+		}
+	}
+
+	// sends one request of the given kind to the server
+	private void send(int op, ThreadLocalRandom r) throws IOException, InterruptedException {
+		HttpRequest.Builder request;
+		switch (op) {
+			case 0: {
+				int i = r.nextInt(this._flights.length);
+				request = HttpRequest.newBuilder(this._base.resolve("seats?flight=" + this._flights[i] + "&date=" + this._departures[i]));
+				break;
+			}
+			case 1:
+				if (r.nextBoolean() || this._reservations.length == 0) {
+					String body = "{\"cid\":" + this._customers[r.nextInt(this._customers.length)] + ",\"fid\":"
+							+ this._flights[r.nextInt(this._flights.length)] + ",\"status\":\"" + STATUS[r.nextInt(3)] + "\"}";
+					request = HttpRequest.newBuilder(this._base.resolve("reservations"))
+							.POST(HttpRequest.BodyPublishers.ofString(body));
+				} else {
+					int[] res = this._reservations[r.nextInt(this._reservations.length)];
+					String body = "{\"cid\":" + res[0] + ",\"fid\":" + res[1] + ",\"status\":\"" + STATUS[r.nextInt(3)] + "\"}";
+					request = HttpRequest.newBuilder(this._base.resolve("reservations"))
+							.PUT(HttpRequest.BodyPublishers.ofString(body));
+				}
+				break;
+			case 2:
+				request = HttpRequest.newBuilder(this._base.resolve("passengers?flight="
+						+ this._flights[r.nextInt(this._flights.length)] + "&status=" + STATUS[r.nextInt(3)]));
+				break;
+			default:
+				request = HttpRequest.newBuilder(this._base.resolve(r.nextBoolean() ? "repairs/planes" : "repairs/years"));
+		}
+		HttpResponse<Void> response = this._http.send(request.header("Content-Type", "application/json").build(),
+				HttpResponse.BodyHandlers.discarding());
+		if (response.statusCode() >= 500)
+			throw new IOException("HTTP " + response.statusCode());
+	}
+
+	// picks an operation, runs it and records its latency from the due time
+	private void issue(long due) {
+		ThreadLocalRandom r = ThreadLocalRandom.current();
+		int pick = r.nextInt(this._mix[OPS.length - 1]);
+		int op = 0;
+		while (pick >= this._mix[op])
+			++op;
+		try {
+			request(op, r);
+		} catch (Exception e) {
+			this._errors[op].incrementAndGet();
+		}
+		this._interval[op].record(System.nanoTime() - due);
+	}
+
+	/**
+	 * Method to run the workload.
+	 *
+	 * @param executor the threads requests run on
+	 * @param workers  number of back-to-back workers when rate is 0
+	 * @param rate     requests per second, 0 for closed loop
+	 * @param seconds  length of the run
+	 * @throws InterruptedException when interrupted while waiting
+	 */
+	public void run(ExecutorService executor, int workers, int rate, int seconds) throws InterruptedException {
+		long start = System.nanoTime();
+		long end = start + TimeUnit.SECONDS.toNanos(seconds);
+
+		Thread issuer;
+		if (rate > 0) {
+			// one thread hands out requests on schedule, the executor runs them
+			long period = TimeUnit.SECONDS.toNanos(1) / rate;
+			issuer = new Thread(() -> {
+				for (long due = start; due < end; due += period) {
+					long wait = due - System.nanoTime();
+					if (wait > 0)
+						LockSupport.parkNanos(wait);
+					long scheduled = due;
+					executor.execute(() -> issue(scheduled));
+				}
+			}, "loadgen-issuer");
+		} else {
+			issuer = new Thread(() -> {
+				for (int w = 0; w < workers; ++w)
+					executor.execute(() -> {
+						while (System.nanoTime() < end)
+							issue(System.nanoTime());
+					});
+			}, "loadgen-issuer");
+		}
+		issuer.start();
+
+		System.out.printf("%6s %10s", "time", "ops/s");
+		for (String name : OPS)
+			System.out.printf(" %22s", name + " p50/p99 ms");
+		System.out.println();
+		for (int second = 1; System.nanoTime() < end; ++second) {
+			LockSupport.parkNanos(Math.max(0, start + TimeUnit.SECONDS.toNanos(second) - System.nanoTime()));
+			report(second);
+		}
+		issuer.join();
+		executor.shutdown();
+		executor.awaitTermination(60, TimeUnit.SECONDS);
+		report(-1);
+		summary((System.nanoTime() - start) / 1e9);
+	}
+
+	// prints the interval just finished and adds it to the totals
+	private void report(int second) {
+		StringBuilder line = new StringBuilder();
+		long ops = 0;
+		for (int i = 0; i < OPS.length; ++i) {
+			LatencyHistogram interval = this._interval[i].drain();
+			this._total[i].add(interval);
+			ops += interval.count();
+			line.append(String.format(" %10.2f/%-11.2f", interval.percentile(50) / 1e6, interval.percentile(99) / 1e6));
+		}
+		if (second > 0)
+			System.out.printf("%5ds %10d%s%n", second, ops, line);
+	}
+
+	private void summary(double elapsed) {
+		System.out.println("-----------------------------------------------------------------");
+		long total = 0;
+		for (int i = 0; i < OPS.length; ++i) {
+			LatencyHistogram h = this._total[i];
+			total += h.count();
+			System.out.printf("%-8s %8.0f ops/s errors=%d p50=%.3fms p99=%.3fms p99.9=%.3fms max=%.3fms%n", OPS[i],
+					h.count() / elapsed, this._errors[i].get(), h.percentile(50) / 1e6, h.percentile(99) / 1e6,
+					h.percentile(99.9) / 1e6, h.max() / 1e6);
+		}
+		System.out.printf("total    %8.0f ops/s over %.1f s%n", total / elapsed, elapsed);
+		System.out.print(this._esql.getMetrics().summary());
+		System.out.println(this._esql.getPool().stats());
+		System.out.println("-----------------------------------------------------------------");
+	}
+
+	// parses a mix such as seats=60,book=25,count=10,repairs=5
+	static int[] parseMix(String mix) {
+		int[] weights = new int[OPS.length];
+		for (String part : mix.split(",")) {
+			String[] kv = part.split("=");
+			int op = Arrays.asList(OPS).indexOf(kv[0].trim());
+			if (op < 0 || kv.length != 2)
+				throw new IllegalArgumentException("Unknown operation in mix: " + part);
+			weights[op] = Integer.parseInt(kv[1].trim());
+		}
+		return weights;
+	}
+
+	public static void main(String[] args) {
+		if (args.length < 3) {
+			System.err.println("Usage: " + "java [-classpath <classpath>] " + LoadGenerator.class.getName()
+					+ " <dbname> <port> <user> [--rate N] [--seconds S] [--threads N] [--virtual]"
+					+ " [--pool N] [--mix seats=60,book=25,count=10,repairs=5] [--http URL]");
+			return;
+		} // end if
+
+		int rate = 0, seconds = 60, threads = 16, pool = ConnectionPool.DEFAULT_MAX_SIZE * 2;
+		boolean virtual = false;
+		String mix = "seats=60,book=25,count=10,repairs=5";
+		String http = null;
+		for (int i = 3; i < args.length; ++i) {
+			switch (args[i]) {
+				case "--rate": rate = Integer.parseInt(args[++i]); break;
+				case "--seconds": seconds = Integer.parseInt(args[++i]); break;
+				case "--threads": threads = Integer.parseInt(args[++i]); break;
+				case "--pool": pool = Integer.parseInt(args[++i]); break;
+				case "--mix": mix = args[++i]; break;
+				case "--virtual": virtual = true; break;
+				case "--http": http = args[++i]; break;
+				default:
+					System.err.println("Unknown option: " + args[i]);
+					return;
+			}
+		}
+
+		DBproject esql = null;
+		try {
+			Class.forName("org.postgresql.Driver");
+			esql = new DBproject(args[0], args[1], args[2], "", pool);
+			LoadGenerator generator = new LoadGenerator(esql, parseMix(mix));
+			generator.prepare();
+			if (http != null)
+				generator.setHttpTarget(http);
+			ExecutorService executor = TaskExecutors.newExecutor(virtual, threads);
+			generator.run(executor, threads, rate, seconds);
+		} catch (Exception e) {
+			System.err.println(e.getMessage());
+		} finally {
+			if (esql != null)
+				esql.cleanup();
+		}
+	}
+}
@@ -0,0 +1,184 @@
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class is a size-bounded read-through cache. Entries are kept in access
+ * order and the least recently used one is evicted once the cache is full;
+ * each entry also expires a fixed time after it was loaded. A missing row is
+ * cached as null like any other value, so asking again for an id that does
+ * not exist does not go back to the database either.
+ *
+ * Loads run outside the cache lock, so one slow load never blocks hits on
+ * other keys. Two threads missing the same key at once may both load it; the
+ * later value wins, which is harmless for reference data.
+ *
+ */
+
+public class LruCache<K, V> {
+	/**
+	 * Reads the value of a key that is not cached.
+	 */
+	public interface Loader<K, V> {
+		V load(K key) throws SQLException;
+	}
+
+	/**
+	 * A cached value and the time it expires at.
+	 */
+	private static class Cached<V> {
+		final V value;
+		final long expiresAt;
+
+		Cached(V value, long expiresAt) {
+			this.value = value;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+	private final String _name;
+	private final int _maxSize;
+	private final long _ttlNanos;
+	private final Loader<K, V> _loader;
+	private final LinkedHashMap<K, Cached<V>> _entries;
+	// bumped by every invalidation, a load started before it is not stored
+	private long _generation = 0;
+	private long _hits = 0;
+	private long _misses = 0;
+	private long _evictions = 0;
+	private long _expirations = 0;
+	private long _loadNanos = 0;
+
+	/**
+	 * Method to create an empty cache.
+	 *
+	 * @param name       the name shown in statistics
+	 * @param maxSize    the entries kept at most
+	 * @param ttlSeconds the seconds an entry is kept after it was loaded
+	 * @param loader     reads values on a miss
+	 */
+	public LruCache(String name, int maxSize, long ttlSeconds, Loader<K, V> loader) {
+		if (maxSize <= 0 || ttlSeconds <= 0)
+			throw new IllegalArgumentException("Cache size and time to live must be positive");
+		this._name = name;
+		this._maxSize = maxSize;
+		this._ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+		this._loader = loader;
+		this._entries = new LinkedHashMap<K, Cached<V>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(Map.Entry<K, Cached<V>> eldest) {
+				if (size() <= LruCache.this._maxSize)
+					return false;
+				++LruCache.this._evictions;
+				return true;
+			}
+		};
+	}
+
+	public String getName() {
+		return this._name;
+	}
+
+	/**
+	 * Method to return the value of a key, loading it on a miss.
+	 *
+	 * @param key the key
+	 * @return the value, or null when the loader found none
+	 * @throws java.sql.SQLException when the value could not be loaded
+	 */
+	public V get(K key) throws SQLException {
+		long generation;
+		synchronized (this) {
+			Cached<V> entry = this._entries.get(key);
+			if (entry != null) {
+				if (entry.expiresAt - System.nanoTime() > 0) {
+					++this._hits;
+					return entry.value;
+				}
+				this._entries.remove(key);
+				++this._expirations;
+			}
+			++this._misses;
+			generation = this._generation;
+		}
+		long start = System.nanoTime();
+		V value = this._loader.load(key);
+		long now = System.nanoTime();
+		synchronized (this) {
+			this._loadNanos += now - start;
+			// a write invalidated the cache while loading, the value may predate it
+			if (generation == this._generation)
+				this._entries.put(key, new Cached<V>(value, now + this._ttlNanos));
+		}
+		return value;
+	}
+
+	/**
+	 * Method to drop one key, e.g. after this client wrote its row.
+	 *
+	 * @param key the key
+	 */
+	public synchronized void invalidate(K key) {
+		this._entries.remove(key);
+		++this._generation;
+	}
+
+	public synchronized void invalidateAll() {
+		this._entries.clear();
+		++this._generation;
+	}
+
+	// drops the expired entries without waiting for them to be asked for
+	public synchronized int purgeExpired() {
+		long now = System.nanoTime();
+		int purged = 0;
+		for (Iterator<Cached<V>> it = this._entries.values().iterator(); it.hasNext();) {
+			if (it.next().expiresAt - now <= 0) {
+				it.remove();
+				++purged;
+			}
+		}
+		this._expirations += purged;
+		return purged;
+	}
+
+	public synchronized int size() {
+		return this._entries.size();
+	}
+
+	public int getMaxSize() {
+		return this._maxSize;
+	}
+
+	public synchronized long getHits() {
+		return this._hits;
+	}
+
+	public synchronized long getMisses() {
+		return this._misses;
+	}
+
+	public synchronized long getEvictions() {
+		return this._evictions;
+	}
+
+	public synchronized long getExpirations() {
+		return this._expirations;
+	}
+
+	/**
+	 * Method to format the cache statistics on one line.
+	 *
+	 * @return the statistics
+	 */
+	public synchronized String stats() {
+		long lookups = this._hits + this._misses;
+		return String.format("%s cache size=%d/%d hits=%d misses=%d hitRate=%.1f%% evictions=%d expirations=%d avgLoad=%.2fms",
+				this._name, this._entries.size(), this._maxSize, this._hits, this._misses,
+				lookups == 0 ? 0.0 : 100.0 * this._hits / lookups, this._evictions, this._expirations,
+				this._misses == 0 ? 0.0 : this._loadNanos / 1e6 / this._misses);
+	}
+}
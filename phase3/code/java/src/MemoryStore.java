@@ -0,0 +1,926 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * This class runs the menu operations against the nine tables held in
+ * process, loaded from the CSV files of phase3/code/data, so the client can
+ * be tried and served without a database.
+ *
+ * Each table keeps one array per column: integers, dates as epoch days and
+ * statuses as characters in int arrays, text in String arrays. Every primary
+ * key has an open-addressing hash index from key to row, and the foreign keys
+ * the operations follow, reservations and flight assignments by flight, have
+ * an index that chains the rows of each key. Rows are checked against the
+ * keys and domains of sql/create.sql, and violations are reported with the
+ * SQLState Postgres uses.
+ *
+ * Changes are not written back to the files. One lock guards all tables:
+ * queries share it, the adds and bookings take it alone.
+ *
+ */
+
+public class MemoryStore implements FlightStore {
+	// rows a table has room for before its columns first grow
+	private static final int INITIAL_ROWS = 1024;
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * A column of integers, dates as epoch days or single characters.
+	 */
+	static final class IntColumn {
+		int[] values = new int[INITIAL_ROWS];
+	}
+
+	/**
+	 * A column of text, null for NULL.
+	 */
+	static final class TextColumn {
+		String[] values = new String[INITIAL_ROWS];
+	}
+
+	/**
+	 * Open-addressing hash index from a 64-bit key to a row, with linear
+	 * probing. The table is at most half full.
+	 */
+	static final class KeyIndex {
+		private long[] _keys = new long[INITIAL_ROWS * 2];
+		private int[] _rows = empty(INITIAL_ROWS * 2);
+		private int _size = 0;
+
+		private static int[] empty(int slots) {
+			int[] rows = new int[slots];
+			Arrays.fill(rows, -1);
+			return rows;
+		}
+
+		// the high bits of the product are well mixed for sequential keys too
+		private static int hash(long key) {
+			return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32);
+		}
+
+		/**
+		 * Method to return the row of a key.
+		 *
+		 * @param key the key
+		 * @return the row, or -1 when the key is not in the index
+		 */
+		int get(long key) {
+			int mask = this._keys.length - 1;
+			for (int i = hash(key) & mask;; i = (i + 1) & mask) {
+				int row = this._rows[i];
+				if (row < 0 || this._keys[i] == key)
+					return row;
+			}
+		}
+
+		/**
+		 * Method to map a key to a row.
+		 *
+		 * @param key the key
+		 * @param row the row
+		 * @return the row the key was mapped to before, or -1
+		 */
+		int put(long key, int row) {
+			if ((this._size + 1) * 2 > this._keys.length)
+				resize();
+			int mask = this._keys.length - 1;
+			for (int i = hash(key) & mask;; i = (i + 1) & mask) {
+				int old = this._rows[i];
+				if (old < 0) {
+					this._keys[i] = key;
+					this._rows[i] = row;
+					++this._size;
+					return -1;
+				}
+				if (this._keys[i] == key) {
+					this._rows[i] = row;
+					return old;
+				}
+			}
+		}
+
+		private void resize() {
+			long[] keys = this._keys;
+			int[] rows = this._rows;
+			this._keys = new long[keys.length * 2];
+			this._rows = empty(keys.length * 2);
+			int mask = this._keys.length - 1;
+			for (int j = 0; j < keys.length; ++j) {
+				if (rows[j] < 0)
+					continue;
+				int i = hash(keys[j]) & mask;
+				while (this._rows[i] >= 0)
+					i = (i + 1) & mask;
+				this._keys[i] = keys[j];
+				this._rows[i] = rows[j];
+			}
+		}
+	}
+
+	/**
+	 * Index of a foreign key: the last row added for each key, and for every
+	 * row the row added before it with the same key.
+	 */
+	static final class RefIndex {
+		private final KeyIndex _last = new KeyIndex();
+		private int[] _previous = new int[INITIAL_ROWS];
+
+		void add(int key, int row) {
+			if (row >= this._previous.length)
+				this._previous = Arrays.copyOf(this._previous, Math.max(row + 1, this._previous.length * 2));
+			this._previous[row] = this._last.put(key, row);
+		}
+
+		// the newest row with the key, or -1
+		int last(int key) {
+			return this._last.get(key);
+		}
+
+		// the row with the same key added before this one, or -1
+		int previous(int row) {
+			return this._previous[row];
+		}
+	}
+
+	/**
+	 * A table stored column by column, rows numbered from 0 in insertion
+	 * order. The first column is the integer primary key.
+	 */
+	static class Table {
+		final String name;
+		private final List<IntColumn> _ints = new ArrayList<IntColumn>();
+		private final List<TextColumn> _texts = new ArrayList<TextColumn>();
+		private int _capacity = INITIAL_ROWS;
+		final IntColumn id = ints();
+		// primary key -> row
+		final KeyIndex key = new KeyIndex();
+		int size = 0;
+
+		Table(String name) {
+			this.name = name;
+		}
+
+		final IntColumn ints() {
+			IntColumn column = new IntColumn();
+			this._ints.add(column);
+			return column;
+		}
+
+		final TextColumn texts() {
+			TextColumn column = new TextColumn();
+			this._texts.add(column);
+			return column;
+		}
+
+		// the row of a primary key, or -1
+		int row(int id) {
+			return this.key.get(id);
+		}
+
+		/**
+		 * Method to add a row with a new primary key, the caller fills in the
+		 * other columns.
+		 *
+		 * @param id the primary key
+		 * @return the new row
+		 * @throws java.sql.SQLException when the key is taken
+		 */
+		int append(int id) throws SQLException {
+			if (this.key.get(id) >= 0)
+				throw new SQLException("duplicate key value violates unique constraint \"" + this.name.toLowerCase()
+						+ "_pkey\"", "23505");
+			if (this.size == this._capacity) {
+				this._capacity *= 2;
+				for (IntColumn column : this._ints)
+					column.values = Arrays.copyOf(column.values, this._capacity);
+				for (TextColumn column : this._texts)
+					column.values = Arrays.copyOf(column.values, this._capacity);
+			}
+			int row = this.size++;
+			this.id.values[row] = id;
+			this.key.put(id, row);
+			return row;
+		}
+	}
+
+	static final class Customers extends Table {
+		final TextColumn fname = texts(), lname = texts(), address = texts(), phone = texts(), zipcode = texts();
+		final IntColumn gtype = ints(), dob = ints();
+
+		Customers() {
+			super("Customer");
+		}
+	}
+
+	static final class Pilots extends Table {
+		final TextColumn fullname = texts(), nationality = texts();
+
+		Pilots() {
+			super("Pilot");
+		}
+	}
+
+	static final class Planes extends Table {
+		final TextColumn make = texts(), model = texts();
+		final IntColumn age = ints(), seats = ints();
+
+		Planes() {
+			super("Plane");
+		}
+	}
+
+	static final class Technicians extends Table {
+		final TextColumn fullName = texts();
+
+		Technicians() {
+			super("Technician");
+		}
+	}
+
+	static final class Flights extends Table {
+		final IntColumn cost = ints(), sold = ints(), stops = ints(), departure = ints(), arrival = ints();
+		final TextColumn arrivalAirport = texts(), departureAirport = texts();
+
+		Flights() {
+			super("Flight");
+		}
+	}
+
+	static final class Reservations extends Table {
+		final IntColumn cid = ints(), fid = ints(), status = ints();
+		// (cid, fid) -> row, the unique key
+		final KeyIndex pair = new KeyIndex();
+		final RefIndex byFlight = new RefIndex();
+
+		Reservations() {
+			super("Reservation");
+		}
+
+		static long pair(int cid, int fid) {
+			return ((long) cid << 32) | (fid & 0xFFFFFFFFL);
+		}
+	}
+
+	static final class FlightInfos extends Table {
+		final IntColumn flight = ints(), pilot = ints(), plane = ints();
+		final RefIndex byFlight = new RefIndex();
+
+		FlightInfos() {
+			super("FlightInfo");
+		}
+	}
+
+	static final class Repairs extends Table {
+		final IntColumn date = ints(), pilot = ints(), plane = ints(), technician = ints();
+		final TextColumn code = texts();
+
+		Repairs() {
+			super("Repairs");
+		}
+	}
+
+	static final class Schedules extends Table {
+		final IntColumn flight = ints(), departure = ints(), arrival = ints();
+
+		Schedules() {
+			super("Schedule");
+		}
+	}
+
+	/**
+	 * Reads the fields of one line into the tables.
+	 */
+	private interface RowLoader {
+		void load(String[] fields) throws SQLException;
+	}
+
+	private final Customers _customers = new Customers();
+	private final Pilots _pilots = new Pilots();
+	private final Planes _planes = new Planes();
+	private final Technicians _technicians = new Technicians();
+	private final Flights _flights = new Flights();
+	private final Reservations _reservations = new Reservations();
+	private final FlightInfos _flightInfos = new FlightInfos();
+	private final Repairs _repairs = new Repairs();
+	private final Schedules _schedules = new Schedules();
+	private final ReentrantReadWriteLock _lock = new ReentrantReadWriteLock();
+	private final Metrics _metrics = new Metrics();
+	// like reservation_rnum_seq after the load
+	private int _nextRnum = 1;
+	// like flightinfo_fiid_seq after the load
+	private int _nextFiid = 1;
+	// busy days of every plane and pilot, built on the first added flight under the write lock
+	private AssignmentSchedule _schedule = null;
+	// built from the flights on first use
+	private volatile RouteGraph _routes = null;
+
+	/**
+	 * Method to create a store holding the tables of a data directory, in the
+	 * layout BulkLoader reads.
+	 *
+	 * @param dataDir the directory of the CSV files
+	 * @return the loaded store
+	 * @throws java.io.IOException  when a file could not be read
+	 * @throws java.sql.SQLException when a row breaks a key or domain, with the
+	 *                               file and line in the message
+	 */
+	public static MemoryStore load(File dataDir) throws IOException, SQLException {
+		MemoryStore store = new MemoryStore();
+		long start = System.nanoTime();
+		long rows = store.loadTables(dataDir);
+		BulkLoader.report("total", rows, System.nanoTime() - start);
+		return store;
+	}
+
+	private long loadTables(File dataDir) throws IOException, SQLException {
+		long rows = 0;
+		rows += load(dataDir, "Customer", 8, f -> {
+			int row = this._customers.append(integer(f[0]));
+			Customers t = this._customers;
+			t.fname.values[row] = text(f[1], 24, "fname");
+			t.lname.values[row] = text(f[2], 24, "lname");
+			t.gtype.values[row] = code(f[3], "FM", "_gender");
+			t.dob.values[row] = day(f[4]);
+			t.address.values[row] = nullable(f[5], 256);
+			t.phone.values[row] = nullable(f[6], 10);
+			t.zipcode.values[row] = nullable(f[7], 10);
+		});
+		rows += load(dataDir, "Pilot", 3, f -> insertPilot(integer(f[0]), nullable(f[1], 128), nullable(f[2], 24)));
+		rows += load(dataDir, "Plane", 5,
+				f -> insertPlane(integer(f[0]), f[1], f[2], integer(f[3]), integer(f[4])));
+		rows += load(dataDir, "Technician", 2, f -> insertTechnician(integer(f[0]), f[1]));
+		rows += load(dataDir, "Flight", 8, f -> insertFlight(integer(f[0]), integer(f[1]), integer(f[2]),
+				integer(f[3]), day(f[4]), day(f[5]), f[6], f[7]));
+		rows += loadReservations(dataDir);
+		rows += load(dataDir, "FlightInfo", 4, f -> {
+			int fiid = integer(f[0]);
+			insertFlightInfo(fiid, integer(f[1]), integer(f[2]), integer(f[3]));
+			this._nextFiid = Math.max(this._nextFiid, fiid + 1);
+		});
+		rows += load(dataDir, "Repairs", 6, f -> {
+			Repairs t = this._repairs;
+			int pilot = integer(f[3]), plane = integer(f[4]), technician = integer(f[5]);
+			references(t, "pilot_id", this._pilots, pilot);
+			references(t, "plane_id", this._planes, plane);
+			references(t, "technician_id", this._technicians, technician);
+			int row = t.append(integer(f[0]));
+			t.date.values[row] = day(f[1]);
+			t.code.values[row] = f[2].equals("\\N") ? null : repairCode(f[2]);
+			t.pilot.values[row] = pilot;
+			t.plane.values[row] = plane;
+			t.technician.values[row] = technician;
+		});
+		rows += load(dataDir, "Schedule", 4, f -> {
+			Schedules t = this._schedules;
+			int flight = integer(f[1]);
+			references(t, "flightnum", this._flights, flight);
+			int row = t.append(integer(f[0]));
+			t.flight.values[row] = flight;
+			t.departure.values[row] = day(f[2]);
+			t.arrival.values[row] = day(f[3]);
+		});
+		return rows;
+	}
+
+	// reads every file of a table, one row per line split at the commas like COPY does
+	private static long load(File dataDir, String table, int columns, RowLoader loader) throws IOException, SQLException {
+		long start = System.nanoTime();
+		long rows = 0;
+		String[] fields = new String[columns];
+		for (File file : BulkLoader.files(dataDir, table(table))) {
+			try (BufferedReader in = new BufferedReader(
+					new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8), BUFFER_SIZE)) {
+				int lineNumber = 0;
+				for (String line = in.readLine(); line != null; line = in.readLine()) {
+					++lineNumber;
+					try {
+						if (split(line, fields) != columns)
+							throw new SQLException("expected " + columns + " fields", "22P04");
+						loader.load(fields);
+					} catch (SQLException e) {
+						throw new SQLException(file + " line " + lineNumber + ": " + e.getMessage(), e.getSQLState(), e);
+					} catch (IllegalArgumentException | java.time.DateTimeException e) {
+						throw new SQLException(file + " line " + lineNumber + ": " + e.getMessage(), "22P02", e);
+					}
+					++rows;
+				}
+			}
+		}
+		BulkLoader.report(table, rows, System.nanoTime() - start);
+		return rows;
+	}
+
+	// like sql/finish-load.sql, of the reservations of a customer on a flight only the lowest rnum is kept
+	// and the seats of the others are given back
+	private long loadReservations(File dataDir) throws IOException, SQLException {
+		int[][] staged = { new int[INITIAL_ROWS], new int[INITIAL_ROWS], new int[INITIAL_ROWS], new int[INITIAL_ROWS] };
+		int[] count = { 0 };
+		long rows = load(dataDir, "Reservation", 4, f -> {
+			int n = count[0]++;
+			if (n == staged[0].length)
+				for (int c = 0; c < staged.length; ++c)
+					staged[c] = Arrays.copyOf(staged[c], n * 2);
+			staged[0][n] = integer(f[0]);
+			staged[1][n] = integer(f[1]);
+			staged[2][n] = integer(f[2]);
+			staged[3][n] = f[3].equals("\\N") ? 0 : code(f[3], "WRC", "_status");
+		});
+
+		// rnum in the high half and the staged position in the low half sorts by rnum
+		long[] order = new long[count[0]];
+		for (int n = 0; n < order.length; ++n)
+			order[n] = ((long) staged[0][n] << 32) | n;
+		Arrays.sort(order);
+		int max = 0;
+		int duplicates = 0;
+		for (long o : order) {
+			int n = (int) o;
+			if (this._reservations.pair.get(Reservations.pair(staged[1][n], staged[2][n])) >= 0) {
+				++duplicates;
+				int flight = this._flights.row(staged[2][n]);
+				if (holdsSeat(staged[3][n]) && this._flights.sold.values[flight] > 0)
+					--this._flights.sold.values[flight];
+				continue;
+			}
+			try {
+				insertReservation(staged[0][n], staged[1][n], staged[2][n], staged[3][n]);
+			} catch (SQLException e) {
+				throw new SQLException("Reservation rnum " + staged[0][n] + ": " + e.getMessage(), e.getSQLState(), e);
+			}
+			max = Math.max(max, staged[0][n]);
+		}
+		this._nextRnum = max + 1;
+		if (duplicates > 0)
+			System.out.println(duplicates + " duplicate reservation(s) rejected");
+		return rows;
+	}
+
+	private static BulkLoader.Table table(String name) {
+		for (BulkLoader.Table t : BulkLoader.PARENTS)
+			if (t.name.equals(name))
+				return t;
+		for (BulkLoader.Table t : BulkLoader.CHILDREN)
+			if (t.name.equals(name))
+				return t;
+		throw new IllegalArgumentException("Unknown table: " + name);
+	}
+
+	// splits at every comma into fields, returns the number of fields found
+	private static int split(String line, String[] fields) {
+		int n = 0, from = 0;
+		while (true) {
+			int comma = line.indexOf(',', from);
+			String field = comma < 0 ? line.substring(from) : line.substring(from, comma);
+			if (n < fields.length)
+				fields[n] = field;
+			++n;
+			if (comma < 0)
+				return n;
+			from = comma + 1;
+		}
+	}
+
+	/////////////////////////////////////////////////////////////////////////////////////
+	//// VALUES, checked like the column types and domains of sql/create.sql
+	/////////////////////////////////////////////////////////////////////////////////////
+
+	private static int integer(String text) {
+		return Integer.parseInt(text.trim());
+	}
+
+	// ISO dates, with any time of day dropped, and the M/D/YYYY dates of customer.csv
+	private static int day(String text) {
+		text = text.trim();
+		int slash = text.indexOf('/');
+		if (slash > 0) {
+			int second = text.indexOf('/', slash + 1);
+			return (int) LocalDate.of(Integer.parseInt(text.substring(second + 1)),
+					Integer.parseInt(text.substring(0, slash)), Integer.parseInt(text.substring(slash + 1, second)))
+					.toEpochDay();
+		}
+		if (text.length() < 10 || text.charAt(4) != '-' || text.charAt(7) != '-')
+			throw new IllegalArgumentException("invalid input syntax for type date: \"" + text + "\"");
+		return (int) LocalDate.of(Integer.parseInt(text.substring(0, 4)), Integer.parseInt(text.substring(5, 7)),
+				Integer.parseInt(text.substring(8, 10))).toEpochDay();
+	}
+
+	private static String text(String value, int length, String column) throws SQLException {
+		if (value == null)
+			throw new SQLException("null value in column \"" + column + "\" violates not-null constraint", "23502");
+		if (value.length() > length)
+			throw new SQLException("value too long for type character(" + length + ")", "22001");
+		return value;
+	}
+
+	private static String nullable(String value, int length) throws SQLException {
+		if (value == null || value.equals("\\N"))
+			return null;
+		return text(value, length, null);
+	}
+
+	private static int code(String value, String allowed, String domain) throws SQLException {
+		String code = value.trim();
+		if (code.length() != 1 || allowed.indexOf(code.charAt(0)) < 0)
+			throw check(domain);
+		return code.charAt(0);
+	}
+
+	private static String repairCode(String value) throws SQLException {
+		String code = value.trim();
+		if (!code.equals("MJ") && !code.equals("MN") && !code.equals("SV"))
+			throw check("_code");
+		return code;
+	}
+
+	private static SQLException check(String domain) {
+		return new SQLException("value for domain " + domain + " violates check constraint \"" + domain + "_check\"",
+				"23514");
+	}
+
+	private static void references(Table child, String column, Table parent, int key) throws SQLException {
+		if (parent.row(key) < 0)
+			throw new SQLException("insert or update on table \"" + child.name.toLowerCase()
+					+ "\" violates foreign key constraint \"" + child.name.toLowerCase() + "_" + column + "_fkey\"", "23503");
+	}
+
+	/////////////////////////////////////////////////////////////////////////////////////
+	//// INSERTS, the caller holds the write lock or owns the store
+	/////////////////////////////////////////////////////////////////////////////////////
+
+	private void insertPlane(int id, String make, String model, int age, int seats) throws SQLException {
+		text(make, 32, "make");
+		text(model, 64, "model");
+		if (age < 0)
+			throw check("_year_1970");
+		if (seats <= 0 || seats >= 500)
+			throw check("_seats");
+		Planes t = this._planes;
+		int row = t.append(id);
+		t.make.values[row] = make;
+		t.model.values[row] = model;
+		t.age.values[row] = age;
+		t.seats.values[row] = seats;
+	}
+
+	private void insertPilot(int id, String fullname, String nationality) throws SQLException {
+		nullable(fullname, 128);
+		nullable(nationality, 24);
+		Pilots t = this._pilots;
+		int row = t.append(id);
+		t.fullname.values[row] = fullname;
+		t.nationality.values[row] = nationality;
+	}
+
+	private void insertTechnician(int id, String fullName) throws SQLException {
+		text(fullName, 128, "full_name");
+		Technicians t = this._technicians;
+		int row = t.append(id);
+		t.fullName.values[row] = fullName;
+	}
+
+	private void insertFlight(int fnum, int cost, int sold, int stops, int departure, int arrival, String arrivalAirport,
+			String departureAirport) throws SQLException {
+		if (cost <= 0)
+			throw check("_pinteger");
+		if (sold < 0 || stops < 0)
+			throw check("_pzerointeger");
+		text(arrivalAirport, 5, "arrival_airport");
+		text(departureAirport, 5, "departure_airport");
+		Flights t = this._flights;
+		int row = t.append(fnum);
+		t.cost.values[row] = cost;
+		t.sold.values[row] = sold;
+		t.stops.values[row] = stops;
+		t.departure.values[row] = departure;
+		t.arrival.values[row] = arrival;
+		t.arrivalAirport.values[row] = arrivalAirport;
+		t.departureAirport.values[row] = departureAirport;
+	}
+
+	private void insertFlightInfo(int fiid, int flight, int pilot, int plane) throws SQLException {
+		FlightInfos t = this._flightInfos;
+		references(t, "flight_id", this._flights, flight);
+		references(t, "pilot_id", this._pilots, pilot);
+		references(t, "plane_id", this._planes, plane);
+		int row = t.append(fiid);
+		t.flight.values[row] = flight;
+		t.pilot.values[row] = pilot;
+		t.plane.values[row] = plane;
+		t.byFlight.add(flight, row);
+	}
+
+	private void insertReservation(int rnum, int cid, int fid, int status) throws SQLException {
+		Reservations t = this._reservations;
+		references(t, "cid", this._customers, cid);
+		references(t, "fid", this._flights, fid);
+		if (t.pair.get(Reservations.pair(cid, fid)) >= 0)
+			throw new SQLException("duplicate key value violates unique constraint \"reservation_cid_fid_key\"", "23505");
+		int row = t.append(rnum);
+		t.cid.values[row] = cid;
+		t.fid.values[row] = fid;
+		t.status.values[row] = status;
+		t.pair.put(Reservations.pair(cid, fid), row);
+		t.byFlight.add(fid, row);
+	}
+
+	/////////////////////////////////////////////////////////////////////////////////////
+	//// OPERATIONS
+	/////////////////////////////////////////////////////////////////////////////////////
+
+	public int addPlane(int id, String make, String model, int age, int seats) throws SQLException {
+		this._lock.writeLock().lock();
+		try {
+			insertPlane(id, make, model, age, seats);
+			return 1;
+		} finally {
+			this._lock.writeLock().unlock();
+		}
+	}
+
+	public int addPilot(int id, String fullname, String nationality) throws SQLException {
+		this._lock.writeLock().lock();
+		try {
+			insertPilot(id, fullname, nationality);
+			return 1;
+		} finally {
+			this._lock.writeLock().unlock();
+		}
+	}
+
+	public int addFlight(int fnum, int cost, int sold, int stops, LocalDate departure, LocalDate arrival,
+			String arrivalAirport, String departureAirport, int pilot, int plane) throws SQLException {
+		this._lock.writeLock().lock();
+		try {
+			// checked before the flight goes in, the two rows are added together or not at all
+			references(this._flightInfos, "pilot_id", this._pilots, pilot);
+			references(this._flightInfos, "plane_id", this._planes, plane);
+			String conflict = schedule().check(departure, arrival, pilot, plane);
+			if (conflict != null)
+				throw new SQLException(conflict, "23P01");
+			insertFlight(fnum, cost, sold, stops, (int) departure.toEpochDay(), (int) arrival.toEpochDay(),
+					arrivalAirport, departureAirport);
+			insertFlightInfo(this._nextFiid++, fnum, pilot, plane);
+			this._schedule.assign(fnum, departure, arrival, pilot, plane);
+			RouteGraph routes = this._routes;
+			if (routes != null)
+				routes.addFlight(fnum, cost, departure, arrival, departureAirport, arrivalAirport);
+			return 2;
+		} finally {
+			this._lock.writeLock().unlock();
+		}
+	}
+
+	// the assignment schedule, the caller holds the write lock
+	private AssignmentSchedule schedule() {
+		if (this._schedule == null) {
+			AssignmentSchedule schedule = new AssignmentSchedule(
+					Integer.getInteger("turnaround.days", ConflictDetector.DEFAULT_TURNAROUND_DAYS));
+			FlightInfos t = this._flightInfos;
+			for (int row = 0; row < t.size; ++row) {
+				int flight = this._flights.row(t.flight.values[row]);
+				schedule.assign(t.flight.values[row], LocalDate.ofEpochDay(this._flights.departure.values[flight]),
+						LocalDate.ofEpochDay(this._flights.arrival.values[flight]), t.pilot.values[row],
+						t.plane.values[row]);
+			}
+			this._schedule = schedule;
+		}
+		return this._schedule;
+	}
+
+	public int addTechnician(int id, String fullName) throws SQLException {
+		this._lock.writeLock().lock();
+		try {
+			insertTechnician(id, fullName);
+			return 1;
+		} finally {
+			this._lock.writeLock().unlock();
+		}
+	}
+
+	public String reservationStatus(int cid, int fid) {
+		this._lock.readLock().lock();
+		try {
+			int row = this._reservations.pair.get(Reservations.pair(cid, fid));
+			if (row < 0)
+				return null;
+			int status = this._reservations.status.values[row];
+			return status == 0 ? null : String.valueOf((char) status);
+		} finally {
+			this._lock.readLock().unlock();
+		}
+	}
+
+	// seats of the plane assigned to a flight, or SeatInventory.UNKNOWN when it has none
+	private int capacity(int fnum) {
+		int info = this._flightInfos.byFlight.last(fnum);
+		if (info < 0)
+			return SeatInventory.UNKNOWN;
+		return this._planes.seats.values[this._planes.row(this._flightInfos.plane.values[info])];
+	}
+
+	// whether a seat can be taken, flights without a plane are not limited
+	private boolean hasSeat(int flight) {
+		int capacity = capacity(this._flights.id.values[flight]);
+		return capacity == SeatInventory.UNKNOWN || this._flights.sold.values[flight] < capacity;
+	}
+
+	// reservations with status R or C hold a seat, like DBproject.holdsSeat
+	private static boolean holdsSeat(int status) {
+		return status == 'R' || status == 'C';
+	}
+
+	public BookingResult bookFlight(int cid, int fid, String status) throws SQLException {
+		int code = code(status, "WRC", "_status");
+		boolean takesSeat = holdsSeat(code);
+		this._lock.writeLock().lock();
+		try {
+			int flight = this._flights.row(fid);
+			// the seat is taken first, and like the seat update in the database a missing flight has none
+			if (takesSeat && (flight < 0 || !hasSeat(flight)))
+				return new BookingResult(BookingResult.Outcome.FULL);
+			if (this._reservations.pair.get(Reservations.pair(cid, fid)) >= 0)
+				return new BookingResult(BookingResult.Outcome.EXISTS);
+			int rnum = this._nextRnum;
+			insertReservation(rnum, cid, fid, code);
+			++this._nextRnum;
+			if (takesSeat)
+				++this._flights.sold.values[flight];
+			return new BookingResult(BookingResult.Outcome.BOOKED, rnum);
+		} finally {
+			this._lock.writeLock().unlock();
+		}
+	}
+
+	public BookingResult updateReservationStatus(int cid, int fid, String status) throws SQLException {
+		int code = code(status, "WRC", "_status");
+		this._lock.writeLock().lock();
+		try {
+			Reservations t = this._reservations;
+			int row = t.pair.get(Reservations.pair(cid, fid));
+			if (row < 0)
+				return new BookingResult(BookingResult.Outcome.NOT_FOUND);
+			int old = t.status.values[row];
+			int delta = (holdsSeat(code) ? 1 : 0) - (holdsSeat(old) ? 1 : 0);
+			int flight = this._flights.row(fid);
+			int[] sold = this._flights.sold.values;
+			if (delta > 0) {
+				if (!hasSeat(flight))
+					return new BookingResult(BookingResult.Outcome.FULL);
+				++sold[flight];
+			} else if (delta < 0 && sold[flight] > 0) {
+				--sold[flight];
+			}
+			t.status.values[row] = code;
+			return new BookingResult(BookingResult.Outcome.UPDATED, t.id.values[row]);
+		} finally {
+			this._lock.writeLock().unlock();
+		}
+	}
+
+	public int availableSeats(int fnum, LocalDate departure) {
+		this._lock.readLock().lock();
+		try {
+			int flight = this._flights.row(fnum);
+			if (flight < 0 || this._flights.departure.values[flight] != (int) departure.toEpochDay())
+				return SeatInventory.UNKNOWN;
+			int capacity = capacity(fnum);
+			if (capacity == SeatInventory.UNKNOWN)
+				return SeatInventory.UNKNOWN;
+			return Math.max(0, capacity - this._flights.sold.values[flight]);
+		} finally {
+			this._lock.readLock().unlock();
+		}
+	}
+
+	public List<int[]> repairsPerPlane() {
+		List<int[]> groups = new ArrayList<int[]>();
+		this._lock.readLock().lock();
+		try {
+			// one counter per plane row, found through the primary key index
+			int[] repairs = new int[this._planes.size];
+			int[] plane = this._repairs.plane.values;
+			for (int row = 0; row < this._repairs.size; ++row)
+				++repairs[this._planes.row(plane[row])];
+			for (int row = 0; row < repairs.length; ++row)
+				if (repairs[row] > 0)
+					groups.add(new int[] { this._planes.id.values[row], repairs[row] });
+		} finally {
+			this._lock.readLock().unlock();
+		}
+		groups.sort((a, b) -> a[1] != b[1] ? Integer.compare(b[1], a[1]) : Integer.compare(a[0], b[0]));
+		return groups;
+	}
+
+	public List<int[]> repairsPerYear() {
+		Map<Integer, int[]> years = new HashMap<Integer, int[]>();
+		this._lock.readLock().lock();
+		try {
+			int[] date = this._repairs.date.values;
+			for (int row = 0; row < this._repairs.size; ++row) {
+				int year = LocalDate.ofEpochDay(date[row]).getYear();
+				int[] group = years.get(year);
+				if (group == null)
+					years.put(year, group = new int[] { year, 0 });
+				++group[1];
+			}
+		} finally {
+			this._lock.readLock().unlock();
+		}
+		List<int[]> groups = new ArrayList<int[]>(years.values());
+		groups.sort((a, b) -> a[1] != b[1] ? Integer.compare(a[1], b[1]) : Integer.compare(a[0], b[0]));
+		return groups;
+	}
+
+	public int passengersWithStatus(int fnum, String status) {
+		int code = status.length() == 1 ? status.charAt(0) : -1;
+		this._lock.readLock().lock();
+		try {
+			Reservations t = this._reservations;
+			int passengers = 0;
+			for (int row = t.byFlight.last(fnum); row >= 0; row = t.byFlight.previous(row))
+				if (t.status.values[row] == code)
+					++passengers;
+			return passengers;
+		} finally {
+			this._lock.readLock().unlock();
+		}
+	}
+
+	public RouteGraph getRouteGraph() {
+		RouteGraph routes = this._routes;
+		if (routes == null) {
+			// flights are added under the write lock, so none is missed or added twice
+			this._lock.readLock().lock();
+			try {
+				synchronized (this) {
+					routes = this._routes;
+					if (routes == null) {
+						routes = new RouteGraph();
+						Flights t = this._flights;
+						for (int row = 0; row < t.size; ++row)
+							routes.addFlight(t.id.values[row], t.cost.values[row],
+									LocalDate.ofEpochDay(t.departure.values[row]), LocalDate.ofEpochDay(t.arrival.values[row]),
+									t.departureAirport.values[row], t.arrivalAirport.values[row]);
+						this._routes = routes;
+					}
+				}
+			} finally {
+				this._lock.readLock().unlock();
+			}
+		}
+		return routes;
+	}
+
+	public Metrics getMetrics() {
+		return this._metrics;
+	}
+
+	/**
+	 * Method to return the number of rows of every table.
+	 *
+	 * @return table name -> rows
+	 */
+	public Map<String, Integer> getRowCounts() {
+		Map<String, Integer> counts = new LinkedHashMap<String, Integer>();
+		this._lock.readLock().lock();
+		try {
+			for (Table t : new Table[] { this._customers, this._pilots, this._planes, this._technicians, this._flights,
+					this._reservations, this._flightInfos, this._repairs, this._schedules })
+				counts.put(t.name, t.size);
+		} finally {
+			this._lock.readLock().unlock();
+		}
+		return counts;
+	}
+
+	/**
+	 * Method to load a data directory and report the time per table, and the
+	 * answers of queries 7 and 8.
+	 *
+	 * @param args the data directory, ../data by default
+	 */
+	public static void main(String[] args) {
+		try {
+			MemoryStore store = load(new File(args.length > 0 ? args[0] : "../data"));
+			System.out.println(store.getRowCounts());
+			System.out.println("repairs per plane: " + store.repairsPerPlane().size() + " planes, per year:");
+			for (int[] group : store.repairsPerYear())
+				System.out.println("  " + group[0] + " " + group[1]);
+		} catch (IOException | SQLException e) {
+			System.err.println(e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,396 @@
+import java.lang.management.ManagementFactory;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * This class keeps per-operation metrics for the client. Every named
+ * operation (AddPlane, BookFlight, ...) has a latency histogram and counts of
+ * calls, errors, rows returned and JDBC round trips.
+ *
+ * An operation runs from the outermost measure call on a thread. The execute
+ * methods and transactions it runs add their rows and round trips to it
+ * through the static rows and roundTrips methods. Execute methods called
+ * outside a named operation are recorded under their own method name.
+ *
+ * The operations can be published as MXBeans and written in Prometheus text
+ * format, see MetricsServer. Caches added with addCache and status
+ * coalescers added with addCoalescer are written next to them.
+ *
+ */
+
+public class Metrics {
+	public static final String JMX_DOMAIN = "DBproject";
+
+	// latency buckets of the Prometheus histogram, in seconds
+	static final String[] BUCKETS = { "0.0005", "0.001", "0.0025", "0.005", "0.01", "0.025", "0.05", "0.1", "0.25",
+			"0.5", "1", "2.5", "5", "10" };
+
+	/**
+	 * The attributes of one operation as seen over JMX.
+	 */
+	public interface OperationMXBean {
+		String getName();
+
+		long getCalls();
+
+		long getErrors();
+
+		long getRows();
+
+		long getRoundTrips();
+
+		double getMeanMillis();
+
+		double getP50Millis();
+
+		double getP99Millis();
+
+		double getP999Millis();
+
+		double getMaxMillis();
+	}
+
+	/**
+	 * The counters of one named operation.
+	 */
+	public static class Operation implements OperationMXBean {
+		private final String _name;
+		private final LatencyHistogram _latency = new LatencyHistogram();
+		private final LongAdder _errors = new LongAdder();
+		private final LongAdder _rows = new LongAdder();
+		private final LongAdder _roundTrips = new LongAdder();
+
+		Operation(String name) {
+			this._name = name;
+		}
+
+		void record(long nanos, boolean failed) {
+			this._latency.record(nanos);
+			if (failed)
+				this._errors.increment();
+		}
+
+		public String getName() {
+			return this._name;
+		}
+
+		public LatencyHistogram getLatency() {
+			return this._latency;
+		}
+
+		public long getCalls() {
+			return this._latency.count();
+		}
+
+		public long getErrors() {
+			return this._errors.sum();
+		}
+
+		public long getRows() {
+			return this._rows.sum();
+		}
+
+		public long getRoundTrips() {
+			return this._roundTrips.sum();
+		}
+
+		public double getMeanMillis() {
+			return this._latency.mean() / 1e6;
+		}
+
+		public double getP50Millis() {
+			return this._latency.percentile(50) / 1e6;
+		}
+
+		public double getP99Millis() {
+			return this._latency.percentile(99) / 1e6;
+		}
+
+		public double getP999Millis() {
+			return this._latency.percentile(99.9) / 1e6;
+		}
+
+		public double getMaxMillis() {
+			return this._latency.max() / 1e6;
+		}
+	}
+
+	/**
+	 * Work measured as one operation.
+	 */
+	public interface Work<T> {
+		T run() throws SQLException;
+	}
+
+	// the operation being measured on this thread
+	private static final ThreadLocal<Operation> CURRENT = new ThreadLocal<Operation>();
+
+	private final ConcurrentHashMap<String, Operation> _operations = new ConcurrentHashMap<String, Operation>();
+	private volatile MBeanServer _mbeans = null;
+	private final List<LruCache<?, ?>> _caches = new CopyOnWriteArrayList<LruCache<?, ?>>();
+	private final List<StatusCoalescer> _coalescers = new CopyOnWriteArrayList<StatusCoalescer>();
+
+	/**
+	 * Method to run work as the named operation. When the thread is already
+	 * inside an operation the work becomes part of it and is not counted as a
+	 * call of its own.
+	 *
+	 * @param name the operation name
+	 * @param work the work to run
+	 * @return the value returned by the work
+	 * @throws java.sql.SQLException when the work failed, counted as an error
+	 */
+	public <T> T measure(String name, Work<T> work) throws SQLException {
+		if (CURRENT.get() != null)
+			return work.run();
+		Operation operation = operation(name);
+		CURRENT.set(operation);
+		boolean failed = true;
+		long start = System.nanoTime();
+		try {
+			T result = work.run();
+			failed = false;
+			return result;
+		} finally {
+			operation.record(System.nanoTime() - start, failed);
+			CURRENT.remove();
+		}
+	}
+
+	/**
+	 * Method to add round trips to the server to the operation running on this
+	 * thread, if any.
+	 *
+	 * @param count the number of round trips
+	 */
+	public static void roundTrips(long count) {
+		Operation operation = CURRENT.get();
+		if (operation != null)
+			operation._roundTrips.add(count);
+	}
+
+	/**
+	 * Method to add rows read from a result set to the operation running on
+	 * this thread, if any.
+	 *
+	 * @param count the number of rows
+	 */
+	public static void rows(long count) {
+		Operation operation = CURRENT.get();
+		if (operation != null)
+			operation._rows.add(count);
+	}
+
+	/**
+	 * Method to return the named operation, creating it on first use.
+	 *
+	 * @param name the operation name
+	 * @return the operation counters
+	 */
+	public Operation operation(String name) {
+		Operation operation = this._operations.get(name);
+		if (operation != null)
+			return operation;
+		Operation created = new Operation(name);
+		operation = this._operations.putIfAbsent(name, created);
+		if (operation != null)
+			return operation;
+		MBeanServer mbeans = this._mbeans;
+		if (mbeans != null)
+			register(mbeans, created);
+		return created;
+	}
+
+	/**
+	 * Method to return the operations seen so far, sorted by name.
+	 *
+	 * @return the operations by name
+	 */
+	public Map<String, Operation> getOperations() {
+		return new TreeMap<String, Operation>(this._operations);
+	}
+
+	/**
+	 * Method to publish every operation, including ones created later, as an
+	 * MXBean on the platform MBean server.
+	 */
+	public synchronized void registerMBeans() {
+		if (this._mbeans != null)
+			return;
+		MBeanServer mbeans = ManagementFactory.getPlatformMBeanServer();
+		this._mbeans = mbeans;
+		for (Operation operation : this._operations.values())
+			register(mbeans, operation);
+	}
+
+	private static void register(MBeanServer mbeans, Operation operation) {
+		try {
+			ObjectName name = new ObjectName(
+					JMX_DOMAIN + ":type=Operation,name=" + ObjectName.quote(operation.getName()));
+			if (!mbeans.isRegistered(name))
+				mbeans.registerMBean(operation, name);
+		} catch (JMException e) {
+			// another client in this JVM published the name first
+		}
+	}
+
+	/**
+	 * Method to write every operation in the Prometheus text exposition format.
+	 *
+	 * @param out the buffer written to
+	 */
+	public void writePrometheus(StringBuilder out) {
+		Map<String, Operation> operations = getOperations();
+		long[] bounds = new long[BUCKETS.length + 1];
+		for (int b = 0; b < BUCKETS.length; ++b)
+			bounds[b] = (long) (Double.parseDouble(BUCKETS[b]) * TimeUnit.SECONDS.toNanos(1));
+		bounds[BUCKETS.length] = Long.MAX_VALUE;
+
+		out.append("# HELP dbproject_operation_duration_seconds Time taken by an operation, including connection waits.\n");
+		out.append("# TYPE dbproject_operation_duration_seconds histogram\n");
+		for (Operation operation : operations.values()) {
+			String label = label(operation.getName());
+			LatencyHistogram latency = operation.getLatency();
+			long[] counts = latency.cumulativeCounts(bounds);
+			for (int b = 0; b < BUCKETS.length; ++b)
+				out.append("dbproject_operation_duration_seconds_bucket{operation=").append(label).append(",le=\"")
+						.append(BUCKETS[b]).append("\"} ").append(counts[b]).append('\n');
+			long count = counts[BUCKETS.length];
+			out.append("dbproject_operation_duration_seconds_bucket{operation=").append(label).append(",le=\"+Inf\"} ")
+					.append(count).append('\n');
+			out.append("dbproject_operation_duration_seconds_sum{operation=").append(label).append("} ")
+					.append(latency.sum() / 1e9).append('\n');
+			out.append("dbproject_operation_duration_seconds_count{operation=").append(label).append("} ")
+					.append(count).append('\n');
+		}
+		counter(out, operations, "errors", "Operations that ended with an exception.", Operation::getErrors);
+		counter(out, operations, "rows", "Rows read from result sets.", Operation::getRows);
+		counter(out, operations, "round_trips", "Requests sent to the server and waited on.", Operation::getRoundTrips);
+
+		writeCoalescers(out);
+		if (this._caches.isEmpty())
+			return;
+		cacheCounter(out, "hits", "Lookups answered from the cache.", LruCache::getHits);
+		cacheCounter(out, "misses", "Lookups that loaded from the database.", LruCache::getMisses);
+		cacheCounter(out, "evictions", "Entries dropped to stay within the size bound.", LruCache::getEvictions);
+		cacheCounter(out, "expirations", "Entries dropped after their time to live.", LruCache::getExpirations);
+		out.append("# HELP dbproject_cache_size Entries held by the cache.\n");
+		out.append("# TYPE dbproject_cache_size gauge\n");
+		for (LruCache<?, ?> cache : this._caches)
+			out.append("dbproject_cache_size{cache=").append(label(cache.getName())).append("} ").append(cache.size())
+					.append('\n');
+	}
+
+	private interface CacheCounter {
+		long get(LruCache<?, ?> cache);
+	}
+
+	private void cacheCounter(StringBuilder out, String name, String help, CacheCounter counter) {
+		out.append("# HELP dbproject_cache_").append(name).append("_total ").append(help).append('\n');
+		out.append("# TYPE dbproject_cache_").append(name).append("_total counter\n");
+		for (LruCache<?, ?> cache : this._caches)
+			out.append("dbproject_cache_").append(name).append("_total{cache=").append(label(cache.getName()))
+					.append("} ").append(counter.get(cache)).append('\n');
+	}
+
+	/**
+	 * Method to publish the statistics of a cache with the operations.
+	 *
+	 * @param cache the cache
+	 */
+	public void addCache(LruCache<?, ?> cache) {
+		this._caches.add(cache);
+	}
+
+	/**
+	 * Method to publish the batch sizes and round trips of a status coalescer
+	 * with the operations.
+	 *
+	 * @param coalescer the status coalescer
+	 */
+	public void addCoalescer(StatusCoalescer coalescer) {
+		this._coalescers.add(coalescer);
+	}
+
+	// batch sizes of the status coalescer histogram
+	static final long[] BATCH_SIZES = { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, Long.MAX_VALUE };
+
+	private void writeCoalescers(StringBuilder out) {
+		if (this._coalescers.isEmpty())
+			return;
+		String[] names = { "changes", "written", "batches", "round_trips", "round_trips_saved" };
+		String[] helps = { "Status changes asked for.", "Reservations written after repeated changes were collapsed.",
+				"Windows written, one statement and transaction each.", "Round trips taken by the windows written.",
+				"Round trips the changes would have taken one at a time, less the ones taken." };
+		for (int n = 0; n < names.length; ++n) {
+			out.append("# HELP dbproject_coalescer_").append(names[n]).append("_total ").append(helps[n]).append('\n');
+			out.append("# TYPE dbproject_coalescer_").append(names[n]).append("_total counter\n");
+			for (int c = 0; c < this._coalescers.size(); ++c) {
+				StatusCoalescer coalescer = this._coalescers.get(c);
+				long[] values = { coalescer.getChanges(), coalescer.getWritten(), coalescer.getBatches(),
+						coalescer.getRoundTrips(), coalescer.getRoundTripsSaved() };
+				out.append("dbproject_coalescer_").append(names[n]).append("_total{coalescer=\"").append(c)
+						.append("\"} ").append(values[n]).append('\n');
+			}
+		}
+		out.append("# HELP dbproject_coalescer_batch_size Status changes asked for per window written.\n");
+		out.append("# TYPE dbproject_coalescer_batch_size histogram\n");
+		for (int c = 0; c < this._coalescers.size(); ++c) {
+			LatencyHistogram sizes = this._coalescers.get(c).getBatchSizes();
+			long[] counts = sizes.cumulativeCounts(BATCH_SIZES);
+			for (int b = 0; b < BATCH_SIZES.length; ++b)
+				out.append("dbproject_coalescer_batch_size_bucket{coalescer=\"").append(c).append("\",le=\"")
+						.append(b + 1 < BATCH_SIZES.length ? String.valueOf(BATCH_SIZES[b]) : "+Inf").append("\"} ")
+						.append(counts[b]).append('\n');
+			out.append("dbproject_coalescer_batch_size_sum{coalescer=\"").append(c).append("\"} ").append(sizes.sum())
+					.append('\n');
+			out.append("dbproject_coalescer_batch_size_count{coalescer=\"").append(c).append("\"} ")
+					.append(counts[BATCH_SIZES.length - 1]).append('\n');
+		}
+	}
+
+	private interface Counter {
+		long get(Operation operation);
+	}
+
+	private static void counter(StringBuilder out, Map<String, Operation> operations, String name, String help,
+			Counter counter) {
+		out.append("# HELP dbproject_operation_").append(name).append("_total ").append(help).append('\n');
+		out.append("# TYPE dbproject_operation_").append(name).append("_total counter\n");
+		for (Operation operation : operations.values())
+			out.append("dbproject_operation_").append(name).append("_total{operation=")
+					.append(label(operation.getName())).append("} ").append(counter.get(operation)).append('\n');
+	}
+
+	// quotes a label value, escaping the characters the format reserves
+	private static String label(String value) {
+		return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + "\"";
+	}
+
+	/**
+	 * Method to format one line per operation.
+	 *
+	 * @return the operation summaries
+	 */
+	public String summary() {
+		StringBuilder out = new StringBuilder();
+		for (Operation operation : getOperations().values())
+			out.append(String.format("%-36s calls=%d errors=%d rows=%d round trips=%d %s%n", operation.getName(),
+					operation.getCalls(), operation.getErrors(), operation.getRows(), operation.getRoundTrips(),
+					operation.getLatency().summary()));
+		for (LruCache<?, ?> cache : this._caches)
+			out.append(cache.stats()).append('\n');
+		for (StatusCoalescer coalescer : this._coalescers)
+			out.append(coalescer.stats()).append('\n');
+		return out.toString();
+	}
+}
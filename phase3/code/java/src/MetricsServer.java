@@ -0,0 +1,63 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class serves the client metrics in Prometheus text format at
+ * http://localhost:port/metrics. It listens on the loopback interface only;
+ * requests are answered on the server's single dispatcher thread.
+ *
+ */
+
+public class MetricsServer {
+	static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	private final HttpServer _server;
+
+	/**
+	 * Method to start serving the metrics.
+	 *
+	 * @param metrics the metrics to serve
+	 * @param port    the local port, 0 picks a free one
+	 * @throws java.io.IOException when the port could not be bound
+	 */
+	public MetricsServer(Metrics metrics, int port) throws IOException {
+		this._server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		this._server.createContext("/metrics", exchange -> scrape(exchange, metrics));
+		this._server.start();
+	}
+
+	private static void scrape(HttpExchange exchange, Metrics metrics) throws IOException {
+		try {
+			if (!exchange.getRequestMethod().equals("GET")) {
+				exchange.sendResponseHeaders(405, -1);
+				return;
+			}
+			StringBuilder text = new StringBuilder();
+			metrics.writePrometheus(text);
+			byte[] body = text.toString().getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+			exchange.sendResponseHeaders(200, body.length);
+			OutputStream out = exchange.getResponseBody();
+			out.write(body);
+			out.close();
+		} finally {
+			exchange.close();
+		}
+	}
+
+	public int getPort() {
+		return this._server.getAddress().getPort();
+	}
+
+	/**
+	 * Method to stop serving and close the listening socket.
+	 */
+	public void stop() {
+		this._server.stop(0);
+	}
+}
@@ -0,0 +1,205 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class manages the monthly partitions of the schema in
+ * sql/create-partitioned.sql. Creating a month moves the rows of that month
+ * out of the DEFAULT partition into a new table and attaches it, so months
+ * can be created before or after the data is loaded. Detaching a month turns
+ * it into a plain table that no query sees any more, and optionally drops it;
+ * the counts of sql/create-aggregates.sql are recounted afterwards.
+ *
+ */
+
+public class PartitionTool {
+	/**
+	 * A partitioned table and the date column it is split by.
+	 */
+	static class Partitioned {
+		final String name;
+		final String key;
+
+		Partitioned(String name, String key) {
+			this.name = name;
+			this.key = key;
+		}
+	}
+
+	// in creation order, a month of reservations references the same month of flights
+	static final Partitioned[] TABLES = {
+		new Partitioned("Flight", "actual_departure_date"),
+		new Partitioned("Reservation", "flight_date"),
+		new Partitioned("Repairs", "repair_date"),
+	};
+
+	static final String SELECT_ALL_PARTITIONS = "SELECT I.inhparent::regclass AS \"table\", C.relname AS partition,\n"
+			+ "pg_get_expr(C.relpartbound, C.oid) AS bounds, C.reltuples::bigint AS rows,\n"
+			+ "pg_size_pretty(pg_total_relation_size(C.oid)) AS size\n"
+			+ "FROM pg_inherits I JOIN pg_class C ON C.oid = I.inhrelid\n"
+			+ "WHERE I.inhparent IN (to_regclass('flight'), to_regclass('reservation'), to_regclass('repairs'))\nORDER BY 1, 2";
+	static final String SELECT_PARTITIONS = "SELECT C.relname, pg_get_expr(C.relpartbound, C.oid)\n"
+			+ "FROM pg_inherits I JOIN pg_class C ON C.oid = I.inhrelid\nWHERE I.inhparent = to_regclass(?)\nORDER BY 1";
+	// the refresh functions exist once sql/create-aggregates.sql has run
+	static final String[] REFRESH_AGGREGATES = { "refresh_repair_aggregates", "refresh_reservation_counts" };
+
+	private static final Pattern RANGE = Pattern.compile("FOR VALUES FROM \\('([^']*)'\\) TO \\('([^']*)'\\)");
+	private static final DateTimeFormatter SUFFIX = DateTimeFormatter.ofPattern("yyyyMM");
+
+	private final DBproject _esql;
+
+	public PartitionTool(DBproject esql) {
+		this._esql = esql;
+	}
+
+	static String partitionName(Partitioned t, YearMonth month) {
+		return t.name.toLowerCase() + "_" + month.format(SUFFIX);
+	}
+
+	/**
+	 * Method to print every partition with its bounds, estimated rows and size.
+	 *
+	 * @return the number of partitions
+	 * @throws java.sql.SQLException when the catalog could not be read
+	 */
+	public int list() throws SQLException {
+		return this._esql.executeQueryAndPrintResult(SELECT_ALL_PARTITIONS);
+	}
+
+	/**
+	 * Method to create the monthly partitions of every table for a range of
+	 * months. Months that already have a partition are left alone.
+	 *
+	 * @param from the first month
+	 * @param to   the month after the last one
+	 * @return the number of partitions created
+	 * @throws java.sql.SQLException when a partition could not be created
+	 */
+	public int create(YearMonth from, YearMonth to) throws SQLException {
+		int created = 0;
+		for (Partitioned t : TABLES)
+			created += create(t, from, to);
+		return created;
+	}
+
+	/**
+	 * Method to create the monthly partitions of one table for a range of
+	 * months, one transaction per month.
+	 *
+	 * @param t    the table
+	 * @param from the first month
+	 * @param to   the month after the last one
+	 * @return the number of partitions created
+	 * @throws java.sql.SQLException when a partition could not be created
+	 */
+	public int create(Partitioned t, YearMonth from, YearMonth to) throws SQLException {
+		List<String> existing = new ArrayList<String>();
+		for (List<String> row : this._esql.executeQueryAndReturnResult(SELECT_PARTITIONS, t.name.toLowerCase()))
+			existing.add(row.get(0));
+		if (existing.isEmpty())
+			throw new SQLException(t.name + " is not partitioned, create the schema with sql/create-partitioned.sql");
+
+		int created = 0;
+		for (YearMonth month = from; month.isBefore(to); month = month.plusMonths(1)) {
+			String name = partitionName(t, month);
+			if (existing.contains(name))
+				continue;
+			LocalDate start = month.atDay(1), end = month.plusMonths(1).atDay(1);
+			long begin = System.nanoTime();
+			int moved = this._esql.withConnection(pc -> {
+				Connection conn = pc.getConnection();
+				conn.setAutoCommit(false);
+				Statement stmt = conn.createStatement();
+				// the flights of the month leave the default partition before their reservations do
+				stmt.execute("SET CONSTRAINTS ALL DEFERRED");
+				stmt.execute("CREATE TABLE " + name + " (LIKE " + t.name + " INCLUDING DEFAULTS INCLUDING CONSTRAINTS)");
+				int rows = stmt.executeUpdate("WITH moved AS (\nDELETE FROM " + t.name + "_default\nWHERE " + t.key
+						+ " >= DATE '" + start + "' AND " + t.key + " < DATE '" + end + "'\nRETURNING *)\nINSERT INTO "
+						+ name + " SELECT * FROM moved");
+				stmt.execute("ALTER TABLE " + t.name + " ATTACH PARTITION " + name + " FOR VALUES FROM ('" + start
+						+ "') TO ('" + end + "')");
+				stmt.close();
+				conn.commit();
+				return rows;
+			});
+			System.out.printf("created %-20s %10d rows moved in %.1f ms%n", name, moved, (System.nanoTime() - begin) / 1e6);
+			++created;
+		}
+		return created;
+	}
+
+	/**
+	 * Method to detach every monthly partition that ends on or before a month,
+	 * reservations before the flights they reference.
+	 *
+	 * @param before the first month that is kept
+	 * @param drop   whether to drop the detached tables
+	 * @return the number of partitions detached
+	 * @throws java.sql.SQLException when a partition could not be detached
+	 */
+	public int detach(YearMonth before, boolean drop) throws SQLException {
+		LocalDate keep = before.atDay(1);
+		int detached = 0;
+		for (int i = TABLES.length - 1; i >= 0; --i) {
+			Partitioned t = TABLES[i];
+			for (List<String> row : this._esql.executeQueryAndReturnResult(SELECT_PARTITIONS, t.name.toLowerCase())) {
+				Matcher range = RANGE.matcher(row.get(1));
+				// the default partition has no range and is never detached
+				if (!range.matches() || LocalDate.parse(range.group(2)).isAfter(keep))
+					continue;
+				this._esql.executeUpdate("ALTER TABLE " + t.name + " DETACH PARTITION " + row.get(0));
+				if (drop)
+					this._esql.executeUpdate("DROP TABLE " + row.get(0));
+				System.out.println((drop ? "dropped " : "detached ") + row.get(0));
+				++detached;
+			}
+		}
+		if (detached > 0) {
+			// detaching fires no delete triggers, so the counts still hold the old rows
+			for (String refresh : REFRESH_AGGREGATES)
+				if (this._esql.executeQueryAndReturnResult("SELECT to_regproc(?) IS NOT NULL", refresh).get(0).get(0).equals("t"))
+					this._esql.executeQuery("SELECT " + refresh + "()");
+		}
+		return detached;
+	}
+
+	/**
+	 * Method to run the tool from the command line mode of DBproject.
+	 *
+	 * @param esql the database client
+	 * @param args list, create FROM TO, or detach BEFORE [--drop], with months
+	 *             given as YYYY-MM
+	 */
+	public static void run(DBproject esql, String[] args) {
+		PartitionTool tool = new PartitionTool(esql);
+		try {
+			String command = args.length > 0 ? args[0] : "list";
+			switch (command) {
+				case "list":
+					tool.list();
+					break;
+				case "create":
+					if (args.length != 3)
+						throw new IllegalArgumentException("create expects FROM TO as YYYY-MM");
+					System.out.println(tool.create(YearMonth.parse(args[1]), YearMonth.parse(args[2])) + " partition(s) created");
+					break;
+				case "detach":
+					if (args.length != 2 && !(args.length == 3 && args[2].equals("--drop")))
+						throw new IllegalArgumentException("detach expects BEFORE as YYYY-MM [--drop]");
+					System.out.println(tool.detach(YearMonth.parse(args[1]), args.length == 3) + " partition(s) detached");
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown partitions command: " + command);
+			}
+		} catch (SQLException e) {
+			System.err.println(e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,495 @@
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * This class runs EXPLAIN (ANALYZE, BUFFERS) on every statement the client
+ * sends and on the statements in sql/queries.sql, so index changes can be
+ * judged on the plans they produce. For each statement it reports the
+ * execution and planning time, the shared buffers hit and read, and the plan
+ * shape: node types with the tables and indexes they touch.
+ *
+ * It flags
+ *   - sequential scans of tables with at least SEQ_SCAN_MIN_ROWS rows,
+ *   - plans whose shape differs from a saved baseline,
+ *   - execution times more than TOLERANCE above the baseline,
+ *   - indexes no statement used, and indexes whose columns lead a primary key
+ *     or unique index and so duplicate it.
+ *
+ * Statements run with sample keys drawn from the loaded data, inside a
+ * transaction that is always rolled back, so writes leave no trace. Each one
+ * runs RUNS times and the fastest run is kept. Parameters are bound like the
+ * client binds them, so the planner sees the same custom plans the first
+ * executions of a prepared statement get.
+ *
+ */
+
+public class PlanCheck {
+	// a time regression is flagged when a statement is this much slower, and by at least NOISE_MILLIS
+	private static final double TOLERANCE = 0.25;
+	private static final double NOISE_MILLIS = 1.0;
+	private static final int RUNS = 3;
+	// smaller tables are cheaper to scan than to look up through an index
+	static final long SEQ_SCAN_MIN_ROWS = 10000;
+
+	static final String SELECT_TABLE_ROWS = "SELECT c.relname, c.reltuples::bigint\nFROM pg_class c JOIN pg_namespace n ON n.oid = c.relnamespace\n"
+			+ "WHERE n.nspname = current_schema() AND c.relkind IN ('r', 'p')";
+	// every index with the primary key or unique index whose leading columns it repeats
+	static final String SELECT_INDEXES = "SELECT ci.relname AS index_name, ct.relname AS table_name, i.indisunique,\n"
+			+ "(SELECT cp.relname FROM pg_index p JOIN pg_class cp ON cp.oid = p.indexrelid\n"
+			+ " WHERE p.indrelid = i.indrelid AND p.indexrelid <> i.indexrelid AND p.indisunique AND NOT i.indisunique\n"
+			+ " AND i.indexprs IS NULL AND i.indpred IS NULL\n"
+			+ " AND (p.indkey::text = i.indkey::text OR p.indkey::text LIKE i.indkey::text || ' %') LIMIT 1) AS duplicate_of\n"
+			+ "FROM pg_index i JOIN pg_class ci ON ci.oid = i.indexrelid JOIN pg_class ct ON ct.oid = i.indrelid\n"
+			+ "JOIN pg_namespace n ON n.oid = ct.relnamespace\nWHERE n.nspname = current_schema()\nORDER BY 2, 1";
+
+	/**
+	 * One statement to explain with the values bound to its placeholders.
+	 */
+	static class Probe {
+		final String name;
+		final String sql;
+		final Object[] params;
+
+		Probe(String name, String sql, Object... params) {
+			this.name = name;
+			this.sql = sql;
+			this.params = params;
+		}
+	}
+
+	/**
+	 * What EXPLAIN reported for one probe.
+	 */
+	static class Plan {
+		String shape;
+		double executionMillis;
+		double planningMillis;
+		long sharedHit;
+		long sharedRead;
+		String json;
+		final List<String> seqScans = new ArrayList<String>();
+		final TreeSet<String> indexes = new TreeSet<String>();
+	}
+
+	private final DBproject _esql;
+	private final Map<String, Plan> _plans = new TreeMap<String, Plan>();
+	private final Map<String, Long> _tableRows = new HashMap<String, Long>();
+	// index -> table, and the index it duplicates for those that repeat a unique one
+	private final Map<String, String> _indexTables = new TreeMap<String, String>();
+	private final Map<String, String> _duplicates = new TreeMap<String, String>();
+	private final TreeSet<String> _uniqueIndexes = new TreeSet<String>();
+
+	public PlanCheck(DBproject esql) {
+		this._esql = esql;
+	}
+
+	/**
+	 * Method to build the probes for the statements the client sends, with keys
+	 * sampled from the loaded data.
+	 *
+	 * @return the probes
+	 * @throws java.sql.SQLException when the data could not be sampled
+	 */
+	List<Probe> clientProbes() throws SQLException {
+		List<List<String>> flight = this._esql.executeQueryAndReturnResult(
+				"SELECT F.fnum, F.actual_departure_date FROM Flight F, FlightInfo FI WHERE FI.flight_id = F.fnum ORDER BY F.fnum LIMIT 1");
+		List<List<String>> reservation = this._esql.executeQueryAndReturnResult(
+				"SELECT cid, fid, status FROM Reservation ORDER BY rnum LIMIT 1");
+		List<List<String>> ids = this._esql.executeQueryAndReturnResult(
+				"SELECT (SELECT MIN(id) FROM Plane), (SELECT MIN(id) FROM Pilot), (SELECT MIN(id) FROM Technician),\n"
+						+ "(SELECT COALESCE(MAX(id), 0) + 1 FROM Plane), (SELECT COALESCE(MAX(id), 0) + 1 FROM Pilot),\n"
+						+ "(SELECT COALESCE(MAX(fnum), 0) + 1 FROM Flight), (SELECT COALESCE(MAX(id), 0) + 1 FROM Technician)");
+		if (flight.isEmpty() || reservation.isEmpty() || ids.get(0).get(0) == null)
+			throw new IllegalStateException("Load the data before checking plans, see load.sh");
+
+		int fnum = Integer.parseInt(flight.get(0).get(0));
+		java.sql.Date departure = java.sql.Date.valueOf(LocalDate.parse(flight.get(0).get(1)));
+		int cid = Integer.parseInt(reservation.get(0).get(0));
+		int fid = Integer.parseInt(reservation.get(0).get(1));
+		String status = reservation.get(0).get(2);
+		// the statements a partitioned schema runs instead, see DBproject.partitionDate
+		java.sql.Date date = this._esql.partitionDate(fid);
+		int[] id = new int[7];
+		for (int i = 0; i < id.length; ++i)
+			id[i] = Integer.parseInt(ids.get(0).get(i));
+
+		List<Probe> probes = new ArrayList<Probe>();
+		probes.add(new Probe("q1.insert_plane", DBproject.INSERT_PLANE, id[3], "Probe", "Probe", 1, 100));
+		probes.add(new Probe("q2.insert_pilot", DBproject.INSERT_PILOT, id[4], "Probe", "Probe"));
+		probes.add(new Probe("q3.insert_flight", DBproject.INSERT_FLIGHT, id[5], 100, 0, 0, departure, departure,
+				"PRB1", "PRB2"));
+		probes.add(new Probe("q4.insert_technician", DBproject.INSERT_TECHNICIAN, id[6], "Probe"));
+		probes.add(new Probe("q5.select_for_update", date == null ? DBproject.SELECT_RESERVATION_FOR_UPDATE
+				: DBproject.SELECT_RESERVATION_FOR_UPDATE_ON, DBproject.dated(date, cid, fid)));
+		probes.add(new Probe("q5.insert_reservation", date == null ? DBproject.INSERT_NEW_RESERVATION
+				: DBproject.INSERT_NEW_RESERVATION_ON, DBproject.dated(date, cid, fid, status)));
+		probes.add(new Probe("q5.take_seat", date == null ? DBproject.TAKE_SEAT : DBproject.TAKE_SEAT_ON,
+				DBproject.dated(date, fid)));
+		probes.add(new Probe("q5.release_seat", date == null ? DBproject.RELEASE_SEAT : DBproject.RELEASE_SEAT_ON,
+				DBproject.dated(date, fid)));
+		probes.add(new Probe("q5.update_status", date == null ? DBproject.UPDATE_RESERVATION_STATUS
+				: DBproject.UPDATE_RESERVATION_STATUS_ON, DBproject.dated(date, status, cid, fid)));
+		probes.add(new Probe("q5.select_status", date == null ? DBproject.SELECT_RESERVATION_STATUS
+				: DBproject.SELECT_RESERVATION_STATUS_ON, DBproject.dated(date, cid, fid)));
+		probes.add(new Probe("q6.available_seats", DBproject.SELECT_AVAILABLE_SEATS, fnum, fnum, departure));
+		probes.add(new Probe("q7.repairs_per_plane", DBproject.SELECT_REPAIRS_PER_PLANE));
+		probes.add(new Probe("q7.scan", RepairAggregates.SCAN_REPAIRS_PER_PLANE));
+		probes.add(new Probe("q8.repairs_per_year", DBproject.SELECT_REPAIRS_PER_YEAR));
+		probes.add(new Probe("q8.scan", RepairAggregates.SCAN_REPAIRS_PER_YEAR));
+		probes.add(new Probe("q9.passengers_with_status", DBproject.COUNT_PASSENGERS_WITH_STATUS, fid, status));
+		probes.add(new Probe("q9.scan", DBproject.SCAN_PASSENGERS_WITH_STATUS, fid, status));
+		probes.add(new Probe("cache.plane", ReferenceCache.SELECT_PLANE, id[0]));
+		probes.add(new Probe("cache.pilot", ReferenceCache.SELECT_PILOT, id[1]));
+		probes.add(new Probe("cache.technician", ReferenceCache.SELECT_TECHNICIAN, id[2]));
+		probes.add(new Probe("cache.flightinfo", ReferenceCache.SELECT_FLIGHT_INFO, fnum));
+		probes.add(new Probe("load.seats", SeatInventory.SELECT_SEATS));
+		probes.add(new Probe("load.reservation_counts", ReservationCounters.SELECT_COUNTS));
+		probes.add(new Probe("load.routes", RouteGraph.SELECT_FLIGHTS));
+		probes.add(new Probe("check.repairs_per_plane", RepairAggregates.CHECK_REPAIRS_PER_PLANE));
+		probes.add(new Probe("check.repairs_per_year", RepairAggregates.CHECK_REPAIRS_PER_YEAR));
+		return probes;
+	}
+
+	/**
+	 * Method to read the statements of a SQL script, one probe each, named
+	 * after the script and the line the statement starts on.
+	 *
+	 * @param file the script
+	 * @return the probes
+	 * @throws java.io.IOException when the script could not be read
+	 */
+	static List<Probe> scriptProbes(Path file) throws IOException {
+		StringBuilder text = new StringBuilder();
+		for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+			int comment = line.indexOf("--");
+			text.append(comment >= 0 ? line.substring(0, comment) : line).append('\n');
+		}
+		List<Probe> probes = new ArrayList<Probe>();
+		StringBuilder sql = new StringBuilder();
+		int line = 1, startLine = 1;
+		char quote = 0;
+		for (int i = 0; i < text.length(); ++i) {
+			char c = text.charAt(i);
+			if (quote != 0) {
+				if (c == quote)
+					quote = 0;
+			} else if (c == '\'' || c == '"') {
+				quote = c;
+			} else if (c == ';') {
+				if (sql.toString().trim().length() > 0)
+					probes.add(new Probe(file.getFileName() + ":" + startLine, sql.toString().trim()));
+				sql.setLength(0);
+				continue;
+			}
+			if (sql.toString().trim().isEmpty() && !Character.isWhitespace(c))
+				startLine = line;
+			sql.append(c);
+			if (c == '\n')
+				++line;
+		}
+		if (sql.toString().trim().length() > 0)
+			probes.add(new Probe(file.getFileName() + ":" + startLine, sql.toString().trim()));
+		return probes;
+	}
+
+	/**
+	 * Method to explain every probe and read the table sizes and indexes the
+	 * checks need.
+	 *
+	 * @param probes the statements to explain
+	 * @throws java.sql.SQLException when a statement could not be explained
+	 */
+	public void run(List<Probe> probes) throws SQLException {
+		this._esql.withConnection(pc -> {
+			Statement stmt = pc.getConnection().createStatement();
+			ResultSet rs = stmt.executeQuery(SELECT_TABLE_ROWS);
+			while (rs.next())
+				this._tableRows.put(rs.getString(1), rs.getLong(2));
+			rs.close();
+			rs = stmt.executeQuery(SELECT_INDEXES);
+			while (rs.next()) {
+				this._indexTables.put(rs.getString(1), rs.getString(2));
+				if (rs.getBoolean(3))
+					this._uniqueIndexes.add(rs.getString(1));
+				if (rs.getString(4) != null)
+					this._duplicates.put(rs.getString(1), rs.getString(4));
+			}
+			rs.close();
+			stmt.close();
+			return null;
+		});
+		for (Probe probe : probes) {
+			try {
+				this._plans.put(probe.name, explain(probe));
+			} catch (SQLException e) {
+				throw new SQLException(probe.name + ": " + e.getMessage(), e.getSQLState(), e);
+			}
+		}
+	}
+
+	// explains a probe RUNS times in rolled-back transactions, keeps the fastest run
+	private Plan explain(Probe probe) throws SQLException {
+		return this._esql.withConnection(pc -> {
+			Connection conn = pc.getConnection();
+			conn.setAutoCommit(false);
+			try (PreparedStatement stmt = conn.prepareStatement("EXPLAIN (ANALYZE, BUFFERS, FORMAT JSON) " + probe.sql)) {
+				StatementCache.bind(stmt, probe.params);
+				Plan best = null;
+				for (int run = 0; run < RUNS; ++run) {
+					String json;
+					try (ResultSet rs = stmt.executeQuery()) {
+						rs.next();
+						json = rs.getString(1);
+					} finally {
+						conn.rollback();
+					}
+					Plan plan = parse(json);
+					if (best == null || plan.executionMillis < best.executionMillis)
+						best = plan;
+				}
+				return best;
+			} finally {
+				conn.rollback();
+				conn.setAutoCommit(true);
+			}
+		});
+	}
+
+	@SuppressWarnings("unchecked")
+	private Plan parse(String json) {
+		Map<String, Object> root = (Map<String, Object>) ((List<Object>) Json.parse(json)).get(0);
+		Map<String, Object> node = (Map<String, Object>) root.get("Plan");
+		Plan plan = new Plan();
+		plan.json = json;
+		plan.executionMillis = number(root.get("Execution Time"));
+		plan.planningMillis = number(root.get("Planning Time"));
+		// the top node's buffers include those of every node below it
+		plan.sharedHit = (long) number(node.get("Shared Hit Blocks"));
+		plan.sharedRead = (long) number(node.get("Shared Read Blocks"));
+		StringBuilder shape = new StringBuilder();
+		walk(node, plan, shape);
+		plan.shape = shape.toString();
+		return plan;
+	}
+
+	// appends the shape of a node and its children, collecting scans and indexes
+	@SuppressWarnings("unchecked")
+	private void walk(Map<String, Object> node, Plan plan, StringBuilder shape) {
+		String type = (String) node.get("Node Type");
+		String relation = (String) node.get("Relation Name");
+		String index = (String) node.get("Index Name");
+		shape.append(type);
+		if (relation != null)
+			shape.append(" on ").append(relation);
+		if (index != null) {
+			shape.append(" using ").append(index);
+			plan.indexes.add(index);
+		}
+		if (type.equals("Seq Scan") && relation != null
+				&& this._tableRows.getOrDefault(relation, 0L) >= SEQ_SCAN_MIN_ROWS)
+			plan.seqScans.add(relation);
+		List<Object> children = (List<Object>) node.get("Plans");
+		if (children == null)
+			return;
+		shape.append(" (");
+		for (int i = 0; i < children.size(); ++i) {
+			if (i > 0)
+				shape.append(", ");
+			walk((Map<String, Object>) children.get(i), plan, shape);
+		}
+		shape.append(')');
+	}
+
+	private static double number(Object value) {
+		return value == null ? 0 : ((Number) value).doubleValue();
+	}
+
+	/**
+	 * Method to print every plan with its flags, then the unused and duplicate
+	 * indexes.
+	 *
+	 * @return the number of sequential scans of large tables
+	 */
+	public int report() {
+		int seqScans = 0;
+		System.out.println("-----------------------------------------------------------------");
+		System.out.printf("%-32s %10s %10s %10s %10s%n", "statement", "exec ms", "plan ms", "hit", "read");
+		for (Map.Entry<String, Plan> e : this._plans.entrySet()) {
+			Plan plan = e.getValue();
+			System.out.printf("%-32s %10.3f %10.3f %10d %10d%n", e.getKey(), plan.executionMillis, plan.planningMillis,
+					plan.sharedHit, plan.sharedRead);
+			System.out.println("    " + plan.shape);
+			for (String table : plan.seqScans) {
+				System.out.println("    SEQ SCAN on " + table + " (" + this._tableRows.get(table) + " rows)");
+				++seqScans;
+			}
+		}
+		System.out.println("-----------------------------------------------------------------");
+		for (String index : getUnusedIndexes())
+			System.out.println("UNUSED INDEX " + index + " on " + this._indexTables.get(index));
+		for (Map.Entry<String, String> e : this._duplicates.entrySet())
+			System.out.println("DUPLICATE INDEX " + e.getKey() + " repeats " + e.getValue());
+		System.out.println("-----------------------------------------------------------------");
+		return seqScans;
+	}
+
+	// indexes no probe used, primary keys and unique indexes are kept for their constraint
+	public List<String> getUnusedIndexes() {
+		TreeSet<String> used = new TreeSet<String>();
+		for (Plan plan : this._plans.values())
+			used.addAll(plan.indexes);
+		List<String> unused = new ArrayList<String>();
+		for (String index : this._indexTables.keySet())
+			if (!used.contains(index) && !this._uniqueIndexes.contains(index))
+				unused.add(index);
+		return unused;
+	}
+
+	/**
+	 * Method to write every plan as a JSON file named after its statement.
+	 *
+	 * @param dir the directory written to, created when missing
+	 * @throws java.io.IOException when a file could not be written
+	 */
+	public void savePlans(String dir) throws IOException {
+		Path path = Files.createDirectories(Paths.get(dir));
+		for (Map.Entry<String, Plan> e : this._plans.entrySet())
+			Files.write(path.resolve(e.getKey().replaceAll("[^A-Za-z0-9_.-]", "_") + ".json"),
+					e.getValue().json.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Method to write the plan shapes, times and index usage of this run as a
+	 * baseline.
+	 *
+	 * @param file the properties file to write
+	 * @throws java.io.IOException when the file could not be written
+	 */
+	public void save(String file) throws IOException {
+		Properties props = new Properties();
+		for (Map.Entry<String, Plan> e : this._plans.entrySet()) {
+			props.setProperty(e.getKey() + ".shape", e.getValue().shape);
+			props.setProperty(e.getKey() + ".ms", String.format("%.4f", e.getValue().executionMillis));
+		}
+		for (String index : getUnusedIndexes())
+			props.setProperty("index." + index + ".unused", "true");
+		try (Writer out = new FileWriter(file)) {
+			props.store(out, "DBproject plans, runs=" + RUNS);
+		}
+	}
+
+	/**
+	 * Method to compare this run with a saved baseline.
+	 *
+	 * @param file the baseline properties file
+	 * @return the number of changed plans, slower statements and newly unused
+	 *         indexes
+	 * @throws java.io.IOException when the baseline could not be read
+	 */
+	public int compare(String file) throws IOException {
+		Properties baseline = new Properties();
+		try (Reader in = new FileReader(file)) {
+			baseline.load(in);
+		}
+		int regressions = 0;
+		for (Map.Entry<String, Plan> e : this._plans.entrySet()) {
+			Plan plan = e.getValue();
+			String shape = baseline.getProperty(e.getKey() + ".shape");
+			if (shape == null) {
+				System.out.println("NEW STATEMENT " + e.getKey());
+				continue;
+			}
+			if (!shape.equals(plan.shape)) {
+				++regressions;
+				System.out.println("PLAN CHANGED " + e.getKey());
+				System.out.println("    was " + shape);
+				System.out.println("    now " + plan.shape);
+			}
+			double before = Double.parseDouble(baseline.getProperty(e.getKey() + ".ms", "0"));
+			if (plan.executionMillis > before * (1 + TOLERANCE) && plan.executionMillis - before > NOISE_MILLIS) {
+				++regressions;
+				System.out.printf("SLOWER %s %.3f ms -> %.3f ms%n", e.getKey(), before, plan.executionMillis);
+			}
+		}
+		for (String index : getUnusedIndexes()) {
+			if (baseline.getProperty("index." + index + ".unused") == null) {
+				++regressions;
+				System.out.println("NEWLY UNUSED INDEX " + index);
+			}
+		}
+		System.out.println("regressions: " + regressions);
+		System.out.println("-----------------------------------------------------------------");
+		return regressions;
+	}
+
+	public static void main(String[] args) {
+		if (args.length < 3) {
+			System.err.println("Usage: " + "java [-classpath <classpath>] " + PlanCheck.class.getName()
+					+ " <dbname> <port> <user> [--scale N] [--queries file] [--plans dir] [--save file] [--baseline file]");
+			return;
+		} // end if
+
+		int scale = 1;
+		String queries = "../sql/queries.sql", plans = null, save = null, baseline = null;
+		for (int i = 3; i + 1 < args.length; i += 2) {
+			switch (args[i]) {
+				case "--scale": scale = Integer.parseInt(args[i + 1]); break;
+				case "--queries": queries = args[i + 1]; break;
+				case "--plans": plans = args[i + 1]; break;
+				case "--save": save = args[i + 1]; break;
+				case "--baseline": baseline = args[i + 1]; break;
+				default:
+					System.err.println("Unknown option: " + args[i]);
+					return;
+			}
+		}
+
+		DBproject esql = null;
+		int regressions = 0;
+		try {
+			Class.forName("org.postgresql.Driver");
+			esql = new DBproject(args[0], args[1], args[2], "", 1);
+			Bench.scale(esql, scale);
+			PlanCheck check = new PlanCheck(esql);
+			List<Probe> probes = check.clientProbes();
+			if (Files.exists(Paths.get(queries)))
+				probes.addAll(scriptProbes(Paths.get(queries)));
+			check.run(probes);
+			check.report();
+			if (plans != null)
+				check.savePlans(plans);
+			if (save != null)
+				check.save(save);
+			if (baseline != null)
+				regressions = check.compare(baseline);
+		} catch (Exception e) {
+			System.err.println(e.getMessage());
+			regressions = -1;
+		} finally {
+			if (esql != null)
+				esql.cleanup();
+		}
+		if (regressions != 0)
+			System.exit(1);
+	}
+}
@@ -0,0 +1,45 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * A physical connection leased from the connection pool together with the
+ * prepared statements cached on it.
+ *
+ */
+
+public class PooledConnection {
+	private final Connection _connection;
+	private final StatementCache _statements;
+	private long _lastUsed;
+
+	PooledConnection(Connection connection) {
+		this._connection = connection;
+		this._statements = new StatementCache(connection, StatementCache.DEFAULT_CAPACITY);
+		this._lastUsed = System.nanoTime();
+	}
+
+	public Connection getConnection() {
+		return this._connection;
+	}
+
+	public StatementCache getStatements() {
+		return this._statements;
+	}
+
+	long lastUsed() {
+		return this._lastUsed;
+	}
+
+	void touch() {
+		this._lastUsed = System.nanoTime();
+	}
+
+	void close() {
+		this._statements.close();
+		try {
+			this._connection.close();
+		} catch (SQLException e) {
+			// ignored.
+		}
+	}
+}
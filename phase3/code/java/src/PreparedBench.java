@@ -0,0 +1,82 @@
+import java.sql.SQLException;
+import java.util.Random;
+
+/**
+ * This class compares the throughput of the literal SQL path (a new Statement
+ * per call, parsed and planned every time) against the parameterized path
+ * backed by the statement cache. It runs the lookups behind queries 6 and 9
+ * with random flight numbers drawn from the sample data.
+ *
+ */
+
+public class PreparedBench {
+	// flight numbers in phase3/code/data/flights.csv are 0 .. 1999
+	private static final int NUM_FLIGHTS = 2000;
+	private static final String[] STATUS = { "W", "R", "C" };
+
+	public static void main(String[] args) {
+		if (args.length < 3) {
+			System.err.println("Usage: " + "java [-classpath <classpath>] " + PreparedBench.class.getName()
+					+ " <dbname> <port> <user> [iterations]");
+			return;
+		} // end if
+
+		int iterations = args.length > 3 ? Integer.parseInt(args[3]) : 20000;
+		DBproject esql = null;
+		try {
+			Class.forName("org.postgresql.Driver");
+			esql = new DBproject(args[0], args[1], args[2], "");
+
+			// warm up both paths before measuring
+			runLiteral(esql, iterations / 10);
+			runPrepared(esql, iterations / 10);
+
+			long literal = runLiteral(esql, iterations);
+			long prepared = runPrepared(esql, iterations);
+			report("literal SQL", iterations, literal);
+			report("prepared + cache", iterations, prepared);
+			System.out.printf("speedup: %.2fx%n", (double) literal / prepared);
+		} catch (Exception e) {
+			System.err.println(e.getMessage());
+		} finally {
+			if (esql != null)
+				esql.cleanup();
+		}
+	}
+
+	// runs queries 6 and 9 by concatenating the values into the SQL text
+	private static long runLiteral(DBproject esql, int iterations) throws SQLException {
+		Random random = new Random(42);
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; ++i) {
+			int flightNum = random.nextInt(NUM_FLIGHTS);
+			if ((i & 1) == 0)
+				esql.executeQuery("SELECT COUNT(*)\nFROM Reservation\nWHERE fid = " + flightNum + " AND status = '"
+						+ STATUS[i % 3] + "';");
+			else
+				esql.executeQuery("SELECT P.seats\nFROM Plane P, FlightInfo FI\nWHERE FI.flight_id = " + flightNum
+						+ " AND FI.plane_id = P.id;");
+		}
+		return System.nanoTime() - start;
+	}
+
+	// runs the same queries through the statement cache
+	private static long runPrepared(DBproject esql, int iterations) throws SQLException {
+		Random random = new Random(42);
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; ++i) {
+			int flightNum = random.nextInt(NUM_FLIGHTS);
+			if ((i & 1) == 0)
+				esql.executeQuery(DBproject.SCAN_PASSENGERS_WITH_STATUS, flightNum, STATUS[i % 3]);
+			else
+				esql.executeQuery("SELECT P.seats\nFROM Plane P, FlightInfo FI\nWHERE FI.flight_id = ? AND FI.plane_id = P.id",
+						flightNum);
+		}
+		return System.nanoTime() - start;
+	}
+
+	private static void report(String name, int iterations, long nanos) {
+		System.out.printf("%-18s %8d calls %10.1f ms %10.0f ops/s%n", name, iterations, nanos / 1e6,
+				iterations / (nanos / 1e9));
+	}
+}
@@ -0,0 +1,141 @@
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This class caches the reference rows that almost never change: planes,
+ * pilots, technicians and the plane and pilot assigned to each flight. Each
+ * table has its own LruCache with its own size and time to live, so a row
+ * written by another client is picked up within that time. Rows written
+ * through this client are invalidated right away, see DBproject.planeAdded
+ * and the like.
+ *
+ * Rows are returned as lists of attribute values in column order, like
+ * DBproject.executeQueryAndReturnResult does.
+ *
+ */
+
+public class ReferenceCache {
+	public static final int DEFAULT_MAX_SIZE = 10000;
+	// seconds an entry is kept; assignments change more often than the rows they point to
+	public static final long PLANE_TTL_SECONDS = 600;
+	public static final long PILOT_TTL_SECONDS = 1800;
+	public static final long TECHNICIAN_TTL_SECONDS = 1800;
+	public static final long FLIGHT_INFO_TTL_SECONDS = 300;
+
+	static final String SELECT_PLANE = "SELECT id, make, model, age, seats FROM Plane WHERE id = ?";
+	static final String SELECT_PILOT = "SELECT id, fullname, nationality FROM Pilot WHERE id = ?";
+	static final String SELECT_TECHNICIAN = "SELECT id, full_name FROM Technician WHERE id = ?";
+	static final String SELECT_FLIGHT_INFO = "SELECT fiid, flight_id, pilot_id, plane_id FROM FlightInfo WHERE flight_id = ? ORDER BY fiid LIMIT 1";
+
+	// columns of the cached FlightInfo and Plane rows
+	static final int FLIGHT_INFO_PLANE = 3;
+	static final int PLANE_SEATS = 4;
+
+	private final LruCache<Integer, List<String>> _planes;
+	private final LruCache<Integer, List<String>> _pilots;
+	private final LruCache<Integer, List<String>> _technicians;
+	private final LruCache<Integer, List<String>> _flightInfo;
+
+	/**
+	 * Method to create the caches with the default sizes and times to live.
+	 *
+	 * @param esql the database client used on a miss
+	 */
+	public ReferenceCache(DBproject esql) {
+		this(esql, DEFAULT_MAX_SIZE);
+	}
+
+	/**
+	 * Method to create the caches.
+	 *
+	 * @param esql    the database client used on a miss
+	 * @param maxSize the rows kept per table at most
+	 */
+	public ReferenceCache(DBproject esql, int maxSize) {
+		this._planes = new LruCache<Integer, List<String>>("plane", maxSize, PLANE_TTL_SECONDS,
+				id -> row(esql, SELECT_PLANE, id));
+		this._pilots = new LruCache<Integer, List<String>>("pilot", maxSize, PILOT_TTL_SECONDS,
+				id -> row(esql, SELECT_PILOT, id));
+		this._technicians = new LruCache<Integer, List<String>>("technician", maxSize, TECHNICIAN_TTL_SECONDS,
+				id -> row(esql, SELECT_TECHNICIAN, id));
+		this._flightInfo = new LruCache<Integer, List<String>>("flightinfo", maxSize, FLIGHT_INFO_TTL_SECONDS,
+				fnum -> row(esql, SELECT_FLIGHT_INFO, fnum));
+	}
+
+	// the first row of a lookup by key, unmodifiable, or null when there is none
+	private static List<String> row(DBproject esql, String query, int key) throws SQLException {
+		List<List<String>> rows = esql.executeQueryAndReturnResult(query, key);
+		return rows.isEmpty() ? null : Collections.unmodifiableList(rows.get(0));
+	}
+
+	public List<String> getPlane(int id) throws SQLException {
+		return this._planes.get(id);
+	}
+
+	public List<String> getPilot(int id) throws SQLException {
+		return this._pilots.get(id);
+	}
+
+	public List<String> getTechnician(int id) throws SQLException {
+		return this._technicians.get(id);
+	}
+
+	// the FlightInfo row of a flight, or null when it has no plane and pilot yet
+	public List<String> getFlightInfo(int fnum) throws SQLException {
+		return this._flightInfo.get(fnum);
+	}
+
+	/**
+	 * Method to return the seats of the plane assigned to a flight.
+	 *
+	 * @param fnum the flight number
+	 * @return the seats, or SeatInventory.UNKNOWN when the flight has no plane
+	 * @throws java.sql.SQLException when a row could not be loaded
+	 */
+	public int capacity(int fnum) throws SQLException {
+		List<String> info = getFlightInfo(fnum);
+		if (info == null)
+			return SeatInventory.UNKNOWN;
+		List<String> plane = getPlane(Integer.parseInt(info.get(FLIGHT_INFO_PLANE)));
+		return plane == null ? SeatInventory.UNKNOWN : Integer.parseInt(plane.get(PLANE_SEATS));
+	}
+
+	public void invalidatePlane(int id) {
+		this._planes.invalidate(id);
+	}
+
+	public void invalidatePilot(int id) {
+		this._pilots.invalidate(id);
+	}
+
+	public void invalidateTechnician(int id) {
+		this._technicians.invalidate(id);
+	}
+
+	public void invalidateFlightInfo(int fnum) {
+		this._flightInfo.invalidate(fnum);
+	}
+
+	public void invalidateAll() {
+		for (LruCache<Integer, List<String>> cache : getCaches())
+			cache.invalidateAll();
+	}
+
+	public List<LruCache<Integer, List<String>>> getCaches() {
+		return Arrays.asList(this._planes, this._pilots, this._technicians, this._flightInfo);
+	}
+
+	/**
+	 * Method to format the statistics of every cache, one line each.
+	 *
+	 * @return the statistics
+	 */
+	public String stats() {
+		StringBuilder out = new StringBuilder();
+		for (LruCache<Integer, List<String>> cache : getCaches())
+			out.append(cache.stats()).append('\n');
+		return out.toString();
+	}
+}
@@ -0,0 +1,64 @@
+import java.sql.SQLException;
+
+/**
+ * This class checks the repair counts that queries 7 and 8 read against a
+ * full GROUP BY over Repairs. The counts live in RepairsPerPlane and
+ * RepairsPerYear and are kept up to date by the triggers in
+ * sql/create-aggregates.sql.
+ *
+ */
+
+public class RepairAggregates {
+	// the original queries 7 and 8, grouping every repair
+	static final String SCAN_REPAIRS_PER_PLANE = "SELECT P.id, count(R.rid)\nFROM Plane P, Repairs R\nWHERE P.id = R.plane_id\nGROUP BY P.id\nORDER BY count DESC";
+	static final String SCAN_REPAIRS_PER_YEAR = "SELECT EXTRACT (year FROM R.repair_date) as \"Year\", count(R.rid)\nFROM repairs R\nGROUP BY \"Year\"\nORDER BY count ASC";
+
+	// groups where the stored count differs from the counted one
+	static final String CHECK_REPAIRS_PER_PLANE = "SELECT COALESCE(S.plane_id, A.plane_id) AS plane_id, S.repairs AS counted, A.repairs AS stored\n"
+			+ "FROM (SELECT plane_id, count(*) AS repairs FROM Repairs GROUP BY plane_id) S\n"
+			+ "FULL OUTER JOIN RepairsPerPlane A ON A.plane_id = S.plane_id\n"
+			+ "WHERE S.repairs IS DISTINCT FROM A.repairs\nORDER BY 1";
+	static final String CHECK_REPAIRS_PER_YEAR = "SELECT COALESCE(S.repair_year, A.repair_year) AS repair_year, S.repairs AS counted, A.repairs AS stored\n"
+			+ "FROM (SELECT EXTRACT(year FROM repair_date)::int AS repair_year, count(*) AS repairs FROM Repairs GROUP BY 1) S\n"
+			+ "FULL OUTER JOIN RepairsPerYear A ON A.repair_year = S.repair_year\n"
+			+ "WHERE S.repairs IS DISTINCT FROM A.repairs\nORDER BY 1";
+	static final String REFRESH = "SELECT refresh_repair_aggregates()";
+
+	/**
+	 * Method to print every plane and year whose stored repair count does not
+	 * match Repairs.
+	 *
+	 * @param esql the database client
+	 * @return the number of mismatched groups
+	 * @throws java.sql.SQLException when the check could not run
+	 */
+	public static int check(DBproject esql) throws SQLException {
+		System.out.println("Repairs per plane, counted vs stored:");
+		int mismatches = esql.executeQueryAndPrintResult(CHECK_REPAIRS_PER_PLANE);
+		System.out.println("Repairs per year, counted vs stored:");
+		mismatches += esql.executeQueryAndPrintResult(CHECK_REPAIRS_PER_YEAR);
+		return mismatches;
+	}
+
+	/**
+	 * Method to run the check from the command line mode of DBproject, and
+	 * recount both tables when asked to.
+	 *
+	 * @param esql    the database client
+	 * @param refresh whether to recount the tables when they do not match
+	 */
+	public static void run(DBproject esql, boolean refresh) {
+		try {
+			long start = System.nanoTime();
+			int mismatches = check(esql);
+			System.out.printf("%d mismatched group(s), checked in %.1f ms%n", mismatches,
+					(System.nanoTime() - start) / 1e6);
+			if (mismatches > 0 && refresh) {
+				esql.executeQuery(REFRESH);
+				System.out.println("Recounted, " + check(esql) + " mismatched group(s) left");
+			}
+		} catch (SQLException e) {
+			System.err.println(e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,124 @@
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * This class keeps the number of passengers per flight and reservation status
+ * in memory, so query 9 is answered without a round trip. Flights are indexed
+ * directly by flight number in fixed-size chunks, each holding the W, R and C
+ * counters of a flight next to each other.
+ *
+ * The counters are filled from ReservationCounts, which the triggers in
+ * sql/create-aggregates.sql keep current for every client. This client adds
+ * its own bookings and status changes as they commit, see
+ * DBproject.bookFlight and DBproject.updateReservationStatus, but the writes
+ * of other clients only show up on a reload. Query 9 therefore reads
+ * ReservationCounts unless the counters.max.age system property bounds how
+ * stale the counters may get, see DBproject.passengersWithStatus.
+ *
+ */
+
+public class ReservationCounters {
+	static final String STATUSES = "WRC";
+
+	private static final int CHUNK_BITS = 10;
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	static final String SELECT_COUNTS = "SELECT fid, status, passengers FROM ReservationCounts";
+
+	// replaced by a larger copy when a flight number falls past the end
+	private volatile AtomicReferenceArray<AtomicIntegerArray> _chunks = new AtomicReferenceArray<AtomicIntegerArray>(16);
+
+	/**
+	 * Method to fill the counters from the database.
+	 *
+	 * @param esql the database client
+	 * @return the number of flight and status groups loaded
+	 * @throws java.sql.SQLException when the counts could not be read
+	 */
+	public int load(DBproject esql) throws SQLException {
+		return esql.executeQueryStreaming(SELECT_COUNTS, DBproject.DEFAULT_FETCH_SIZE,
+				row -> add(row.getInt(1), String.valueOf(row.getChar(2)), row.getInt(3)));
+	}
+
+	/**
+	 * Method to return the passengers of a flight with the given status.
+	 *
+	 * @param fnum   the flight number
+	 * @param status the reservation status (W, R, C)
+	 * @return the number of passengers, 0 for a flight without reservations
+	 */
+	public int count(int fnum, String status) {
+		AtomicIntegerArray chunk = chunkFor(fnum, false);
+		if (chunk == null)
+			return 0;
+		return chunk.get(slot(fnum, status));
+	}
+
+	/**
+	 * Method to add to the passengers of a flight with the given status.
+	 *
+	 * @param fnum   the flight number
+	 * @param status the reservation status (W, R, C)
+	 * @param delta  the change, negative to remove passengers
+	 */
+	public void add(int fnum, String status, int delta) {
+		chunkFor(fnum, true).addAndGet(slot(fnum, status), delta);
+	}
+
+	/**
+	 * Method to move one passenger of a flight from one status to another.
+	 *
+	 * @param fnum the flight number
+	 * @param from the old status, or null if it had none
+	 * @param to   the new status
+	 */
+	public void move(int fnum, String from, String to) {
+		if (from != null)
+			add(fnum, from, -1);
+		add(fnum, to, 1);
+	}
+
+	// position of the counter within its chunk
+	private static int slot(int fnum, String status) {
+		int s = status.length() == 1 ? STATUSES.indexOf(status.charAt(0)) : -1;
+		if (s < 0)
+			throw new IllegalArgumentException("Unknown reservation status: " + status);
+		return (fnum & CHUNK_MASK) * 3 + s;
+	}
+
+	// returns the chunk holding fnum, creating it when asked to
+	private AtomicIntegerArray chunkFor(int fnum, boolean create) {
+		if (fnum < 0)
+			throw new IllegalArgumentException("Flight number cannot be negative");
+		int c = fnum >>> CHUNK_BITS;
+		AtomicReferenceArray<AtomicIntegerArray> chunks = this._chunks;
+		if (c < chunks.length()) {
+			AtomicIntegerArray chunk = chunks.get(c);
+			if (chunk != null || !create)
+				return chunk;
+		} else if (!create) {
+			return null;
+		}
+		return createChunk(c);
+	}
+
+	private synchronized AtomicIntegerArray createChunk(int c) {
+		AtomicReferenceArray<AtomicIntegerArray> chunks = this._chunks;
+		if (c >= chunks.length()) {
+			AtomicReferenceArray<AtomicIntegerArray> grown = new AtomicReferenceArray<AtomicIntegerArray>(
+					Math.max(c + 1, chunks.length() * 2));
+			for (int i = 0; i < chunks.length(); ++i)
+				grown.set(i, chunks.get(i));
+			chunks = grown;
+			this._chunks = grown;
+		}
+		AtomicIntegerArray chunk = chunks.get(c);
+		if (chunk == null) {
+			chunk = new AtomicIntegerArray(CHUNK_SIZE * 3);
+			chunks.set(c, chunk);
+		}
+		return chunk;
+	}
+}
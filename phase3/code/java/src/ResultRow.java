@@ -0,0 +1,90 @@
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.time.LocalDate;
+
+/**
+ * This class is a typed view of the current row of a streamed query. One view
+ * is created per query and reused for every row, so reading a row through it
+ * adds no objects beyond what the driver decodes. Columns are numbered from 1.
+ *
+ */
+
+public class ResultRow {
+	private final ResultSet _rs;
+	private ResultSetMetaData _rsmd = null;
+
+	ResultRow(ResultSet rs) {
+		this._rs = rs;
+	}
+
+	public int getInt(int col) throws SQLException {
+		return this._rs.getInt(col);
+	}
+
+	public long getLong(int col) throws SQLException {
+		return this._rs.getLong(col);
+	}
+
+	public double getDouble(int col) throws SQLException {
+		return this._rs.getDouble(col);
+	}
+
+	/**
+	 * Method to read a CHAR(1) column such as a reservation status.
+	 *
+	 * @param col the column number
+	 * @return the first character, or '\0' when the value is null or empty
+	 * @throws java.sql.SQLException when the column could not be read
+	 */
+	public char getChar(int col) throws SQLException {
+		String value = this._rs.getString(col);
+		return value == null || value.isEmpty() ? '\0' : value.charAt(0);
+	}
+
+	public String getString(int col) throws SQLException {
+		return this._rs.getString(col);
+	}
+
+	public LocalDate getDate(int col) throws SQLException {
+		Date value = this._rs.getDate(col);
+		return value == null ? null : value.toLocalDate();
+	}
+
+	/**
+	 * Method to read a DATE column as a count of days since 1970-01-01.
+	 *
+	 * @param col the column number
+	 * @return the epoch day, or Long.MIN_VALUE when the value is null
+	 * @throws java.sql.SQLException when the column could not be read
+	 */
+	public long getEpochDay(int col) throws SQLException {
+		Date value = this._rs.getDate(col);
+		return value == null ? Long.MIN_VALUE : value.toLocalDate().toEpochDay();
+	}
+
+	// true if the last column read was SQL NULL
+	public boolean wasNull() throws SQLException {
+		return this._rs.wasNull();
+	}
+
+	public int getColumnCount() throws SQLException {
+		return metaData().getColumnCount();
+	}
+
+	public String getColumnName(int col) throws SQLException {
+		return metaData().getColumnName(col);
+	}
+
+	// one of java.sql.Types
+	public int getColumnType(int col) throws SQLException {
+		return metaData().getColumnType(col);
+	}
+
+	private ResultSetMetaData metaData() throws SQLException {
+		if (this._rsmd == null)
+			this._rsmd = this._rs.getMetaData();
+		return this._rsmd;
+	}
+}
@@ -0,0 +1,321 @@
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * This class renders the rows of a streamed query as an aligned table, CSV or
+ * JSON lines. Each row is formatted into one reused line buffer and handed to
+ * a large buffered writer, so the output stream is only touched once per
+ * BUFFER_SIZE characters instead of once per cell.
+ *
+ * CSV and JSON lines hold nothing but the current row. The table holds its
+ * first WIDTH_SAMPLE rows to size the columns, later rows are padded to those
+ * widths and only overflow a column when they are wider than every sampled
+ * value.
+ *
+ */
+
+public class ResultWriter implements RowHandler, Closeable {
+	public enum Format {
+		TABLE, CSV, JSONL;
+
+		public static Format parse(String name) {
+			try {
+				return valueOf(name.toUpperCase(Locale.ROOT));
+			} catch (IllegalArgumentException e) {
+				throw new IllegalArgumentException("Unknown format: " + name + ", expected table, csv or jsonl");
+			}
+		}
+	}
+
+	public static final int BUFFER_SIZE = 1 << 16;
+	static final int WIDTH_SAMPLE = 1000;
+	// rows fetched per round trip when exporting whole tables
+	static final int EXPORT_FETCH_SIZE = 10000;
+
+	private static final Pattern TABLE_NAME = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+
+	private final Writer _out;
+	private final Format _format;
+	private final boolean _closeOut;
+	private final StringBuilder _line = new StringBuilder(256);
+	private String[] _names;
+	private boolean[] _numeric;
+	private int[] _widths;
+	// the rows held back to size the table columns, null once they are written
+	private List<String[]> _sample;
+
+	/**
+	 * Method to create a writer over an open character stream.
+	 *
+	 * @param out      the stream written to, buffered by the caller
+	 * @param format   the output format
+	 * @param closeOut whether closing this writer closes the stream
+	 */
+	public ResultWriter(Writer out, Format format, boolean closeOut) {
+		this._out = out;
+		this._format = format;
+		this._closeOut = closeOut;
+	}
+
+	/**
+	 * Method to create a writer to standard out. Closing it flushes standard out
+	 * but leaves it open.
+	 *
+	 * @param format the output format
+	 * @return the writer
+	 */
+	public static ResultWriter toStdout(Format format) {
+		return new ResultWriter(new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8),
+				BUFFER_SIZE), format, false);
+	}
+
+	/**
+	 * Method to create a writer to a file, replacing its contents.
+	 *
+	 * @param path   the file written to
+	 * @param format the output format
+	 * @return the writer
+	 * @throws java.io.IOException when the file could not be opened
+	 */
+	public static ResultWriter toFile(Path path, Format format) throws IOException {
+		return new ResultWriter(new BufferedWriter(
+				new OutputStreamWriter(Files.newOutputStream(path), StandardCharsets.UTF_8), BUFFER_SIZE), format, true);
+	}
+
+	public void start(ResultRow row) throws SQLException {
+		int numCol = row.getColumnCount();
+		this._names = new String[numCol];
+		this._numeric = new boolean[numCol];
+		for (int i = 0; i < numCol; ++i) {
+			this._names[i] = row.getColumnName(i + 1);
+			this._numeric[i] = isNumeric(row.getColumnType(i + 1));
+		}
+		switch (this._format) {
+			case TABLE:
+				this._widths = new int[numCol];
+				for (int i = 0; i < numCol; ++i)
+					this._widths[i] = this._names[i].length();
+				this._sample = new ArrayList<String[]>();
+				break;
+			case CSV:
+				for (int i = 0; i < numCol; ++i) {
+					if (i > 0)
+						this._line.append(',');
+					csv(this._line, this._names[i]);
+				}
+				writeLine();
+				break;
+			default:
+				break;
+		}
+	}
+
+	public void row(ResultRow row) throws SQLException {
+		int numCol = this._names.length;
+		switch (this._format) {
+			case TABLE: {
+				String[] values = new String[numCol];
+				for (int i = 0; i < numCol; ++i)
+					values[i] = String.valueOf(row.getString(i + 1));
+				if (this._sample == null) {
+					tableRow(values);
+					break;
+				}
+				for (int i = 0; i < numCol; ++i)
+					this._widths[i] = Math.max(this._widths[i], values[i].length());
+				this._sample.add(values);
+				if (this._sample.size() == WIDTH_SAMPLE)
+					writeSample();
+				break;
+			}
+			case CSV:
+				for (int i = 0; i < numCol; ++i) {
+					if (i > 0)
+						this._line.append(',');
+					String value = row.getString(i + 1);
+					// NULL is an empty field, an empty string is quoted
+					if (value != null)
+						csv(this._line, value);
+				}
+				writeLine();
+				break;
+			case JSONL:
+				this._line.append('{');
+				for (int i = 0; i < numCol; ++i) {
+					if (i > 0)
+						this._line.append(',');
+					Json.write(this._line, this._names[i]);
+					this._line.append(':');
+					String value = row.getString(i + 1);
+					// NaN and Infinity have no JSON number form
+					if (value != null && this._numeric[i] && Character.isDigit(value.charAt(value.length() - 1)))
+						this._line.append(value);
+					else
+						Json.write(this._line, value);
+				}
+				this._line.append('}');
+				writeLine();
+				break;
+		}
+	}
+
+	// writes the header and the held rows, then streams the rest
+	private void writeSample() {
+		int numCol = this._names.length;
+		for (int i = 0; i < numCol; ++i) {
+			if (i > 0)
+				this._line.append(" | ");
+			pad(this._names[i], i == numCol - 1 ? 0 : this._widths[i], false);
+		}
+		writeLine();
+		for (int i = 0; i < numCol; ++i) {
+			if (i > 0)
+				this._line.append("-+-");
+			for (int w = 0; w < this._widths[i]; ++w)
+				this._line.append('-');
+		}
+		writeLine();
+		List<String[]> sample = this._sample;
+		this._sample = null;
+		for (String[] values : sample)
+			tableRow(values);
+	}
+
+	private void tableRow(String[] values) {
+		for (int i = 0; i < values.length; ++i) {
+			if (i > 0)
+				this._line.append(" | ");
+			pad(values[i], i == values.length - 1 && !this._numeric[i] ? 0 : this._widths[i], this._numeric[i]);
+		}
+		writeLine();
+	}
+
+	// numbers are right-aligned, everything else left-aligned; width 0 leaves the value as is
+	private void pad(String value, int width, boolean right) {
+		if (!right)
+			this._line.append(value);
+		for (int w = value.length(); w < width; ++w)
+			this._line.append(' ');
+		if (right)
+			this._line.append(value);
+	}
+
+	// quotes a field holding a separator, quote or line break (RFC 4180)
+	private static void csv(StringBuilder out, String value) {
+		boolean quote = value.isEmpty();
+		for (int i = 0; i < value.length() && !quote; ++i) {
+			char c = value.charAt(i);
+			quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+		}
+		if (!quote) {
+			out.append(value);
+			return;
+		}
+		out.append('"');
+		for (int i = 0; i < value.length(); ++i) {
+			char c = value.charAt(i);
+			if (c == '"')
+				out.append('"');
+			out.append(c);
+		}
+		out.append('"');
+	}
+
+	private static boolean isNumeric(int type) {
+		switch (type) {
+			case Types.TINYINT:
+			case Types.SMALLINT:
+			case Types.INTEGER:
+			case Types.BIGINT:
+			case Types.REAL:
+			case Types.FLOAT:
+			case Types.DOUBLE:
+			case Types.NUMERIC:
+			case Types.DECIMAL:
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	private void writeLine() {
+		this._line.append('\n');
+		try {
+			this._out.append(this._line);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		this._line.setLength(0);
+	}
+
+	/**
+	 * Method to write any rows still held back and flush the output. The
+	 * stream is closed only when this writer owns it.
+	 *
+	 * @throws java.io.UncheckedIOException when the output could not be written
+	 */
+	public void close() {
+		if (this._sample != null)
+			writeSample();
+		try {
+			if (this._closeOut)
+				this._out.close();
+			else
+				this._out.flush();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Method to run an export from the command line mode of DBproject. The rows
+	 * go straight from the cursor to the output, so extracts of any size run in
+	 * constant memory.
+	 *
+	 * @param esql   the database client
+	 * @param format the output format
+	 * @param source a table name, or a query starting with SELECT or WITH
+	 * @param file   the file written to, or - for standard out
+	 */
+	public static void export(DBproject esql, Format format, String source, String file) {
+		String query;
+		String head = source.trim().toUpperCase(Locale.ROOT);
+		if (head.startsWith("SELECT") || head.startsWith("WITH"))
+			query = source;
+		else if (TABLE_NAME.matcher(source).matches())
+			query = "SELECT * FROM " + source;
+		else
+			throw new IllegalArgumentException("Not a table name or query: " + source);
+
+		long start = System.nanoTime();
+		try {
+			int rowCount;
+			try (ResultWriter out = file.equals("-") ? toStdout(format) : toFile(Paths.get(file), format)) {
+				rowCount = esql.executeQueryStreaming(query, EXPORT_FETCH_SIZE, out);
+			}
+			double seconds = (System.nanoTime() - start) / 1e9;
+			// reported on standard error so the extract itself stays clean
+			System.err.printf("Exported %d row(s) in %.2f s, %.0f rows/s%n", rowCount, seconds, rowCount / seconds);
+		} catch (SQLException e) {
+			System.err.println(e.getMessage());
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+		} catch (UncheckedIOException e) {
+			System.err.println(e.getCause().getMessage());
+		}
+	}
+}
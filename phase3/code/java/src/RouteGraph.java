@@ -0,0 +1,410 @@
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * This class answers "how do I get from A to B on a given day" from an
+ * in-memory copy of Flight. Each airport keeps its departures in parallel
+ * primitive arrays sorted by departure day, so the flights leaving an airport
+ * within a window are one binary search and a scan away.
+ *
+ * Flight only records dates, so times are whole days: a connection may leave
+ * on the day the previous leg lands plus the minimum layover in days. A
+ * search follows at most maxConnections + 1 legs within MAX_TRIP_DAYS of the
+ * first departure and keeps, per airport, only the arrivals that are not
+ * later, dearer and more legs in than another (the Pareto front of arrival
+ * day, cost and legs, since an arrival with legs to spare may still connect
+ * where one with more legs cannot). The front reached at the destination
+ * holds both the earliest and the cheapest itinerary.
+ *
+ * Flights landing before they depart are not routable and are skipped.
+ *
+ */
+
+public class RouteGraph {
+	public static final int DEFAULT_MAX_CONNECTIONS = 2;
+	public static final int DEFAULT_MIN_LAYOVER_DAYS = 0;
+	// days after the first departure that an itinerary may still be travelling
+	public static final int MAX_TRIP_DAYS = 7;
+
+	static final String SELECT_FLIGHTS = "SELECT fnum, cost, actual_departure_date, actual_arrival_date, departure_airport, arrival_airport FROM Flight";
+
+	/**
+	 * One way to fly from the origin to the destination.
+	 */
+	public static class Itinerary {
+		private final int[] _flights;
+		private final String[] _airports;
+		private final int _cost;
+		private final LocalDate _departure;
+		private final LocalDate _arrival;
+
+		Itinerary(int[] flights, String[] airports, int cost, LocalDate departure, LocalDate arrival) {
+			this._flights = flights;
+			this._airports = airports;
+			this._cost = cost;
+			this._departure = departure;
+			this._arrival = arrival;
+		}
+
+		// flight numbers in the order they are flown
+		public int[] getFlights() {
+			return this._flights;
+		}
+
+		// the origin, every connecting airport and the destination
+		public String[] getAirports() {
+			return this._airports;
+		}
+
+		public int getCost() {
+			return this._cost;
+		}
+
+		public LocalDate getDeparture() {
+			return this._departure;
+		}
+
+		public LocalDate getArrival() {
+			return this._arrival;
+		}
+
+		public int getConnections() {
+			return this._flights.length - 1;
+		}
+
+		public String toString() {
+			StringBuilder s = new StringBuilder(this._airports[0]);
+			for (int i = 0; i < this._flights.length; ++i)
+				s.append(" -(").append(this._flights[i]).append(")-> ").append(this._airports[i + 1]);
+			return s.append("  cost ").append(this._cost).append(", ").append(this._departure).append(" to ")
+					.append(this._arrival).toString();
+		}
+	}
+
+	/**
+	 * The flights leaving one airport, sorted by departure day.
+	 */
+	private static class Departures {
+		int size = 0;
+		int[] day = new int[4];
+		int[] arrival = new int[4];
+		int[] to = new int[4];
+		int[] cost = new int[4];
+		int[] fnum = new int[4];
+
+		// the first position departing on or after the given day
+		int lowerBound(int d) {
+			int lo = 0, hi = this.size;
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (this.day[mid] < d)
+					lo = mid + 1;
+				else
+					hi = mid;
+			}
+			return lo;
+		}
+
+		void insert(int at, int d, int a, int t, int c, int f) {
+			if (this.size == this.day.length)
+				grow(this.size * 2);
+			int moved = this.size - at;
+			System.arraycopy(this.day, at, this.day, at + 1, moved);
+			System.arraycopy(this.arrival, at, this.arrival, at + 1, moved);
+			System.arraycopy(this.to, at, this.to, at + 1, moved);
+			System.arraycopy(this.cost, at, this.cost, at + 1, moved);
+			System.arraycopy(this.fnum, at, this.fnum, at + 1, moved);
+			this.day[at] = d;
+			this.arrival[at] = a;
+			this.to[at] = t;
+			this.cost[at] = c;
+			this.fnum[at] = f;
+			++this.size;
+		}
+
+		// restores the order after a load appended flights unsorted
+		void sort() {
+			long[] keys = new long[this.size];
+			for (int i = 0; i < this.size; ++i)
+				keys[i] = ((long) this.day[i] << 32) | i;
+			Arrays.sort(keys);
+			int[][] columns = { this.day, this.arrival, this.to, this.cost, this.fnum };
+			for (int c = 0; c < columns.length; ++c) {
+				int[] sorted = new int[columns[c].length];
+				for (int i = 0; i < this.size; ++i)
+					sorted[i] = columns[c][(int) keys[i]];
+				columns[c] = sorted;
+			}
+			this.day = columns[0];
+			this.arrival = columns[1];
+			this.to = columns[2];
+			this.cost = columns[3];
+			this.fnum = columns[4];
+		}
+
+		private void grow(int capacity) {
+			this.day = Arrays.copyOf(this.day, capacity);
+			this.arrival = Arrays.copyOf(this.arrival, capacity);
+			this.to = Arrays.copyOf(this.to, capacity);
+			this.cost = Arrays.copyOf(this.cost, capacity);
+			this.fnum = Arrays.copyOf(this.fnum, capacity);
+		}
+	}
+
+	/**
+	 * Reaching an airport on a day at a cost, and the leg that got there.
+	 */
+	private static class Label {
+		final int airport;
+		final int day;
+		final int cost;
+		final int legs;
+		final int fnum;
+		final Label parent;
+		// set once another label at the airport is both earlier and cheaper
+		boolean dominated = false;
+
+		Label(int airport, int day, int cost, int legs, int fnum, Label parent) {
+			this.airport = airport;
+			this.day = day;
+			this.cost = cost;
+			this.legs = legs;
+			this.fnum = fnum;
+			this.parent = parent;
+		}
+	}
+
+	private final ReentrantReadWriteLock _lock = new ReentrantReadWriteLock();
+	private final Map<String, Integer> _ids = new HashMap<String, Integer>();
+	private final List<String> _codes = new ArrayList<String>();
+	private final List<Departures> _departures = new ArrayList<Departures>();
+	private int _flights = 0;
+
+	/**
+	 * Method to fill the graph from the database.
+	 *
+	 * @param esql the database client
+	 * @return the number of routable flights loaded
+	 * @throws java.sql.SQLException when the flights could not be read
+	 */
+	public int load(DBproject esql) throws SQLException {
+		this._lock.writeLock().lock();
+		try {
+			esql.executeQueryStreaming(SELECT_FLIGHTS, DBproject.DEFAULT_FETCH_SIZE, row -> {
+				int departure = (int) row.getEpochDay(3);
+				int arrival = (int) row.getEpochDay(4);
+				if (arrival < departure)
+					return;
+				Departures d = this._departures.get(id(row.getString(5).trim()));
+				// appended at the end, sorted once everything is in
+				d.insert(d.size, departure, arrival, id(row.getString(6).trim()), row.getInt(2), row.getInt(1));
+				++this._flights;
+			});
+			for (Departures d : this._departures)
+				d.sort();
+			return this._flights;
+		} finally {
+			this._lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Method to add a flight inserted after the graph was loaded.
+	 *
+	 * @param fnum             the flight number
+	 * @param cost             the ticket cost
+	 * @param departure        the departure date
+	 * @param arrival          the arrival date
+	 * @param departureAirport the airport code flown from
+	 * @param arrivalAirport   the airport code flown to
+	 */
+	public void addFlight(int fnum, int cost, LocalDate departure, LocalDate arrival, String departureAirport,
+			String arrivalAirport) {
+		if (arrival.isBefore(departure))
+			return;
+		this._lock.writeLock().lock();
+		try {
+			Departures d = this._departures.get(id(departureAirport.trim()));
+			int day = (int) departure.toEpochDay();
+			// after the flights already leaving that day
+			d.insert(d.lowerBound(day + 1), day, (int) arrival.toEpochDay(), id(arrivalAirport.trim()), cost, fnum);
+			++this._flights;
+		} finally {
+			this._lock.writeLock().unlock();
+		}
+	}
+
+	// returns the number of an airport code, adding the airport when new
+	private int id(String code) {
+		Integer id = this._ids.get(code);
+		if (id == null) {
+			id = this._codes.size();
+			this._ids.put(code, id);
+			this._codes.add(code);
+			this._departures.add(new Departures());
+		}
+		return id;
+	}
+
+	public int getFlightCount() {
+		this._lock.readLock().lock();
+		try {
+			return this._flights;
+		} finally {
+			this._lock.readLock().unlock();
+		}
+	}
+
+	// every airport code with at least one flight, in no particular order
+	public List<String> getAirports() {
+		this._lock.readLock().lock();
+		try {
+			return new ArrayList<String>(this._codes);
+		} finally {
+			this._lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Method to find the itineraries from one airport to another that are not
+	 * both later and dearer than another itinerary.
+	 *
+	 * @param from           the airport code flown from
+	 * @param to             the airport code flown to
+	 * @param date           the day the first leg departs
+	 * @param maxConnections the connections allowed, 0 for direct flights only
+	 * @param minLayoverDays the days between landing and the next departure
+	 * @return the itineraries by arrival, the first is the earliest and the
+	 *         last the cheapest; empty when there is none
+	 * @throws IllegalArgumentException when a limit is negative or both
+	 *                                  airports are the same
+	 */
+	public List<Itinerary> search(String from, String to, LocalDate date, int maxConnections, int minLayoverDays) {
+		if (maxConnections < 0 || minLayoverDays < 0)
+			throw new IllegalArgumentException("Connections and layover cannot be negative");
+		if (from.trim().equals(to.trim()))
+			throw new IllegalArgumentException("Departure and Destination Airport must differ");
+		this._lock.readLock().lock();
+		try {
+			Integer origin = this._ids.get(from.trim());
+			Integer target = this._ids.get(to.trim());
+			if (origin == null || target == null)
+				return new ArrayList<Itinerary>();
+			int start = (int) date.toEpochDay();
+			int horizon = start + MAX_TRIP_DAYS;
+
+			// the labels kept per airport, created when the airport is first reached
+			List<List<Label>> fronts = new ArrayList<List<Label>>(Collections.nCopies(this._codes.size(), (List<Label>) null));
+			List<Label> arrived = new ArrayList<Label>();
+			List<Label> frontier = new ArrayList<Label>();
+			frontier.add(new Label(origin, start, 0, 0, -1, null));
+
+			for (int legs = 1; legs <= maxConnections + 1 && !frontier.isEmpty(); ++legs) {
+				List<Label> next = new ArrayList<Label>();
+				for (Label at : frontier) {
+					if (at.dominated)
+						continue;
+					Departures d = this._departures.get(at.airport);
+					// the first leg leaves on the requested day
+					int first = at.parent == null ? start : at.day + minLayoverDays;
+					int last = at.parent == null ? start : horizon;
+					for (int i = d.lowerBound(first); i < d.size && d.day[i] <= last; ++i) {
+						// every later departure lands no earlier and costs no less
+						if (dominated(arrived, d.day[i], at.cost, Integer.MAX_VALUE))
+							break;
+						int dest = d.to[i];
+						int arrival = d.arrival[i];
+						int cost = at.cost + d.cost[i];
+						if (dest == origin || arrival > horizon || dominated(arrived, arrival, cost, Integer.MAX_VALUE))
+							continue;
+						Label reached = new Label(dest, arrival, cost, legs, d.fnum[i], at);
+						if (dest == target) {
+							addToFront(arrived, reached, false);
+						} else {
+							if (fronts.get(dest) == null)
+								fronts.set(dest, new ArrayList<Label>());
+							if (addToFront(fronts.get(dest), reached, true))
+								next.add(reached);
+						}
+					}
+				}
+				frontier = next;
+			}
+
+			arrived.sort((a, b) -> a.day != b.day ? Integer.compare(a.day, b.day) : Integer.compare(a.cost, b.cost));
+			List<Itinerary> itineraries = new ArrayList<Itinerary>(arrived.size());
+			for (Label label : arrived)
+				itineraries.add(itinerary(label, date));
+			return itineraries;
+		} finally {
+			this._lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Method to find the cheapest itinerary, the earliest among equally cheap
+	 * ones.
+	 *
+	 * @return the itinerary, or null when there is none
+	 * @see #search
+	 */
+	public Itinerary cheapest(String from, String to, LocalDate date, int maxConnections, int minLayoverDays) {
+		List<Itinerary> front = search(from, to, date, maxConnections, minLayoverDays);
+		return front.isEmpty() ? null : front.get(front.size() - 1);
+	}
+
+	/**
+	 * Method to find the earliest arriving itinerary, the cheapest among those
+	 * arriving the same day.
+	 *
+	 * @return the itinerary, or null when there is none
+	 * @see #search
+	 */
+	public Itinerary earliest(String from, String to, LocalDate date, int maxConnections, int minLayoverDays) {
+		List<Itinerary> front = search(from, to, date, maxConnections, minLayoverDays);
+		return front.isEmpty() ? null : front.get(0);
+	}
+
+	// true if a label in the front lands no later, costs no more and took no more legs
+	private static boolean dominated(List<Label> front, int day, int cost, int legs) {
+		for (Label l : front)
+			if (l.legs <= legs && l.day <= day && l.cost <= cost)
+				return true;
+		return false;
+	}
+
+	// adds the label unless it is dominated, dropping the labels it dominates,
+	// legs only count at airports the search may still leave from
+	private static boolean addToFront(List<Label> front, Label label, boolean countLegs) {
+		if (dominated(front, label.day, label.cost, countLegs ? label.legs : Integer.MAX_VALUE))
+			return false;
+		for (int i = front.size() - 1; i >= 0; --i) {
+			Label l = front.get(i);
+			if ((!countLegs || label.legs <= l.legs) && label.day <= l.day && label.cost <= l.cost) {
+				l.dominated = true;
+				front.remove(i);
+			}
+		}
+		front.add(label);
+		return true;
+	}
+
+	private Itinerary itinerary(Label last, LocalDate date) {
+		int[] flights = new int[last.legs];
+		String[] airports = new String[last.legs + 1];
+		Label l = last;
+		for (int i = last.legs; i > 0; --i, l = l.parent) {
+			flights[i - 1] = l.fnum;
+			airports[i] = this._codes.get(l.airport);
+		}
+		airports[0] = this._codes.get(l.airport);
+		return new Itinerary(flights, airports, last.cost, date, LocalDate.ofEpochDay(last.day));
+	}
+}
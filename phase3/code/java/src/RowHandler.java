@@ -0,0 +1,16 @@
+import java.sql.SQLException;
+
+/**
+ * Callback that receives the rows of a streamed query one at a time. The row
+ * passed in is a view of the current cursor position and is only valid until
+ * the callback returns.
+ *
+ */
+
+public interface RowHandler {
+	// called once before the first row, the view has the column names and types
+	default void start(ResultRow row) throws SQLException {
+	}
+
+	void row(ResultRow row) throws SQLException;
+}
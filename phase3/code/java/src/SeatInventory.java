@@ -0,0 +1,213 @@
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * This class keeps the seat count of every flight in memory so availability
+ * checks do not touch the database. Flights are indexed directly by flight
+ * number in fixed-size chunks of primitive counters. Booking a seat is a
+ * compare-and-set on the sold counter, so concurrent bookings never take more
+ * seats than the plane has.
+ *
+ * The inventory is filled from Flight, FlightInfo and Plane. Writers update
+ * it together with Flight.num_sold, see DBproject.bookFlight. Writes of other
+ * clients only show up when DBproject reloads it, every
+ * DEFAULT_MAX_AGE_MILLIS by default, so a flight it counts as full is still
+ * booked through the database.
+ *
+ */
+
+public class SeatInventory {
+	// capacity of a flight with no plane assigned in FlightInfo
+	public static final int UNKNOWN = -1;
+	// milliseconds before DBproject reloads the inventory, see seats.max.age
+	public static final long DEFAULT_MAX_AGE_MILLIS = 60000;
+
+	private static final int CHUNK_BITS = 10;
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+	// marks an empty slot in the departure day array
+	private static final int NO_FLIGHT = Integer.MIN_VALUE;
+
+	static final String SELECT_SEATS = "SELECT F.fnum, P.seats, F.num_sold, F.actual_departure_date\n"
+			+ "FROM Flight F LEFT JOIN FlightInfo FI ON FI.flight_id = F.fnum LEFT JOIN Plane P ON P.id = FI.plane_id";
+
+	/**
+	 * Counters for CHUNK_SIZE consecutive flight numbers.
+	 */
+	private static class Chunk {
+		final AtomicIntegerArray capacity = new AtomicIntegerArray(CHUNK_SIZE);
+		final AtomicIntegerArray sold = new AtomicIntegerArray(CHUNK_SIZE);
+		final AtomicIntegerArray departureDay = new AtomicIntegerArray(CHUNK_SIZE);
+
+		Chunk() {
+			for (int i = 0; i < CHUNK_SIZE; ++i)
+				this.departureDay.set(i, NO_FLIGHT);
+		}
+	}
+
+	// replaced by a larger copy when a flight number falls past the end
+	private volatile AtomicReferenceArray<Chunk> _chunks = new AtomicReferenceArray<Chunk>(16);
+
+	/**
+	 * Method to fill the inventory from the database.
+	 *
+	 * @param esql the database client
+	 * @return the number of flights loaded
+	 * @throws java.sql.SQLException when the flights could not be read
+	 */
+	public int load(DBproject esql) throws SQLException {
+		return esql.executeQueryStreaming(SELECT_SEATS, DBproject.DEFAULT_FETCH_SIZE, row -> {
+			int seats = row.getInt(2);
+			if (row.wasNull())
+				seats = UNKNOWN;
+			putFlight(row.getInt(1), seats, row.getInt(3), row.getDate(4));
+		});
+	}
+
+	/**
+	 * Method to add or replace a flight.
+	 *
+	 * @param fnum      the flight number
+	 * @param capacity  the seats of its plane, or UNKNOWN
+	 * @param sold      the seats sold so far
+	 * @param departure the departure date
+	 */
+	public void putFlight(int fnum, int capacity, int sold, LocalDate departure) {
+		Chunk chunk = chunkFor(fnum, true);
+		int i = fnum & CHUNK_MASK;
+		chunk.capacity.set(i, capacity);
+		chunk.sold.set(i, sold);
+		// written last, readers treat the slot as present once it is set
+		chunk.departureDay.set(i, (int) departure.toEpochDay());
+	}
+
+	/**
+	 * Method to set the capacity of a flight once its plane is known.
+	 *
+	 * @param fnum     the flight number
+	 * @param capacity the seats of its plane
+	 */
+	public void setCapacity(int fnum, int capacity) {
+		Chunk chunk = chunkFor(fnum, false);
+		if (chunk != null)
+			chunk.capacity.set(fnum & CHUNK_MASK, capacity);
+	}
+
+	public boolean contains(int fnum) {
+		Chunk chunk = chunkFor(fnum, false);
+		return chunk != null && chunk.departureDay.get(fnum & CHUNK_MASK) != NO_FLIGHT;
+	}
+
+	/**
+	 * Method to return the departure date of a flight.
+	 *
+	 * @param fnum the flight number
+	 * @return the departure date, or null when the flight is not in the
+	 *         inventory
+	 */
+	public LocalDate departure(int fnum) {
+		Chunk chunk = chunkFor(fnum, false);
+		if (chunk == null)
+			return null;
+		int day = chunk.departureDay.get(fnum & CHUNK_MASK);
+		return day == NO_FLIGHT ? null : LocalDate.ofEpochDay(day);
+	}
+
+	/**
+	 * Method to return the seats left on a flight departing on the given day.
+	 *
+	 * @param fnum      the flight number
+	 * @param departure the departure date
+	 * @return the free seats, or UNKNOWN when the flight does not depart that day
+	 *         or has no plane
+	 */
+	public int available(int fnum, LocalDate departure) {
+		Chunk chunk = chunkFor(fnum, false);
+		if (chunk == null)
+			return UNKNOWN;
+		int i = fnum & CHUNK_MASK;
+		if (chunk.departureDay.get(i) != (int) departure.toEpochDay())
+			return UNKNOWN;
+		int capacity = chunk.capacity.get(i);
+		if (capacity == UNKNOWN)
+			return UNKNOWN;
+		return Math.max(0, capacity - chunk.sold.get(i));
+	}
+
+	/**
+	 * Method to take one seat on a flight. Flights without a known plane are
+	 * not limited here and are left to the check in the database.
+	 *
+	 * @param fnum the flight number
+	 * @return true if a seat was taken, false if the flight is full or unknown
+	 */
+	public boolean tryReserve(int fnum) {
+		Chunk chunk = chunkFor(fnum, false);
+		if (chunk == null)
+			return false;
+		int i = fnum & CHUNK_MASK;
+		if (chunk.departureDay.get(i) == NO_FLIGHT)
+			return false;
+		while (true) {
+			int sold = chunk.sold.get(i);
+			int capacity = chunk.capacity.get(i);
+			if (capacity != UNKNOWN && sold >= capacity)
+				return false;
+			if (chunk.sold.compareAndSet(i, sold, sold + 1))
+				return true;
+		}
+	}
+
+	/**
+	 * Method to give back a seat taken with tryReserve.
+	 *
+	 * @param fnum the flight number
+	 */
+	public void release(int fnum) {
+		Chunk chunk = chunkFor(fnum, false);
+		if (chunk == null)
+			return;
+		int i = fnum & CHUNK_MASK;
+		while (true) {
+			int sold = chunk.sold.get(i);
+			if (sold <= 0 || chunk.sold.compareAndSet(i, sold, sold - 1))
+				return;
+		}
+	}
+
+	// returns the chunk holding fnum, creating it when asked to
+	private Chunk chunkFor(int fnum, boolean create) {
+		if (fnum < 0)
+			throw new IllegalArgumentException("Flight number cannot be negative");
+		int c = fnum >>> CHUNK_BITS;
+		AtomicReferenceArray<Chunk> chunks = this._chunks;
+		if (c < chunks.length()) {
+			Chunk chunk = chunks.get(c);
+			if (chunk != null || !create)
+				return chunk;
+		} else if (!create) {
+			return null;
+		}
+		return createChunk(c);
+	}
+
+	private synchronized Chunk createChunk(int c) {
+		AtomicReferenceArray<Chunk> chunks = this._chunks;
+		if (c >= chunks.length()) {
+			// chunks are shared with the old directory, only references are copied
+			AtomicReferenceArray<Chunk> grown = new AtomicReferenceArray<Chunk>(Math.max(c + 1, chunks.length() * 2));
+			for (int i = 0; i < chunks.length(); ++i)
+				grown.set(i, chunks.get(i));
+			chunks = grown;
+			this._chunks = grown;
+		}
+		Chunk chunk = chunks.get(c);
+		if (chunk == null) {
+			chunk = new Chunk();
+			chunks.set(c, chunk);
+		}
+		return chunk;
+	}
+}
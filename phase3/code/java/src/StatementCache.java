@@ -0,0 +1,119 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.postgresql.PGStatement;
+
+/**
+ * This class keeps a bounded set of prepared statements for one physical
+ * connection. Statements are keyed by their SQL text, so every call with the
+ * same query shape reuses the statement that Postgres already parsed and
+ * planned. When the cache is full the least recently used statement is closed.
+ *
+ */
+
+public class StatementCache {
+	// default number of statements kept open per connection
+	public static final int DEFAULT_CAPACITY = 64;
+
+	private final Connection _connection;
+	private final int _capacity;
+	private final LinkedHashMap<String, PreparedStatement> _statements;
+	private long _hits = 0;
+	private long _misses = 0;
+
+	public StatementCache(Connection connection, int capacity) {
+		this._connection = connection;
+		this._capacity = capacity;
+		// access ordered so iteration starts with the least recently used entry
+		this._statements = new LinkedHashMap<String, PreparedStatement>(capacity * 2, 0.75f, true);
+	}
+
+	/**
+	 * Method to return a prepared statement for the SQL string with the given
+	 * parameters bound. The statement stays owned by the cache and must not be
+	 * closed by the caller.
+	 *
+	 * @param sql    the SQL string using '?' placeholders
+	 * @param params the values bound to the placeholders in order
+	 * @return the bound prepared statement
+	 * @throws java.sql.SQLException when the statement could not be prepared
+	 */
+	public PreparedStatement prepare(String sql, Object... params) throws SQLException {
+		PreparedStatement stmt = this._statements.get(sql);
+		if (stmt == null || stmt.isClosed()) {
+			++this._misses;
+			stmt = this._connection.prepareStatement(sql);
+			// use a named server-side statement from the first execution on
+			if (stmt.isWrapperFor(PGStatement.class))
+				stmt.unwrap(PGStatement.class).setPrepareThreshold(1);
+			this._statements.put(sql, stmt);
+			evict();
+		} else {
+			++this._hits;
+			stmt.clearParameters();
+		}
+		bind(stmt, params);
+		return stmt;
+	}
+
+	/**
+	 * Method to bind the parameter values to a prepared statement.
+	 *
+	 * @param stmt   the prepared statement
+	 * @param params the values bound to the placeholders in order
+	 * @throws java.sql.SQLException when a value could not be bound
+	 */
+	public static void bind(PreparedStatement stmt, Object... params) throws SQLException {
+		for (int i = 0; i < params.length; ++i) {
+			if (params[i] == null)
+				stmt.setNull(i + 1, Types.NULL);
+			else
+				stmt.setObject(i + 1, params[i]);
+		}
+	}
+
+	// closes the least recently used statements until the cache fits
+	private void evict() {
+		Iterator<Map.Entry<String, PreparedStatement>> it = this._statements.entrySet().iterator();
+		while (this._statements.size() > this._capacity && it.hasNext()) {
+			PreparedStatement stmt = it.next().getValue();
+			it.remove();
+			try {
+				stmt.close();
+			} catch (SQLException e) {
+				// ignored.
+			}
+		}
+	}
+
+	public int size() {
+		return this._statements.size();
+	}
+
+	public long hits() {
+		return this._hits;
+	}
+
+	public long misses() {
+		return this._misses;
+	}
+
+	/**
+	 * Method to close every cached statement.
+	 */
+	public void close() {
+		for (PreparedStatement stmt : this._statements.values()) {
+			try {
+				stmt.close();
+			} catch (SQLException e) {
+				// ignored.
+			}
+		}
+		this._statements.clear();
+	}
+}
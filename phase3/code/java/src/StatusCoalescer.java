@@ -0,0 +1,377 @@
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * This class gathers reservation status changes per flight for a short window
+ * and writes each window with one statement in one transaction. A customer
+ * changed more than once in a window is written once, with the last status;
+ * every caller gets a future that completes when the status that replaced or
+ * kept theirs is committed.
+ *
+ * The statement locks the reservations of the window and the flight, works
+ * out the seat taken or given back by every change, and lets seat-taking
+ * changes through in the order they came while seats last, the way
+ * updateReservationStatus would one at a time. Windows of one flight are
+ * written in the order they closed, so a later status never lands before an
+ * earlier one.
+ *
+ */
+
+public class StatusCoalescer implements AutoCloseable {
+	public static final long DEFAULT_WINDOW_MILLIS = 5;
+	// changes written by one statement, a fuller window is written at once
+	public static final int DEFAULT_MAX_BATCH = 500;
+	// round trips of one updateReservationStatus call: the locking read, the update and the commit,
+	// and one more when a seat is taken or given back
+	static final int ROUND_TRIPS_PER_CHANGE = 3;
+
+	// one row per change in the order given, with what the change did; the flight and its
+	// reservations are narrowed by fid, and by the departure date on sql/create-partitioned.sql
+	static final String UPDATE_STATUSES = updateStatuses("", "");
+	static final String UPDATE_STATUSES_ON = updateStatuses(" AND R.flight_date = ?", " AND F.actual_departure_date = ?");
+
+	private static String updateStatuses(String reservationDate, String flightDate) {
+		return "WITH change AS (SELECT * FROM unnest(?::int[], ?::char(1)[]) WITH ORDINALITY AS C(cid, status, ord)),\n"
+				+ "existing AS (SELECT R.rnum, R.cid, R.status AS old_status, C.status AS new_status, C.ord,\n"
+				+ "    (C.status IN ('R', 'C'))::int - COALESCE(R.status IN ('R', 'C'), false)::int AS delta\n"
+				+ "  FROM Reservation R JOIN change C ON C.cid = R.cid WHERE R.fid = ?" + reservationDate + " FOR UPDATE OF R),\n"
+				+ "flight AS (SELECT F.num_sold, COALESCE((SELECT P.seats FROM FlightInfo FI, Plane P\n"
+				+ "    WHERE FI.flight_id = F.fnum AND FI.plane_id = P.id ORDER BY FI.fiid LIMIT 1), 2147483647) AS seats\n"
+				+ "  FROM Flight F WHERE F.fnum = ?" + flightDate + " FOR UPDATE),\n"
+				// the seats given back are free for the changes that take one, in the order they came
+				+ "fits AS (SELECT K.*, K.delta <= 0 OR F.num_sold - (SELECT count(*) FROM existing WHERE delta < 0)\n"
+				+ "    + sum(GREATEST(K.delta, 0)) OVER (ORDER BY K.ord, K.rnum) <= F.seats AS granted\n"
+				+ "  FROM existing K, flight F),\n"
+				+ "written AS (UPDATE Reservation R SET status = K.new_status FROM fits K\n"
+				+ "  WHERE R.rnum = K.rnum AND K.granted AND R.fid = ?" + reservationDate + " RETURNING K.delta),\n"
+				+ "sold AS (UPDATE Flight F SET num_sold = GREATEST(0, F.num_sold + (SELECT sum(delta) FROM written))\n"
+				+ "  WHERE F.fnum = ?" + flightDate + " AND EXISTS (SELECT 1 FROM written WHERE delta <> 0))\n"
+				+ "SELECT C.cid, K.rnum, K.old_status, K.granted, K.delta FROM change C LEFT JOIN fits K ON K.cid = C.cid ORDER BY C.ord";
+	}
+
+	/**
+	 * The status a customer is given on a flight, and the callers waiting for
+	 * it or for a status it replaced.
+	 */
+	private static final class Change {
+		String status;
+		final List<CompletableFuture<BookingResult>> waiting = new ArrayList<CompletableFuture<BookingResult>>(1);
+	}
+
+	/**
+	 * The open window of one flight, and the last write of its windows.
+	 */
+	private static final class Flight {
+		final int fid;
+		final ReentrantLock lock = new ReentrantLock();
+		// cid -> change, in the order first changed; null while no window is open
+		LinkedHashMap<Integer, Change> open = null;
+		// counts the windows, so a timer does not close a later window early
+		long window = 0;
+		// completes when the last window closed has been written
+		CompletableFuture<Void> tail = CompletableFuture.completedFuture(null);
+
+		Flight(int fid) {
+			this.fid = fid;
+		}
+	}
+
+	private final DBproject _esql;
+	private final long _windowMillis;
+	private final int _maxBatch;
+	private final ConcurrentHashMap<Integer, Flight> _flights = new ConcurrentHashMap<Integer, Flight>();
+	private final ScheduledExecutorService _timer = Executors.newSingleThreadScheduledExecutor();
+	private final ExecutorService _writers;
+
+	// what came in and what it cost
+	private final LongAdder _changes = new LongAdder();
+	private final LongAdder _written = new LongAdder();
+	private final LongAdder _batches = new LongAdder();
+	private final LongAdder _roundTrips = new LongAdder();
+	private final LongAdder _saved = new LongAdder();
+	private final LatencyHistogram _batchSizes = new LatencyHistogram();
+
+	/**
+	 * Method to create a coalescing writer.
+	 *
+	 * @param esql         the database client
+	 * @param windowMillis how long a flight gathers changes before they are
+	 *                     written
+	 * @param maxBatch     the changes written at most by one statement
+	 * @param writers      the threads writing windows, at most one per pooled
+	 *                     connection is useful
+	 */
+	public StatusCoalescer(DBproject esql, long windowMillis, int maxBatch, int writers) {
+		if (windowMillis < 0 || maxBatch <= 0 || writers <= 0)
+			throw new IllegalArgumentException("The window cannot be negative, the batch and writers must be greater than 0");
+		this._esql = esql;
+		this._windowMillis = windowMillis;
+		this._maxBatch = maxBatch;
+		this._writers = Executors.newFixedThreadPool(writers);
+		esql.getMetrics().addCoalescer(this);
+	}
+
+	/**
+	 * Method to change the status of a reservation in the next write of its
+	 * flight.
+	 *
+	 * @param cid    the customer ID
+	 * @param fid    the flight number
+	 * @param status the new reservation status (W, R, C)
+	 * @return a future completing with UPDATED, NOT_FOUND or FULL once the
+	 *         status that was written for the reservation is committed
+	 */
+	public CompletableFuture<BookingResult> updateStatus(int cid, int fid, String status) {
+		CompletableFuture<BookingResult> result = new CompletableFuture<BookingResult>();
+		this._changes.increment();
+		Flight flight = this._flights.computeIfAbsent(fid, Flight::new);
+		flight.lock.lock();
+		try {
+			if (flight.open == null) {
+				flight.open = new LinkedHashMap<Integer, Change>();
+				long window = ++flight.window;
+				this._timer.schedule(() -> close(flight, window), this._windowMillis, TimeUnit.MILLISECONDS);
+			}
+			Change change = flight.open.computeIfAbsent(cid, c -> new Change());
+			change.status = status;
+			change.waiting.add(result);
+			if (flight.open.size() >= this._maxBatch)
+				close(flight, flight.window);
+		} finally {
+			flight.lock.unlock();
+		}
+		return result;
+	}
+
+	/**
+	 * Method to change the status of a reservation and wait for it to be
+	 * committed, like DBproject.updateReservationStatus.
+	 *
+	 * @param cid    the customer ID
+	 * @param fid    the flight number
+	 * @param status the new reservation status (W, R, C)
+	 * @return UPDATED, NOT_FOUND or FULL
+	 * @throws java.sql.SQLException when the write failed
+	 */
+	public BookingResult updateReservationStatus(int cid, int fid, String status) throws SQLException {
+		try {
+			return updateStatus(cid, fid, status).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for the status write", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof SQLException)
+				throw (SQLException) e.getCause();
+			throw new SQLException(e.getCause().getMessage(), e.getCause());
+		}
+	}
+
+	// closes the window of a flight, if it is still open, and queues its write behind the one before
+	private void close(Flight flight, long window) {
+		flight.lock.lock();
+		try {
+			if (flight.open == null || flight.window != window)
+				return;
+			LinkedHashMap<Integer, Change> changes = flight.open;
+			flight.open = null;
+			flight.tail = flight.tail.thenRunAsync(() -> write(flight.fid, changes), this._writers);
+		} finally {
+			flight.lock.unlock();
+		}
+	}
+
+	// writes one window and completes its futures, never throwing so the next window still runs
+	private void write(int fid, LinkedHashMap<Integer, Change> changes) {
+		int[] cids = new int[changes.size()];
+		String[] statuses = new String[changes.size()];
+		int i = 0;
+		long waiting = 0;
+		for (Map.Entry<Integer, Change> change : changes.entrySet()) {
+			cids[i] = change.getKey();
+			statuses[i++] = change.getValue().status;
+			waiting += change.getValue().waiting.size();
+		}
+		Map<Integer, BookingResult> results;
+		try {
+			results = writeWithRetry(fid, cids, statuses, waiting);
+		} catch (SQLException | RuntimeException e) {
+			for (Change change : changes.values())
+				for (CompletableFuture<BookingResult> result : change.waiting)
+					result.completeExceptionally(e);
+			return;
+		}
+		for (Map.Entry<Integer, Change> change : changes.entrySet())
+			for (CompletableFuture<BookingResult> result : change.getValue().waiting)
+				result.complete(results.get(change.getKey()));
+	}
+
+	private Map<Integer, BookingResult> writeWithRetry(int fid, int[] cids, String[] statuses, long waiting)
+			throws SQLException {
+		for (int attempt = 1;; ++attempt) {
+			try {
+				return this._esql.getMetrics().measure("UpdateReservationStatusBatch",
+						() -> writeBatch(fid, cids, statuses, waiting));
+			} catch (SQLException e) {
+				String state = e.getSQLState();
+				boolean retryable = "40001".equals(state) || "40P01".equals(state);
+				if (!retryable || attempt >= DBproject.MAX_BOOKING_ATTEMPTS)
+					throw e;
+				// back off a little so the competing transaction can finish
+				try {
+					Thread.sleep(ThreadLocalRandom.current().nextInt(1, 1 << attempt));
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					throw e;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Method to write the changes of one window in one transaction and bring
+	 * the seat inventory and passenger counters in line.
+	 *
+	 * @param fid      the flight number
+	 * @param cids     the customers, each once
+	 * @param statuses the status each customer is given
+	 * @param waiting  the changes asked for, including the ones replaced
+	 * @return the result per customer
+	 * @throws java.sql.SQLException when the write failed
+	 */
+	private Map<Integer, BookingResult> writeBatch(int fid, int[] cids, String[] statuses, long waiting)
+			throws SQLException {
+		java.sql.Date date = this._esql.partitionDate(fid);
+		Map<Integer, BookingResult> results = new HashMap<Integer, BookingResult>();
+		Map<Integer, String> old = new HashMap<Integer, String>();
+		Map<Integer, Integer> delta = new HashMap<Integer, Integer>();
+		this._esql.withConnection(pc -> {
+			Connection conn = pc.getConnection();
+			conn.setAutoCommit(false);
+			Integer[] boxed = new Integer[cids.length];
+			for (int i = 0; i < cids.length; ++i)
+				boxed[i] = cids[i];
+			Array cidArray = conn.createArrayOf("int4", boxed);
+			Array statusArray = conn.createArrayOf("text", statuses);
+			Object[] params = date == null ? new Object[] { cidArray, statusArray, fid, fid, fid, fid }
+					: new Object[] { cidArray, statusArray, fid, date, fid, date, fid, date, fid, date };
+			Metrics.roundTrips(2);
+			ResultSet rs = pc.getStatements().prepare(date == null ? UPDATE_STATUSES : UPDATE_STATUSES_ON, params)
+					.executeQuery();
+			while (rs.next()) {
+				int cid = rs.getInt(1);
+				// a customer with more than one reservation on the flight is reported by the first
+				if (results.containsKey(cid))
+					continue;
+				int rnum = rs.getInt(2);
+				if (rs.wasNull()) {
+					results.put(cid, new BookingResult(BookingResult.Outcome.NOT_FOUND));
+				} else if (!rs.getBoolean(4)) {
+					results.put(cid, new BookingResult(BookingResult.Outcome.FULL));
+				} else {
+					results.put(cid, new BookingResult(BookingResult.Outcome.UPDATED, rnum));
+					old.put(cid, rs.getString(3));
+					delta.put(cid, rs.getInt(5));
+				}
+			}
+			rs.close();
+			conn.commit();
+			cidArray.free();
+			statusArray.free();
+			Metrics.rows(old.size());
+			return null;
+		});
+
+		SeatInventory seats = this._esql.getSeatInventory();
+		long seatChanges = 0;
+		for (int i = 0; i < cids.length; ++i) {
+			Integer d = delta.get(cids[i]);
+			if (d == null)
+				continue;
+			if (d > 0 && seats.contains(fid))
+				seats.tryReserve(fid);
+			else if (d < 0)
+				seats.release(fid);
+			if (d != 0)
+				++seatChanges;
+			this._esql.reservationMoved(fid, old.get(cids[i]), statuses[i]);
+		}
+		this._batches.increment();
+		this._written.add(old.size());
+		this._roundTrips.add(2);
+		this._saved.add(waiting * ROUND_TRIPS_PER_CHANGE + seatChanges - 2);
+		this._batchSizes.record(waiting);
+		return results;
+	}
+
+	/**
+	 * Method to write every open window and stop. Changes asked for afterwards
+	 * are not written.
+	 */
+	public void close() {
+		for (Flight flight : this._flights.values())
+			close(flight, flight.window);
+		List<CompletableFuture<Void>> tails = new ArrayList<CompletableFuture<Void>>();
+		for (Flight flight : this._flights.values()) {
+			flight.lock.lock();
+			try {
+				tails.add(flight.tail);
+			} finally {
+				flight.lock.unlock();
+			}
+		}
+		CompletableFuture.allOf(tails.toArray(new CompletableFuture<?>[0])).join();
+		this._timer.shutdown();
+		this._writers.shutdown();
+	}
+
+	public long getChanges() {
+		return this._changes.sum();
+	}
+
+	// reservations written, after repeated changes of one customer are collapsed
+	public long getWritten() {
+		return this._written.sum();
+	}
+
+	public long getBatches() {
+		return this._batches.sum();
+	}
+
+	public long getRoundTrips() {
+		return this._roundTrips.sum();
+	}
+
+	// round trips the same changes would have taken through updateReservationStatus, less the ones taken
+	public long getRoundTripsSaved() {
+		return this._saved.sum();
+	}
+
+	// the changes asked for per window written
+	public LatencyHistogram getBatchSizes() {
+		return this._batchSizes;
+	}
+
+	public String stats() {
+		return String.format(
+				"status coalescer: changes=%d written=%d batches=%d (mean %.1f, p50 %d, p99 %d, max %d) round trips=%d saved=%d",
+				getChanges(), getWritten(), getBatches(), this._batchSizes.mean(), this._batchSizes.percentile(50),
+				this._batchSizes.percentile(99), this._batchSizes.max(), getRoundTrips(), getRoundTripsSaved());
+	}
+}
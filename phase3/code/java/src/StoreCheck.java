@@ -0,0 +1,232 @@
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * This class checks that MemoryStore answers queries 5 to 9 like the
+ * database does. The database must hold exactly the data directory the
+ * memory store is loaded from, e.g. right after ./load.sh, since neither
+ * side is changed by the check.
+ *
+ * Query 5 is checked on the lookup that decides between booking and
+ * updating, for a sample of reservations and of customer and flight pairs
+ * that mostly have none. Query 6 is checked for a sample of flights on their
+ * departure day and the day after, query 9 for the same flights and every
+ * status, and queries 7 and 8 in full. Groups with the same count may come
+ * back in any order, so those lists are compared as sets and checked to be
+ * sorted.
+ *
+ */
+
+public class StoreCheck {
+	public static final int DEFAULT_SAMPLES = 2000;
+	// differences printed per query, the rest are only counted
+	private static final int MAX_REPORTED = 10;
+
+	static final String COUNT_ROWS = "SELECT count(*) FROM ";
+	static final String SELECT_FLIGHTS = "SELECT fnum, actual_departure_date FROM Flight";
+	static final String SELECT_CUSTOMERS = "SELECT id FROM Customer";
+	static final String SELECT_RESERVATIONS = "SELECT cid, fid FROM Reservation WHERE rnum % ? = 0";
+
+	private final FlightStore _expected;
+	private final FlightStore _actual;
+	private int _checks = 0;
+	private int _differences = 0;
+	private int _reported = 0;
+
+	/**
+	 * Method to create a check of one store against another.
+	 *
+	 * @param expected the store taken as right, the database
+	 * @param actual   the store checked
+	 */
+	public StoreCheck(FlightStore expected, FlightStore actual) {
+		this._expected = expected;
+		this._actual = actual;
+	}
+
+	// counts one comparison and reports it when the answers differ
+	private void compare(String what, Object expected, Object actual) {
+		++this._checks;
+		if (expected == null ? actual == null : expected.equals(actual))
+			return;
+		++this._differences;
+		if (++this._reported <= MAX_REPORTED)
+			System.out.println("  " + what + ": expected " + expected + ", got " + actual);
+	}
+
+	// prints the checks and differences since the last section, returns the differences
+	private int section(String name, long start) {
+		System.out.printf("%-24s %8d checks %6d differences %10.1f ms%n", name, this._checks, this._differences,
+				(System.nanoTime() - start) / 1e6);
+		int differences = this._differences;
+		this._checks = this._differences = this._reported = 0;
+		return differences;
+	}
+
+	/**
+	 * A uniform sample of up to size items of a stream, by reservoir sampling.
+	 */
+	private static final class Sample {
+		final List<int[]> items = new ArrayList<int[]>();
+		private final int _size;
+		private final Random _random;
+		private long _seen = 0;
+
+		Sample(int size, Random random) {
+			this._size = size;
+			this._random = random;
+		}
+
+		void offer(int[] item) {
+			++this._seen;
+			if (this.items.size() < this._size) {
+				this.items.add(item);
+			} else {
+				long slot = (long) (this._random.nextDouble() * this._seen);
+				if (slot < this._size)
+					this.items.set((int) slot, item);
+			}
+		}
+	}
+
+	/**
+	 * Method to compare the stores.
+	 *
+	 * @param esql    the database client behind the expected store
+	 * @param counts  the rows per table of the checked store
+	 * @param samples the keys checked per query
+	 * @param seed    the seed the samples are drawn with
+	 * @return the number of differences
+	 * @throws java.sql.SQLException when the database could not be read
+	 */
+	public int run(DBproject esql, Map<String, Integer> counts, int samples, long seed) throws SQLException {
+		Random random = new Random(seed);
+		int differences = 0;
+
+		long start = System.nanoTime();
+		for (Map.Entry<String, Integer> table : counts.entrySet())
+			compare(table.getKey(), Integer.parseInt(esql.executeQueryAndReturnResult(COUNT_ROWS + table.getKey()).get(0).get(0)),
+					table.getValue());
+		differences += section("rows per table", start);
+
+		Sample flights = new Sample(samples, random);
+		esql.executeQueryStreaming(SELECT_FLIGHTS, DBproject.DEFAULT_FETCH_SIZE,
+				row -> flights.offer(new int[] { row.getInt(1), (int) row.getEpochDay(2) }));
+		Sample customers = new Sample(samples, random);
+		esql.executeQueryStreaming(SELECT_CUSTOMERS, DBproject.DEFAULT_FETCH_SIZE,
+				row -> customers.offer(new int[] { row.getInt(1) }));
+		Sample reservations = new Sample(samples, random);
+		int every = Math.max(1, counts.getOrDefault("Reservation", 0) / samples);
+		esql.executeQueryStreaming(SELECT_RESERVATIONS, DBproject.DEFAULT_FETCH_SIZE,
+				row -> reservations.offer(new int[] { row.getInt(1), row.getInt(2) }), every);
+
+		start = System.nanoTime();
+		List<int[]> pairs = new ArrayList<int[]>(reservations.items);
+		for (int i = 0; i < samples && !customers.items.isEmpty() && !flights.items.isEmpty(); ++i)
+			pairs.add(new int[] { customers.items.get(random.nextInt(customers.items.size()))[0],
+					flights.items.get(random.nextInt(flights.items.size()))[0] });
+		// and a flight that does not exist
+		if (!customers.items.isEmpty())
+			pairs.add(new int[] { customers.items.get(0)[0], -1 });
+		for (int[] pair : pairs)
+			compare("status of " + pair[0] + " on " + pair[1], this._expected.reservationStatus(pair[0], pair[1]),
+					this._actual.reservationStatus(pair[0], pair[1]));
+		differences += section("5 reservation status", start);
+
+		start = System.nanoTime();
+		for (int[] flight : flights.items) {
+			for (int day = 0; day <= 1; ++day) {
+				LocalDate date = LocalDate.ofEpochDay(flight[1] + day);
+				compare("seats of " + flight[0] + " on " + date, this._expected.availableSeats(flight[0], date),
+						this._actual.availableSeats(flight[0], date));
+			}
+		}
+		differences += section("6 available seats", start);
+
+		start = System.nanoTime();
+		compareGroups("plane", this._expected.repairsPerPlane(), this._actual.repairsPerPlane(), false);
+		differences += section("7 repairs per plane", start);
+
+		start = System.nanoTime();
+		compareGroups("year", this._expected.repairsPerYear(), this._actual.repairsPerYear(), true);
+		differences += section("8 repairs per year", start);
+
+		start = System.nanoTime();
+		for (int[] flight : flights.items)
+			for (char status : ReservationCounters.STATUSES.toCharArray())
+				compare("passengers of " + flight[0] + " with " + status,
+						this._expected.passengersWithStatus(flight[0], String.valueOf(status)),
+						this._actual.passengersWithStatus(flight[0], String.valueOf(status)));
+		differences += section("9 passengers with status", start);
+		return differences;
+	}
+
+	// compares two (key, count) lists as sets, and checks the order of the checked one
+	private void compareGroups(String key, List<int[]> expected, List<int[]> actual, boolean ascending) {
+		compare(key + "s", expected.size(), actual.size());
+		for (int i = 1; i < actual.size(); ++i) {
+			int a = actual.get(i - 1)[1], b = actual.get(i)[1];
+			if (ascending ? a > b : a < b)
+				compare("order at " + key + " " + actual.get(i)[0], "sorted", "out of order");
+		}
+		Set<String> want = new HashSet<String>(), got = new HashSet<String>();
+		for (int[] group : expected)
+			want.add(Arrays.toString(group));
+		for (int[] group : actual)
+			got.add(Arrays.toString(group));
+		for (String group : want)
+			compare(key + " " + group, "present", got.contains(group) ? "present" : "missing");
+		for (String group : got)
+			if (!want.contains(group))
+				compare(key + " " + group, "absent", "present");
+	}
+
+	public static void main(String[] args) {
+		if (args.length < 3) {
+			System.err.println("Usage: " + "java [-classpath <classpath>] " + StoreCheck.class.getName()
+					+ " <dbname> <port> <user> [--data dir] [--samples N] [--seed N]");
+			return;
+		} // end if
+
+		String data = "../data";
+		int samples = DEFAULT_SAMPLES;
+		long seed = 42;
+		for (int i = 3; i + 1 < args.length; i += 2) {
+			switch (args[i]) {
+				case "--data": data = args[i + 1]; break;
+				case "--samples": samples = Integer.parseInt(args[i + 1]); break;
+				case "--seed": seed = Long.parseLong(args[i + 1]); break;
+				default:
+					System.err.println("Unknown option: " + args[i]);
+					return;
+			}
+		}
+
+		DBproject esql = null;
+		int differences = 0;
+		try {
+			MemoryStore memory = MemoryStore.load(new File(data));
+			Class.forName("org.postgresql.Driver");
+			esql = new DBproject(args[0], args[1], args[2], "");
+			differences = new StoreCheck(new JdbcStore(esql), memory).run(esql, memory.getRowCounts(), samples, seed);
+			System.out.println(differences == 0 ? "The stores agree" : differences + " difference(s)");
+		} catch (IOException | SQLException | ClassNotFoundException e) {
+			System.err.println(e.getMessage());
+			differences = -1;
+		} finally {
+			if (esql != null)
+				esql.cleanup();
+		}
+		if (differences != 0)
+			System.exit(1);
+	}
+}
@@ -0,0 +1,48 @@
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * This class creates the executors the client runs concurrent work on. The
+ * client is built for Java 11, so virtual threads are looked up at run time
+ * and used when the JVM running it has them (Java 21 and later).
+ *
+ */
+
+public class TaskExecutors {
+	private TaskExecutors() {
+	}
+
+	/**
+	 * Method to tell whether this JVM supports virtual threads.
+	 *
+	 * @return true on Java 21 and later
+	 */
+	public static boolean hasVirtualThreads() {
+		try {
+			Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return true;
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Method to create an executor that starts one virtual thread per task, or
+	 * a fixed pool of platform threads when virtual threads are not available or
+	 * not wanted.
+	 *
+	 * @param virtual whether to prefer virtual threads
+	 * @param threads size of the platform thread pool
+	 * @return the executor
+	 */
+	public static ExecutorService newExecutor(boolean virtual, int threads) {
+		if (virtual) {
+			try {
+				return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+			} catch (ReflectiveOperationException e) {
+				System.err.println("Virtual threads need Java 21, using " + threads + " platform threads");
+			}
+		}
+		return Executors.newFixedThreadPool(threads);
+	}
+}
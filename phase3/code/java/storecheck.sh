@@ -0,0 +1,9 @@
+#! /bin/bash
+DBNAME=$USER"_DB"
+PORT=$PGPORT
+USER=$USER
+
+# Checks that the in-memory store answers queries 5 to 9 like the database,
+# which must hold the same data directory, e.g. right after ./load.sh
+# Example: ./load.sh ../data && ./storecheck.sh --data ../data --samples 5000
+java -cp lib/*:bin/ StoreCheck $DBNAME $PORT $USER "$@"
@@ -10,4 +10,7 @@ cp ../data/*.csv /tmp/$USER/myDB/data/.
 echo "Initializing tables .. "
 sleep 1
 psql -h localhost -p $PGPORT $USER"_DB" < ../sql/create.sql
-psql -h localhost -p $PGPORT $USER"_DB" < ../sql/create-indexes.sql
\ No newline at end of file
+psql -h localhost -p $PGPORT $USER"_DB" < ../sql/load-data.sql
+psql -h localhost -p $PGPORT $USER"_DB" < ../sql/finish-load.sql
+psql -h localhost -p $PGPORT $USER"_DB" < ../sql/create-indexes.sql
+psql -h localhost -p $PGPORT $USER"_DB" < ../sql/create-aggregates.sql
\ No newline at end of file
@@ -0,0 +1,195 @@
+-------------------------------------------
+-- COUNTS KEPT UP TO DATE BY TRIGGER --
+-------------------------------------------
+-- Queries 7, 8 and 9 read these tables instead of grouping Repairs or
+-- Reservation. Every statement that changes those tables adjusts the counts
+-- of the groups it touched, so a read costs one row per group.
+-- Needs PostgreSQL 10 or later for the transition tables.
+
+DROP TABLE IF EXISTS RepairsPerPlane;
+DROP TABLE IF EXISTS RepairsPerYear;
+DROP TABLE IF EXISTS ReservationCounts;
+
+CREATE TABLE RepairsPerPlane
+(
+	plane_id INTEGER NOT NULL,
+	repairs INTEGER NOT NULL,
+	PRIMARY KEY (plane_id)
+);
+
+CREATE TABLE RepairsPerYear
+(
+	repair_year INTEGER NOT NULL,
+	repairs INTEGER NOT NULL,
+	PRIMARY KEY (repair_year)
+);
+
+-- Recounts both tables from Repairs, writers wait until it commits
+CREATE OR REPLACE FUNCTION refresh_repair_aggregates() RETURNS void AS $$
+	LOCK TABLE Repairs IN SHARE MODE;
+	DELETE FROM RepairsPerPlane;
+	DELETE FROM RepairsPerYear;
+	INSERT INTO RepairsPerPlane (plane_id, repairs)
+	SELECT plane_id, count(*) FROM Repairs GROUP BY plane_id;
+	INSERT INTO RepairsPerYear (repair_year, repairs)
+	SELECT EXTRACT(year FROM repair_date)::int, count(*) FROM Repairs GROUP BY 1;
+$$ LANGUAGE sql;
+
+-- Applies the rows one statement removed (old_repairs) and added (new_repairs).
+-- Groups are written in key order so concurrent writers lock them in the same order.
+CREATE OR REPLACE FUNCTION maintain_repair_aggregates() RETURNS trigger AS $$
+BEGIN
+	IF TG_OP <> 'INSERT' THEN
+		UPDATE RepairsPerPlane A SET repairs = A.repairs - D.n
+		FROM (SELECT plane_id, count(*) AS n FROM old_repairs GROUP BY plane_id) D
+		WHERE A.plane_id = D.plane_id;
+
+		UPDATE RepairsPerYear A SET repairs = A.repairs - D.n
+		FROM (SELECT EXTRACT(year FROM repair_date)::int AS repair_year, count(*) AS n FROM old_repairs GROUP BY 1) D
+		WHERE A.repair_year = D.repair_year;
+	END IF;
+
+	IF TG_OP <> 'DELETE' THEN
+		INSERT INTO RepairsPerPlane (plane_id, repairs)
+		SELECT plane_id, count(*) FROM new_repairs GROUP BY plane_id ORDER BY plane_id
+		ON CONFLICT (plane_id) DO UPDATE SET repairs = RepairsPerPlane.repairs + EXCLUDED.repairs;
+
+		INSERT INTO RepairsPerYear (repair_year, repairs)
+		SELECT EXTRACT(year FROM repair_date)::int, count(*) FROM new_repairs GROUP BY 1 ORDER BY 1
+		ON CONFLICT (repair_year) DO UPDATE SET repairs = RepairsPerYear.repairs + EXCLUDED.repairs;
+	END IF;
+
+	-- planes and years with no repairs left drop out of the reports
+	IF TG_OP <> 'INSERT' THEN
+		DELETE FROM RepairsPerPlane
+		WHERE repairs = 0 AND plane_id IN (SELECT plane_id FROM old_repairs);
+
+		DELETE FROM RepairsPerYear
+		WHERE repairs = 0 AND repair_year IN (SELECT EXTRACT(year FROM repair_date)::int FROM old_repairs);
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION clear_repair_aggregates() RETURNS trigger AS $$
+BEGIN
+	TRUNCATE RepairsPerPlane, RepairsPerYear;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Fill the tables and install the triggers with Repairs locked against writes,
+-- so no repair is counted twice or missed
+BEGIN;
+LOCK TABLE Repairs IN SHARE MODE;
+
+SELECT refresh_repair_aggregates();
+
+DROP TRIGGER IF EXISTS repairs_aggregates_insert ON Repairs;
+DROP TRIGGER IF EXISTS repairs_aggregates_update ON Repairs;
+DROP TRIGGER IF EXISTS repairs_aggregates_delete ON Repairs;
+DROP TRIGGER IF EXISTS repairs_aggregates_truncate ON Repairs;
+
+CREATE TRIGGER repairs_aggregates_insert
+AFTER INSERT ON Repairs
+REFERENCING NEW TABLE AS new_repairs
+FOR EACH STATEMENT EXECUTE PROCEDURE maintain_repair_aggregates();
+
+CREATE TRIGGER repairs_aggregates_update
+AFTER UPDATE ON Repairs
+REFERENCING OLD TABLE AS old_repairs NEW TABLE AS new_repairs
+FOR EACH STATEMENT EXECUTE PROCEDURE maintain_repair_aggregates();
+
+CREATE TRIGGER repairs_aggregates_delete
+AFTER DELETE ON Repairs
+REFERENCING OLD TABLE AS old_repairs
+FOR EACH STATEMENT EXECUTE PROCEDURE maintain_repair_aggregates();
+
+CREATE TRIGGER repairs_aggregates_truncate
+AFTER TRUNCATE ON Repairs
+FOR EACH STATEMENT EXECUTE PROCEDURE clear_repair_aggregates();
+
+COMMIT;
+
+-- Passengers per flight and reservation status, for query 9.
+-- Groups that drop to zero are kept, a flight's statuses change back and forth.
+CREATE TABLE ReservationCounts
+(
+	fid INTEGER NOT NULL,
+	status _STATUS NOT NULL,
+	passengers INTEGER NOT NULL,
+	PRIMARY KEY (fid, status)
+);
+
+CREATE OR REPLACE FUNCTION refresh_reservation_counts() RETURNS void AS $$
+	LOCK TABLE Reservation IN SHARE MODE;
+	DELETE FROM ReservationCounts;
+	INSERT INTO ReservationCounts (fid, status, passengers)
+	SELECT fid, status, count(*) FROM Reservation WHERE status IS NOT NULL GROUP BY fid, status;
+$$ LANGUAGE sql;
+
+-- Adds the net change of one statement as a single upsert in key order, so a
+-- status change touching two groups of a flight cannot deadlock with another
+CREATE OR REPLACE FUNCTION maintain_reservation_counts() RETURNS trigger AS $$
+BEGIN
+	IF TG_OP = 'INSERT' THEN
+		INSERT INTO ReservationCounts (fid, status, passengers)
+		SELECT fid, status, count(*) FROM new_reservations
+		WHERE status IS NOT NULL GROUP BY fid, status ORDER BY fid, status
+		ON CONFLICT (fid, status) DO UPDATE SET passengers = ReservationCounts.passengers + EXCLUDED.passengers;
+	ELSIF TG_OP = 'DELETE' THEN
+		INSERT INTO ReservationCounts (fid, status, passengers)
+		SELECT fid, status, -count(*) FROM old_reservations
+		WHERE status IS NOT NULL GROUP BY fid, status ORDER BY fid, status
+		ON CONFLICT (fid, status) DO UPDATE SET passengers = ReservationCounts.passengers + EXCLUDED.passengers;
+	ELSE
+		INSERT INTO ReservationCounts (fid, status, passengers)
+		SELECT fid, status, sum(n) FROM (
+			SELECT fid, status, 1 AS n FROM new_reservations
+			UNION ALL
+			SELECT fid, status, -1 AS n FROM old_reservations
+		) D
+		WHERE status IS NOT NULL GROUP BY fid, status HAVING sum(n) <> 0 ORDER BY fid, status
+		ON CONFLICT (fid, status) DO UPDATE SET passengers = ReservationCounts.passengers + EXCLUDED.passengers;
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION clear_reservation_counts() RETURNS trigger AS $$
+BEGIN
+	TRUNCATE ReservationCounts;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+BEGIN;
+LOCK TABLE Reservation IN SHARE MODE;
+
+SELECT refresh_reservation_counts();
+
+DROP TRIGGER IF EXISTS reservation_counts_insert ON Reservation;
+DROP TRIGGER IF EXISTS reservation_counts_update ON Reservation;
+DROP TRIGGER IF EXISTS reservation_counts_delete ON Reservation;
+DROP TRIGGER IF EXISTS reservation_counts_truncate ON Reservation;
+
+CREATE TRIGGER reservation_counts_insert
+AFTER INSERT ON Reservation
+REFERENCING NEW TABLE AS new_reservations
+FOR EACH STATEMENT EXECUTE PROCEDURE maintain_reservation_counts();
+
+CREATE TRIGGER reservation_counts_update
+AFTER UPDATE ON Reservation
+REFERENCING OLD TABLE AS old_reservations NEW TABLE AS new_reservations
+FOR EACH STATEMENT EXECUTE PROCEDURE maintain_reservation_counts();
+
+CREATE TRIGGER reservation_counts_delete
+AFTER DELETE ON Reservation
+REFERENCING OLD TABLE AS old_reservations
+FOR EACH STATEMENT EXECUTE PROCEDURE maintain_reservation_counts();
+
+CREATE TRIGGER reservation_counts_truncate
+AFTER TRUNCATE ON Reservation
+FOR EACH STATEMENT EXECUTE PROCEDURE clear_reservation_counts();
+
+COMMIT;
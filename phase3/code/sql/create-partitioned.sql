@@ -0,0 +1,172 @@
+-------------------------------------------
+-- PARTITIONED VARIANT OF create.sql --
+-------------------------------------------
+-- Run instead of create.sql, needs PostgreSQL 12 or later.
+-- Flight and Repairs are split into monthly ranges of their date, and every
+-- Reservation carries the departure date of its flight so it lands in the
+-- Reservation partition of the same month as its flight. Old months are
+-- detached or dropped whole instead of deleted row by row, and statements
+-- that give the date only touch one partition.
+--
+-- Rows outside the monthly partitions go to the DEFAULT partitions. Create the
+-- months before loading, see java/partitions.sh, and load with java/load.sh:
+-- reservation.csv has no flight date, so BulkLoader copies it into
+-- ReservationStage and adds the date from Flight.
+--
+-- A unique key must contain the partition key, so fnum is only unique
+-- together with the departure date and FlightInfo and Schedule cannot
+-- reference Flight. The reservation key (cid, fid) becomes
+-- (cid, fid, flight_date), which is the same since a flight departs once.
+
+DROP TABLE IF EXISTS Customer CASCADE;
+DROP TABLE IF EXISTS Flight CASCADE;
+DROP TABLE IF EXISTS Pilot CASCADE;
+DROP TABLE IF EXISTS Plane CASCADE;
+DROP TABLE IF EXISTS Technician CASCADE;
+
+DROP TABLE IF EXISTS Reservation CASCADE;
+DROP TABLE IF EXISTS ReservationStage CASCADE;
+DROP TABLE IF EXISTS FlightInfo CASCADE;
+DROP TABLE IF EXISTS Repairs CASCADE;
+DROP TABLE IF EXISTS Schedule CASCADE;
+
+-------------
+---DOMAINS---
+-------------
+CREATE DOMAIN us_postal_code AS TEXT CHECK(VALUE ~ '^\d{5}$' OR VALUE ~ '^\d{5}-\d{4}$');
+CREATE DOMAIN _STATUS CHAR(1) CHECK (value IN ( 'W' , 'C', 'R' ) );
+CREATE DOMAIN _GENDER CHAR(1) CHECK (value IN ( 'F' , 'M' ) );
+CREATE DOMAIN _CODE CHAR(2) CHECK (value IN ( 'MJ' , 'MN', 'SV' ) ); --Major, Minimum, Service
+CREATE DOMAIN _PINTEGER AS int4 CHECK(VALUE > 0);
+CREATE DOMAIN _PZEROINTEGER AS int4 CHECK(VALUE >= 0);
+CREATE DOMAIN _YEAR_1970 AS int4 CHECK(VALUE >= 0);
+CREATE DOMAIN _SEATS AS int4 CHECK(VALUE > 0 AND VALUE < 500);--Plane Seats
+
+------------
+---TABLES---
+------------
+CREATE TABLE Customer
+(
+	id INTEGER NOT NULL,
+	fname CHAR(24) NOT NULL,
+	lname CHAR(24) NOT NULL,
+	gtype _GENDER NOT NULL,
+	dob DATE NOT NULL,
+	address CHAR(256),
+	phone CHAR(10),
+	zipcode char(10),
+	PRIMARY KEY (id)
+);
+
+CREATE TABLE Pilot
+(
+	id INTEGER NOT NULL,
+	fullname CHAR(128),
+	nationality CHAR(24),
+	PRIMARY KEY (id)
+);
+
+CREATE TABLE Flight
+(
+	fnum INTEGER NOT NULL,
+	cost _PINTEGER NOT NULL,
+	num_sold _PZEROINTEGER NOT NULL,
+	num_stops _PZEROINTEGER NOT NULL,
+	actual_departure_date DATE NOT NULL,
+	actual_arrival_date DATE NOT NULL,
+	arrival_airport CHAR(5) NOT NULL,-- AIRPORT CODE --
+	departure_airport CHAR(5) NOT NULL,-- AIRPORT CODE --
+	PRIMARY KEY (fnum, actual_departure_date)
+) PARTITION BY RANGE (actual_departure_date);
+
+CREATE TABLE Flight_default PARTITION OF Flight DEFAULT;
+
+CREATE TABLE Plane
+(
+	id INTEGER NOT NULL,
+	make CHAR(32) NOT NULL,
+	model CHAR(64) NOT NULL,
+	age _YEAR_1970 NOT NULL,
+	seats _SEATS NOT NULL,
+	PRIMARY KEY (id)
+);
+
+CREATE TABLE Technician
+(
+	id INTEGER NOT NULL,
+	full_name CHAR(128) NOT NULL,
+	PRIMARY KEY (id)
+);
+
+---------------
+---RELATIONS---
+---------------
+
+CREATE SEQUENCE reservation_rnum_seq;
+
+-- The flight key is deferrable so PartitionTool can move a month of flights
+-- out of Flight_default before the referencing reservations follow.
+CREATE TABLE Reservation
+(
+	rnum INTEGER NOT NULL DEFAULT nextval('reservation_rnum_seq'),
+	cid INTEGER NOT NULL,
+	fid INTEGER NOT NULL,
+	status _STATUS,
+	flight_date DATE NOT NULL,-- Flight.actual_departure_date of fid --
+	PRIMARY KEY (rnum, flight_date),
+	FOREIGN KEY (cid) REFERENCES Customer(id),
+	FOREIGN KEY (fid, flight_date) REFERENCES Flight(fnum, actual_departure_date) DEFERRABLE
+) PARTITION BY RANGE (flight_date);
+
+CREATE TABLE Reservation_default PARTITION OF Reservation DEFAULT;
+
+ALTER SEQUENCE reservation_rnum_seq OWNED BY Reservation.rnum;
+
+-- Rows of reservation.csv before their flight date is looked up
+CREATE UNLOGGED TABLE ReservationStage
+(
+	rnum INTEGER NOT NULL,
+	cid INTEGER NOT NULL,
+	fid INTEGER NOT NULL,
+	status _STATUS
+);
+
+CREATE SEQUENCE flightinfo_fiid_seq;
+
+CREATE TABLE FlightInfo
+(
+	fiid INTEGER NOT NULL DEFAULT nextval('flightinfo_fiid_seq'),
+	flight_id INTEGER NOT NULL,
+	pilot_id INTEGER NOT NULL,
+	plane_id INTEGER NOT NULL,
+	PRIMARY KEY (fiid),
+	FOREIGN KEY (pilot_id) REFERENCES Pilot(id),
+	FOREIGN KEY (plane_id) REFERENCES Plane(id)
+);
+
+ALTER SEQUENCE flightinfo_fiid_seq OWNED BY FlightInfo.fiid;
+
+CREATE TABLE Repairs
+(
+	rid INTEGER NOT NULL,
+	repair_date DATE NOT NULL,
+	repair_code _CODE,
+	pilot_id INTEGER NOT NULL,
+	plane_id INTEGER NOT NULL,
+	technician_id INTEGER NOT NULL,
+	PRIMARY KEY (rid, repair_date),
+	FOREIGN KEY (pilot_id) REFERENCES Pilot(id),
+	FOREIGN KEY (plane_id) REFERENCES Plane(id),
+	FOREIGN KEY (technician_id) REFERENCES Technician(id)
+) PARTITION BY RANGE (repair_date);
+
+CREATE TABLE Repairs_default PARTITION OF Repairs DEFAULT;
+
+CREATE TABLE Schedule
+(
+	id INTEGER NOT NULL,
+	flightNum INTEGER NOT NULL,
+	departure_time DATE NOT NULL,
+	arrival_time DATE NOT NULL,
+	PRIMARY KEY (id)
+);
@@ -79,9 +79,11 @@ CREATE TABLE Technician
 ---RELATIONS---
 ---------------
 
+CREATE SEQUENCE reservation_rnum_seq;
+
 CREATE TABLE Reservation
 (
-	rnum INTEGER NOT NULL,
+	rnum INTEGER NOT NULL DEFAULT nextval('reservation_rnum_seq'),
 	cid INTEGER NOT NULL,
 	fid INTEGER NOT NULL,
 	status _STATUS,
@@ -90,9 +92,13 @@ CREATE TABLE Reservation
 	FOREIGN KEY (fid) REFERENCES Flight(fnum)
 );
 
+ALTER SEQUENCE reservation_rnum_seq OWNED BY Reservation.rnum;
+
+CREATE SEQUENCE flightinfo_fiid_seq;
+
 CREATE TABLE FlightInfo
 (
-	fiid INTEGER NOT NULL,
+	fiid INTEGER NOT NULL DEFAULT nextval('flightinfo_fiid_seq'),
 	flight_id INTEGER NOT NULL,
 	pilot_id INTEGER NOT NULL,
 	plane_id INTEGER NOT NULL,
@@ -102,6 +108,8 @@ CREATE TABLE FlightInfo
 	FOREIGN KEY (plane_id) REFERENCES Plane(id)
 );
 
+ALTER SEQUENCE flightinfo_fiid_seq OWNED BY FlightInfo.fiid;
+
 CREATE TABLE Repairs
 (
 	rid INTEGER NOT NULL,
@@ -125,96 +133,3 @@ CREATE TABLE Schedule
 	PRIMARY KEY (id),
 	FOREIGN KEY (flightNum) REFERENCES Flight(fnum)
 );
-
-----------------------------
--- INSERT DATA STATEMENTS --
-----------------------------
-
-COPY Customer (
-	id,
-	fname,
-	lname,
-	gtype,
-	dob,
-	address,
-	phone,
-	zipcode
-)
-FROM 'customer.csv'
-WITH DELIMITER ',';
-
-COPY Pilot (
-	id,
-	fullname,
-	nationality
-)
-FROM 'pilots.csv'
-WITH DELIMITER ',';
-
-COPY Plane (
-	id,
-	make,
-	model,
-	age,
-	seats
-)
-FROM 'planes.csv'
-WITH DELIMITER ',';
-
-COPY Technician (
-	id,
-	full_name
-)
-FROM 'technician.csv'
-WITH DELIMITER ',';
-
-COPY Flight (
-	fnum,
-	cost,
-	num_sold,
-	num_stops,
-	actual_departure_date,
-	actual_arrival_date,
-	arrival_airport,
-	departure_airport
-)
-FROM 'flights.csv'
-WITH DELIMITER ',';
-
-COPY Reservation (
-	rnum,
-	cid,
-	fid,
-	status
-)
-FROM 'reservation.csv'
-WITH DELIMITER ',';
-
-COPY FlightInfo (
-	fiid,
-	flight_id,
-	pilot_id,
-	plane_id
-)
-FROM 'flightinfo.csv'
-WITH DELIMITER ',';
-
-COPY Repairs (
-	rid,
-	repair_date,
-	repair_code,
-	pilot_id,
-	plane_id,
-	technician_id
-)
-FROM 'repairs.csv'
-WITH DELIMITER ',';
-
-COPY Schedule (
-	id,
-	flightNum,
-	departure_time,
-	arrival_time
-)
-FROM 'schedule.csv'
-WITH DELIMITER ',';
\ No newline at end of file
@@ -0,0 +1,29 @@
+-------------------------------------------
+-- RUN AFTER THE DATA HAS BEEN LOADED --
+-------------------------------------------
+
+-- A customer holds at most one reservation per flight, keep the first one
+-- and move the others to ReservationReject with their seats given back
+DROP TABLE IF EXISTS ReservationReject;
+CREATE TABLE ReservationReject AS
+SELECT R.* FROM Reservation R
+WHERE EXISTS (SELECT 1 FROM Reservation D WHERE D.cid = R.cid AND D.fid = R.fid AND D.rnum < R.rnum);
+
+UPDATE Flight F SET num_sold = GREATEST(0, F.num_sold - J.seats)
+FROM (SELECT fid, count(*) AS seats FROM ReservationReject WHERE status IN ('R', 'C') GROUP BY fid) J
+WHERE F.fnum = J.fid;
+
+DELETE FROM Reservation R
+USING ReservationReject J
+WHERE R.rnum = J.rnum AND R.cid = J.cid AND R.fid = J.fid;
+
+SELECT count(*) AS rejected_reservations FROM ReservationReject;
+
+ALTER TABLE Reservation DROP CONSTRAINT IF EXISTS reservation_cid_fid_key;
+ALTER TABLE Reservation ADD CONSTRAINT reservation_cid_fid_key UNIQUE (cid, fid);
+
+-- New reservation and flight info numbers continue after the loaded ones
+SELECT setval('reservation_rnum_seq', COALESCE(MAX(rnum), 0) + 1, false)
+FROM Reservation;
+SELECT setval('flightinfo_fiid_seq', COALESCE(MAX(fiid), 0) + 1, false)
+FROM FlightInfo;
@@ -1,14 +1,35 @@
 -- Query 7
 
+SELECT plane_id as id, repairs as count
+FROM RepairsPerPlane
+ORDER BY count DESC;
+
+--Query 8
+
+SELECT repair_year as "Year", repairs as count
+FROM RepairsPerYear
+ORDER BY count ASC;
+
+-- Queries 7 and 8 over all of Repairs, RepairsPerPlane and RepairsPerYear
+-- must give the same counts (see sql/create-aggregates.sql)
+
 SELECT P.id, count(R.rid)
 FROM Plane P, Repairs R 
 WHERE P.id = R.plane_id
 GROUP BY P.id
 ORDER BY count DESC;
 
---Query 8
-
 SELECT EXTRACT (year FROM R.repair_date) as "Year", count(R.rid)
 FROM repairs R
 GROUP BY "Year"
 ORDER BY count ASC;
+
+-- Query 9, and the same count over all of Reservation
+
+SELECT COALESCE(SUM(passengers), 0) as count
+FROM ReservationCounts
+WHERE fid = 1 AND status = 'R';
+
+SELECT COUNT(*)
+FROM Reservation
+WHERE fid = 1 AND status = 'R';